@@ -33,8 +33,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntToLongFunction;
+import java.util.function.LongToIntFunction;
 import org.apache.commons.lang.math.RandomUtils;
 import org.apache.commons.lang3.Validate;
 import org.slf4j.Logger;
@@ -428,32 +431,43 @@ public class RequestResponseHelper {
   public static SegmentMembershipSwitchThrift buildThriftMembershipFromSwitch(Long volumeId,
       int segIndex,
       SegmentMembership membership, int lease, Set<Short> checkSet, Map<Long, Short> switchValue) {
+    return buildThriftMembershipFromSwitch(volumeId, segIndex, membership, lease,
+        legacySwitchOf(checkSet, switchValue));
+  }
+
+  public static SegmentMembershipSwitchThrift buildThriftMembershipFromSwitch(SegId segId,
+      SegmentMembership membership, int lease, Set<Short> checkSet, Map<Long, Short> switchValue) {
+    Validate.notNull(segId);
+    return buildThriftMembershipFromSwitch(segId.getVolumeId().getId(), segId.getIndex(),
+        membership, lease,
+        checkSet, switchValue);
+  }
+
+  public static SegmentMembershipSwitchThrift buildThriftMembershipFromSwitch(SegId segId,
+      SegmentMembership membership, int lease, SwitchIdDictionary dictionary) {
+    Validate.notNull(segId);
+    return buildThriftMembershipFromSwitch(segId.getVolumeId().getId(), segId.getIndex(),
+        membership, lease, dictionary::encode);
+  }
+
+  private static SegmentMembershipSwitchThrift buildThriftMembershipFromSwitch(long volumeId,
+      int segIndex, SegmentMembership membership, int lease, LongToIntFunction switchOf) {
     if (membership == null) {
       return null;
     }
 
-    checkAndPutSwitchValue(volumeId, switchValue, checkSet);
-
-    Long primaryId = membership.getPrimary().getId();
-    checkAndPutSwitchValue(primaryId, switchValue, checkSet);
-
-    Short instanceIdPrimary = switchValue.get(membership.getPrimary().getId());
+    short volumeIdSwitch = (short) switchOf.applyAsInt(volumeId);
+    short instanceIdPrimary = (short) switchOf.applyAsInt(membership.getPrimary().getId());
 
     Set<Short> secondaries = new HashSet<>();
     for (InstanceId secondary : membership.getSecondaries()) {
-      Long instanceId = secondary.getId();
-      checkAndPutSwitchValue(instanceId, switchValue, checkSet);
-
-      secondaries.add(switchValue.get(instanceId));
+      secondaries.add((short) switchOf.applyAsInt(secondary.getId()));
     }
 
     Set<Short> arbiters = new HashSet<>();
     for (InstanceId arbiter : membership.getArbiters()) {
-      Long instanceId = arbiter.getId();
-      checkAndPutSwitchValue(instanceId, switchValue, checkSet);
-      arbiters.add(switchValue.get(instanceId));
+      arbiters.add((short) switchOf.applyAsInt(arbiter.getId()));
     }
-    Short volumeIdSwitch = switchValue.get(volumeId);
 
     SegmentMembershipSwitchThrift membershipSwitchThrift = new SegmentMembershipSwitchThrift(
         volumeIdSwitch,
@@ -464,10 +478,7 @@ public class RequestResponseHelper {
     if (joiningSecondaries != null && joiningSecondaries.size() > 0) {
       Set<Short> joiningSecondariesId = new HashSet<>();
       for (InstanceId joiningSecondary : membership.getJoiningSecondaries()) {
-        Long instanceId = joiningSecondary.getId();
-        checkAndPutSwitchValue(instanceId, switchValue, checkSet);
-
-        joiningSecondariesId.add(switchValue.get(instanceId));
+        joiningSecondariesId.add((short) switchOf.applyAsInt(joiningSecondary.getId()));
       }
       membershipSwitchThrift.setJoiningSecondariesSwitch(joiningSecondariesId);
     }
@@ -476,10 +487,7 @@ public class RequestResponseHelper {
     if (inactiveSecondaries != null && inactiveSecondaries.size() > 0) {
       Set<Short> inactiveSecondariesId = new HashSet<>();
       for (InstanceId inactiveSecondary : membership.getInactiveSecondaries()) {
-        Long instanceId = inactiveSecondary.getId();
-        checkAndPutSwitchValue(instanceId, switchValue, checkSet);
-
-        inactiveSecondariesId.add(switchValue.get(instanceId));
+        inactiveSecondariesId.add((short) switchOf.applyAsInt(inactiveSecondary.getId()));
       }
       membershipSwitchThrift.setInactiveSecondariesSwitch(inactiveSecondariesId);
     }
@@ -503,14 +511,6 @@ public class RequestResponseHelper {
     return membershipSwitchThrift;
   }
 
-  public static SegmentMembershipSwitchThrift buildThriftMembershipFromSwitch(SegId segId,
-      SegmentMembership membership, int lease, Set<Short> checkSet, Map<Long, Short> switchValue) {
-    Validate.notNull(segId);
-    return buildThriftMembershipFromSwitch(segId.getVolumeId().getId(), segId.getIndex(),
-        membership, lease,
-        checkSet, switchValue);
-  }
-
   public static SegmentUnitMetadataThrift buildThriftSegUnitMetadataFrom(
       SegmentUnitMetadata segUnitMetadata) {
     Validate.notNull(segUnitMetadata);
@@ -571,19 +571,28 @@ public class RequestResponseHelper {
 
   public static SegmentUnitMetadataSwitchThrift buildThriftSegUnitMetadataFromSwitch(
       SegmentUnitMetadata segUnitMetadata, Set<Short> checkSet, Map<Long, Short> switchValue) {
+    return buildThriftSegUnitMetadataFromSwitch(segUnitMetadata,
+        legacySwitchOf(checkSet, switchValue));
+  }
+
+  public static SegmentUnitMetadataSwitchThrift buildThriftSegUnitMetadataFromSwitch(
+      SegmentUnitMetadata segUnitMetadata, SwitchIdDictionary dictionary) {
+    return buildThriftSegUnitMetadataFromSwitch(segUnitMetadata, dictionary::encode);
+  }
+
+  private static SegmentUnitMetadataSwitchThrift buildThriftSegUnitMetadataFromSwitch(
+      SegmentUnitMetadata segUnitMetadata, LongToIntFunction switchOf) {
     Validate.notNull(segUnitMetadata);
     SegId segId = segUnitMetadata.getSegId();
 
-    SegmentMembershipSwitchThrift segmentMembershipSwitchThrift = RequestResponseHelper
-        .buildThriftMembershipFromSwitch(segId, segUnitMetadata.getMembership(), 0, checkSet,
-            switchValue);
-
-    Long volumeId = segId.getVolumeId().getId();
-    checkAndPutSwitchValue(volumeId, switchValue, checkSet);
+    SegmentMembershipSwitchThrift segmentMembershipSwitchThrift = buildThriftMembershipFromSwitch(
+        segId.getVolumeId().getId(), segId.getIndex(), segUnitMetadata.getMembership(), 0,
+        switchOf);
 
     SegmentUnitMetadataSwitchThrift metadataSwitchThrift =
         new SegmentUnitMetadataSwitchThrift(
-            switchValue.get(volumeId), segId.getIndex(), segUnitMetadata.getLogicalDataOffset(),
+            (short) switchOf.applyAsInt(segId.getVolumeId().getId()), segId.getIndex(),
+            segUnitMetadata.getLogicalDataOffset(),
             segmentMembershipSwitchThrift,
             SegmentUnitStatusThrift.valueOf(segUnitMetadata.getStatus().name()),
             segUnitMetadata.getSegmentUnitType().getSegmentUnitTypeThrift(),
@@ -598,10 +607,8 @@ public class RequestResponseHelper {
         .setVolumeMetadataJson(segUnitMetadata.getVolumeMetadataJson());
     metadataSwitchThrift.setDiskName(segUnitMetadata.getDiskName());
 
-    Long archiveId = segUnitMetadata.getArchiveId();
-    checkAndPutSwitchValue(archiveId, switchValue, checkSet);
-
-    metadataSwitchThrift.setArchiveIdSwitch(switchValue.get(archiveId));
+    metadataSwitchThrift
+        .setArchiveIdSwitch((short) switchOf.applyAsInt(segUnitMetadata.getArchiveId()));
     metadataSwitchThrift.setMigrationSpeed(segUnitMetadata.getMigrationSpeed());
     metadataSwitchThrift.setMinMigrationSpeed(segUnitMetadata.getMinMigrationSpeed());
     metadataSwitchThrift.setMaxMigrationSpeed(segUnitMetadata.getMaxMigrationSpeed());
@@ -614,9 +621,8 @@ public class RequestResponseHelper {
     metadataSwitchThrift.setSourceVolumeId(segUnitMetadata.getSrcVolumeId());
 
     if (segUnitMetadata.getInstanceId() != null) {
-      Long instanceId = segUnitMetadata.getInstanceId().getId();
-      checkAndPutSwitchValue(instanceId, switchValue, checkSet);
-      metadataSwitchThrift.setArchiveIdSwitch(switchValue.get(instanceId));
+      metadataSwitchThrift.setArchiveIdSwitch(
+          (short) switchOf.applyAsInt(segUnitMetadata.getInstanceId().getId()));
     }
 
     double ratioFreePages = 0.0;
@@ -633,10 +639,8 @@ public class RequestResponseHelper {
 
     metadataSwitchThrift.setRatioFreePages(ratioFreePages);
     if (segUnitMetadata.getInstanceId() != null) {
-      Long instanceId = segUnitMetadata.getInstanceId().getId();
-
-      checkAndPutSwitchValue(instanceId, switchValue, checkSet);
-      metadataSwitchThrift.setInstanceIdSwitch(switchValue.get(instanceId));
+      metadataSwitchThrift.setInstanceIdSwitch(
+          (short) switchOf.applyAsInt(segUnitMetadata.getInstanceId().getId()));
     }
 
     if (segUnitMetadata.getRatioMigration() != 0) {
@@ -700,24 +704,33 @@ public class RequestResponseHelper {
 
   public static SegmentUnitMetadata buildSegmentUnitMetadataFromSwitch(
       SegmentUnitMetadataSwitchThrift segUnitMetaThrift, Map<Short, Long> switchValueReversal) {
+    return buildSegmentUnitMetadataFromSwitch(segUnitMetaThrift,
+        code -> switchValueReversal.get((short) code));
+  }
+
+  public static SegmentUnitMetadata buildSegmentUnitMetadataFromSwitch(
+      SegmentUnitMetadataSwitchThrift segUnitMetaThrift, SwitchIdDictionary.Decoder decoder) {
+    return buildSegmentUnitMetadataFromSwitch(segUnitMetaThrift, decoder::decode);
+  }
+
+  private static SegmentUnitMetadata buildSegmentUnitMetadataFromSwitch(
+      SegmentUnitMetadataSwitchThrift segUnitMetaThrift, IntToLongFunction idOf) {
     Validate.notNull(segUnitMetaThrift);
 
     SegmentMembership membership = buildSegmentMembershipFromSwitch(
-        segUnitMetaThrift.getMembership(),
-        switchValueReversal).getSecond();
+        segUnitMetaThrift.getMembership(), idOf).getSecond();
     SegmentUnitStatus status = SegmentUnitStatus.valueOf(segUnitMetaThrift.getStatus().name());
     VolumeType volumeType = segUnitMetaThrift.getVolumeType() == null
         ? null : VolumeType.valueOf(segUnitMetaThrift.getVolumeType());
 
-    long volumeId = switchValueReversal.get(segUnitMetaThrift.getVolumeIdSwitch());
+    long volumeId = idOf.applyAsLong(segUnitMetaThrift.getVolumeIdSwitch());
     SegId segId = new SegId(volumeId, segUnitMetaThrift.getSegIndex());
 
     SegmentUnitMetadata segUnit = new SegmentUnitMetadata(segId, segUnitMetaThrift.getOffset(),
         membership, status,
         volumeType, convertFromSegmentUnitTypeThrift(segUnitMetaThrift.getSegmentUnitType()));
     if (segUnitMetaThrift.isSetInstanceIdSwitch()) {
-      Short idSwitch = segUnitMetaThrift.getInstanceIdSwitch();
-      long instanceId = switchValueReversal.get(idSwitch);
+      long instanceId = idOf.applyAsLong(segUnitMetaThrift.getInstanceIdSwitch());
       segUnit.setInstanceId(new InstanceId(instanceId));
     }
     segUnit.setAccountMetadataJson(segUnitMetaThrift.getAccountMetadataJson());
@@ -726,8 +739,7 @@ public class RequestResponseHelper {
     segUnit.setLastReported(System.currentTimeMillis());
     segUnit.setDiskName(segUnitMetaThrift.getDiskName());
 
-    Short archiveIdSwitch = segUnitMetaThrift.getArchiveIdSwitch();
-    long archiveId = switchValueReversal.get(archiveIdSwitch);
+    long archiveId = idOf.applyAsLong(segUnitMetaThrift.getArchiveIdSwitch());
     segUnit.setArchiveId(archiveId);
     if (segUnitMetaThrift.isSetRatioMigration()) {
       segUnit.setRatioMigration(segUnitMetaThrift.getRatioMigration());
@@ -821,13 +833,24 @@ public class RequestResponseHelper {
 
   public static Pair<SegId, SegmentMembership> buildSegmentMembershipFromSwitch(
       SegmentMembershipSwitchThrift thriftMembership, Map<Short, Long> switchValueReversal) {
+    return buildSegmentMembershipFromSwitch(thriftMembership,
+        code -> switchValueReversal.get((short) code));
+  }
+
+  public static Pair<SegId, SegmentMembership> buildSegmentMembershipFromSwitch(
+      SegmentMembershipSwitchThrift thriftMembership, SwitchIdDictionary.Decoder decoder) {
+    return buildSegmentMembershipFromSwitch(thriftMembership, decoder::decode);
+  }
+
+  private static Pair<SegId, SegmentMembership> buildSegmentMembershipFromSwitch(
+      SegmentMembershipSwitchThrift thriftMembership, IntToLongFunction idOf) {
     Validate.notNull(thriftMembership);
 
     Collection<InstanceId> secondaries = null;
     if (thriftMembership.getSecondariesSwitch() != null) {
       Set<Long> secondarieSwitch = new HashSet<>();
       for (Short value : thriftMembership.getSecondariesSwitch()) {
-        secondarieSwitch.add(switchValueReversal.get(value));
+        secondarieSwitch.add(idOf.applyAsLong(value));
       }
       secondaries = convertFromLong(secondarieSwitch);
     }
@@ -836,7 +859,7 @@ public class RequestResponseHelper {
     if (thriftMembership.getArbitersSwitch() != null) {
       Set<Long> arbiterSwitch = new HashSet<>();
       for (Short value : thriftMembership.getArbitersSwitch()) {
-        arbiterSwitch.add(switchValueReversal.get(value));
+        arbiterSwitch.add(idOf.applyAsLong(value));
       }
       arbiters = convertFromLong(arbiterSwitch);
     }
@@ -845,7 +868,7 @@ public class RequestResponseHelper {
     if (thriftMembership.getInactiveSecondariesSwitch() != null) {
       Set<Long> inactiveSecondariesSwitch = new HashSet<>();
       for (Short value : thriftMembership.getInactiveSecondariesSwitch()) {
-        inactiveSecondariesSwitch.add(switchValueReversal.get(value));
+        inactiveSecondariesSwitch.add(idOf.applyAsLong(value));
       }
 
       inactiveSecondaries = convertFromLong(inactiveSecondariesSwitch);
@@ -855,7 +878,7 @@ public class RequestResponseHelper {
     if (thriftMembership.getJoiningSecondariesSwitch() != null) {
       Set<Long> joiningSecondariesSwitch = new HashSet<>();
       for (Short value : thriftMembership.getJoiningSecondariesSwitch()) {
-        joiningSecondariesSwitch.add(switchValueReversal.get(value));
+        joiningSecondariesSwitch.add(idOf.applyAsLong(value));
       }
 
       joiningSecondaries = convertFromLong(joiningSecondariesSwitch);
@@ -877,14 +900,14 @@ public class RequestResponseHelper {
       primaryCandidate = new InstanceId(thriftMembership.getPrimaryCandidate());
     }
 
-    long primarySwitch = switchValueReversal.get(thriftMembership.getPrimarySwitch());
+    long primarySwitch = idOf.applyAsLong(thriftMembership.getPrimarySwitch());
     SegmentMembership segMembership;
 
     segMembership = new SegmentMembership(
         new SegmentVersion(thriftMembership.getEpoch(), thriftMembership.getGeneration()),
         new InstanceId(primarySwitch), tempPrimary, secondaries, arbiters, inactiveSecondaries,
         joiningSecondaries, secondaryCandidate, primaryCandidate);
-    long volumeId = switchValueReversal.get(thriftMembership.getVolumeIdSwitch());
+    long volumeId = idOf.applyAsLong(thriftMembership.getVolumeIdSwitch());
 
     return new Pair<>(new SegId(volumeId, thriftMembership.getSegIndex()), segMembership);
   }
@@ -1465,24 +1488,31 @@ public class RequestResponseHelper {
   public static SegmentMetadataSwitchThrift buildThriftSegmentMetadataFromSwitch(
       SegmentMetadata segMetadata,
       boolean onlyIncludeLatestUnits, Set<Short> checkSet, Map<Long, Short> switchValue) {
-    SegmentMetadataSwitchThrift segmentMetadataSwitchThrift = new SegmentMetadataSwitchThrift();
+    return buildThriftSegmentMetadataFromSwitch(segMetadata,
+        legacySwitchOf(checkSet, switchValue));
+  }
 
-    Long volumeId = segMetadata.getSegId().getVolumeId().getId();
+  public static SegmentMetadataSwitchThrift buildThriftSegmentMetadataFromSwitch(
+      SegmentMetadata segMetadata, SwitchIdDictionary dictionary) {
+    return buildThriftSegmentMetadataFromSwitch(segMetadata, dictionary::encode);
+  }
 
-    checkAndPutSwitchValue(volumeId, switchValue, checkSet);
+  private static SegmentMetadataSwitchThrift buildThriftSegmentMetadataFromSwitch(
+      SegmentMetadata segMetadata, LongToIntFunction switchOf) {
+    SegmentMetadataSwitchThrift segmentMetadataSwitchThrift = new SegmentMetadataSwitchThrift();
 
-    segmentMetadataSwitchThrift.setVolumeIdSwitch(switchValue.get(volumeId));
+    segmentMetadataSwitchThrift.setVolumeIdSwitch(
+        (short) switchOf.applyAsInt(segMetadata.getSegId().getVolumeId().getId()));
 
     List<SegmentUnitMetadataSwitchThrift> segmentUnitMetadataSwitchThrifts = new ArrayList<>();
     for (Map.Entry<InstanceId, SegmentUnitMetadata> entry : segMetadata
         .getSegmentUnitMetadataTable().entrySet()) {
       SegmentUnitMetadata segUnitMetadata = entry.getValue();
-      SegmentUnitMetadataSwitchThrift segmentUnitMetadataSwitchThrift = RequestResponseHelper
-          .buildThriftSegUnitMetadataFromSwitch(segUnitMetadata, checkSet, switchValue);
+      SegmentUnitMetadataSwitchThrift segmentUnitMetadataSwitchThrift =
+          buildThriftSegUnitMetadataFromSwitch(segUnitMetadata, switchOf);
 
-      Long instanceId = entry.getKey().getId();
-      checkAndPutSwitchValue(instanceId, switchValue, checkSet);
-      segmentUnitMetadataSwitchThrift.setInstanceIdSwitch(switchValue.get(instanceId));
+      segmentUnitMetadataSwitchThrift
+          .setInstanceIdSwitch((short) switchOf.applyAsInt(entry.getKey().getId()));
 
       segmentUnitMetadataSwitchThrifts.add(segmentUnitMetadataSwitchThrift);
     }
@@ -1539,18 +1569,21 @@ public class RequestResponseHelper {
     List<SegmentMetadataThrift> segmentsMetadataThrift = new ArrayList<>();
 
     if (withSegmentList) {
-      if (!volumeMetadata.getAddSegmentOrder().isEmpty()) {
-        List<Integer> addSegmentOrder = volumeMetadata.getAddSegmentOrder();
+      // the live segments and their order, taken once so that they agree with each other
+      Map<Integer, SegmentMetadata> segmentTable = new TreeMap<>(volumeMetadata.getSegmentTable());
+      List<Integer> addSegmentOrder = new ArrayList<>(volumeMetadata.getAddSegmentOrder());
+      Collection<SegmentMetadata> segments = segmentTable.values();
+      if (!addSegmentOrder.isEmpty()) {
         for (int i = 0; i < addSegmentOrder.size(); i++) {
           int segmentIndex = addSegmentOrder.get(i);
-          SegmentMetadata segmentMetadata = volumeMetadata.getSegmentByIndex(segmentIndex);
-          if (segmentMetadata.getSegmentUnitCount() > 0) {
+          SegmentMetadata segmentMetadata = segmentTable.get(segmentIndex);
+          if (segmentMetadata != null && segmentMetadata.getSegmentUnitCount() > 0) {
             // if the number of segment unit in segment is greater than zero, add the segment
             segmentsMetadataThrift.add(buildThriftSegmentMetadataFrom(segmentMetadata, false));
           }
         }
       } else {
-        for (SegmentMetadata entry : volumeMetadata.getSegments()) {
+        for (SegmentMetadata entry : segments) {
           if (entry.getSegmentUnitCount() > 0) {
             // if the number of segment unit in segment is greater than zero, add the segment
             segmentsMetadataThrift.add(buildThriftSegmentMetadataFrom(entry, false));
@@ -1558,10 +1591,9 @@ public class RequestResponseHelper {
         }
       }
 
-      if (segmentsMetadataThrift.size() != volumeMetadata.getSegments().size()) {
+      if (segmentsMetadataThrift.size() != segments.size()) {
         logger.warn("can not build enough segment thrift:{}, from volume:{}",
-            segmentsMetadataThrift.size(),
-            volumeMetadata.getSegments().size());
+            segmentsMetadataThrift.size(), segments.size());
       }
     }
     volumeMetadataThrift.setSegmentsMetadata(segmentsMetadataThrift);
@@ -1625,10 +1657,17 @@ public class RequestResponseHelper {
     }
   }
 
+  private static LongToIntFunction legacySwitchOf(Set<Short> checkSet,
+      Map<Long, Short> switchValue) {
+    return id -> {
+      checkAndPutSwitchValue(id, switchValue, checkSet);
+      return switchValue.get(id);
+    };
+  }
+
   public static VolumeMetadataThrift buildThriftVolumeFrom(VolumeMetadata volumeMetadata,
       boolean withSegmentList) {
-    Map<Long, Short> switchValue = new HashMap<>();
-    Set<Short> checkSet = new HashSet<>();
+    SwitchIdDictionary dictionary = new SwitchIdDictionary();
 
     VolumeMetadataThrift volumeMetadataThrift = new VolumeMetadataThrift();
     volumeMetadataThrift.setVolumeId(volumeMetadata.getVolumeId());
@@ -1657,32 +1696,32 @@ public class RequestResponseHelper {
     List<SegmentMetadataSwitchThrift> segmentsMetadataThrift = new ArrayList<>();
 
     if (withSegmentList) {
-      if (!volumeMetadata.getAddSegmentOrder().isEmpty()) {
-        List<Integer> addSegmentOrder = volumeMetadata.getAddSegmentOrder();
+      // the live segments and their order, taken once so that they agree with each other
+      Map<Integer, SegmentMetadata> segmentTable = new TreeMap<>(volumeMetadata.getSegmentTable());
+      List<Integer> addSegmentOrder = new ArrayList<>(volumeMetadata.getAddSegmentOrder());
+      Collection<SegmentMetadata> segments = segmentTable.values();
+      if (!addSegmentOrder.isEmpty()) {
         for (int i = 0; i < addSegmentOrder.size(); i++) {
           int segmentIndex = addSegmentOrder.get(i);
-          SegmentMetadata segmentMetadata = volumeMetadata.getSegmentByIndex(segmentIndex);
-          if (segmentMetadata.getSegmentUnitCount() > 0) {
+          SegmentMetadata segmentMetadata = segmentTable.get(segmentIndex);
+          if (segmentMetadata != null && segmentMetadata.getSegmentUnitCount() > 0) {
             // if the number of segment unit in segment is greater than zero, add the segment
-            segmentsMetadataThrift
-                .add(buildThriftSegmentMetadataFromSwitch(segmentMetadata, false, checkSet,
-                    switchValue));
+            segmentsMetadataThrift.add(buildThriftSegmentMetadataFromSwitch(segmentMetadata,
+                dictionary));
           }
         }
       } else {
-        for (SegmentMetadata entry : volumeMetadata.getSegments()) {
+        for (SegmentMetadata entry : segments) {
           if (entry.getSegmentUnitCount() > 0) {
             // if the number of segment unit in segment is greater than zero, add the segment
-            segmentsMetadataThrift
-                .add(buildThriftSegmentMetadataFromSwitch(entry, false, checkSet, switchValue));
+            segmentsMetadataThrift.add(buildThriftSegmentMetadataFromSwitch(entry, dictionary));
           }
         }
       }
 
-      if (segmentsMetadataThrift.size() != volumeMetadata.getSegments().size()) {
+      if (segmentsMetadataThrift.size() != segments.size()) {
         logger.warn("can not build enough segment thrift:{}, from volume:{}",
-            segmentsMetadataThrift.size(),
-            volumeMetadata.getSegments().size());
+            segmentsMetadataThrift.size(), segments.size());
       }
     }
 
@@ -1721,7 +1760,7 @@ public class RequestResponseHelper {
         .setRebalanceVersion(volumeMetadata.getRebalanceInfo().getRebalanceVersion());
     volumeMetadataThrift.setStableTime(volumeMetadata.getStableTime());
 
-    volumeMetadataThrift.setSwitchStructValue(switchValue);
+    volumeMetadataThrift.setSwitchStructValue(dictionary.toSwitchStructValue());
     volumeMetadataThrift.setTotalPhysicalSpace(volumeMetadata.getTotalPhysicalSpace());
     volumeMetadataThrift.setEachTimeExtendVolumeSize(volumeMetadata.getEachTimeExtendVolumeSize());
     volumeMetadataThrift.setMarkDelete(volumeMetadata.isMarkDelete());
@@ -1780,13 +1819,8 @@ public class RequestResponseHelper {
   }
 
   public static VolumeMetadata buildVolumeFrom(VolumeMetadataThrift volumeMetadataThrift) {
-    //find the switch value and Reversal it
-    Map<Short, Long> switchValueReversal = new HashMap<>();
-    if (!volumeMetadataThrift.getSwitchStructValue().isEmpty()) {
-      for (Map.Entry<Long, Short> entry : volumeMetadataThrift.getSwitchStructValue().entrySet()) {
-        switchValueReversal.put(entry.getValue(), entry.getKey());
-      }
-    }
+    SwitchIdDictionary.Decoder switchDecoder = SwitchIdDictionary
+        .decoder(volumeMetadataThrift.getSwitchStructValue());
 
     VolumeMetadata volumeMetadata = new VolumeMetadata();
     volumeMetadata.setVolumeId(volumeMetadataThrift.getVolumeId());
@@ -1833,7 +1867,7 @@ public class RequestResponseHelper {
     volumeMetadata.setSegmentWrappCount(volumeMetadataThrift.getSegmentWrappCount());
 
     /* the normal, get segment meta data from the volume ***/
-    // if (switchValueReversal.isEmpty()) {
+    // if (volumeMetadataThrift.getSwitchStructValue().isEmpty()) {
     if (false) {
       logger.info("get in the un switch" + volumeMetadataThrift);
       List<SegmentMetadataThrift> segmentMetadataThrifts = volumeMetadataThrift
@@ -1877,7 +1911,7 @@ public class RequestResponseHelper {
         Short volumeIdSwitch = segmentMetadataSwitchThrift.getVolumeIdSwitch();
 
         SegmentMetadata segmentMetadata = new SegmentMetadata(
-            new SegId(switchValueReversal.get(volumeIdSwitch),
+            new SegId(switchDecoder.decode(volumeIdSwitch),
                 segmentMetadataSwitchThrift.getSegId()),
             segmentMetadataSwitchThrift.getIndexInVolume());
         SegmentMembership highestMembershipInSegment = null;
@@ -1888,9 +1922,9 @@ public class RequestResponseHelper {
                 .getSegmentUnits()) {
           SegmentUnitMetadata segmentUnit = RequestResponseHelper
               .buildSegmentUnitMetadataFromSwitch(segmentUnitMetadataSwitchThrift,
-                  switchValueReversal);
+                  switchDecoder);
           Short id = segmentUnitMetadataSwitchThrift.getInstanceIdSwitch();
-          long instanceId = switchValueReversal.get(id);
+          long instanceId = switchDecoder.decode(id);
           segmentMetadata.putSegmentUnitMetadata(new InstanceId(instanceId), segmentUnit);
 
           SegmentMembership currentMembership = segmentUnit.getMembership();
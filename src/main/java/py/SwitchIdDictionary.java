@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package py;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * The dictionary of the compact (switch) volume report, which replaces the volume, instance and
+ * archive ids in the report with shorts.
+ *
+ * <p>The ids are given the codes 0, 1, 2 ... in the order they are met, so the codes of a report
+ * are dense and the same report always gets the same codes. The dictionary is sent once with the
+ * report as the switch struct value, a receiver decodes the codes by indexing an array with them.
+ * Since the codes are plain shorts, receivers building a map from the switch struct value work as
+ * well, and the {@link Decoder} works with the codes of any encoder.
+ */
+public class SwitchIdDictionary {
+  public static final int MAX_SIZE = RequestResponseHelper.SHORT_MAX_VALUE;
+  private static final int INITIAL_CAPACITY = 64;
+  private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+  // open addressing, the slot of an id holds its code plus one, 0 is an empty slot
+  private long[] slotIds = new long[INITIAL_CAPACITY];
+  private int[] slotCodes = new int[INITIAL_CAPACITY];
+  private long[] idsByCode = new long[INITIAL_CAPACITY];
+  private int size;
+
+  private static int slotOf(long id, int mask) {
+    long hash = id * HASH_MULTIPLIER;
+    return (int) (hash ^ (hash >>> 32)) & mask;
+  }
+
+  public static Decoder decoder(Map<Long, Short> switchStructValue) {
+    return new Decoder(switchStructValue);
+  }
+
+  /**
+   * the code of the id, the id is added to the dictionary if it is not in it yet.
+   */
+  public short encode(long id) {
+    int mask = slotIds.length - 1;
+    int slot = slotOf(id, mask);
+    while (slotCodes[slot] != 0) {
+      if (slotIds[slot] == id) {
+        return (short) (slotCodes[slot] - 1);
+      }
+      slot = (slot + 1) & mask;
+    }
+
+    Validate.isTrue(size < MAX_SIZE, "too many ids for a switch dictionary: %s", size);
+    int code = size++;
+    slotIds[slot] = id;
+    slotCodes[slot] = code + 1;
+    if (code == idsByCode.length) {
+      long[] newIdsByCode = new long[idsByCode.length * 2];
+      System.arraycopy(idsByCode, 0, newIdsByCode, 0, code);
+      idsByCode = newIdsByCode;
+    }
+    idsByCode[code] = id;
+    // keep the table at most half full
+    if (size * 2 > slotIds.length) {
+      rehash(slotIds.length * 2);
+    }
+    return (short) code;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * the dictionary in the form the volume report carries it.
+   */
+  public Map<Long, Short> toSwitchStructValue() {
+    Map<Long, Short> switchStructValue = new HashMap<>(size * 2);
+    for (int code = 0; code < size; code++) {
+      switchStructValue.put(idsByCode[code], (short) code);
+    }
+    return switchStructValue;
+  }
+
+  private void rehash(int capacity) {
+    long[] newSlotIds = new long[capacity];
+    int[] newSlotCodes = new int[capacity];
+    int mask = capacity - 1;
+    for (int code = 0; code < size; code++) {
+      int slot = slotOf(idsByCode[code], mask);
+      while (newSlotCodes[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      newSlotIds[slot] = idsByCode[code];
+      newSlotCodes[slot] = code + 1;
+    }
+    slotIds = newSlotIds;
+    slotCodes = newSlotCodes;
+  }
+
+  /**
+   * Decode the codes of a report with the dictionary it carries.
+   */
+  public static class Decoder {
+    private final long[] ids;
+    private final boolean[] known;
+
+    private Decoder(Map<Long, Short> switchStructValue) {
+      // the codes of a dense dictionary are 0 to size - 1, others may be anywhere
+      int length = 0;
+      for (Short code : switchStructValue.values()) {
+        length = Math.max(length, (code & 0xffff) + 1);
+      }
+      ids = new long[length];
+      known = new boolean[length];
+      for (Map.Entry<Long, Short> entry : switchStructValue.entrySet()) {
+        int index = entry.getValue() & 0xffff;
+        ids[index] = entry.getKey();
+        known[index] = true;
+      }
+    }
+
+    /**
+     * the id of the code, the code is taken as a short.
+     */
+    public long decode(int code) {
+      int index = code & 0xffff;
+      if (index >= known.length || !known[index]) {
+        throw new IllegalArgumentException("unknown switch code " + (short) code);
+      }
+      return ids[index];
+    }
+  }
+}
@@ -17,6 +17,7 @@ package py.archive;
 import static py.archive.segment.SegmentUnitBitmap.SegmentUnitBitMapType.Data;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.commons.lang.Validate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -88,6 +89,12 @@ public abstract class AbstractSegmentUnitMetadata {
    */
   @JsonIgnore
   private int pageCount;
+  /**
+   * bumped after anything reported to the info center changes, so a reporter only has to convert
+   * the units whose generation moved since the last report.
+   */
+  @JsonIgnore
+  private final AtomicLong changeGeneration = new AtomicLong();
 
   public AbstractSegmentUnitMetadata(SegId segId, long metadataOffset, long offset,
       Storage storage) {
@@ -127,6 +134,7 @@ public abstract class AbstractSegmentUnitMetadata {
       if (!bitmap.get(pageIndex, Data)) {
         bitmap.set(pageIndex, Data);
         this.freePageCount--;
+        markReportedChange();
       } else {
         fail = true;
       }
@@ -144,6 +152,7 @@ public abstract class AbstractSegmentUnitMetadata {
       if (bitmap.get(pageIndex, Data)) {
         bitmap.clear(pageIndex, Data);
         this.freePageCount++;
+        markReportedChange();
       } else {
         fail = true;
       }
@@ -165,6 +174,7 @@ public abstract class AbstractSegmentUnitMetadata {
 
   public void setLogicalDataOffset(long dataOffset) {
     this.dataOffset = dataOffset;
+    markReportedChange();
   }
 
   @JsonIgnore
@@ -189,6 +199,16 @@ public abstract class AbstractSegmentUnitMetadata {
 
   public void setFreePageCount(int freePageCount) {
     this.freePageCount = freePageCount;
+    markReportedChange();
+  }
+
+  @JsonIgnore
+  public long getChangeGeneration() {
+    return changeGeneration.get();
+  }
+
+  protected void markReportedChange() {
+    changeGeneration.incrementAndGet();
   }
 
   public int getPageCount() {
@@ -217,6 +237,7 @@ public abstract class AbstractSegmentUnitMetadata {
     this.bitmap = bitmap;
     Validate.isTrue(bitmap.toByteArray(Data).length * 8 == ArchiveOptions.PAGE_NUMBER_PER_SEGMENT);
     this.freePageCount = ArchiveOptions.PAGE_NUMBER_PER_SEGMENT - bitmap.cardinality(Data);
+    markReportedChange();
   }
 
   public boolean isBitmapNeedPersisted() {
@@ -234,6 +255,7 @@ public abstract class AbstractSegmentUnitMetadata {
     synchronized (bitmap) {
       this.bitmap.clear(Data);
       this.freePageCount = ArchiveOptions.PAGE_NUMBER_PER_SEGMENT;
+      markReportedChange();
     }
   }
 
@@ -248,6 +270,7 @@ public abstract class AbstractSegmentUnitMetadata {
 
   public void setSegmentUnitType(SegmentUnitType segmentUnitType) {
     this.segmentUnitType = segmentUnitType;
+    markReportedChange();
   }
 
   public SegId getSegId() {
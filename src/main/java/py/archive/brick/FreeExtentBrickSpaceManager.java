@@ -0,0 +1,287 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package py.archive.brick;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import org.apache.commons.lang3.Validate;
+import py.archive.ArchiveOptions;
+import py.archive.page.MultiPageAddress;
+import py.archive.page.PageAddress;
+import py.archive.page.PageAddressImpl;
+import py.common.bitmap.Bitmap;
+import py.exception.NotEnoughSpaceException;
+
+/**
+ * A {@link BrickSpaceManager} keeping an index of the free runs (extents) of pages on the brick,
+ * so that contiguous pages can be found without scanning the allocate bitmap bit by bit.
+ *
+ * <p>The free extents are indexed twice: by start page, to coalesce a freed run with its
+ * neighbours and to allocate first fit in address order, and by length, to allocate best fit and
+ * to answer the largest free run in O(log n). The allocate bitmap of the {@link BrickMetadata} is
+ * kept in step with the index, because it is what gets persisted.
+ *
+ * <p>Each brick has its own manager guarded by its own monitor, so allocations on different bricks
+ * never contend with each other.
+ */
+public class FreeExtentBrickSpaceManager implements BrickSpaceManager {
+  private final BrickMetadata brickMetadata;
+  private final Bitmap allocateBitmap;
+  private final int pageCount;
+  // start page -> page count of every free extent
+  private final TreeMap<Integer, Integer> extentsByStart = new TreeMap<>();
+  // every free extent packed as (page count << 32 | start page), ordered by length then start
+  private final TreeSet<Long> extentsByLength = new TreeSet<>();
+  private int freePageCount;
+
+  public FreeExtentBrickSpaceManager(BrickMetadata brickMetadata) {
+    this.brickMetadata = brickMetadata;
+    this.allocateBitmap = brickMetadata.getAllocateBitmap();
+    this.pageCount = brickMetadata.getPageCount();
+    Validate.isTrue(allocateBitmap.getNbits() >= pageCount,
+        "bitmap of %s bits is too small for %s pages", allocateBitmap.getNbits(), pageCount);
+
+    int index = 0;
+    while (index < pageCount) {
+      if (allocateBitmap.get(index)) {
+        index++;
+        continue;
+      }
+      int end = index + 1;
+      while (end < pageCount && !allocateBitmap.get(end)) {
+        end++;
+      }
+      addExtent(index, end - index);
+      index = end;
+    }
+    brickMetadata.setFreePageCount(freePageCount);
+  }
+
+  private static long pack(int length, int start) {
+    return ((long) length << 32) | start;
+  }
+
+  @Override
+  public synchronized int getFreeSpace() {
+    return (int) (freePageCount * ArchiveOptions.PAGE_SIZE);
+  }
+
+  public synchronized int getFreePageCount() {
+    return freePageCount;
+  }
+
+  /**
+   * the page count of the largest free run, which is the most pages a single contiguous
+   * allocation can get.
+   */
+  public synchronized int getLargestFreeRun() {
+    return extentsByLength.isEmpty() ? 0 : (int) (extentsByLength.last() >>> 32);
+  }
+
+  /**
+   * how many free runs the free pages are split into.
+   */
+  public synchronized int getFreeExtentCount() {
+    return extentsByStart.size();
+  }
+
+  @Override
+  public synchronized void markAllPageUsed() {
+    for (Map.Entry<Integer, Integer> extent : extentsByStart.entrySet()) {
+      markBitmap(extent.getKey(), extent.getValue(), true);
+    }
+    extentsByStart.clear();
+    extentsByLength.clear();
+    freePageCount = 0;
+    brickMetadata.setFreePageCount(0);
+  }
+
+  @Override
+  public synchronized boolean isPageFree(int pageIndex) {
+    Validate.isTrue(pageIndex >= 0 && pageIndex < pageCount, "page index %s out of %s",
+        pageIndex, pageCount);
+    return !allocateBitmap.get(pageIndex);
+  }
+
+  /**
+   * allocate the given count of contiguous pages.
+   *
+   * @throws NotEnoughSpaceException if there is no free run long enough
+   */
+  public synchronized MultiPageAddress allocate(int count, FitPolicy policy)
+      throws NotEnoughSpaceException {
+    Validate.isTrue(count > 0, "page count %s", count);
+    int start = policy == FitPolicy.BestFit ? findBestFit(count) : findFirstFit(count);
+    if (start < 0) {
+      throw new NotEnoughSpaceException("no " + count + " contiguous free pages on brick "
+          + brickMetadata.getDataOffset() + ", largest free run " + getLargestFreeRun());
+    }
+    return take(start, count);
+  }
+
+  /**
+   * allocate the given count of pages in as few runs as possible: one best fit run if there is
+   * one long enough, or else the largest runs.
+   *
+   * @throws NotEnoughSpaceException if there are not enough free pages, nothing is allocated then
+   */
+  public synchronized List<MultiPageAddress> allocate(int count) throws NotEnoughSpaceException {
+    Validate.isTrue(count > 0, "page count %s", count);
+    if (count > freePageCount) {
+      throw new NotEnoughSpaceException("no " + count + " free pages on brick "
+          + brickMetadata.getDataOffset() + ", free " + freePageCount);
+    }
+
+    List<MultiPageAddress> addresses = new ArrayList<>();
+    int start = findBestFit(count);
+    if (start >= 0) {
+      addresses.add(take(start, count));
+      return addresses;
+    }
+    int remaining = count;
+    while (remaining > 0) {
+      long largest = extentsByLength.last();
+      int length = Math.min(remaining, (int) (largest >>> 32));
+      addresses.add(take((int) largest, length));
+      remaining -= length;
+    }
+    return addresses;
+  }
+
+  /**
+   * give back pages allocated before, they are merged with the free runs around them.
+   */
+  public synchronized void free(MultiPageAddress address) {
+    int start = pageIndexOf(address.getStartPageAddress());
+    int count = address.getPageCount();
+    Validate.isTrue(count > 0 && start + count <= pageCount, "pages [%s, %s) out of %s", start,
+        start + count, pageCount);
+    for (int i = start; i < start + count; i++) {
+      Validate.isTrue(allocateBitmap.get(i), "page %s is not allocated, can not free %s", i,
+          address);
+    }
+    markBitmap(start, count, false);
+
+    int mergedStart = start;
+    int mergedCount = count;
+    Map.Entry<Integer, Integer> previous = extentsByStart.lowerEntry(start);
+    if (previous != null && previous.getKey() + previous.getValue() == start) {
+      removeExtent(previous.getKey(), previous.getValue());
+      mergedStart = previous.getKey();
+      mergedCount += previous.getValue();
+    }
+    Integer nextCount = extentsByStart.get(start + count);
+    if (nextCount != null) {
+      removeExtent(start + count, nextCount);
+      mergedCount += nextCount;
+    }
+    addExtent(mergedStart, mergedCount);
+    brickMetadata.setFreePageCount(freePageCount);
+    brickMetadata.setBitmapNeedPersisted(true);
+  }
+
+  private int findBestFit(int count) {
+    Long extent = extentsByLength.ceiling(pack(count, 0));
+    return extent == null ? -1 : (int) extent.longValue();
+  }
+
+  private int findFirstFit(int count) {
+    if (getLargestFreeRun() < count) {
+      return -1;
+    }
+    for (Map.Entry<Integer, Integer> extent : extentsByStart.entrySet()) {
+      if (extent.getValue() >= count) {
+        return extent.getKey();
+      }
+    }
+    throw new IllegalStateException("free extent index of brick " + brickMetadata.getDataOffset()
+        + " is broken");
+  }
+
+  private MultiPageAddress take(int start, int count) {
+    int length = extentsByStart.get(start);
+    removeExtent(start, length);
+    if (length > count) {
+      addExtent(start + count, length - count);
+    }
+    markBitmap(start, count, true);
+    brickMetadata.setFreePageCount(freePageCount);
+
+    MultiPageAddress address = new MultiPageAddress(pageAddressOf(start), count);
+    brickMetadata.markPageUsed(address);
+    return address;
+  }
+
+  private void addExtent(int start, int count) {
+    extentsByStart.put(start, count);
+    extentsByLength.add(pack(count, start));
+    freePageCount += count;
+  }
+
+  private void removeExtent(int start, int count) {
+    extentsByStart.remove(start);
+    extentsByLength.remove(pack(count, start));
+    freePageCount -= count;
+  }
+
+  private void markBitmap(int start, int count, boolean allocated) {
+    for (int i = start; i < start + count; i++) {
+      if (allocated) {
+        allocateBitmap.set(i);
+      } else {
+        allocateBitmap.clear(i);
+      }
+    }
+  }
+
+  private PageAddress pageAddressOf(int pageIndex) {
+    return new PageAddressImpl(brickMetadata.getSegId(), brickMetadata.getDataOffset(),
+        pageIndex * ArchiveOptions.PAGE_PHYSICAL_SIZE, brickMetadata.getStorage());
+  }
+
+  private int pageIndexOf(PageAddress pageAddress) {
+    Validate.isTrue(pageAddress.getSegUnitOffsetInArchive() == brickMetadata.getDataOffset(),
+        "page %s is not on brick %s", pageAddress, brickMetadata.getDataOffset());
+    Validate.isTrue(pageAddress.getOffsetInSegment() % ArchiveOptions.PAGE_PHYSICAL_SIZE == 0,
+        "page %s is not aligned", pageAddress);
+    return (int) (pageAddress.getOffsetInSegment() / ArchiveOptions.PAGE_PHYSICAL_SIZE);
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "FreeExtentBrickSpaceManager{"
+        + "dataOffset=" + brickMetadata.getDataOffset()
+        + ", pageCount=" + pageCount
+        + ", freePageCount=" + freePageCount
+        + ", freeExtentCount=" + extentsByStart.size()
+        + ", largestFreeRun=" + getLargestFreeRun()
+        + '}';
+  }
+
+  public enum FitPolicy {
+    /**
+     * the free run with the lowest start page, keeps the allocated pages packed at the front of
+     * the brick.
+     */
+    FirstFit,
+    /**
+     * the shortest free run long enough, keeps long runs for long allocations.
+     */
+    BestFit
+  }
+}
@@ -0,0 +1,504 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package py.archive.segment;
+
+import java.util.Arrays;
+import org.apache.commons.lang3.Validate;
+import py.common.bitmap.Bitmap;
+
+/**
+ * A page bitmap split into chunks of {@link #CHUNK_BITS} bits, in the way of a roaring bitmap.
+ *
+ * <p>A chunk with no bit set takes no memory, a chunk with all bits set is represented by a shared
+ * marker, and only the chunks in between keep their words. A segment unit bitmap is mostly all
+ * clear or all set (a freshly created unit, or the migration bitmap after the clone finished), so
+ * most chunks are never materialized. Range operations work on whole chunks where they can, and
+ * {@link #nextSetBit(int)} / {@link #nextClearBit(int)} skip over empty and full chunks without
+ * looking at their bits, which makes walking the set or clear runs cheap.
+ *
+ * <p>Not thread safe, just like {@link Bitmap}.
+ */
+public class CompressedBitmap {
+  static final int CHUNK_SHIFT = 12;
+  static final int CHUNK_BITS = 1 << CHUNK_SHIFT;
+  private static final int CHUNK_MASK = CHUNK_BITS - 1;
+  private static final int WORDS_PER_CHUNK = CHUNK_BITS >>> 6;
+  // marks a chunk with all bits set, never read or written as words
+  private static final long[] FULL = new long[0];
+
+  private final int nbits;
+  private final long[][] chunks;
+  private final int[] counts;
+  private int cardinality;
+
+  public CompressedBitmap(int nbits) {
+    Validate.isTrue(nbits >= 0, "negative bit count %s", nbits);
+    this.nbits = nbits;
+    int chunkCount = (nbits + CHUNK_BITS - 1) >>> CHUNK_SHIFT;
+    this.chunks = new long[chunkCount][];
+    this.counts = new int[chunkCount];
+  }
+
+  /**
+   * build from a dense bitmap, the bits are read through its public interface so that the layout
+   * of {@link Bitmap#toByteArray()} does not matter here.
+   */
+  public static CompressedBitmap valueOf(Bitmap bitmap) {
+    int nbits = bitmap.getNbits();
+    CompressedBitmap compressed = new CompressedBitmap(nbits);
+    int index = 0;
+    while (index < nbits) {
+      if (bitmap.get(index)) {
+        int end = bitmap.nextClearBit(index);
+        if (end <= index || end > nbits) {
+          end = nbits;
+        }
+        compressed.set(index, end);
+        index = end;
+      } else {
+        index++;
+      }
+    }
+    return compressed;
+  }
+
+  /**
+   * a dense copy of this bitmap, which is what gets persisted.
+   */
+  public Bitmap toBitmap() {
+    Bitmap bitmap = new Bitmap(nbits);
+    forEachRun(true, (fromIndex, toIndex) -> {
+      for (int i = fromIndex; i < toIndex; i++) {
+        bitmap.set(i);
+      }
+    });
+    return bitmap;
+  }
+
+  public CompressedBitmap copy() {
+    CompressedBitmap copy = new CompressedBitmap(nbits);
+    for (int i = 0; i < chunks.length; i++) {
+      long[] chunk = chunks[i];
+      copy.chunks[i] = chunk == null || chunk == FULL ? chunk : chunk.clone();
+    }
+    System.arraycopy(counts, 0, copy.counts, 0, counts.length);
+    copy.cardinality = cardinality;
+    return copy;
+  }
+
+  public boolean get(int index) {
+    checkIndex(index);
+    long[] chunk = chunks[index >>> CHUNK_SHIFT];
+    if (chunk == null) {
+      return false;
+    } else if (chunk == FULL) {
+      return true;
+    }
+    return (chunk[(index & CHUNK_MASK) >>> 6] & (1L << index)) != 0;
+  }
+
+  public void set(int index) {
+    checkIndex(index);
+    int chunkIndex = index >>> CHUNK_SHIFT;
+    long[] chunk = chunks[chunkIndex];
+    if (chunk == FULL) {
+      return;
+    } else if (chunk == null) {
+      chunk = new long[WORDS_PER_CHUNK];
+      chunks[chunkIndex] = chunk;
+    }
+    int word = (index & CHUNK_MASK) >>> 6;
+    long bit = 1L << index;
+    if ((chunk[word] & bit) == 0) {
+      chunk[word] |= bit;
+      cardinality++;
+      if (++counts[chunkIndex] == chunkLength(chunkIndex)) {
+        chunks[chunkIndex] = FULL;
+      }
+    }
+  }
+
+  public void clear(int index) {
+    checkIndex(index);
+    int chunkIndex = index >>> CHUNK_SHIFT;
+    long[] chunk = chunks[chunkIndex];
+    if (chunk == null) {
+      return;
+    } else if (chunk == FULL) {
+      chunk = fullWords(chunkIndex);
+      chunks[chunkIndex] = chunk;
+    }
+    int word = (index & CHUNK_MASK) >>> 6;
+    long bit = 1L << index;
+    if ((chunk[word] & bit) != 0) {
+      chunk[word] &= ~bit;
+      cardinality--;
+      if (--counts[chunkIndex] == 0) {
+        chunks[chunkIndex] = null;
+      }
+    }
+  }
+
+  /**
+   * set the bits from fromIndex (inclusive) to toIndex (exclusive).
+   */
+  public void set(int fromIndex, int toIndex) {
+    checkRange(fromIndex, toIndex);
+    if (fromIndex == toIndex) {
+      return;
+    }
+    for (int chunkIndex = fromIndex >>> CHUNK_SHIFT; chunkIndex <= (toIndex - 1) >>> CHUNK_SHIFT;
+        chunkIndex++) {
+      long[] chunk = chunks[chunkIndex];
+      if (chunk == FULL) {
+        continue;
+      }
+      int start = chunkIndex << CHUNK_SHIFT;
+      int length = chunkLength(chunkIndex);
+      int from = Math.max(fromIndex, start) - start;
+      int to = Math.min(toIndex, start + length) - start;
+      if (from == 0 && to == length) {
+        cardinality += length - counts[chunkIndex];
+        counts[chunkIndex] = length;
+        chunks[chunkIndex] = FULL;
+        continue;
+      }
+
+      if (chunk == null) {
+        chunk = new long[WORDS_PER_CHUNK];
+        chunks[chunkIndex] = chunk;
+      }
+      int added = 0;
+      for (int word = from >>> 6; word <= (to - 1) >>> 6; word++) {
+        long mask = wordMask(word, from, to);
+        added += Long.bitCount(mask & ~chunk[word]);
+        chunk[word] |= mask;
+      }
+      cardinality += added;
+      counts[chunkIndex] += added;
+      if (counts[chunkIndex] == length) {
+        chunks[chunkIndex] = FULL;
+      }
+    }
+  }
+
+  /**
+   * clear the bits from fromIndex (inclusive) to toIndex (exclusive).
+   */
+  public void clear(int fromIndex, int toIndex) {
+    checkRange(fromIndex, toIndex);
+    if (fromIndex == toIndex) {
+      return;
+    }
+    for (int chunkIndex = fromIndex >>> CHUNK_SHIFT; chunkIndex <= (toIndex - 1) >>> CHUNK_SHIFT;
+        chunkIndex++) {
+      long[] chunk = chunks[chunkIndex];
+      if (chunk == null) {
+        continue;
+      }
+      int start = chunkIndex << CHUNK_SHIFT;
+      int length = chunkLength(chunkIndex);
+      int from = Math.max(fromIndex, start) - start;
+      int to = Math.min(toIndex, start + length) - start;
+      if (from == 0 && to == length) {
+        cardinality -= counts[chunkIndex];
+        counts[chunkIndex] = 0;
+        chunks[chunkIndex] = null;
+        continue;
+      }
+
+      if (chunk == FULL) {
+        chunk = fullWords(chunkIndex);
+        chunks[chunkIndex] = chunk;
+      }
+      int removed = 0;
+      for (int word = from >>> 6; word <= (to - 1) >>> 6; word++) {
+        long mask = wordMask(word, from, to);
+        removed += Long.bitCount(mask & chunk[word]);
+        chunk[word] &= ~mask;
+      }
+      cardinality -= removed;
+      counts[chunkIndex] -= removed;
+      if (counts[chunkIndex] == 0) {
+        chunks[chunkIndex] = null;
+      }
+    }
+  }
+
+  public void clear() {
+    Arrays.fill(chunks, null);
+    Arrays.fill(counts, 0);
+    cardinality = 0;
+  }
+
+  /**
+   * the index of the first set bit at or after fromIndex, or {@link #getNbits()} if there is none.
+   */
+  public int nextSetBit(int fromIndex) {
+    Validate.isTrue(fromIndex >= 0, "negative index %s", fromIndex);
+    if (fromIndex >= nbits) {
+      return nbits;
+    }
+    int offset = fromIndex & CHUNK_MASK;
+    for (int chunkIndex = fromIndex >>> CHUNK_SHIFT; chunkIndex < chunks.length; chunkIndex++) {
+      long[] chunk = chunks[chunkIndex];
+      if (chunk == FULL) {
+        return (chunkIndex << CHUNK_SHIFT) + offset;
+      } else if (chunk != null) {
+        int word = offset >>> 6;
+        long bits = chunk[word] & (-1L << offset);
+        while (true) {
+          if (bits != 0) {
+            return (chunkIndex << CHUNK_SHIFT) + (word << 6) + Long.numberOfTrailingZeros(bits);
+          }
+          if (++word == WORDS_PER_CHUNK) {
+            break;
+          }
+          bits = chunk[word];
+        }
+      }
+      offset = 0;
+    }
+    return nbits;
+  }
+
+  /**
+   * the index of the first clear bit at or after fromIndex, or {@link #getNbits()} if there is
+   * none.
+   */
+  public int nextClearBit(int fromIndex) {
+    Validate.isTrue(fromIndex >= 0, "negative index %s", fromIndex);
+    if (fromIndex >= nbits) {
+      return nbits;
+    }
+    int offset = fromIndex & CHUNK_MASK;
+    for (int chunkIndex = fromIndex >>> CHUNK_SHIFT; chunkIndex < chunks.length; chunkIndex++) {
+      long[] chunk = chunks[chunkIndex];
+      if (chunk == null) {
+        return (chunkIndex << CHUNK_SHIFT) + offset;
+      } else if (chunk != FULL) {
+        int word = offset >>> 6;
+        long bits = ~chunk[word] & (-1L << offset);
+        while (true) {
+          if (bits != 0) {
+            // the tail of the last chunk is never set, do not report it
+            return Math.min(nbits,
+                (chunkIndex << CHUNK_SHIFT) + (word << 6) + Long.numberOfTrailingZeros(bits));
+          }
+          if (++word == WORDS_PER_CHUNK) {
+            break;
+          }
+          bits = ~chunk[word];
+        }
+      }
+      offset = 0;
+    }
+    return nbits;
+  }
+
+  /**
+   * call the visitor with every maximal run of set (or clear) bits, in ascending order.
+   */
+  public void forEachRun(boolean setRuns, RunVisitor visitor) {
+    int fromIndex = setRuns ? nextSetBit(0) : nextClearBit(0);
+    while (fromIndex < nbits) {
+      int toIndex = setRuns ? nextClearBit(fromIndex) : nextSetBit(fromIndex);
+      visitor.visit(fromIndex, toIndex);
+      if (toIndex >= nbits) {
+        break;
+      }
+      fromIndex = setRuns ? nextSetBit(toIndex) : nextClearBit(toIndex);
+    }
+  }
+
+  /**
+   * flip every bit.
+   */
+  public void inverse() {
+    for (int chunkIndex = 0; chunkIndex < chunks.length; chunkIndex++) {
+      long[] chunk = chunks[chunkIndex];
+      int length = chunkLength(chunkIndex);
+      if (chunk == null) {
+        chunks[chunkIndex] = FULL;
+      } else if (chunk == FULL) {
+        chunks[chunkIndex] = null;
+      } else {
+        for (int word = 0; word < WORDS_PER_CHUNK; word++) {
+          chunk[word] = ~chunk[word];
+        }
+        clearTail(chunk, length);
+      }
+      counts[chunkIndex] = length - counts[chunkIndex];
+    }
+    cardinality = nbits - cardinality;
+  }
+
+  public void or(CompressedBitmap other) {
+    Validate.isTrue(nbits == other.nbits, "bit count mismatch %s, %s", nbits, other.nbits);
+    for (int chunkIndex = 0; chunkIndex < chunks.length; chunkIndex++) {
+      long[] chunk = chunks[chunkIndex];
+      long[] otherChunk = other.chunks[chunkIndex];
+      if (chunk == FULL || otherChunk == null) {
+        continue;
+      }
+      int length = chunkLength(chunkIndex);
+      int count;
+      if (otherChunk == FULL) {
+        chunks[chunkIndex] = FULL;
+        count = length;
+      } else if (chunk == null) {
+        chunks[chunkIndex] = otherChunk.clone();
+        count = other.counts[chunkIndex];
+      } else {
+        count = 0;
+        for (int word = 0; word < WORDS_PER_CHUNK; word++) {
+          chunk[word] |= otherChunk[word];
+          count += Long.bitCount(chunk[word]);
+        }
+        if (count == length) {
+          chunks[chunkIndex] = FULL;
+        }
+      }
+      cardinality += count - counts[chunkIndex];
+      counts[chunkIndex] = count;
+    }
+  }
+
+  public int cardinality() {
+    return cardinality;
+  }
+
+  public int getNbits() {
+    return nbits;
+  }
+
+  public boolean allSet() {
+    return cardinality == nbits;
+  }
+
+  public boolean isEmpty() {
+    return cardinality == 0;
+  }
+
+  /**
+   * how many chunks keep their words, for the memory footprint.
+   */
+  int denseChunkCount() {
+    int count = 0;
+    for (long[] chunk : chunks) {
+      if (chunk != null && chunk != FULL) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private int chunkLength(int chunkIndex) {
+    return Math.min(CHUNK_BITS, nbits - (chunkIndex << CHUNK_SHIFT));
+  }
+
+  private long[] fullWords(int chunkIndex) {
+    long[] chunk = new long[WORDS_PER_CHUNK];
+    Arrays.fill(chunk, -1L);
+    clearTail(chunk, chunkLength(chunkIndex));
+    return chunk;
+  }
+
+  private static void clearTail(long[] chunk, int length) {
+    if (length == CHUNK_BITS) {
+      return;
+    }
+    int word = length >>> 6;
+    if ((length & 63) != 0) {
+      chunk[word] &= -1L >>> (64 - (length & 63));
+      word++;
+    }
+    Arrays.fill(chunk, word, WORDS_PER_CHUNK, 0L);
+  }
+
+  private static long wordMask(int word, int from, int to) {
+    long mask = -1L;
+    if (word == from >>> 6) {
+      mask &= -1L << from;
+    }
+    if (word == (to - 1) >>> 6) {
+      mask &= -1L >>> (63 - ((to - 1) & 63));
+    }
+    return mask;
+  }
+
+  private void checkIndex(int index) {
+    if (index < 0 || index >= nbits) {
+      throw new IndexOutOfBoundsException("index " + index + " out of " + nbits);
+    }
+  }
+
+  private void checkRange(int fromIndex, int toIndex) {
+    if (fromIndex < 0 || toIndex > nbits || fromIndex > toIndex) {
+      throw new IndexOutOfBoundsException(
+          "range [" + fromIndex + ", " + toIndex + ") out of " + nbits);
+    }
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof CompressedBitmap)) {
+      return false;
+    }
+
+    CompressedBitmap that = (CompressedBitmap) o;
+    if (nbits != that.nbits || cardinality != that.cardinality) {
+      return false;
+    }
+    // empty and full chunks are always collapsed, so the representation is canonical
+    for (int i = 0; i < chunks.length; i++) {
+      long[] chunk = chunks[i];
+      long[] thatChunk = that.chunks[i];
+      if (chunk != thatChunk && (chunk == null || chunk == FULL || thatChunk == null
+          || thatChunk == FULL || !Arrays.equals(chunk, thatChunk))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    int result = nbits;
+    for (long[] chunk : chunks) {
+      result = 31 * result + (chunk == null ? 0 : chunk == FULL ? 1 : Arrays.hashCode(chunk));
+    }
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("CompressedBitmap{nbits=").append(nbits)
+        .append(", cardinality=").append(cardinality).append(", setRuns=[");
+    forEachRun(true, (fromIndex, toIndex) -> sb.append('[').append(fromIndex).append(", ")
+        .append(toIndex).append(')'));
+    return sb.append("]}").toString();
+  }
+
+  /**
+   * receives a run of bits from fromIndex (inclusive) to toIndex (exclusive).
+   */
+  public interface RunVisitor {
+    void visit(int fromIndex, int toIndex);
+  }
+}
@@ -53,7 +53,14 @@ public class SegmentMetadata {
   private VolumeMetadata volume;
 
   /* Segment status */
-  private SegmentStatus segmentStatus;
+  private volatile SegmentStatus segmentStatus;
+  /*
+   * The status is kept until a segment unit is put or changed, or the earliest report of the
+   * units times out.
+   */
+  private volatile boolean statusChanged = true;
+  private volatile int evaluatedUnitCount;
+  private volatile long earliestUnitTimeout;
 
   /* store logId for coordinate */
   private volatile AtomicLong logId;
@@ -77,11 +84,25 @@ public class SegmentMetadata {
 
   public void setVolume(VolumeMetadata volume) {
     this.volume = volume;
+    this.statusChanged = true;
   }
 
   public void putSegmentUnitMetadata(InstanceId instanceId,
       SegmentUnitMetadata segmentUnitMetadata) {
+    segmentUnitMetadata.setSegment(this);
     segmentUnitMetadataTable.put(instanceId, segmentUnitMetadata);
+    segmentUnitChanged();
+  }
+
+  /**
+   * tell the volume to evaluate the status of this segment again.
+   */
+  void segmentUnitChanged() {
+    statusChanged = true;
+    VolumeMetadata volume = this.volume;
+    if (volume != null) {
+      volume.markSegmentChanged(logicIndexInVolume);
+    }
   }
 
   public SegmentUnitMetadata getSegmentUnitMetadata(InstanceId instanceId) {
@@ -107,9 +128,51 @@ public class SegmentMetadata {
   public void setSegmentUnitMetadataTable(
       Map<InstanceId, SegmentUnitMetadata> segmentUnitMetadataTable) {
     this.segmentUnitMetadataTable = segmentUnitMetadataTable;
+    for (SegmentUnitMetadata segmentUnitMetadata : segmentUnitMetadataTable.values()) {
+      segmentUnitMetadata.setSegment(this);
+    }
+    segmentUnitChanged();
   }
 
   public SegmentStatus getSegmentStatus() {
+    return getSegmentStatus(System.currentTimeMillis());
+  }
+
+  /**
+   * drop the kept status, so that the next status query evaluates the segment units again.
+   */
+  public void invalidateSegmentStatus() {
+    statusChanged = true;
+  }
+
+  /**
+   * the time the earliest report of the segment units times out, as of the last status
+   * evaluation.
+   */
+  public long getEarliestUnitTimeout() {
+    return earliestUnitTimeout;
+  }
+
+  /**
+   * Get the segment status at the given time, so that a caller evaluating many segments reads the
+   * clock only once. The status is evaluated again only when a segment unit has been put or
+   * changed, or has timed out.
+   */
+  public SegmentStatus getSegmentStatus(long now) {
+    SegmentStatus cachedStatus = this.segmentStatus;
+    if (!statusChanged && cachedStatus != null && now < earliestUnitTimeout
+        && evaluatedUnitCount == segmentUnitMetadataTable.size()) {
+      return cachedStatus;
+    }
+    // clear the flag before reading units, so that a change during the evaluation is not lost
+    statusChanged = false;
+    if (removeTimedOutUnits(now)) {
+      VolumeMetadata volume = this.volume;
+      if (volume != null) {
+        volume.markSegmentChanged(logicIndexInVolume);
+      }
+    }
+
     int primaryCount = 0;
     int secondaryCount = 0;
     int joiningSecondaryCount = 0;
@@ -125,26 +188,30 @@ public class SegmentMetadata {
     int deletedSecondary = 0;
 
     logger.info("to get the volume :{} status", volume.getVolumeId());
-    // filter the timeout segment unit first
-    for (Iterator<SegmentUnitMetadata> it = segmentUnitMetadataTable.values().iterator();
-        it.hasNext(); ) {
-      SegmentUnitMetadata segUnit = it.next();
-      // check segment unit is timeout
-      if (System.currentTimeMillis() - segUnit.getLastReported() >= TimeUnit.SECONDS
-          .toMillis(InfoCenterConstants.getSegmentUnitReportTimeout())) {
-        logger.debug(
-            "this segment unit report time is time out and will be removed, segment unit is {}",
-            segUnit);
-        segmentUnitMetadataTable.remove(segUnit.getInstanceId());
+    // the unit with the highest membership decides which units are the latest ones, the same as
+    // chooseLatestSegUnits()
+    SegmentUnitMetadata highestUnit = null;
+    long earliestReported = Long.MAX_VALUE;
+    int unitCount = 0;
+    for (SegmentUnitMetadata segUnit : segmentUnitMetadataTable.values()) {
+      if (highestUnit == null || segUnit.compareTo(highestUnit) >= 0) {
+        highestUnit = segUnit;
       }
+      earliestReported = Math.min(earliestReported, segUnit.getLastReported());
+      unitCount++;
     }
+    SegmentMembership highestMembership = highestUnit == null ? null : highestUnit.getMembership();
 
-    // choose the latest segment unit data
-    Collection<SegmentUnitMetadata> latestSegUnits = chooseLatestSegUnits();
-    Map<SegmentUnitMetadata, InstanceId> segUnitToInstance = SegmentUnitMetadata
-        .reverse(this.getSegmentUnitMetadataTable());
     SegmentMembership latestMembership = null;
-    for (SegmentUnitMetadata segUnit : latestSegUnits) {
+    for (Map.Entry<InstanceId, SegmentUnitMetadata> entry : segmentUnitMetadataTable
+        .entrySet()) {
+      SegmentUnitMetadata segUnit = entry.getValue();
+      InstanceId unitId = segUnit.getInstanceId();
+      if (highestMembership == null || (!highestMembership.isPrimary(unitId)
+          && !highestMembership.isAliveSecondaries(unitId))) {
+        continue;
+      }
+
       SegmentMembership membership = segUnit.getMembership();
       if (latestMembership == null) {
         latestMembership = membership;
@@ -158,7 +225,7 @@ public class SegmentMetadata {
         }
       }
       SegmentUnitStatus status = segUnit.getStatus();
-      InstanceId id = segUnitToInstance.get(segUnit);
+      InstanceId id = entry.getKey();
 
       if (status == SegmentUnitStatus.Primary && membership.isPrimary(id)) {
         primaryCount++;
@@ -225,7 +292,11 @@ public class SegmentMetadata {
           secondaryCount++;
         }
       }
-    } // latestSegUnits
+    } // latest segment units
+    evaluatedUnitCount = unitCount;
+    earliestUnitTimeout = earliestReported == Long.MAX_VALUE ? Long.MAX_VALUE
+        : earliestReported + TimeUnit.SECONDS
+            .toMillis(InfoCenterConstants.getSegmentUnitReportTimeout());
 
     //calc the segment number
     writableUnitNumber = primaryCount + secondaryCount + joiningSecondaryCount;
@@ -281,6 +352,23 @@ public class SegmentMetadata {
     return this.segmentStatus;
   }
 
+  private boolean removeTimedOutUnits(long now) {
+    long timeoutMs = TimeUnit.SECONDS.toMillis(InfoCenterConstants.getSegmentUnitReportTimeout());
+    boolean removed = false;
+    for (Iterator<SegmentUnitMetadata> it = segmentUnitMetadataTable.values().iterator();
+        it.hasNext(); ) {
+      SegmentUnitMetadata segUnit = it.next();
+      if (now - segUnit.getLastReported() >= timeoutMs) {
+        logger.debug(
+            "this segment unit report time is time out and will be removed, segment unit is {}",
+            segUnit);
+        it.remove();
+        removed = true;
+      }
+    }
+    return removed;
+  }
+
   /**
    * when all datanode down, and delete the volume, when timeout, all segment is empty so i can set
    * the volume status to dead.
@@ -15,7 +15,6 @@
 package py.archive.segment;
 
 import java.nio.ByteBuffer;
-import java.util.HashMap;
 import org.apache.commons.lang3.Validate;
 import py.archive.ArchiveOptions;
 import py.common.bitmap.Bitmap;
@@ -49,27 +48,28 @@ import py.common.bitmap.Bitmap;
  * <p>Another instance, a flexible volume page has create a some snapshot but has not writen any
  * data, and then plal got a log of the page, we no need allocate shadow page for that page no valid
  * data.
+ *
+ * <p>In memory both bitmaps are {@link CompressedBitmap}s, they are expanded to {@link Bitmap}s
+ * only when persisted, so the layout above is unchanged.
  */
 public class SegmentUnitBitmap {
-  private final HashMap<SegmentUnitBitMapType, Bitmap> mapTypeToBitMap = new HashMap<>();
+  private final CompressedBitmap[] bitmaps = new CompressedBitmap[SegmentUnitBitMapType.values()
+      .length];
   private int pageCount;
-  private Bitmap dataBitMap;
-  private Bitmap migrateBitMap;
+  private CompressedBitmap dataBitMap;
+  private CompressedBitmap migrateBitMap;
 
   public SegmentUnitBitmap(int pageCount) {
-    this.pageCount = pageCount;
-    dataBitMap = new Bitmap(pageCount);
-    migrateBitMap = new Bitmap(pageCount);
-    mapTypeToBitMap.put(SegmentUnitBitMapType.Data, dataBitMap);
-    mapTypeToBitMap.put(SegmentUnitBitMapType.Migration, migrateBitMap);
+    this(pageCount, new CompressedBitmap(pageCount), new CompressedBitmap(pageCount));
   }
 
-  private SegmentUnitBitmap(int pageCount, Bitmap dataBitMap, Bitmap migrateBitMap) {
+  private SegmentUnitBitmap(int pageCount, CompressedBitmap dataBitMap,
+      CompressedBitmap migrateBitMap) {
     this.pageCount = pageCount;
     this.dataBitMap = dataBitMap;
     this.migrateBitMap = migrateBitMap;
-    mapTypeToBitMap.put(SegmentUnitBitMapType.Data, dataBitMap);
-    mapTypeToBitMap.put(SegmentUnitBitMapType.Migration, migrateBitMap);
+    bitmaps[SegmentUnitBitMapType.Data.ordinal()] = dataBitMap;
+    bitmaps[SegmentUnitBitMapType.Migration.ordinal()] = migrateBitMap;
   }
 
   public static int bitMapLength(int pageCount) {
@@ -97,46 +97,76 @@ public class SegmentUnitBitmap {
     buffer.get(dataArray);
     buffer.get(cloneArray);
 
-    Bitmap dataBitMap = Bitmap.valueOf(dataArray);
-    Bitmap cloneBitMap = Bitmap.valueOf(cloneArray);
+    CompressedBitmap dataBitMap = CompressedBitmap.valueOf(Bitmap.valueOf(dataArray));
+    CompressedBitmap cloneBitMap = CompressedBitmap.valueOf(Bitmap.valueOf(cloneArray));
 
     return new SegmentUnitBitmap(pageCount, dataBitMap, cloneBitMap);
   }
 
   public void set(int pageIndex, SegmentUnitBitMapType type) {
-    mapTypeToBitMap.get(type).set(pageIndex);
+    bitmaps[type.ordinal()].set(pageIndex);
   }
 
   public boolean get(int pageIndex, SegmentUnitBitMapType type) {
-    return mapTypeToBitMap.get(type).get(pageIndex);
+    return bitmaps[type.ordinal()].get(pageIndex);
   }
 
   public void clear(int pageIndex, SegmentUnitBitMapType type) {
-    mapTypeToBitMap.get(type).clear(pageIndex);
+    bitmaps[type.ordinal()].clear(pageIndex);
   }
 
   public void clear(SegmentUnitBitMapType type) {
-    mapTypeToBitMap.get(type).clear();
+    bitmaps[type.ordinal()].clear();
+  }
+
+  /**
+   * set the pages from fromIndex (inclusive) to toIndex (exclusive).
+   */
+  public void set(int fromIndex, int toIndex, SegmentUnitBitMapType type) {
+    bitmaps[type.ordinal()].set(fromIndex, toIndex);
+  }
+
+  /**
+   * clear the pages from fromIndex (inclusive) to toIndex (exclusive).
+   */
+  public void clear(int fromIndex, int toIndex, SegmentUnitBitMapType type) {
+    bitmaps[type.ordinal()].clear(fromIndex, toIndex);
   }
 
   public int nextClearBit(int fromIndex, SegmentUnitBitMapType type) {
-    return mapTypeToBitMap.get(type).nextClearBit(fromIndex);
+    return bitmaps[type.ordinal()].nextClearBit(fromIndex);
+  }
+
+  /**
+   * the first set page at or after fromIndex, or the page count if there is none.
+   */
+  public int nextSetBit(int fromIndex, SegmentUnitBitMapType type) {
+    return bitmaps[type.ordinal()].nextSetBit(fromIndex);
+  }
+
+  /**
+   * walk the runs of set (or clear) pages, e.g. the pages still to be migrated are the clear runs
+   * of the migration bitmap.
+   */
+  public void forEachRun(SegmentUnitBitMapType type, boolean setRuns,
+      CompressedBitmap.RunVisitor visitor) {
+    bitmaps[type.ordinal()].forEachRun(setRuns, visitor);
   }
 
   public int cardinality(SegmentUnitBitMapType type) {
-    return mapTypeToBitMap.get(type).cardinality();
+    return bitmaps[type.ordinal()].cardinality();
   }
 
   public int getNbits(SegmentUnitBitMapType type) {
-    return mapTypeToBitMap.get(type).getNbits();
+    return bitmaps[type.ordinal()].getNbits();
   }
 
   public boolean allSet(SegmentUnitBitMapType type) {
-    return mapTypeToBitMap.get(type).allSet();
+    return bitmaps[type.ordinal()].allSet();
   }
 
   public byte[] toByteArray(SegmentUnitBitMapType type) {
-    return mapTypeToBitMap.get(type).toByteArray();
+    return bitmaps[type.ordinal()].toBitmap().toByteArray();
   }
 
   public byte[] toByteArray() {
@@ -144,8 +174,8 @@ public class SegmentUnitBitmap {
     byte[] pageCountArray = new byte[]{(byte) (pageCount >> 24), (byte) (pageCount >> 16),
         (byte) (pageCount >> 8), (byte) pageCount
     };
-    byte[] dataArray = dataBitMap.toByteArray();
-    byte[] cloneArray = migrateBitMap.toByteArray();
+    byte[] dataArray = dataBitMap.toBitmap().toByteArray();
+    byte[] cloneArray = migrateBitMap.toBitmap().toByteArray();
 
     final byte[] joinedArray = new byte[pageCountArray.length + dataArray.length
         + cloneArray.length];
@@ -159,10 +189,11 @@ public class SegmentUnitBitmap {
   // TODO : this is not only for clone now
 
   public void initForClone(Bitmap sourceDataBitmap) {
-    dataBitMap.or(sourceDataBitmap);
+    CompressedBitmap source = CompressedBitmap.valueOf(sourceDataBitmap);
+    dataBitMap.or(source);
     /* for inverse, it must be clear */
     migrateBitMap.clear();
-    migrateBitMap.or(sourceDataBitmap);
+    migrateBitMap.or(source);
     migrateBitMap.inverse();
   }
 
@@ -170,7 +201,26 @@ public class SegmentUnitBitmap {
     return pageCount;
   }
 
+  /**
+   * The bitmap is kept compressed and there is no dense view of it anymore, so this returns a copy
+   * and changes to it are lost.
+   *
+   * @deprecated use {@link #getCompressedBitMap(SegmentUnitBitMapType)} to read or change the
+   *     bitmap, or {@link #copyBitMap(SegmentUnitBitMapType)} for a dense copy
+   */
+  @Deprecated
   public Bitmap getBitMap(SegmentUnitBitMapType type) {
+    return copyBitMap(type);
+  }
+
+  /**
+   * a dense copy of the bitmap, changes to it do not go back to this segment unit bitmap.
+   */
+  public Bitmap copyBitMap(SegmentUnitBitMapType type) {
+    return getCompressedBitMap(type).toBitmap();
+  }
+
+  public CompressedBitmap getCompressedBitMap(SegmentUnitBitMapType type) {
     if (type == SegmentUnitBitMapType.Migration) {
       return migrateBitMap;
     } else if (type == SegmentUnitBitMapType.Data) {
@@ -203,8 +253,8 @@ public class SegmentUnitBitmap {
 
   public String toString() {
     StringBuilder sb = new StringBuilder();
-    sb.append("dataBitMap:").append(dataBitMap.toString()).append("migrateBitMap:")
-        .append(migrateBitMap.toString());
+    sb.append("dataBitMap:").append(dataBitMap.toBitmap().toString()).append("migrateBitMap:")
+        .append(migrateBitMap.toBitmap().toString());
     return sb.toString();
   }
 
@@ -159,6 +159,9 @@ public class SegmentUnitMetadata extends AbstractSegmentUnitMetadata implements
   private InstanceId instanceIdOfRollBackJs;
   private AtomicBoolean missLogWhenPsi = new AtomicBoolean(false);
   private boolean newBorn = true;
+  // the segment in the info center this unit is reported to, null on data nodes
+  @JsonIgnore
+  private volatile SegmentMetadata segment;
 
   @JsonCreator
   public SegmentUnitMetadata(@JsonProperty("segId") SegId segId,
@@ -274,6 +277,8 @@ public class SegmentUnitMetadata extends AbstractSegmentUnitMetadata implements
 
   public void setStatus(SegmentUnitStatus status) {
     this.status = status;
+    markReportedChange();
+    segmentUnitChanged();
 
     if (becomePrimaryRightAfterCreation()) {
       // I am just created
@@ -287,6 +292,7 @@ public class SegmentUnitMetadata extends AbstractSegmentUnitMetadata implements
 
   public void setLastReported(long lastReported) {
     this.lastReported = lastReported;
+    segmentUnitChanged();
   }
 
   public VolumeType getVolumeType() {
@@ -299,6 +305,20 @@ public class SegmentUnitMetadata extends AbstractSegmentUnitMetadata implements
 
   public void setMembership(SegmentMembership membership) {
     this.membership = membership;
+    markReportedChange();
+    segmentUnitChanged();
+  }
+
+  @JsonIgnore
+  void setSegment(SegmentMetadata segment) {
+    this.segment = segment;
+  }
+
+  private void segmentUnitChanged() {
+    SegmentMetadata segment = this.segment;
+    if (segment != null) {
+      segment.segmentUnitChanged();
+    }
   }
 
   public long getLastUpdated() {
@@ -307,6 +327,7 @@ public class SegmentUnitMetadata extends AbstractSegmentUnitMetadata implements
 
   public void setLastUpdated(Long lastUpdated) {
     this.lastUpdated = lastUpdated;
+    markReportedChange();
   }
 
   public String getAccountMetadataJson() {
@@ -315,6 +336,7 @@ public class SegmentUnitMetadata extends AbstractSegmentUnitMetadata implements
 
   public void setAccountMetadataJson(String accountMetadataJson) {
     this.accountMetadataJson = accountMetadataJson;
+    markReportedChange();
   }
 
   public InstanceId getInstanceId() {
@@ -323,6 +345,7 @@ public class SegmentUnitMetadata extends AbstractSegmentUnitMetadata implements
 
   public void setInstanceId(InstanceId instanceId) {
     this.instanceId = instanceId;
+    markReportedChange();
   }
 
   public String getVolumeMetadataJson() {
@@ -331,6 +354,7 @@ public class SegmentUnitMetadata extends AbstractSegmentUnitMetadata implements
 
   public void setVolumeMetadataJson(String volumeMetadataJson) {
     this.volumeMetadataJson = volumeMetadataJson;
+    markReportedChange();
   }
 
   public double getRatioMigration() {
@@ -339,6 +363,7 @@ public class SegmentUnitMetadata extends AbstractSegmentUnitMetadata implements
 
   public void setRatioMigration(double ratioMigration) {
     this.ratioMigration = ratioMigration;
+    markReportedChange();
   }
 
   @JsonIgnore
@@ -403,6 +428,7 @@ public class SegmentUnitMetadata extends AbstractSegmentUnitMetadata implements
     this.minMigrationSpeed = newOne.minMigrationSpeed;
     this.maxMigrationSpeed = newOne.maxMigrationSpeed;
     this.srcVolumeId = newOne.srcVolumeId;
+    markReportedChange();
   }
 
   @JsonIgnore
@@ -479,6 +505,7 @@ public class SegmentUnitMetadata extends AbstractSegmentUnitMetadata implements
   @JsonIgnore
   public void setDiskName(String diskName) {
     this.diskName = diskName;
+    markReportedChange();
   }
 
   @JsonIgnore
@@ -489,6 +516,7 @@ public class SegmentUnitMetadata extends AbstractSegmentUnitMetadata implements
   @JsonIgnore
   public void setArchiveId(long archiveId) {
     this.archiveId = archiveId;
+    markReportedChange();
   }
 
   /**
@@ -548,6 +576,7 @@ public class SegmentUnitMetadata extends AbstractSegmentUnitMetadata implements
 
   public void setSrcVolumeId(long srcVolumeId) {
     this.srcVolumeId = srcVolumeId;
+    markReportedChange();
   }
 
   public boolean isSecondaryCandidate() {
@@ -618,6 +647,7 @@ public class SegmentUnitMetadata extends AbstractSegmentUnitMetadata implements
   @JsonIgnore
   public void setMigrationSpeed(int migrationSpeed) {
     this.migrationSpeed = migrationSpeed;
+    markReportedChange();
   }
 
   @JsonIgnore
@@ -628,6 +658,7 @@ public class SegmentUnitMetadata extends AbstractSegmentUnitMetadata implements
   @JsonIgnore
   public void setMinMigrationSpeed(long minMigrationSpeed) {
     this.minMigrationSpeed = minMigrationSpeed;
+    markReportedChange();
   }
 
   @JsonIgnore
@@ -638,6 +669,7 @@ public class SegmentUnitMetadata extends AbstractSegmentUnitMetadata implements
   @JsonIgnore
   public void setMaxMigrationSpeed(long maxMigrationSpeed) {
     this.maxMigrationSpeed = maxMigrationSpeed;
+    markReportedChange();
   }
 
   public boolean isInnerMigrating() {
@@ -646,6 +678,7 @@ public class SegmentUnitMetadata extends AbstractSegmentUnitMetadata implements
 
   public void setInnerMigrating(boolean innerMigrating) {
     this.innerMigrating = innerMigrating;
+    markReportedChange();
   }
 
   public boolean isEnableLaunchMultiDrivers() {
@@ -654,6 +687,7 @@ public class SegmentUnitMetadata extends AbstractSegmentUnitMetadata implements
 
   public void setEnableLaunchMultiDrivers(boolean enableLaunchMultiDrivers) {
     this.enableLaunchMultiDrivers = enableLaunchMultiDrivers;
+    markReportedChange();
   }
 
   public VolumeMetadata.VolumeSourceType getVolumeSource() {
@@ -662,6 +696,7 @@ public class SegmentUnitMetadata extends AbstractSegmentUnitMetadata implements
 
   public void setVolumeSource(VolumeMetadata.VolumeSourceType volumeSource) {
     this.volumeSource = volumeSource;
+    markReportedChange();
   }
 
   public AtomicBoolean getMissLogWhenPsi() {
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package py.archive.segment.recurring;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.DelayQueue;
+
+/**
+ * Keep the contexts in a {@link DelayQueue}.
+ */
+class DelayQueueTaskQueue implements SegmentUnitTaskQueue {
+  private final DelayQueue<SegmentUnitTaskContext> taskQueue = new DelayQueue<>();
+
+  @Override
+  public void put(SegmentUnitTaskContext context) {
+    taskQueue.put(context);
+  }
+
+  @Override
+  public int drainTo(Collection<SegmentUnitTaskContext> contexts) {
+    return taskQueue.drainTo(contexts);
+  }
+
+  @Override
+  public int size() {
+    return taskQueue.size();
+  }
+
+  @Override
+  public List<SegmentUnitTaskContext> snapshot() {
+    return new ArrayList<>(taskQueue);
+  }
+}
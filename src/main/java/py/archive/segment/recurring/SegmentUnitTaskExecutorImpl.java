@@ -28,7 +28,6 @@ import java.util.TreeMap;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.DelayQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
@@ -47,6 +46,11 @@ import py.common.NamedThreadFactory;
 
 /**
  * To use this executor, we have to addSegment(segId) and call start() function.
+ *
+ * <p>The tasks are hashed by their segment id to a number of shards. Each shard has its own delay
+ * queue, task record and puller thread, so all tasks of a segment unit are always pulled by the
+ * same thread in the order they become due, while tasks of different segment units don't contend
+ * for one queue lock. The work thread pools are shared by all shards.
  */
 public class SegmentUnitTaskExecutorImpl implements SegmentUnitTaskExecutor {
   private static final Logger logger = LoggerFactory.getLogger(SegmentUnitTaskExecutorImpl.class);
@@ -55,13 +59,11 @@ public class SegmentUnitTaskExecutorImpl implements SegmentUnitTaskExecutor {
   private static final long DELAY_EXECUTION_OF_DISALLOW_SEGMENT_UNIT_MS = 500; // MS
   private final AtomicLong queueSeqId;
   private final String name;
-  private final Multimap<SegId, SegmentUnitTaskContext> allTasksRecord;
   private final Map<SegId, SegmentUnitTaskCallback> removedSegIds;
   private final Map<SegId, ContextKey> disallowedTasks;
   private final SegmentUnitProcessorFactory processorFactory;
   private final SegmentUnitTaskContextFactory contextFactory;
-  private final Thread taskPullerThread;
-  private DelayQueue<SegmentUnitTaskContext> taskQueue;
+  private final Shard[] shards;
   private Map<SegmentUnitTaskType, ThreadPoolExecutor> executorMap;
   private volatile boolean isInterrupted;
   /**
@@ -78,35 +80,52 @@ public class SegmentUnitTaskExecutorImpl implements SegmentUnitTaskExecutor {
       SegmentUnitTaskContextFactory contextFactory, int corePoolSize, int maxPoolSize,
       int maxNumTasks,
       String name) {
-    /*
-     * Current use one puller thread to do the job, once one thread is not enough, should use thread
-     *  safe multi-map,
-     * and processContext should add synchronized
-     */
-    allTasksRecord = Multimaps
-        .synchronizedSetMultimap(HashMultimap.<SegId, SegmentUnitTaskContext>create());
+    this(segmentUnitProcessorFactory, contextFactory, corePoolSize, maxPoolSize, maxNumTasks, name,
+        1);
+  }
+
+  /**
+   * construct a task executor whose tasks are spread over the given number of shards, each pulled
+   * by its own thread. It is paused after the construction and need to use restart() to start it.
+   */
+  public SegmentUnitTaskExecutorImpl(SegmentUnitProcessorFactory segmentUnitProcessorFactory,
+      SegmentUnitTaskContextFactory contextFactory, int corePoolSize, int maxPoolSize,
+      int maxNumTasks,
+      String name, int shardCount) {
+    this(segmentUnitProcessorFactory, contextFactory, corePoolSize, maxPoolSize, maxNumTasks, name,
+        shardCount, SegmentUnitTaskQueueType.DelayQueue);
+  }
+
+  /**
+   * construct a task executor whose tasks are spread over the given number of shards, each keeping
+   * its delayed tasks in the given type of queue. It is paused after the construction and need to
+   * use restart() to start it.
+   */
+  public SegmentUnitTaskExecutorImpl(SegmentUnitProcessorFactory segmentUnitProcessorFactory,
+      SegmentUnitTaskContextFactory contextFactory, int corePoolSize, int maxPoolSize,
+      int maxNumTasks,
+      String name, int shardCount, SegmentUnitTaskQueueType queueType) {
+    Validate.notNull(queueType);
+    Validate.isTrue(shardCount > 0, "shard count must be positive: " + shardCount);
     disallowedTasks = new ConcurrentHashMap<>();
     removedSegIds = new ConcurrentHashMap<SegId, SegmentUnitTaskCallback>();
     this.processorFactory = segmentUnitProcessorFactory;
     this.contextFactory = contextFactory;
-    taskQueue = new DelayQueue<SegmentUnitTaskContext>();
     executorMap = new ConcurrentHashMap<SegmentUnitTaskType, ThreadPoolExecutor>();
     this.name = name;
 
-    final TaskPuller puller = new TaskPuller();
-    taskPullerThread = new Thread(name + "-TaskPuller") {
-      @Override
-      public void run() {
-        puller.run();
-      }
-    };
-    taskPullerThread.start();
-
     this.queueSeqId = new AtomicLong(0);
     this.pause = true;
     this.isInterrupted = false;
     addThreadPoolExecutor(SegmentUnitTaskType.Default, corePoolSize, maxPoolSize);
 
+    shards = new Shard[shardCount];
+    for (int i = 0; i < shardCount; i++) {
+      shards[i] = new Shard(shardCount == 1 ? name : name + "-" + i, queueType);
+    }
+    for (Shard shard : shards) {
+      shard.taskPullerThread.start();
+    }
   }
 
   public void stopTaskPullerThread() {
@@ -183,7 +202,7 @@ public class SegmentUnitTaskExecutorImpl implements SegmentUnitTaskExecutor {
     // put the eligible context to the delayed queue
     for (SegmentUnitTaskContext context : newContexts) {
       context.setExternallyAdded(true);
-      taskQueue.put(context);
+      shardOf(context.getSegId()).taskQueue.put(context);
       context.inQueue();
     }
   }
@@ -219,11 +238,15 @@ public class SegmentUnitTaskExecutorImpl implements SegmentUnitTaskExecutor {
   }
 
   public boolean isAllContextsPaused(SegId segId) {
-    Collection<SegmentUnitTaskContext> contexts = allTasksRecord.get(segId);
-    for (SegmentUnitTaskContext context : contexts) {
-      if (!context.isPaused()) {
-        logger.info("context={} is not paused, all contexts={}", context, contexts);
-        return false;
+    Multimap<SegId, SegmentUnitTaskContext> allTasksRecord = shardOf(segId).allTasksRecord;
+    // iterating a view of the synchronized multimap needs the lock of the multimap
+    synchronized (allTasksRecord) {
+      Collection<SegmentUnitTaskContext> contexts = allTasksRecord.get(segId);
+      for (SegmentUnitTaskContext context : contexts) {
+        if (!context.isPaused()) {
+          logger.info("context={} is not paused, all contexts={}", context, contexts);
+          return false;
+        }
       }
     }
     return true;
@@ -242,7 +265,24 @@ public class SegmentUnitTaskExecutorImpl implements SegmentUnitTaskExecutor {
    */
   @Override
   public int getTaskCount() {
-    return allTasksRecord.size();
+    int count = 0;
+    for (Shard shard : shards) {
+      count += shard.allTasksRecord.size();
+    }
+    return count;
+  }
+
+  int getShardCount() {
+    return shards.length;
+  }
+
+  private Shard shardOf(SegId segId) {
+    if (shards.length == 1) {
+      return shards[0];
+    }
+    int hash = segId.hashCode();
+    // the index is in the low bits of the hash code, spread the volume id bits over them as well
+    return shards[Math.floorMod(hash ^ (hash >>> 16), shards.length)];
   }
 
   @Override
@@ -268,7 +308,7 @@ public class SegmentUnitTaskExecutorImpl implements SegmentUnitTaskExecutor {
     // just put new contexts to delay queue
     for (SegmentUnitTaskContext newContext : newContexts) {
       newContext.inQueue();
-      taskQueue.put(newContext);
+      shardOf(newContext.getSegId()).taskQueue.put(newContext);
       logger.debug("Added a new context to the delay queue {}, execute by thread {} ", newContext,
           Thread.currentThread().getName());
     }
@@ -278,9 +318,12 @@ public class SegmentUnitTaskExecutorImpl implements SegmentUnitTaskExecutor {
    * This function is called when a task is pulled out of the delayed queue. In the above case,
    * there is no corresponding tasks in the queue.
    */
-  private void processContextsPulledFromDelayQueue(List<SegmentUnitTaskContext> newContexts,
+  private void processContextsPulledFromDelayQueue(Shard shard,
+      List<SegmentUnitTaskContext> newContexts,
       Map<SegmentUnitTaskContext, HowToDealWithNewContext> howToProcess) {
-    // TODO: if more than one puller thread exist, should consider synchronized
+    // only the puller thread of the shard processes the contexts of its segment units, the record
+    // map is synchronized because other threads read it
+    Multimap<SegId, SegmentUnitTaskContext> allTasksRecord = shard.allTasksRecord;
     for (SegmentUnitTaskContext newContext : newContexts) {
       logger.debug("context retrieved from delay queue {} ", newContext);
       boolean needProcess = false;
@@ -289,12 +332,14 @@ public class SegmentUnitTaskExecutorImpl implements SegmentUnitTaskExecutor {
         /*
          * determine the context from map is abandoned or not, if it's abandoned, remove it from map
          */
-        Collection<SegmentUnitTaskContext> contextsInMap = allTasksRecord.get(segId);
-        Iterator<SegmentUnitTaskContext> iterator = contextsInMap.iterator();
-        while (iterator.hasNext()) {
-          SegmentUnitTaskContext contextInMap = iterator.next();
-          if (contextInMap.isAbandonedTask()) {
-            iterator.remove();
+        synchronized (allTasksRecord) {
+          Collection<SegmentUnitTaskContext> contextsInMap = allTasksRecord.get(segId);
+          Iterator<SegmentUnitTaskContext> iterator = contextsInMap.iterator();
+          while (iterator.hasNext()) {
+            SegmentUnitTaskContext contextInMap = iterator.next();
+            if (contextInMap.isAbandonedTask()) {
+              iterator.remove();
+            }
           }
         }
 
@@ -401,9 +446,11 @@ public class SegmentUnitTaskExecutorImpl implements SegmentUnitTaskExecutor {
   }
 
   public String printAllTasks() {
-    StringBuilder builder = new StringBuilder(allTasksRecord.toString());
-    builder.append("\n ----------\n ");
-    builder.append(allTasksRecord.toString());
+    StringBuilder builder = new StringBuilder();
+    for (Shard shard : shards) {
+      builder.append(shard.allTasksRecord.toString());
+      builder.append("\n ----------\n ");
+    }
     return builder.toString();
   }
 
@@ -414,8 +461,10 @@ public class SegmentUnitTaskExecutorImpl implements SegmentUnitTaskExecutor {
   public String printTasksInQueue() {
     Map<Long, SegmentUnitTaskContext> map = new TreeMap<>();
     StringBuilder builder = new StringBuilder();
-    for (SegmentUnitTaskContext context : taskQueue) {
-      map.put(context.getDelay(TimeUnit.MILLISECONDS), context);
+    for (Shard shard : shards) {
+      for (SegmentUnitTaskContext context : shard.taskQueue.snapshot()) {
+        map.put(context.getDelay(TimeUnit.MILLISECONDS), context);
+      }
     }
 
     for (Map.Entry<Long, SegmentUnitTaskContext> entry : map.entrySet()) {
@@ -458,6 +507,32 @@ public class SegmentUnitTaskExecutorImpl implements SegmentUnitTaskExecutor {
     Execute // execute the next context
   }
 
+  /**
+   * the tasks of the segment units hashed to one puller thread.
+   */
+  private class Shard {
+    private final SegmentUnitTaskQueue taskQueue;
+    private final Multimap<SegId, SegmentUnitTaskContext> allTasksRecord;
+    private final Thread taskPullerThread;
+
+    private Shard(String shardName, SegmentUnitTaskQueueType queueType) {
+      if (queueType == SegmentUnitTaskQueueType.TimingWheel) {
+        taskQueue = new TimingWheelTaskQueue();
+      } else {
+        taskQueue = new DelayQueueTaskQueue();
+      }
+      allTasksRecord = Multimaps
+          .synchronizedSetMultimap(HashMultimap.<SegId, SegmentUnitTaskContext>create());
+      final TaskPuller puller = new TaskPuller(this);
+      taskPullerThread = new Thread(shardName + "-TaskPuller") {
+        @Override
+        public void run() {
+          puller.run();
+        }
+      };
+    }
+  }
+
   private class ThreadPoolExecutorWithCallBack extends ThreadPoolExecutor {
     public ThreadPoolExecutorWithCallBack(int corePoolSize, int maximumPoolSize, long keepAliveTime,
         TimeUnit unit,
@@ -503,6 +578,12 @@ public class SegmentUnitTaskExecutorImpl implements SegmentUnitTaskExecutor {
   }
 
   private class TaskPuller implements Runnable {
+    private final Shard shard;
+
+    private TaskPuller(Shard shard) {
+      this.shard = shard;
+    }
+
     @Override
     public void run() {
       List<SegmentUnitTaskContext> contextsRetrieved = new ArrayList<SegmentUnitTaskContext>();
@@ -520,7 +601,7 @@ public class SegmentUnitTaskExecutorImpl implements SegmentUnitTaskExecutor {
 
           // wait forever until an available task available to execute
           try {
-            taskQueue.drainTo(contextsRetrieved);
+            shard.taskQueue.drainTo(contextsRetrieved);
           } catch (Exception e) {
             logger.error(
                 "Caught an exception when draining contexts from the delay queue. "
@@ -544,7 +625,7 @@ public class SegmentUnitTaskExecutorImpl implements SegmentUnitTaskExecutor {
           // remove all contexts from map
           howTo.clear();
           // process contexts pulled from delay queue
-          processContextsPulledFromDelayQueue(contextsRetrieved, howTo);
+          processContextsPulledFromDelayQueue(shard, contextsRetrieved, howTo);
           if (howTo != null && howTo.size() != 0) {
             for (Map.Entry<SegmentUnitTaskContext, HowToDealWithNewContext> entry : howTo
                 .entrySet()) {
@@ -556,7 +637,7 @@ public class SegmentUnitTaskExecutorImpl implements SegmentUnitTaskExecutor {
               } else if (entry.getValue() == HowToDealWithNewContext.Delay) {
                 newContext.inQueue();
                 newContext.updateDelay(DELAY_EXECUTION_OF_DISALLOW_SEGMENT_UNIT_MS);
-                taskQueue.put(newContext);
+                shard.taskQueue.put(newContext);
                 logger.debug("put back to the queue for delay {} ", newContext);
               } // else discard, do nothing
             }
@@ -613,7 +694,7 @@ public class SegmentUnitTaskExecutorImpl implements SegmentUnitTaskExecutor {
               context.updateDelay(SLEEP_TIME_WHEN_EXECUTION_EXCEPTION_CAUGHT);
             }
 
-            taskQueue.put(context);
+            shard.taskQueue.put(context);
 
           } catch (Exception e) {
             logger.error("caught an exception", e);
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package py.archive.segment.recurring;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The structure holding the segment unit task contexts until their delays expire.
+ *
+ * <p>Contexts can be put from any thread, while only the puller thread owning the queue drains
+ * it.
+ */
+interface SegmentUnitTaskQueue {
+  void put(SegmentUnitTaskContext context);
+
+  /**
+   * move all contexts whose delays have expired to the given collection.
+   *
+   * @return the number of contexts moved
+   */
+  int drainTo(Collection<SegmentUnitTaskContext> contexts);
+
+  int size();
+
+  /**
+   * a copy of the contexts in the queue, in no particular order.
+   */
+  List<SegmentUnitTaskContext> snapshot();
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package py.archive.segment.recurring;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * A hashed timing wheel keeping the contexts in buckets of ticks.
+ *
+ * <p>Putting a context only appends it to a lock free queue, the puller thread moves it to the
+ * bucket of its expiration tick on the next drain. Expired contexts come out at the granularity of
+ * one tick instead of in strict order of their delays, which is fine for the recurring tasks as
+ * they are all scheduled in milliseconds. A delay longer than one round of the wheel is kept in
+ * the bucket and skipped until its round comes. A context whose delay is extended by {@link
+ * SegmentUnitTaskContext#updateDelay(long)} while it is in the wheel is put to its new bucket
+ * when the old one expires.
+ */
+class TimingWheelTaskQueue implements SegmentUnitTaskQueue {
+  static final long DEFAULT_TICK_MS = 10;
+  static final int DEFAULT_WHEEL_SIZE = 1024;
+
+  private final long tickMs;
+  private final int mask;
+  private final List<Timeout>[] buckets;
+  private final ConcurrentLinkedQueue<SegmentUnitTaskContext> pendingContexts;
+  private final AtomicInteger size;
+  private final List<Timeout> extendedTimeouts;
+  // all ticks before it have been expired
+  private long currentTick;
+
+  TimingWheelTaskQueue() {
+    this(DEFAULT_TICK_MS, DEFAULT_WHEEL_SIZE);
+  }
+
+  @SuppressWarnings("unchecked")
+  TimingWheelTaskQueue(long tickMs, int wheelSize) {
+    Validate.isTrue(tickMs > 0, "tick must be positive: " + tickMs);
+    Validate.isTrue(wheelSize > 0 && Integer.bitCount(wheelSize) == 1,
+        "wheel size must be a power of two: " + wheelSize);
+    this.tickMs = tickMs;
+    this.mask = wheelSize - 1;
+    this.buckets = new List[wheelSize];
+    for (int i = 0; i < wheelSize; i++) {
+      buckets[i] = new ArrayList<>();
+    }
+    this.pendingContexts = new ConcurrentLinkedQueue<>();
+    this.size = new AtomicInteger(0);
+    this.extendedTimeouts = new ArrayList<>();
+    this.currentTick = System.currentTimeMillis() / tickMs;
+  }
+
+  @Override
+  public void put(SegmentUnitTaskContext context) {
+    Validate.notNull(context);
+    size.incrementAndGet();
+    pendingContexts.add(context);
+  }
+
+  @Override
+  public synchronized int drainTo(Collection<SegmentUnitTaskContext> contexts) {
+    long now = System.currentTimeMillis();
+    SegmentUnitTaskContext context;
+    while ((context = pendingContexts.poll()) != null) {
+      schedule(new Timeout(context), now);
+    }
+
+    long nowTick = now / tickMs;
+    if (nowTick < currentTick) {
+      // the clock went backwards, wait for it
+      return 0;
+    }
+
+    int drained = 0;
+    // all buckets are visited once when the wheel has been idle for more than a round
+    long lastTick = Math.min(nowTick, currentTick + mask);
+    for (long tick = currentTick; tick <= lastTick; tick++) {
+      drained += expire(buckets[(int) (tick & mask)], nowTick, contexts);
+    }
+    currentTick = nowTick + 1;
+
+    for (Timeout timeout : extendedTimeouts) {
+      schedule(timeout, now);
+    }
+    extendedTimeouts.clear();
+    size.addAndGet(-drained);
+    return drained;
+  }
+
+  @Override
+  public int size() {
+    return size.get();
+  }
+
+  @Override
+  public synchronized List<SegmentUnitTaskContext> snapshot() {
+    List<SegmentUnitTaskContext> contexts = new ArrayList<>(pendingContexts);
+    for (List<Timeout> bucket : buckets) {
+      for (Timeout timeout : bucket) {
+        contexts.add(timeout.context);
+      }
+    }
+    return contexts;
+  }
+
+  private void schedule(Timeout timeout, long now) {
+    long deadline = now + Math.max(0, timeout.context.getDelay(TimeUnit.MILLISECONDS));
+    // round up, so that the context never expires before its delay
+    timeout.tick = Math.max(currentTick, (deadline + tickMs - 1) / tickMs);
+    buckets[(int) (timeout.tick & mask)].add(timeout);
+  }
+
+  /**
+   * move the contexts expired at the given tick out of the bucket, keeping the ones of later
+   * rounds in place.
+   */
+  private int expire(List<Timeout> bucket, long nowTick, Collection<SegmentUnitTaskContext> out) {
+    int drained = 0;
+    int kept = 0;
+    for (int i = 0; i < bucket.size(); i++) {
+      Timeout timeout = bucket.get(i);
+      if (timeout.tick > nowTick) {
+        bucket.set(kept++, timeout);
+      } else if (timeout.context.getDelay(TimeUnit.MILLISECONDS) > 0) {
+        extendedTimeouts.add(timeout);
+      } else {
+        out.add(timeout.context);
+        drained++;
+      }
+    }
+    bucket.subList(kept, bucket.size()).clear();
+    return drained;
+  }
+
+  private static class Timeout {
+    private final SegmentUnitTaskContext context;
+    private long tick;
+
+    private Timeout(SegmentUnitTaskContext context) {
+      this.context = context;
+    }
+  }
+}
@@ -15,6 +15,7 @@
 package py.datanode.client;
 
 import com.google.common.base.Optional;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -22,8 +23,17 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.commons.lang3.Validate;
 import org.apache.thrift.async.AsyncMethodCallback;
 import org.slf4j.Logger;
@@ -67,12 +77,42 @@ public class DataNodeServiceAsyncClientWrapper {
   private static final Logger logger = LoggerFactory
       .getLogger(DataNodeServiceAsyncClientWrapper.class);
   private static final int EXCEPTION_RECORD_PER_NUM = 200;
+  // retries after backoff of all broadcasts wait here, instead of sleeping in their callers
+  private static final ScheduledExecutorService DEFAULT_BACKOFF_TIMER = Executors
+      .newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder().setNameFormat("broadcast-backoff-timer-%d").setDaemon(true)
+              .build());
+  private static final int BROADCAST_DECIDER_THREADS = Runtime.getRuntime().availableProcessors();
+  private static final int BROADCAST_DECIDER_QUEUE_SIZE = 4096;
+  // broadcasts are decided and retried here, neither in the response callbacks nor in the timer;
+  // when the deciders fall behind, the thread completing the broadcast decides it itself
+  private static final Executor DEFAULT_BROADCAST_EXECUTOR = newBroadcastExecutor();
   private final GenericThriftClientFactory<DataNodeService.AsyncIface> clientFactory;
+  private final ScheduledExecutorService backoffTimer;
+  private final Executor broadcastExecutor;
   private int exceptionCounter = 0;
 
   public DataNodeServiceAsyncClientWrapper(
       GenericThriftClientFactory<DataNodeService.AsyncIface> clientFactory) {
+    this(clientFactory, DEFAULT_BACKOFF_TIMER);
+  }
+
+  public DataNodeServiceAsyncClientWrapper(
+      GenericThriftClientFactory<DataNodeService.AsyncIface> clientFactory,
+      ScheduledExecutorService backoffTimer) {
+    this(clientFactory, backoffTimer, DEFAULT_BROADCAST_EXECUTOR);
+  }
+
+  /**
+   * The backoff timer only times the backoff, the retries and the decisions of broadcasts run on
+   * the broadcast executor.
+   */
+  public DataNodeServiceAsyncClientWrapper(
+      GenericThriftClientFactory<DataNodeService.AsyncIface> clientFactory,
+      ScheduledExecutorService backoffTimer, Executor broadcastExecutor) {
     this.clientFactory = clientFactory;
+    this.backoffTimer = backoffTimer;
+    this.broadcastExecutor = broadcastExecutor;
   }
 
   public static boolean checkResultAccordingToMembership(Collection<EndPoint> goodEndPoints,
@@ -177,6 +217,35 @@ public class DataNodeServiceAsyncClientWrapper {
       Optional<Map<EndPoint, InstanceId>> mapEndPointToInstanceId)
       throws QuorumNotFoundException, FailedToSendBroadcastRequestsException,
       SnapshotVersionMissMatchForMergeLogsException {
+    return waitFor(broadcastAsync(segmentLeaseHandler, leaseSpanForPeer, request, requestTimeout,
+        quorumSize, exitEarlier, eps, membership, mapEndPointToInstanceId));
+  }
+
+  public CompletableFuture<BroadcastResult> broadcastAsync(BroadcastRequest request,
+      long timeout, int quorumSize, boolean exitEarlier, Collection<EndPoint> eps) {
+    return broadcastAsync(Optional.absent(), 0, request, timeout, quorumSize, exitEarlier, eps,
+        Optional.absent(), Optional.absent());
+  }
+
+  public CompletableFuture<BroadcastResult> broadcastAsync(BroadcastRequest request,
+      long timeout, int quorumSize, boolean exitEarlier, Collection<EndPoint> eps,
+      SegmentMembership membership, Map<EndPoint, InstanceId> mapEndPointToInstanceId) {
+    return broadcastAsync(Optional.absent(), 0, request, timeout, quorumSize, exitEarlier, eps,
+        Optional.of(membership), Optional.of(mapEndPointToInstanceId));
+  }
+
+  /**
+   * Send the request to the end points without blocking the caller. The returned future completes
+   * on the broadcast executor as soon as the broadcast is decided, the same way {@link
+   * #broadcast(Optional, int, BroadcastRequest, long, int, boolean, Collection, Optional,
+   * Optional)} returns, or completes exceptionally with the exception it throws.
+   */
+  public CompletableFuture<BroadcastResult> broadcastAsync(
+      Optional<SegmentLeaseHandler> segmentLeaseHandler, int leaseSpanForPeer,
+      BroadcastRequest request, long requestTimeout, int quorumSize, boolean exitEarlier,
+      Collection<EndPoint> eps, Optional<SegmentMembership> membership,
+      Optional<Map<EndPoint, InstanceId>> mapEndPointToInstanceId) {
+    CompletableFuture<BroadcastResult> future = new CompletableFuture<>();
     boolean notEnoughMembers = false;
     if (membership.isPresent() && mapEndPointToInstanceId.isPresent()) {
       notEnoughMembers = !checkResultAccordingToMembership(mapEndPointToInstanceId.get().keySet(),
@@ -191,13 +260,14 @@ public class DataNodeServiceAsyncClientWrapper {
               eps);
       BroadcastResult result = new BroadcastResult();
       result.broadcastSucceeded = false;
-      throw new QuorumNotFoundException(result);
+      future.completeExceptionally(new QuorumNotFoundException(result));
+      return future;
     }
 
     ResponseCollector<EndPoint, BroadcastResponse> responseCollector = new ResponseCollector<>();
 
     int numRequestSent = 0;
-    CountDownLatch latch = new CountDownLatch(eps.size());
+    BroadcastCompletion completion = new BroadcastCompletion(eps.size());
 
     for (EndPoint endPointToBroadcast : eps) {
       try {
@@ -208,11 +278,12 @@ public class DataNodeServiceAsyncClientWrapper {
         AbstractBroadcastCallback callback;
         if (membership.isPresent() && mapEndPointToInstanceId.isPresent()) {
           callback = new BroadcastMethodCallbackWithMembership(responseCollector, request,
-              endPointToBroadcast, eps.size(), latch, exitEarlier, quorumSize, membership.get(),
-              mapEndPointToInstanceId.get());
+              endPointToBroadcast, eps.size(), completion, exitEarlier, quorumSize,
+              membership.get(), mapEndPointToInstanceId.get());
         } else {
           callback = new BroadcastMethodCallback(segmentLeaseHandler, leaseSpanForPeer, request,
-              endPointToBroadcast, responseCollector, eps.size(), quorumSize, exitEarlier, latch);
+              endPointToBroadcast, responseCollector, eps.size(), quorumSize, exitEarlier,
+              completion);
         }
         asyncClient.broadcast(request, callback);
         logger.debug("sent endpoint: {} a request {} , socket timeout: {}", endPointToBroadcast,
@@ -261,26 +332,37 @@ public class DataNodeServiceAsyncClientWrapper {
       result.broadcastSucceeded = false;
 
       if (hasSnpashotVersionException) {
-        throw new SnapshotVersionMissMatchForMergeLogsException(result);
+        future.completeExceptionally(new SnapshotVersionMissMatchForMergeLogsException(result));
       } else {
-        throw new FailedToSendBroadcastRequestsException(result);
+        future.completeExceptionally(new FailedToSendBroadcastRequestsException(result));
       }
+      return future;
     }
 
-    // count down the latch as the same times as the number of requests that were failed to send
-    int numRequestsNotSent = eps.size() - numRequestSent;
-    while (numRequestsNotSent > 0) {
-      latch.countDown();
-      numRequestsNotSent--;
-    }
-
-    // Wait until all responses have been received
-    try {
-      latch.await();
-    } catch (InterruptedException e) {
-      logger.info("interrupted while can't wait for all push request coming back");
-    }
+    // the requests failed to send will never be responded
+    final int numSent = numRequestSent;
+    completion.allSent(eps.size() - numRequestSent, () -> broadcastExecutor.execute(() -> {
+      try {
+        future.complete(
+            decideBroadcast(request, quorumSize, eps, numSent, responseCollector, membership,
+                mapEndPointToInstanceId));
+      } catch (Throwable t) {
+        future.completeExceptionally(t);
+      }
+    }));
+    return future;
+  }
 
+  /**
+   * Process the responses received when the broadcast is decided, and throw the exception the
+   * broadcast fails with.
+   */
+  private BroadcastResult decideBroadcast(BroadcastRequest request, int quorumSize,
+      Collection<EndPoint> eps, int numRequestSent,
+      ResponseCollector<EndPoint, BroadcastResponse> responseCollector,
+      Optional<SegmentMembership> membership,
+      Optional<Map<EndPoint, InstanceId>> mapEndPointToInstanceId)
+      throws QuorumNotFoundException, SnapshotVersionMissMatchForMergeLogsException {
     // Process the responses
     // find all recoverable exceptions from the end points and update backoff data structure
     // accordingly
@@ -350,66 +432,23 @@ public class DataNodeServiceAsyncClientWrapper {
       Collection<EndPoint> epsPassedIn, boolean backoffIfNeeded, long totalTimeout)
       throws QuorumNotFoundException, FailedToSendBroadcastRequestsException,
       SnapshotVersionMissMatchForMergeLogsException {
-    Collection<EndPoint> eps = epsPassedIn;
-    int maxBackoffTime = ((int) totalTimeout / 2) == 0 ? 1000 : ((int) totalTimeout / 2);
-    BroadcastResult preResult = null;
-    BroadcastResult curResult = null;
-    long startTime = System.currentTimeMillis();
-    int failureTimes = 0;
-    do {
-      logger.debug("quorumSize {}, eps size {}. \nPrev result {}, \ncurrent result {}", quorumSize,
-          eps.size(),
-          preResult, curResult);
-      // reserve the previous result
-      preResult = curResult;
-      try {
-        curResult = broadcast(request, requestTimeout, quorumSize, exitEarlier, eps);
-        curResult.mergePreviousResult(preResult);
-        // succeed and return
-        break;
-      } catch (SnapshotVersionMissMatchForMergeLogsException e) {
-        throw e;
-      } catch (FailedToSendBroadcastRequestsException e) {
-        // don't need to retry
-        throw e;
-      } catch (QuorumNotFoundException e) {
-        curResult = e.getBroadcastResult();
-        if (backoffIfNeeded) {
-          eps = getRetrableExceptionsFromResults(curResult);
-
-          Map<EndPoint, BroadcastResponse> goodResponse = curResult.getGoodResponses();
-          int numGoodResponse = goodResponse != null ? goodResponse.size() : 0;
-          quorumSize -= numGoodResponse;
-
-          Validate.isTrue(quorumSize > 0);
-          // how long we have been running
-          long howLongWeHaveRun = System.currentTimeMillis() - startTime;
-
-          // merge the previous result with the current result
-          curResult.mergePreviousResult(preResult);
-          if (eps != null && eps.size() >= quorumSize && howLongWeHaveRun < totalTimeout) {
-            int backoffTime = calculateBackoffTime(maxBackoffTime, failureTimes);
-            failureTimes++;
-            logger.warn("when broadcast the request adding backoff time {}, failureTime {}, "
-                    + "howLongWeHaveRun {} and TotalTimeout {}", backoffTime, failureTimes,
-                howLongWeHaveRun, totalTimeout);
-            // sleep for a while
-            curResult.incBackoffTimes();
-            try {
-              Thread.sleep(backoffTime);
-            } catch (InterruptedException ie) {
-              logger.error("caught exception", ie);
-            }
-
-            continue;
-          }
-        }
-        // rethrow the exception because either we have retried or the condition to retry is not met
-        throw new QuorumNotFoundException(curResult);
-      }
-    } while (true);
+    return waitFor(broadcastAsync(segmentLeaseHandler, leaseSpanForPeer, request, requestTimeout,
+        quorumSize, exitEarlier, epsPassedIn, backoffIfNeeded, totalTimeout));
+  }
 
-    return curResult;
+  /**
+   * The asynchronous version of {@link #broadcast(SegmentLeaseHandler, int, BroadcastRequest, long,
+   * int, boolean, Collection, boolean, long)}. A retry after backoff is scheduled on the backoff
+   * timer instead of sleeping in the caller.
+   */
+  public CompletableFuture<BroadcastResult> broadcastAsync(
+      SegmentLeaseHandler segmentLeaseHandler, int leaseSpanForPeer, BroadcastRequest request,
+      long requestTimeout, int quorumSize, boolean exitEarlier, Collection<EndPoint> epsPassedIn,
+      boolean backoffIfNeeded, long totalTimeout) {
+    CompletableFuture<BroadcastResult> future = new CompletableFuture<>();
+    new BackoffBroadcast(future, request, requestTimeout, quorumSize, exitEarlier, epsPassedIn,
+        backoffIfNeeded, totalTimeout).attempt();
+    return future;
   }
 
   public void asyncBroadcast(BroadcastRequest broadcastRequest, long requestTimeout, int quorumSize,
@@ -466,6 +505,52 @@ public class DataNodeServiceAsyncClientWrapper {
     }
   }
 
+  private static ThreadPoolExecutor newBroadcastExecutor() {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(BROADCAST_DECIDER_THREADS,
+        BROADCAST_DECIDER_THREADS, 60, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<>(BROADCAST_DECIDER_QUEUE_SIZE),
+        new ThreadFactoryBuilder().setNameFormat("broadcast-decider-%d").setDaemon(true).build(),
+        new ThreadPoolExecutor.CallerRunsPolicy());
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  private static BroadcastResult waitFor(CompletableFuture<BroadcastResult> future)
+      throws QuorumNotFoundException, FailedToSendBroadcastRequestsException,
+      SnapshotVersionMissMatchForMergeLogsException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      logger.info("interrupted while waiting for the broadcast to be decided");
+      BroadcastResult result = new BroadcastResult();
+      result.broadcastSucceeded = false;
+      throw new FailedToSendBroadcastRequestsException(result);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof QuorumNotFoundException) {
+        throw (QuorumNotFoundException) cause;
+      } else if (cause instanceof FailedToSendBroadcastRequestsException) {
+        throw (FailedToSendBroadcastRequestsException) cause;
+      } else if (cause instanceof SnapshotVersionMissMatchForMergeLogsException) {
+        throw (SnapshotVersionMissMatchForMergeLogsException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IllegalStateException(cause);
+    }
+  }
+
+  private static Throwable unwrap(Throwable throwable) {
+    if (throwable instanceof CompletionException && throwable.getCause() != null) {
+      return throwable.getCause();
+    }
+    return throwable;
+  }
+
   private Collection<EndPoint> getRetrableExceptionsFromResults(BroadcastResult broadcastResult) {
     if (broadcastResult == null || broadcastResult.exceptions == null || broadcastResult.exceptions
         .isEmpty()) {
@@ -776,8 +861,143 @@ public class DataNodeServiceAsyncClientWrapper {
     }
   }
 
+  /**
+   * Decide a broadcast once all its requests are sent and either all responses are received or a
+   * callback has found the quorum decided.
+   */
+  private static class BroadcastCompletion {
+    private final AtomicInteger pendingResponses;
+    private final AtomicBoolean finished = new AtomicBoolean(false);
+    private volatile boolean quorumDecided = false;
+    private volatile Runnable decider;
+
+    private BroadcastCompletion(int numRequests) {
+      this.pendingResponses = new AtomicInteger(numRequests);
+    }
+
+    private void responseReceived(boolean quorumDecided) {
+      if (quorumDecided) {
+        this.quorumDecided = true;
+      }
+      pendingResponses.decrementAndGet();
+      tryFinish();
+    }
+
+    private void allSent(int numRequestsNotSent, Runnable decider) {
+      pendingResponses.addAndGet(-numRequestsNotSent);
+      this.decider = decider;
+      tryFinish();
+    }
+
+    private void tryFinish() {
+      Runnable currentDecider = decider;
+      if (currentDecider != null && (quorumDecided || pendingResponses.get() <= 0)
+          && finished.compareAndSet(false, true)) {
+        currentDecider.run();
+      }
+    }
+  }
+
+  /**
+   * One broadcast retried after backoff on the retryable end points, until the quorum is reached
+   * or the total timeout is over.
+   */
+  private class BackoffBroadcast {
+    private final CompletableFuture<BroadcastResult> future;
+    private final BroadcastRequest request;
+    private final long requestTimeout;
+    private final boolean exitEarlier;
+    private final boolean backoffIfNeeded;
+    private final long totalTimeout;
+    private final int maxBackoffTime;
+    private final long startTime;
+    private int quorumSize;
+    private Collection<EndPoint> eps;
+    private BroadcastResult preResult;
+    private int failureTimes;
+
+    private BackoffBroadcast(CompletableFuture<BroadcastResult> future, BroadcastRequest request,
+        long requestTimeout, int quorumSize, boolean exitEarlier, Collection<EndPoint> eps,
+        boolean backoffIfNeeded, long totalTimeout) {
+      this.future = future;
+      this.request = request;
+      this.requestTimeout = requestTimeout;
+      this.quorumSize = quorumSize;
+      this.exitEarlier = exitEarlier;
+      this.eps = eps;
+      this.backoffIfNeeded = backoffIfNeeded;
+      this.totalTimeout = totalTimeout;
+      this.maxBackoffTime = ((int) totalTimeout / 2) == 0 ? 1000 : ((int) totalTimeout / 2);
+      this.startTime = System.currentTimeMillis();
+    }
+
+    private void attempt() {
+      logger.debug("quorumSize {}, eps size {}. \nPrev result {}", quorumSize, eps.size(),
+          preResult);
+      try {
+        broadcastAsync(request, requestTimeout, quorumSize, exitEarlier, eps)
+            .whenComplete((result, throwable) -> {
+              try {
+                attemptDone(result, throwable);
+              } catch (Throwable t) {
+                future.completeExceptionally(t);
+              }
+            });
+      } catch (Throwable t) {
+        future.completeExceptionally(t);
+      }
+    }
+
+    private void attemptDone(BroadcastResult curResult, Throwable throwable) {
+      if (throwable == null) {
+        // succeed and return
+        curResult.mergePreviousResult(preResult);
+        future.complete(curResult);
+        return;
+      }
+
+      Throwable cause = unwrap(throwable);
+      if (!(cause instanceof QuorumNotFoundException)) {
+        // snapshot version mismatch, or failed to send and don't need to retry
+        future.completeExceptionally(cause);
+        return;
+      }
+
+      curResult = ((QuorumNotFoundException) cause).getBroadcastResult();
+      if (backoffIfNeeded) {
+        eps = getRetrableExceptionsFromResults(curResult);
+
+        Map<EndPoint, BroadcastResponse> goodResponse = curResult.getGoodResponses();
+        int numGoodResponse = goodResponse != null ? goodResponse.size() : 0;
+        quorumSize -= numGoodResponse;
+
+        Validate.isTrue(quorumSize > 0);
+        // how long we have been running
+        long howLongWeHaveRun = System.currentTimeMillis() - startTime;
+
+        // merge the previous result with the current result
+        curResult.mergePreviousResult(preResult);
+        if (eps != null && eps.size() >= quorumSize && howLongWeHaveRun < totalTimeout) {
+          int backoffTime = calculateBackoffTime(maxBackoffTime, failureTimes);
+          failureTimes++;
+          logger.warn("when broadcast the request adding backoff time {}, failureTime {}, "
+                  + "howLongWeHaveRun {} and TotalTimeout {}", backoffTime, failureTimes,
+              howLongWeHaveRun, totalTimeout);
+          curResult.incBackoffTimes();
+          // reserve the previous result
+          preResult = curResult;
+          backoffTimer.schedule(() -> broadcastExecutor.execute(this::attempt), backoffTime,
+              TimeUnit.MILLISECONDS);
+          return;
+        }
+      }
+      // either we have retried or the condition to retry is not met
+      future.completeExceptionally(new QuorumNotFoundException(curResult));
+    }
+  }
+
   private static class BroadcastMethodCallbackWithMembership extends AbstractBroadcastCallback {
-    private final CountDownLatch latch;
+    private final BroadcastCompletion completion;
     private final boolean exitEarlier;
     private final int quorumSize;
     private final SegmentMembership membership;
@@ -785,12 +1005,12 @@ public class DataNodeServiceAsyncClientWrapper {
 
     public BroadcastMethodCallbackWithMembership(
         ResponseCollector<EndPoint, BroadcastResponse> responseCollector,
-        BroadcastRequest request, EndPoint endPoint, int totalSize, CountDownLatch latch,
-        boolean exitEarlier,
+        BroadcastRequest request, EndPoint endPoint, int totalSize,
+        BroadcastCompletion completion, boolean exitEarlier,
         int quorumSize, SegmentMembership membership,
         Map<EndPoint, InstanceId> mapEndPointToInstanceId) {
       super(responseCollector, request, endPoint, totalSize);
-      this.latch = latch;
+      this.completion = completion;
       this.exitEarlier = exitEarlier;
       this.quorumSize = quorumSize;
       this.membership = membership;
@@ -804,37 +1024,31 @@ public class DataNodeServiceAsyncClientWrapper {
             mapEndPointToInstanceId,
             membership, quorumSize)) {
           logger.debug("Got a good quorum. Bait out");
-          wakeupMainThread(totalSize);
+          completion.responseReceived(true);
           return;
         }
         if (tooManyBadAccordinigToMembership(responseCollector.getBadOnes(),
             mapEndPointToInstanceId,
             membership, quorumSize)) {
           logger.info("it is impossible to get a good quorum any more. Bait out");
-          wakeupMainThread(totalSize);
+          completion.responseReceived(true);
           return;
         }
       }
-      latch.countDown();
-    }
-
-    private void wakeupMainThread(int totalSize) {
-      for (int i = 0; i < totalSize; i++) {
-        latch.countDown();
-      }
+      completion.responseReceived(false);
     }
   }
 
   /**
    * The class collects responses and decides when to wake up the main thread.
    *
-   * <p>There are 3 cases where we need to wake up the main thread 1. the number of good responses
+   * <p>There are 3 cases where we need to decide the broadcast 1. the number of good responses
    * received equals the quorum size 2. a stale membership exception is caught 3. the number of bad
    * responses received makes it impossible to receive quorum
    *
    */
   private static class BroadcastMethodCallback extends AbstractBroadcastCallback {
-    private final CountDownLatch latch;
+    private final BroadcastCompletion completion;
     private final boolean exitEarlier;
     private final int leaseSpanForPeer;
 
@@ -847,9 +1061,9 @@ public class DataNodeServiceAsyncClientWrapper {
         BroadcastRequest request, EndPoint endPoint,
         ResponseCollector<EndPoint, BroadcastResponse> responseCollector, int totalSize,
         int quorumSize,
-        boolean exitEarlier, CountDownLatch latch) {
+        boolean exitEarlier, BroadcastCompletion completion) {
       super(responseCollector, request, endPoint, totalSize);
-      this.latch = latch;
+      this.completion = completion;
       this.quorumSize = quorumSize;
       this.exitEarlier = exitEarlier;
       this.segmentLeaseHandler = segmentLeaseHandler;
@@ -870,16 +1084,16 @@ public class DataNodeServiceAsyncClientWrapper {
       if (exitEarlier) {
         if (responseCollector.numGoodResponses() >= quorumSize) {
           logger.debug("Got a good quorum. Bait out");
-          wakeupMainThread(totalSize);
+          completion.responseReceived(true);
           return;
         }
         if (isTooManyBad(totalSize, responseCollector.numBadResponses(), quorumSize)) {
           logger.info("it is impossible to get a good quorum any more. Bait out");
-          wakeupMainThread(totalSize);
+          completion.responseReceived(true);
           return;
         }
       }
-      latch.countDown();
+      completion.responseReceived(false);
     }
 
     private boolean isTooManyBad(int total, int numBads, int quorumSize) {
@@ -889,12 +1103,6 @@ public class DataNodeServiceAsyncClientWrapper {
         return false;
       }
     }
-
-    private void wakeupMainThread(int totalSize) {
-      for (int i = 0; i < totalSize; i++) {
-        latch.countDown();
-      }
-    }
   }
 
 }
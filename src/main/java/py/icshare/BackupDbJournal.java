@@ -0,0 +1,333 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package py.icshare;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only journal of the database tables backed up by {@link BackupDbReporterImpl}.
+ *
+ * <p>Each record is one processed report response: the sequence id and the new rows of the tables
+ * that changed in it, every row a line of json. A record is written as
+ *
+ * <p><pre>
+ * ----------------------------------
+ * | length | crc32 | payload        |
+ * ----------------------------------
+ *     4        4      length
+ * </pre>
+ *
+ * <p>after a file header of {@link #MAGIC} and {@link #VERSION}. Replaying the records in order
+ * gives the newest rows of every table, a torn or corrupted record at the tail (the process died
+ * in the middle of an append) ends the replay and is cut off.
+ *
+ * <p>Appends only go to the page cache, the file is forced to disk once per flush interval by a
+ * shared flusher thread, or on every append if the interval is not positive. When the journal grows
+ * too big compared with the state it holds, it is compacted into a new file with a single record,
+ * which replaces the journal atomically.
+ */
+public class BackupDbJournal implements Closeable {
+  public static final String JOURNAL_FILE_NAME = "backupDb_journal";
+  static final int MAGIC = 0x50594442;
+  static final int VERSION = 1;
+  private static final Logger logger = LoggerFactory.getLogger(BackupDbJournal.class);
+  private static final int HEADER_LENGTH = 8;
+  private static final int RECORD_HEADER_LENGTH = 8;
+  private static final String SEQUENCE_ID_PREFIX = "sequenceId ";
+  private static final String TABLE_PREFIX = "table ";
+  private static final long MIN_COMPACT_BYTES = 1024 * 1024;
+  private static final ScheduledExecutorService flusher = Executors
+      .newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder().setNameFormat("backup-db-journal-flusher-%d").setDaemon(true)
+              .build());
+
+  private final Path journalPath;
+  private final long flushIntervalMs;
+  // the newest rows of every table and the newest sequence id, what a compaction writes
+  private final Map<String, List<String>> tables = new LinkedHashMap<>();
+  private final ScheduledFuture<?> flushTask;
+  private Long sequenceId;
+  private FileChannel channel;
+  private long compactedSize;
+  private boolean dirty;
+  // an append failed, the file is behind the state until the next compaction
+  private boolean broken;
+
+  public BackupDbJournal(Path directory, long flushIntervalMs) throws IOException {
+    this.journalPath = directory.resolve(JOURNAL_FILE_NAME);
+    this.flushIntervalMs = flushIntervalMs;
+    if (Files.exists(journalPath)) {
+      replay();
+    } else {
+      compact();
+    }
+    compactedSize = channel.size();
+
+    if (flushIntervalMs > 0) {
+      flushTask = flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMs,
+          flushIntervalMs, TimeUnit.MILLISECONDS);
+    } else {
+      flushTask = null;
+    }
+  }
+
+  private static byte[] encode(Long sequenceId, Map<String, List<String>> tables) {
+    StringBuilder sb = new StringBuilder();
+    if (sequenceId != null) {
+      sb.append(SEQUENCE_ID_PREFIX).append(sequenceId).append('\n');
+    }
+    for (Map.Entry<String, List<String>> table : tables.entrySet()) {
+      sb.append(TABLE_PREFIX).append(table.getKey()).append(' ').append(table.getValue().size())
+          .append('\n');
+      for (String row : table.getValue()) {
+        sb.append(row).append('\n');
+      }
+    }
+
+    byte[] payload = sb.toString().getBytes(StandardCharsets.UTF_8);
+    CRC32 crc32 = new CRC32();
+    crc32.update(payload, 0, payload.length);
+    ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_LENGTH + payload.length);
+    record.putInt(payload.length).putInt((int) crc32.getValue()).put(payload);
+    return record.array();
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  public synchronized Long getSequenceId() {
+    return sequenceId;
+  }
+
+  /**
+   * the newest rows of the table, empty if the table has never been journaled.
+   */
+  public synchronized List<String> getRows(String tableName) {
+    List<String> rows = tables.get(tableName);
+    return rows == null ? Collections.emptyList() : new ArrayList<>(rows);
+  }
+
+  public synchronized boolean isEmpty() {
+    return sequenceId == null && tables.isEmpty();
+  }
+
+  /**
+   * append one record, the given tables replace the rows journaled for them before.
+   */
+  public synchronized void append(Long sequenceId, Map<String, List<String>> changedTables)
+      throws IOException {
+    if (sequenceId != null) {
+      this.sequenceId = sequenceId;
+    }
+    for (Map.Entry<String, List<String>> table : changedTables.entrySet()) {
+      tables.put(table.getKey(), new ArrayList<>(table.getValue()));
+    }
+
+    if (broken || channel.size() > Math.max(MIN_COMPACT_BYTES, compactedSize * 4)) {
+      compact();
+      return;
+    }
+    try {
+      writeFully(channel, ByteBuffer.wrap(encode(sequenceId, changedTables)));
+      dirty = true;
+    } catch (IOException e) {
+      broken = true;
+      throw e;
+    }
+    if (flushIntervalMs <= 0) {
+      flush();
+    }
+  }
+
+  /**
+   * force what has been appended to disk. The force is done out of the lock, appends do not wait
+   * for it.
+   */
+  public void flush() throws IOException {
+    FileChannel channelToForce;
+    synchronized (this) {
+      if (!dirty || channel == null) {
+        return;
+      }
+      dirty = false;
+      channelToForce = channel;
+    }
+    try {
+      channelToForce.force(false);
+    } catch (ClosedChannelException e) {
+      logger.debug("backup db journal {} was compacted or closed while flushing", journalPath);
+    } catch (IOException e) {
+      synchronized (this) {
+        dirty = true;
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * rewrite the journal as a single record of the current state.
+   */
+  public synchronized void compact() throws IOException {
+    Path tmpPath = journalPath.resolveSibling(JOURNAL_FILE_NAME + ".tmp");
+    try (FileChannel tmpChannel = FileChannel.open(tmpPath, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+      header.putInt(MAGIC).putInt(VERSION).flip();
+      writeFully(tmpChannel, header);
+      if (!isEmpty()) {
+        writeFully(tmpChannel, ByteBuffer.wrap(encode(sequenceId, tables)));
+      }
+      tmpChannel.force(true);
+    }
+
+    if (channel != null) {
+      channel.close();
+    }
+    Files.move(tmpPath, journalPath, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    forceDirectory(journalPath.toAbsolutePath().getParent());
+    channel = FileChannel.open(journalPath, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    compactedSize = channel.size();
+    dirty = false;
+    broken = false;
+    logger.info("compacted backup db journal {} to {} bytes", journalPath, compactedSize);
+  }
+
+  /**
+   * force the entries of the directory to disk, so that a rename in it survives a crash.
+   */
+  private static void forceDirectory(Path directory) throws IOException {
+    try (FileChannel directoryChannel = FileChannel.open(directory, StandardOpenOption.READ)) {
+      directoryChannel.force(true);
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (flushTask != null) {
+      flushTask.cancel(false);
+    }
+    if (channel != null) {
+      flush();
+      channel.close();
+      channel = null;
+    }
+  }
+
+  private void flushQuietly() {
+    try {
+      flush();
+    } catch (Exception e) {
+      logger.error("failed to flush backup db journal {}", journalPath, e);
+    }
+  }
+
+  private void replay() throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(journalPath));
+    if (buffer.remaining() < HEADER_LENGTH || buffer.getInt() != MAGIC) {
+      throw new IOException("not a backup db journal: " + journalPath);
+    }
+    int version = buffer.getInt();
+    if (version != VERSION) {
+      throw new IOException("unknown version " + version + " of backup db journal " + journalPath);
+    }
+
+    int recordCount = 0;
+    CRC32 crc32 = new CRC32();
+    while (buffer.remaining() >= RECORD_HEADER_LENGTH) {
+      int recordStart = buffer.position();
+      int length = buffer.getInt();
+      int checksum = buffer.getInt();
+      if (length < 0 || length > buffer.remaining()) {
+        buffer.position(recordStart);
+        break;
+      }
+      crc32.reset();
+      crc32.update(buffer.array(), buffer.position(), length);
+      if ((int) crc32.getValue() != checksum) {
+        buffer.position(recordStart);
+        break;
+      }
+      apply(new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8));
+      buffer.position(buffer.position() + length);
+      recordCount++;
+    }
+
+    channel = FileChannel.open(journalPath, StandardOpenOption.WRITE);
+    if (buffer.hasRemaining()) {
+      logger.warn("cut off {} bytes of torn or corrupted records at {} of backup db journal {}",
+          buffer.remaining(), buffer.position(), journalPath);
+      channel.truncate(buffer.position());
+      channel.force(true);
+    }
+    channel.position(buffer.position());
+    logger.info("replayed {} records of backup db journal {}, sequence id {}", recordCount,
+        journalPath, sequenceId);
+  }
+
+  private void apply(String payload) throws IOException {
+    String[] lines = payload.split("\n", -1);
+    int index = 0;
+    // the payload ends with a line separator, so the last line is always empty
+    while (index < lines.length - 1) {
+      String line = lines[index++];
+      if (line.startsWith(SEQUENCE_ID_PREFIX)) {
+        sequenceId = Long.parseLong(line.substring(SEQUENCE_ID_PREFIX.length()));
+      } else if (line.startsWith(TABLE_PREFIX)) {
+        String[] fields = line.split(" ");
+        if (fields.length != 3) {
+          throw new IOException("bad table line " + line + " in backup db journal " + journalPath);
+        }
+        int rowCount = Integer.parseInt(fields[2]);
+        if (index + rowCount > lines.length - 1) {
+          throw new IOException("table " + fields[1] + " is short of rows in backup db journal "
+              + journalPath);
+        }
+        List<String> rows = new ArrayList<>(rowCount);
+        for (int i = 0; i < rowCount; i++) {
+          rows.add(lines[index++]);
+        }
+        tables.put(fields[1], rows);
+      } else {
+        throw new IOException("bad line " + line + " in backup db journal " + journalPath);
+      }
+    }
+  }
+}
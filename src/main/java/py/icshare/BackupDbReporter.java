@@ -27,7 +27,32 @@ public interface BackupDbReporter {
   public ReportDbRequestThrift buildReportDbRequest(EndPoint endPoint, Group group, Long instanceId,
       boolean carryDbInfo);
 
+  /**
+   * only carry the tables changed since the peer versions, all tables if they are null. A reporter
+   * not keeping any versions always carries all tables.
+   */
+  public default ReportDbRequestThrift buildReportDbRequest(EndPoint endPoint, Group group,
+      Long instanceId, DbTableVersions peerVersions) {
+    return buildReportDbRequest(endPoint, group, instanceId, true);
+  }
+
+  /**
+   * the versions of the tables, none for a reporter not keeping any.
+   */
+  public default DbTableVersions getTableVersions() {
+    return new DbTableVersions();
+  }
+
   public void processRsp(ReportDbResponseThrift response);
 
+  /**
+   * process the response along with the table versions of its sender, which tell an emptied table
+   * from one left out. A reporter not keeping any versions ignores them.
+   */
+  public default void processRsp(ReportDbResponseThrift response,
+      DbTableVersions senderVersions) {
+    processRsp(response);
+  }
+
   public void loadDbInfo() throws Exception;
 }
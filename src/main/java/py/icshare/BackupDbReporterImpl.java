@@ -17,17 +17,18 @@ package py.icshare;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import java.io.BufferedReader;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import org.apache.commons.lang3.Validate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -67,7 +68,21 @@ import py.thrift.share.VolumeAccessRuleThrift;
 import py.thrift.share.VolumeRecycleInformationThrift;
 import py.thrift.share.VolumeRuleRelationshipThrift;
 
+/**
+ * Keeps the database tables the info center reports back in memory, and persists them in a
+ * {@link BackupDbJournal} under the backup db path.
+ *
+ * <p>A report response only appends one journal record with the tables that changed, which is
+ * forced to disk by the journal once per flush interval. Tables are restored from the journal
+ * when the reporter is created. The one-json-file-per-table layout used before is migrated into
+ * the journal the first time.
+ *
+ * <p>Each table has a version ({@link DbTableVersions}), a report built against the versions the
+ * info center has acknowledged only carries the tables that changed since, while a report without
+ * them still carries the full snapshot.
+ */
 public class BackupDbReporterImpl implements BackupDbReporter {
+  public static final long DEFAULT_FLUSH_INTERVAL_MS = 1000;
   private static final Logger logger = LoggerFactory.getLogger(BackupDbReporterImpl.class);
   private static final String sequenceIdFileName = "sequenceId_File";
   List<VolumeRecycleInformation> volumeRecycleInformationList;
@@ -75,9 +90,12 @@ public class BackupDbReporterImpl implements BackupDbReporter {
   private String backupDbPath;
   private ObjectMapper writeObjectMapper;
   private ObjectMapper readObjectMapper;
-  private OutputStream externalOutputStream;
-  private InputStream externalInputStream;
-  private byte[] newline;
+  private BackupDbJournal journal;
+  // the tables changed by the response being processed, journaled as one record
+  private final Map<String, List<String>> pendingTables = new LinkedHashMap<>();
+  // the version of each table in memory, see DbTableVersions
+  private final Map<DbTableName, Long> tableVersions = new EnumMap<>(DbTableName.class);
+  private boolean sequenceIdChanged;
   // store all database tables in memory
   private List<DomainInformation> domainList;
   private List<StoragePoolInformation> storagePoolList;
@@ -96,6 +114,16 @@ public class BackupDbReporterImpl implements BackupDbReporter {
   private List<IscsiAccessRuleInformation> iscsiAccessRuleList;
 
   public BackupDbReporterImpl(String backupDbPath) {
+    this(backupDbPath, DEFAULT_FLUSH_INTERVAL_MS);
+  }
+
+  /**
+   * create the reporter.
+   *
+   * @param flushIntervalMs how often the journal is forced to disk, on every report response if
+   *                        not positive
+   */
+  public BackupDbReporterImpl(String backupDbPath, long flushIntervalMs) {
     this.backupDbPath = backupDbPath;
     this.domainList = new ArrayList<>();
     this.storagePoolList = new ArrayList<>();
@@ -121,34 +149,23 @@ public class BackupDbReporterImpl implements BackupDbReporter {
 
       readObjectMapper = new ObjectMapper();
       readObjectMapper.getFactory().disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
-      newline = System.getProperty("line.separator").getBytes();
     } catch (Exception e) {
       logger.error("no way we can catch this.", e);
       throw new RuntimeException(e);
     }
 
-    // load sequence id from file
-    Path sequenceIdPath = buildPathByFileName(sequenceIdFileName);
+    // open the journal, it replays what has been journaled
+    Path directory = FileSystems.getDefault().getPath(backupDbPath);
     try {
-      if (!Files.exists(sequenceIdPath.getParent())) {
-        Files.createDirectories(sequenceIdPath.getParent());
-      }
-      if (Files.exists(sequenceIdPath)) {
-        // if exists, read sequence id from file
-        List<Long> stringList = loadFromFile(sequenceIdFileName, Long.class);
-        if (stringList.isEmpty()) {
-          saveSequenceId2File(0L);
-        } else {
-          Validate.isTrue(stringList.size() == 1, "sequenceId is only one: %s", stringList);
-          this.sequenceId = stringList.get(0);
-        }
-      } else {
-        // if not exists, init sequence id and create sequence id file
-        Files.createFile(sequenceIdPath);
-        saveSequenceId2File(0L);
+      if (!Files.exists(directory)) {
+        Files.createDirectories(directory);
+      }
+      journal = new BackupDbJournal(directory, flushIntervalMs);
+      if (journal.isEmpty() && Files.exists(buildPathByFileName(sequenceIdFileName))) {
+        migrateLegacyFiles();
       }
     } catch (Exception e) {
-      logger.error("file:{} process caught an exception", sequenceIdPath.toString(), e);
+      logger.error("backup db path:{} process caught an exception", backupDbPath, e);
       throw new RuntimeException();
     }
 
@@ -164,6 +181,33 @@ public class BackupDbReporterImpl implements BackupDbReporter {
   @Override
   public ReportDbRequestThrift buildReportDbRequest(EndPoint endPoint, Group group, Long instanceId,
       boolean carryDbInfo) {
+    return buildReportDbRequest(endPoint, group, instanceId,
+        carryDbInfo ? getTableVersions().nonEmptyTables() : EnumSet.noneOf(DbTableName.class));
+  }
+
+  /**
+   * build a request only carrying the tables whose versions differ from the versions the peer has
+   * acknowledged, or a full snapshot if they are unknown (null). A table emptied since is carried
+   * as an empty list, while a full snapshot leaves out the empty tables as it always has.
+   */
+  @Override
+  public synchronized ReportDbRequestThrift buildReportDbRequest(EndPoint endPoint, Group group,
+      Long instanceId, DbTableVersions peerVersions) {
+    DbTableVersions versions = getTableVersions();
+    return buildReportDbRequest(endPoint, group, instanceId,
+        peerVersions == null ? versions.nonEmptyTables() : versions.changedSince(peerVersions));
+  }
+
+  /**
+   * the versions of the tables in memory, to tell the peer which tables this reporter has.
+   */
+  @Override
+  public synchronized DbTableVersions getTableVersions() {
+    return new DbTableVersions(tableVersions);
+  }
+
+  private ReportDbRequestThrift buildReportDbRequest(EndPoint endPoint, Group group,
+      Long instanceId, Set<DbTableName> carriedTables) {
     ReportDbRequestThrift reportDbRequest = new ReportDbRequestThrift();
     reportDbRequest.setEndpoint(endPoint.toString());
     GroupThrift groupThrift = RequestResponseHelper.buildThriftGroupFrom(group);
@@ -173,12 +217,12 @@ public class BackupDbReporterImpl implements BackupDbReporter {
     // sequence id
     reportDbRequest.setSequenceId(sequenceId);
 
-    if (!carryDbInfo) {
+    if (carriedTables.isEmpty()) {
       return reportDbRequest;
     }
 
     // domain
-    if (domainList != null && !domainList.isEmpty()) {
+    if (carriedTables.contains(DbTableName.Domain)) {
       List<DomainThrift> domainThriftList = new ArrayList<>();
       for (DomainInformation domainInfo : domainList) {
         Domain domain = domainInfo.toDomain();
@@ -189,7 +233,7 @@ public class BackupDbReporterImpl implements BackupDbReporter {
     }
 
     // storagePool
-    if (storagePoolList != null && !storagePoolList.isEmpty()) {
+    if (carriedTables.contains(DbTableName.StoragePool)) {
       List<StoragePoolThrift> storagePoolThriftList = new ArrayList<>();
       for (StoragePoolInformation storagePoolInfo : storagePoolList) {
         StoragePool storagePool = storagePoolInfo.toStoragePool();
@@ -201,7 +245,7 @@ public class BackupDbReporterImpl implements BackupDbReporter {
     }
 
     // volumeRuleRelationship
-    if (volume2RuleList != null && !volume2RuleList.isEmpty()) {
+    if (carriedTables.contains(DbTableName.Volume2RuleRelate)) {
       List<VolumeRuleRelationshipThrift> volume2RuleThriftList = new ArrayList<>();
       for (VolumeRuleRelationshipInformation volume2RuleInfo : volume2RuleList) {
         Volume2AccessRuleRelationship volume2Rule = volume2RuleInfo
@@ -214,7 +258,7 @@ public class BackupDbReporterImpl implements BackupDbReporter {
     }
 
     // accessRule
-    if (accessRuleList != null && !accessRuleList.isEmpty()) {
+    if (carriedTables.contains(DbTableName.AccessRule)) {
       List<VolumeAccessRuleThrift> accessRuleThriftList = new ArrayList<>();
       for (AccessRuleInformation accessRuleInfo : accessRuleList) {
         VolumeAccessRule accessRule = accessRuleInfo.toVolumeAccessRule();
@@ -226,7 +270,7 @@ public class BackupDbReporterImpl implements BackupDbReporter {
     }
 
     // iscsiRuleRelationship
-    if (iscsi2RuleList != null && !iscsi2RuleList.isEmpty()) {
+    if (carriedTables.contains(DbTableName.Iscsi2RuleRelate)) {
       List<IscsiRuleRelationshipThrift> iscsi2RuleThriftList = new ArrayList<>();
       for (IscsiRuleRelationshipInformation iscsi2RuleInfo : iscsi2RuleList) {
         Iscsi2AccessRuleRelationship iscsi2Rule = iscsi2RuleInfo.toIscsi2AccessRuleRelationship();
@@ -238,7 +282,7 @@ public class BackupDbReporterImpl implements BackupDbReporter {
     }
 
     // iscsiAccessRule
-    if (iscsiAccessRuleList != null && !iscsiAccessRuleList.isEmpty()) {
+    if (carriedTables.contains(DbTableName.IscsiAccessRule)) {
       List<IscsiAccessRuleThrift> iscsiAccessRuleThriftList = new ArrayList<>();
       for (IscsiAccessRuleInformation iscsiAccessRuleInfo : iscsiAccessRuleList) {
         IscsiAccessRule iscsiAccessRule = iscsiAccessRuleInfo.toIscsiAccessRule();
@@ -250,7 +294,7 @@ public class BackupDbReporterImpl implements BackupDbReporter {
     }
 
     // capacity record
-    if (capacityRecordList != null && !capacityRecordList.isEmpty()) {
+    if (carriedTables.contains(DbTableName.CapacityRecord)) {
       List<CapacityRecordThrift> capacityRecordThriftList = new ArrayList<>();
       for (CapacityRecordInformation capacityRecordInfo : capacityRecordList) {
         CapacityRecord capacityRecord = capacityRecordInfo.toCapacityRecord();
@@ -261,7 +305,7 @@ public class BackupDbReporterImpl implements BackupDbReporter {
       reportDbRequest.setCapacityRecordThriftList(capacityRecordThriftList);
     }
 
-    if (null != apiList && !apiList.isEmpty()) {
+    if (carriedTables.contains(DbTableName.API)) {
       List<ApiToAuthorizeThrift> apiToAuthorizeThriftList = new ArrayList<>();
       for (ApiToAuthorize api : apiList) {
         apiToAuthorizeThriftList.add(RequestResponseHelper.buildApiToAuthorizeThrift(api));
@@ -269,7 +313,7 @@ public class BackupDbReporterImpl implements BackupDbReporter {
       reportDbRequest.setApiThriftList(apiToAuthorizeThriftList);
     }
 
-    if (null != resourceList && !resourceList.isEmpty()) {
+    if (carriedTables.contains(DbTableName.RESOURCE)) {
       List<ResourceThrift> resourceThriftList = new ArrayList<>();
       for (PyResource resource : resourceList) {
         resourceThriftList.add(RequestResponseHelper.buildResourceThrift(resource));
@@ -277,7 +321,7 @@ public class BackupDbReporterImpl implements BackupDbReporter {
       reportDbRequest.setResourceThriftList(resourceThriftList);
     }
 
-    if (null != roleList && !roleList.isEmpty()) {
+    if (carriedTables.contains(DbTableName.ROLE)) {
       List<RoleThrift> roleThriftList = new ArrayList<>();
       for (Role role : roleList) {
         roleThriftList.add(RequestResponseHelper.buildRoleThrift(role));
@@ -285,7 +329,7 @@ public class BackupDbReporterImpl implements BackupDbReporter {
       reportDbRequest.setRoleThriftList(roleThriftList);
     }
 
-    if (null != accountList && !accountList.isEmpty()) {
+    if (carriedTables.contains(DbTableName.ACCOUNT)) {
       List<AccountMetadataBackupThrift> accountMetadataBackupThriftList = new ArrayList<>();
       for (AccountMetadata accountMetadata : accountList) {
         accountMetadataBackupThriftList.add(
@@ -295,7 +339,7 @@ public class BackupDbReporterImpl implements BackupDbReporter {
     }
 
     //ioLimitation IoLimitationThrift
-    if (null != ioLimitationList && !ioLimitationList.isEmpty()) {
+    if (carriedTables.contains(DbTableName.IoLimitation)) {
       List<IoLimitationThrift> ioLimitationThriftList = new ArrayList<>();
       for (IoLimitation ioLimitation : ioLimitationList) {
         ioLimitationThriftList.add(
@@ -305,7 +349,7 @@ public class BackupDbReporterImpl implements BackupDbReporter {
     }
 
     // migrationRule
-    if (null != migrationRuleInformationList && !migrationRuleInformationList.isEmpty()) {
+    if (carriedTables.contains(DbTableName.MigrationRule)) {
       List<MigrationRuleThrift> migrationSpeedRuleThriftList = new ArrayList<>();
       for (MigrationRuleInformation migrationRuleInformation : migrationRuleInformationList) {
         migrationSpeedRuleThriftList.add(
@@ -316,7 +360,7 @@ public class BackupDbReporterImpl implements BackupDbReporter {
     }
 
     //rebalanceRuleStore
-    if (null != rebalanceRuleInformationList && !rebalanceRuleInformationList.isEmpty()) {
+    if (carriedTables.contains(DbTableName.RebalanceRule)) {
       List<RebalanceRulethrift> rebalanceRuleThriftList = new ArrayList<>();
       for (RebalanceRuleInformation rebalanceRuleInformation : rebalanceRuleInformationList) {
         rebalanceRuleThriftList.add(
@@ -327,7 +371,7 @@ public class BackupDbReporterImpl implements BackupDbReporter {
     }
 
     // volume_recycle  VolumeRecycleInformationThrift
-    if (volumeRecycleInformationList != null && !volumeRecycleInformationList.isEmpty()) {
+    if (carriedTables.contains(DbTableName.VolumeRecycleInformation)) {
       List<VolumeRecycleInformationThrift> volumeRecycleInformationThrifts = new ArrayList<>();
 
       for (VolumeRecycleInformation volumeRecycleInformation : volumeRecycleInformationList) {
@@ -340,28 +384,73 @@ public class BackupDbReporterImpl implements BackupDbReporter {
     return reportDbRequest;
   }
 
-  private void saveSequenceId2File(Long sequenceId) {
+  private void updateSequenceId(Long sequenceId) {
+    sequenceIdChanged |= !sequenceId.equals(this.sequenceId);
+    this.sequenceId = sequenceId;
+  }
+
+  @Override
+  public void processRsp(ReportDbResponseThrift response) {
+    processRsp(response, null);
+  }
+
+  /**
+   * apply the tables of the response, an empty list only clears its table if the versions of the
+   * sender say the table is empty, as a sender not telling its versions sends no empty tables.
+   */
+  @Override
+  public synchronized void processRsp(ReportDbResponseThrift response,
+      DbTableVersions senderVersions) {
     try {
-      List<Long> sequenceIdList = new ArrayList<>();
-      sequenceIdList.add(sequenceId);
-      writeObjectToFile(sequenceIdFileName, sequenceIdList);
-      this.sequenceId = sequenceId;
-    } catch (Exception e) {
-      logger.error("failed to save sequence id to file", e);
+      applyResponse(response, senderVersions);
+      if (sequenceIdChanged || !pendingTables.isEmpty()) {
+        journal.append(sequenceIdChanged ? sequenceId : null, pendingTables);
+      }
+    } catch (IOException e) {
+      logger.error("failed to journal the tables of sequence id:{}", sequenceId, e);
+    } finally {
+      pendingTables.clear();
+      sequenceIdChanged = false;
     }
   }
 
-  @Override
-  public synchronized void processRsp(ReportDbResponseThrift response) {
+  /**
+   * force the journal to disk now, instead of waiting for the flush interval.
+   */
+  public synchronized void flush() throws IOException {
+    journal.flush();
+  }
+
+  public synchronized void close() throws IOException {
+    journal.close();
+  }
+
+  private static boolean carries(List<?> rows, DbTableName table,
+      DbTableVersions senderVersions) {
+    if (rows == null) {
+      return false;
+    }
+    return !rows.isEmpty() || (senderVersions != null
+        && senderVersions.get(table) == DbTableVersions.EMPTY_TABLE_VERSION);
+  }
+
+  private void applyResponse(ReportDbResponseThrift response, DbTableVersions senderVersions) {
     if (response == null) {
       logger.warn("DB response is null");
       return;
     }
 
     logger.debug("report DB response:{}", response);
+    // a delta response may only carry some of the other tables
     if (!response.isSetDomainThriftList() && !response.isSetVolume2RuleThriftList()
         && !response.isSetAccessRuleThriftList() && !response.isSetStoragePoolThriftList()
-        && !response.isSetCapacityRecordThriftList()) {
+        && !response.isSetCapacityRecordThriftList() && !response.isSetIscsi2RuleThriftList()
+        && !response.isSetIscsiAccessRuleThriftList() && !response.isSetApiThriftList()
+        && !response.isSetResourceThriftList() && !response.isSetRoleThriftList()
+        && !response.isSetAccountMetadataBackupThriftList()
+        && !response.isSetIoLimitationThriftList() && !response.isSetMigrationSpeedThriftList()
+        && !response.isSetRebalanceRuleThriftList()
+        && !response.isSetVolumeRecycleInformationThriftList()) {
       logger.debug("no need to save any database tables, current response sequenceId:{}",
           response.getSequenceId());
       return;
@@ -373,12 +462,12 @@ public class BackupDbReporterImpl implements BackupDbReporter {
       return;
     }
 
-    // save sequence id to file first
-    saveSequenceId2File(sequenceId);
+    // update sequence id first
+    updateSequenceId(sequenceId);
 
     // domain
     List<DomainThrift> domainThriftList = response.getDomainThriftList();
-    if (domainThriftList != null && !domainThriftList.isEmpty()) {
+    if (carries(domainThriftList, DbTableName.Domain, senderVersions)) {
       List<DomainInformation> domainInfoList = new ArrayList<>();
       try {
         for (DomainThrift domainThrift : domainThriftList) {
@@ -386,11 +475,11 @@ public class BackupDbReporterImpl implements BackupDbReporter {
           DomainInformation domainInfo = domain.toDomainInformation();
           domainInfoList.add(domainInfo);
         }
-        // compare two list,if has any update, save to file and memory
+        // compare two list,if has any update, save to journal and memory
         if (domainInfoList.size() != this.domainList.size()
             || !Utils.compareTwoList(domainInfoList, this.domainList)) {
-          // update to file
-          writeObjectToFile(DbTableName.Domain.name(), domainInfoList);
+          // stage to journal
+          stageTable(DbTableName.Domain.name(), domainInfoList);
           // update memory
           this.domainList = domainInfoList;
         }
@@ -402,7 +491,7 @@ public class BackupDbReporterImpl implements BackupDbReporter {
 
     // storagePool
     List<StoragePoolThrift> storagePoolThriftList = response.getStoragePoolThriftList();
-    if (storagePoolThriftList != null && !storagePoolThriftList.isEmpty()) {
+    if (carries(storagePoolThriftList, DbTableName.StoragePool, senderVersions)) {
       List<StoragePoolInformation> storagePoolInfoList = new ArrayList<>();
       try {
         for (StoragePoolThrift storagePoolThrift : storagePoolThriftList) {
@@ -411,11 +500,11 @@ public class BackupDbReporterImpl implements BackupDbReporter {
           StoragePoolInformation storagePoolInfo = storagePool.toStoragePoolInformation();
           storagePoolInfoList.add(storagePoolInfo);
         }
-        // compare two list,if has any update, save to file and memory
+        // compare two list,if has any update, save to journal and memory
         if (storagePoolInfoList.size() != this.storagePoolList.size()
             || !Utils.compareTwoList(storagePoolInfoList, this.storagePoolList)) {
-          // update to file
-          writeObjectToFile(DbTableName.StoragePool.name(), storagePoolInfoList);
+          // stage to journal
+          stageTable(DbTableName.StoragePool.name(), storagePoolInfoList);
           // update memory
           this.storagePoolList = storagePoolInfoList;
         }
@@ -428,7 +517,7 @@ public class BackupDbReporterImpl implements BackupDbReporter {
 
     // volumeRuleRelationship
     List<VolumeRuleRelationshipThrift> volume2RuleThriftList = response.getVolume2RuleThriftList();
-    if (volume2RuleThriftList != null && !volume2RuleThriftList.isEmpty()) {
+    if (carries(volume2RuleThriftList, DbTableName.Volume2RuleRelate, senderVersions)) {
       List<VolumeRuleRelationshipInformation> volume2RuleInfoList = new ArrayList<>();
       try {
         for (VolumeRuleRelationshipThrift volume2RuleThrift : volume2RuleThriftList) {
@@ -436,11 +525,11 @@ public class BackupDbReporterImpl implements BackupDbReporter {
               .buildVolume2AccessRuleRelationshipFromThrift(volume2RuleThrift);
           volume2RuleInfoList.add(volume2Rule.toVolumeRuleRelationshipInformation());
         }
-        // compare two list,if has any update, save to file and memory
+        // compare two list,if has any update, save to journal and memory
         if (volume2RuleInfoList.size() != this.volume2RuleList.size()
             || !Utils.compareTwoList(volume2RuleInfoList, this.volume2RuleList)) {
-          // update to file
-          writeObjectToFile(DbTableName.Volume2RuleRelate.name(), volume2RuleInfoList);
+          // stage to journal
+          stageTable(DbTableName.Volume2RuleRelate.name(), volume2RuleInfoList);
           // update memory
           this.volume2RuleList = volume2RuleInfoList;
         }
@@ -453,7 +542,7 @@ public class BackupDbReporterImpl implements BackupDbReporter {
 
     // accessRule
     List<VolumeAccessRuleThrift> accessRuleThriftList = response.getAccessRuleThriftList();
-    if (accessRuleThriftList != null && !accessRuleThriftList.isEmpty()) {
+    if (carries(accessRuleThriftList, DbTableName.AccessRule, senderVersions)) {
       List<AccessRuleInformation> accessRuleInfoList = new ArrayList<>();
       try {
         for (VolumeAccessRuleThrift accessRuleThrift : accessRuleThriftList) {
@@ -461,11 +550,11 @@ public class BackupDbReporterImpl implements BackupDbReporter {
               .buildVolumeAccessRuleFrom(accessRuleThrift);
           accessRuleInfoList.add(accessRule.toAccessRuleInformation());
         }
-        // compare two list,if has any update, save to file and memory
+        // compare two list,if has any update, save to journal and memory
         if (accessRuleInfoList.size() != this.accessRuleList.size()
             || !Utils.compareTwoList(accessRuleInfoList, this.accessRuleList)) {
-          // update to file
-          writeObjectToFile(DbTableName.AccessRule.name(), accessRuleInfoList);
+          // stage to journal
+          stageTable(DbTableName.AccessRule.name(), accessRuleInfoList);
           // update memory
           this.accessRuleList = accessRuleInfoList;
         }
@@ -478,7 +567,7 @@ public class BackupDbReporterImpl implements BackupDbReporter {
 
     // iscsiRuleRelationship
     List<IscsiRuleRelationshipThrift> iscsi2RuleThriftList = response.getIscsi2RuleThriftList();
-    if (iscsi2RuleThriftList != null && !iscsi2RuleThriftList.isEmpty()) {
+    if (carries(iscsi2RuleThriftList, DbTableName.Iscsi2RuleRelate, senderVersions)) {
       List<IscsiRuleRelationshipInformation> iscsi2RuleInfoList = new ArrayList<>();
       try {
         for (IscsiRuleRelationshipThrift iscsi2RuleThrift : iscsi2RuleThriftList) {
@@ -486,11 +575,11 @@ public class BackupDbReporterImpl implements BackupDbReporter {
               .buildIscsi2AccessRuleRelationshipFromThrift(iscsi2RuleThrift);
           iscsi2RuleInfoList.add(iscsi2Rule.toIscsiRuleRelationshipInformation());
         }
-        // compare two list,if has any update, save to file and memory
+        // compare two list,if has any update, save to journal and memory
         if (iscsi2RuleInfoList.size() != this.iscsi2RuleList.size()
             || !Utils.compareTwoList(iscsi2RuleInfoList, this.iscsi2RuleList)) {
-          // update to file
-          writeObjectToFile(DbTableName.Iscsi2RuleRelate.name(), iscsi2RuleInfoList);
+          // stage to journal
+          stageTable(DbTableName.Iscsi2RuleRelate.name(), iscsi2RuleInfoList);
           // update memory
           this.iscsi2RuleList = iscsi2RuleInfoList;
         }
@@ -503,7 +592,7 @@ public class BackupDbReporterImpl implements BackupDbReporter {
 
     // iscsiAccessRule
     List<IscsiAccessRuleThrift> iscsiAccessRuleThriftList = response.getIscsiAccessRuleThriftList();
-    if (iscsiAccessRuleThriftList != null && !iscsiAccessRuleThriftList.isEmpty()) {
+    if (carries(iscsiAccessRuleThriftList, DbTableName.IscsiAccessRule, senderVersions)) {
       List<IscsiAccessRuleInformation> iscsiAccessRuleInfoList = new ArrayList<>();
       try {
         for (IscsiAccessRuleThrift iscsiAccessRuleThrift : iscsiAccessRuleThriftList) {
@@ -511,11 +600,11 @@ public class BackupDbReporterImpl implements BackupDbReporter {
               .buildIscsiAccessRuleFrom(iscsiAccessRuleThrift);
           iscsiAccessRuleInfoList.add(accessRule.toIscsiAccessRuleInformation());
         }
-        // compare two list,if has any update, save to file and memory
+        // compare two list,if has any update, save to journal and memory
         if (iscsiAccessRuleInfoList.size() != this.iscsiAccessRuleList.size()
             || !Utils.compareTwoList(iscsiAccessRuleInfoList, this.iscsiAccessRuleList)) {
-          // update to file
-          writeObjectToFile(DbTableName.IscsiAccessRule.name(), iscsiAccessRuleInfoList);
+          // stage to journal
+          stageTable(DbTableName.IscsiAccessRule.name(), iscsiAccessRuleInfoList);
           // update memory
           this.iscsiAccessRuleList = iscsiAccessRuleInfoList;
         }
@@ -528,7 +617,7 @@ public class BackupDbReporterImpl implements BackupDbReporter {
 
     // capacity record
     List<CapacityRecordThrift> capacityRecordThriftList = response.getCapacityRecordThriftList();
-    if (capacityRecordThriftList != null && !capacityRecordThriftList.isEmpty()) {
+    if (carries(capacityRecordThriftList, DbTableName.CapacityRecord, senderVersions)) {
       List<CapacityRecordInformation> capacityRecordInfoList = new ArrayList<>();
       try {
         for (CapacityRecordThrift capacityRecordThrift : capacityRecordThriftList) {
@@ -536,11 +625,11 @@ public class BackupDbReporterImpl implements BackupDbReporter {
               .buildCapacityRecordFrom(capacityRecordThrift);
           capacityRecordInfoList.add(capacityRecord.toCapacityRecordInformation());
         }
-        // compare two list,if has any update, save to file and memory
+        // compare two list,if has any update, save to journal and memory
         if (capacityRecordInfoList.size() != this.capacityRecordList.size()
             || !Utils.compareTwoList(capacityRecordInfoList, this.capacityRecordList)) {
-          // update to file
-          writeObjectToFile(DbTableName.CapacityRecord.name(), capacityRecordInfoList);
+          // stage to journal
+          stageTable(DbTableName.CapacityRecord.name(), capacityRecordInfoList);
           // update memory
           this.capacityRecordList = capacityRecordInfoList;
         }
@@ -552,7 +641,7 @@ public class BackupDbReporterImpl implements BackupDbReporter {
 
     // api
     List<ApiToAuthorizeThrift> apiThrifts = response.getApiThriftList();
-    if (null != apiThrifts && !apiThrifts.isEmpty()) {
+    if (carries(apiThrifts, DbTableName.API, senderVersions)) {
       try {
         List<ApiToAuthorize> apiToAuthorizes = new ArrayList<>();
         for (ApiToAuthorizeThrift apiThrift : apiThrifts) {
@@ -560,7 +649,7 @@ public class BackupDbReporterImpl implements BackupDbReporter {
         }
         if (apiToAuthorizes.size() != apiList.size() || !Utils
             .compareTwoList(apiToAuthorizes, apiList)) {
-          writeObjectToFile(DbTableName.API.name(), apiToAuthorizes);
+          stageTable(DbTableName.API.name(), apiToAuthorizes);
           apiList = apiToAuthorizes;
         }
       } catch (Exception e) {
@@ -571,7 +660,7 @@ public class BackupDbReporterImpl implements BackupDbReporter {
 
     // resources
     List<ResourceThrift> resourceThrifts = response.getResourceThriftList();
-    if (null != resourceThrifts && !resourceThrifts.isEmpty()) {
+    if (carries(resourceThrifts, DbTableName.RESOURCE, senderVersions)) {
       try {
         List<PyResource> resources = new ArrayList<>();
         for (ResourceThrift resourceThrift : resourceThrifts) {
@@ -579,7 +668,7 @@ public class BackupDbReporterImpl implements BackupDbReporter {
         }
         if (resources.size() != resourceList.size() || !Utils
             .compareTwoList(resources, resourceList)) {
-          writeObjectToFile(DbTableName.RESOURCE.name(), resources);
+          stageTable(DbTableName.RESOURCE.name(), resources);
           resourceList = resources;
         }
       } catch (Exception e) {
@@ -590,14 +679,14 @@ public class BackupDbReporterImpl implements BackupDbReporter {
 
     // roles
     List<RoleThrift> roleThrifts = response.getRoleThriftList();
-    if (null != roleThrifts && !roleThrifts.isEmpty()) {
+    if (carries(roleThrifts, DbTableName.ROLE, senderVersions)) {
       try {
         List<Role> roles = new ArrayList<>();
         for (RoleThrift roleThrift : roleThrifts) {
           roles.add(RequestResponseHelper.buildRoleFrom(roleThrift));
         }
         if (roles.size() != roleList.size() || !Utils.compareTwoList(roles, roleList)) {
-          writeObjectToFile(DbTableName.ROLE.name(), roles);
+          stageTable(DbTableName.ROLE.name(), roles);
           roleList = roles;
         }
       } catch (Exception e) {
@@ -609,7 +698,7 @@ public class BackupDbReporterImpl implements BackupDbReporter {
     // Account
     List<AccountMetadataBackupThrift> accountThrifts = response
         .getAccountMetadataBackupThriftList();
-    if (null != accountThrifts && !accountThrifts.isEmpty()) {
+    if (carries(accountThrifts, DbTableName.ACCOUNT, senderVersions)) {
       try {
         List<AccountMetadata> accounts = new ArrayList<>();
         for (AccountMetadataBackupThrift accountMetadataBackupThrift : accountThrifts) {
@@ -617,7 +706,7 @@ public class BackupDbReporterImpl implements BackupDbReporter {
               RequestResponseHelper.buildAccountMetadataBackupFrom(accountMetadataBackupThrift));
         }
         if (accounts.size() != accountList.size() || !Utils.compareTwoList(accounts, accountList)) {
-          writeObjectToFile(DbTableName.ACCOUNT.name(), accounts);
+          stageTable(DbTableName.ACCOUNT.name(), accounts);
           accountList = accounts;
         }
       } catch (Exception e) {
@@ -628,7 +717,7 @@ public class BackupDbReporterImpl implements BackupDbReporter {
 
     // ioLimitation
     List<IoLimitationThrift> ioLimitationThriftList = response.getIoLimitationThriftList();
-    if (ioLimitationThriftList != null && !ioLimitationThriftList.isEmpty()) {
+    if (carries(ioLimitationThriftList, DbTableName.IoLimitation, senderVersions)) {
       try {
         List<IoLimitation> iolimitions = new ArrayList<>();
         for (IoLimitationThrift ioLimitationThrift : ioLimitationThriftList) {
@@ -636,7 +725,7 @@ public class BackupDbReporterImpl implements BackupDbReporter {
         }
         if (iolimitions.size() != ioLimitationList.size() || !Utils
             .compareTwoList(iolimitions, ioLimitationList)) {
-          writeObjectToFile(DbTableName.IoLimitation.name(), iolimitions);
+          stageTable(DbTableName.IoLimitation.name(), iolimitions);
           ioLimitationList = iolimitions;
         }
       } catch (Exception e) {
@@ -647,7 +736,7 @@ public class BackupDbReporterImpl implements BackupDbReporter {
 
     // migrationRule
     List<MigrationRuleThrift> migrationSpeedRuleThriftList = response.getMigrationSpeedThriftList();
-    if (migrationSpeedRuleThriftList != null && !migrationSpeedRuleThriftList.isEmpty()) {
+    if (carries(migrationSpeedRuleThriftList, DbTableName.MigrationRule, senderVersions)) {
       try {
         List<MigrationRuleInformation> migrationRuleInformations = new ArrayList<>();
         for (MigrationRuleThrift migrationSpeedRuleThrift : migrationSpeedRuleThriftList) {
@@ -657,7 +746,7 @@ public class BackupDbReporterImpl implements BackupDbReporter {
         }
         if (migrationRuleInformations.size() != migrationRuleInformationList.size()
             || !Utils.compareTwoList(migrationRuleInformations, migrationRuleInformationList)) {
-          writeObjectToFile(DbTableName.MigrationRule.name(), migrationRuleInformations);
+          stageTable(DbTableName.MigrationRule.name(), migrationRuleInformations);
           migrationRuleInformationList = migrationRuleInformations;
         }
       } catch (Exception e) {
@@ -668,7 +757,7 @@ public class BackupDbReporterImpl implements BackupDbReporter {
 
     //rebalanceRuleStore
     List<RebalanceRulethrift> rebalanceRuleThriftList = response.getRebalanceRuleThriftList();
-    if (rebalanceRuleThriftList != null && !rebalanceRuleThriftList.isEmpty()) {
+    if (carries(rebalanceRuleThriftList, DbTableName.RebalanceRule, senderVersions)) {
       try {
         List<RebalanceRuleInformation> rebalanceRuleInformations = new ArrayList<>();
         for (RebalanceRulethrift rebalanceRuleThrift : rebalanceRuleThriftList) {
@@ -678,7 +767,7 @@ public class BackupDbReporterImpl implements BackupDbReporter {
         }
         if (rebalanceRuleInformations.size() != rebalanceRuleInformationList.size()
             || !Utils.compareTwoList(rebalanceRuleInformations, rebalanceRuleInformationList)) {
-          writeObjectToFile(DbTableName.RebalanceRule.name(), rebalanceRuleInformations);
+          stageTable(DbTableName.RebalanceRule.name(), rebalanceRuleInformations);
           rebalanceRuleInformationList = rebalanceRuleInformations;
         }
       } catch (Exception e) {
@@ -691,7 +780,8 @@ public class BackupDbReporterImpl implements BackupDbReporter {
     // volume_recycle  VolumeRecycleInformationThrift
     List<VolumeRecycleInformationThrift> volumeRecycleInformationThrifts = response
         .getVolumeRecycleInformationThriftList();
-    if (volumeRecycleInformationThrifts != null && !volumeRecycleInformationThrifts.isEmpty()) {
+    if (carries(volumeRecycleInformationThrifts, DbTableName.VolumeRecycleInformation,
+        senderVersions)) {
       try {
         List<VolumeRecycleInformation> volumeRecycleInformationListGet = new ArrayList<>();
         for (VolumeRecycleInformationThrift
@@ -703,7 +793,7 @@ public class BackupDbReporterImpl implements BackupDbReporter {
         if (volumeRecycleInformationListGet.size() != volumeRecycleInformationList.size()
             || !Utils
             .compareTwoList(volumeRecycleInformationListGet, volumeRecycleInformationList)) {
-          writeObjectToFile(DbTableName.VolumeRecycleInformation.name(),
+          stageTable(DbTableName.VolumeRecycleInformation.name(),
               volumeRecycleInformationListGet);
           volumeRecycleInformationList = volumeRecycleInformationListGet;
         }
@@ -716,76 +806,106 @@ public class BackupDbReporterImpl implements BackupDbReporter {
     }
   }
 
+  /**
+   * restore the tables from what has been journaled.
+   */
   @Override
-  public void loadDbInfo() throws Exception {
-    List<Long> sequenceIdList = loadFromFile(sequenceIdFileName, Long.class);
-    if (sequenceIdList.size() != 0) {
-      Validate.isTrue(sequenceIdList.size() == 1, "sequenceIdList: %s", sequenceIdList);
-      sequenceId = sequenceIdList.get(0);
-    }
-    domainList = loadFromFile(DbTableName.Domain.name(), DomainInformation.class);
-    storagePoolList = loadFromFile(DbTableName.StoragePool.name(), StoragePoolInformation.class);
-    volume2RuleList = loadFromFile(DbTableName.Volume2RuleRelate.name(),
+  public synchronized void loadDbInfo() throws Exception {
+    Long journaledSequenceId = journal.getSequenceId();
+    sequenceId = journaledSequenceId == null ? 0L : journaledSequenceId;
+    domainList = loadTable(DbTableName.Domain.name(), DomainInformation.class);
+    storagePoolList = loadTable(DbTableName.StoragePool.name(), StoragePoolInformation.class);
+    volume2RuleList = loadTable(DbTableName.Volume2RuleRelate.name(),
         VolumeRuleRelationshipInformation.class);
-    accessRuleList = loadFromFile(DbTableName.AccessRule.name(), AccessRuleInformation.class);
-    capacityRecordList = loadFromFile(DbTableName.CapacityRecord.name(),
+    accessRuleList = loadTable(DbTableName.AccessRule.name(), AccessRuleInformation.class);
+    capacityRecordList = loadTable(DbTableName.CapacityRecord.name(),
         CapacityRecordInformation.class);
-    apiList = loadFromFile(DbTableName.API.name(), ApiToAuthorize.class);
-    resourceList = loadFromFile(DbTableName.RESOURCE.name(), PyResource.class);
-    roleList = loadFromFile(DbTableName.ROLE.name(), Role.class);
-    accountList = loadFromFile(DbTableName.ACCOUNT.name(), AccountMetadata.class);
-    iscsi2RuleList = loadFromFile(DbTableName.Iscsi2RuleRelate.name(),
+    apiList = loadTable(DbTableName.API.name(), ApiToAuthorize.class);
+    resourceList = loadTable(DbTableName.RESOURCE.name(), PyResource.class);
+    roleList = loadTable(DbTableName.ROLE.name(), Role.class);
+    accountList = loadTable(DbTableName.ACCOUNT.name(), AccountMetadata.class);
+    iscsi2RuleList = loadTable(DbTableName.Iscsi2RuleRelate.name(),
         IscsiRuleRelationshipInformation.class);
-    iscsiAccessRuleList = loadFromFile(DbTableName.IscsiAccessRule.name(),
+    iscsiAccessRuleList = loadTable(DbTableName.IscsiAccessRule.name(),
         IscsiAccessRuleInformation.class);
 
-    volumeRecycleInformationList = loadFromFile(DbTableName.VolumeRecycleInformation.name(),
+    volumeRecycleInformationList = loadTable(DbTableName.VolumeRecycleInformation.name(),
         VolumeRecycleInformation.class);
+    ioLimitationList = loadTable(DbTableName.IoLimitation.name(), IoLimitation.class);
+    migrationRuleInformationList = loadTable(DbTableName.MigrationRule.name(),
+        MigrationRuleInformation.class);
+    rebalanceRuleInformationList = loadTable(DbTableName.RebalanceRule.name(),
+        RebalanceRuleInformation.class);
   }
 
-  private <T> void writeObjectToFile(String fileName, List<T> objectList) throws Exception {
-    Path filePath = buildPathByFileName(fileName);
-    try {
-      // open FD, no need append option for file
-      this.externalOutputStream = new FileOutputStream(filePath.toFile(), false);
-      for (T obj : objectList) {
-        logger.debug("write file:{}, content:{}", fileName, obj);
-        writeObjectMapper.writeValue(this.externalOutputStream, obj);
-        // write line.separator
-        externalOutputStream.write(newline);
-      }
-    } catch (Exception e) {
-      logger.error("failed to write:{} to file:{}", objectList, fileName, e);
-    } finally {
-      if (this.externalOutputStream != null) {
-        this.externalOutputStream.close();
+  /**
+   * stage the new rows of a table, they are journaled when the whole response is processed.
+   */
+  private <T> void stageTable(String tableName, List<T> objectList) throws Exception {
+    List<String> rows = new ArrayList<>(objectList.size());
+    for (T obj : objectList) {
+      logger.debug("write table:{}, content:{}", tableName, obj);
+      rows.add(writeObjectMapper.writeValueAsString(obj));
+    }
+    pendingTables.put(tableName, rows);
+    tableVersions.put(DbTableName.valueOf(tableName), DbTableVersions.versionOf(rows));
+  }
+
+  private <T> List<T> loadTable(String tableName, Class<T> object) throws Exception {
+    List<T> objectList = new ArrayList<>();
+    List<String> rows = journal.getRows(tableName);
+    tableVersions.put(DbTableName.valueOf(tableName), DbTableVersions.versionOf(rows));
+    for (String row : rows) {
+      try {
+        objectList.add(readObjectMapper.readValue(row, object));
+      } catch (Exception e) {
+        logger.error("failed to load a row of table:{}, row:{}", tableName, row, e);
       }
     }
+    return objectList;
   }
 
-  private <T> List<T> loadFromFile(String fileName, Class<T> object) throws Exception {
-    Path filePath = buildPathByFileName(fileName);
-    // determine if file exist
-    if (!Files.exists(filePath)) {
-      return new ArrayList<>();
+  /**
+   * move the tables saved as one json file each into the journal, and remove the files once the
+   * journal is on disk.
+   */
+  private void migrateLegacyFiles() throws IOException {
+    Map<String, List<String>> legacyTables = new LinkedHashMap<>();
+    List<Path> legacyFiles = new ArrayList<>();
+    Long legacySequenceId = null;
+
+    Path sequenceIdPath = buildPathByFileName(sequenceIdFileName);
+    legacyFiles.add(sequenceIdPath);
+    List<String> sequenceIdLines = readLegacyLines(sequenceIdPath);
+    if (!sequenceIdLines.isEmpty()) {
+      Validate.isTrue(sequenceIdLines.size() == 1, "sequenceId is only one: %s", sequenceIdLines);
+      legacySequenceId = readObjectMapper.readValue(sequenceIdLines.get(0), Long.class);
     }
-    List<T> objectList = new ArrayList<>();
-    try {
-      this.externalInputStream = new FileInputStream(filePath.toFile());
-      BufferedReader br = new BufferedReader(new InputStreamReader(this.externalInputStream));
-      String line;
-      while ((line = br.readLine()) != null) {
-        T element = readObjectMapper.readValue(line, object);
-        objectList.add(element);
+    for (DbTableName tableName : DbTableName.values()) {
+      Path tablePath = buildPathByFileName(tableName.name());
+      if (Files.exists(tablePath)) {
+        legacyTables.put(tableName.name(), readLegacyLines(tablePath));
+        legacyFiles.add(tablePath);
       }
-    } catch (Exception e) {
-      logger.error("failed to load info from file:{}", fileName, e);
-    } finally {
-      if (this.externalInputStream != null) {
-        this.externalInputStream.close();
+    }
+
+    journal.append(legacySequenceId, legacyTables);
+    journal.compact();
+    for (Path legacyFile : legacyFiles) {
+      Files.deleteIfExists(legacyFile);
+    }
+    logger.warn("migrated {} tables and sequence id:{} from {} into the backup db journal",
+        legacyTables.size(), legacySequenceId, backupDbPath);
+  }
+
+  private List<String> readLegacyLines(Path filePath) throws IOException {
+    List<String> lines = new ArrayList<>();
+    for (String line : Files.readAllLines(filePath, StandardCharsets.UTF_8)) {
+      if (!line.isEmpty()) {
+        lines.add(line);
       }
     }
-    return objectList;
+    return lines;
   }
 
   private Path buildPathByFileName(String fileName) {
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package py.icshare;
+
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The version of each backed up database table, as a vector indexed by {@link DbTableName}.
+ *
+ * <p>The version of a table is a 64-bit digest of its json rows, and 0 for an empty table. So two
+ * peers holding the same rows have the same version without agreeing on any counter, and a peer
+ * only has to send the tables whose versions differ from what the other side has acknowledged.
+ */
+public class DbTableVersions {
+  public static final long EMPTY_TABLE_VERSION = 0L;
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  private final EnumMap<DbTableName, Long> versions;
+
+  public DbTableVersions() {
+    this.versions = new EnumMap<>(DbTableName.class);
+  }
+
+  public DbTableVersions(Map<DbTableName, Long> versions) {
+    this();
+    for (Map.Entry<DbTableName, Long> entry : versions.entrySet()) {
+      if (entry.getValue() != EMPTY_TABLE_VERSION) {
+        this.versions.put(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+  /**
+   * the version of a table with the given json rows, the order of the rows matters.
+   */
+  public static long versionOf(List<String> rows) {
+    if (rows == null || rows.isEmpty()) {
+      return EMPTY_TABLE_VERSION;
+    }
+    long hash = FNV_OFFSET_BASIS;
+    for (String row : rows) {
+      for (byte b : row.getBytes(StandardCharsets.UTF_8)) {
+        hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+      }
+      // row separator, json rows never contain a raw line feed
+      hash = (hash ^ '\n') * FNV_PRIME;
+    }
+    return hash == EMPTY_TABLE_VERSION ? 1L : hash;
+  }
+
+  public long get(DbTableName table) {
+    Long version = versions.get(table);
+    return version == null ? EMPTY_TABLE_VERSION : version;
+  }
+
+  /**
+   * the tables having any row.
+   */
+  public Set<DbTableName> nonEmptyTables() {
+    Set<DbTableName> tables = EnumSet.noneOf(DbTableName.class);
+    tables.addAll(versions.keySet());
+    return tables;
+  }
+
+  /**
+   * the tables whose versions differ from the peer's, all tables if the peer versions are unknown.
+   */
+  public Set<DbTableName> changedSince(DbTableVersions peerVersions) {
+    if (peerVersions == null) {
+      return EnumSet.allOf(DbTableName.class);
+    }
+    Set<DbTableName> changedTables = EnumSet.noneOf(DbTableName.class);
+    for (DbTableName table : DbTableName.values()) {
+      if (get(table) != peerVersions.get(table)) {
+        changedTables.add(table);
+      }
+    }
+    return changedTables;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof DbTableVersions)) {
+      return false;
+    }
+    return versions.equals(((DbTableVersions) o).versions);
+  }
+
+  @Override
+  public int hashCode() {
+    return versions.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return "DbTableVersions{" + versions + '}';
+  }
+}
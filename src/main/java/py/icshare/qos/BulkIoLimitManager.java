@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package py.icshare.qos;
+
+import java.util.concurrent.TimeUnit;
+import py.io.qos.IoLimitManager;
+
+/**
+ * An {@link IoLimitManager} taking any number of IO permits at once, so that a weighted IO costs
+ * one acquisition instead of one per weight unit.
+ */
+public interface BulkIoLimitManager extends IoLimitManager {
+  /**
+   * take the IO permits, waiting until they are available.
+   */
+  void tryGettingIos(int permits);
+
+  /**
+   * take the IO permits if they are available within the timeout, a zero timeout doesn't wait at
+   * all.
+   *
+   * @return false if the permits are not taken
+   */
+  boolean tryGettingIos(int permits, long timeout, TimeUnit unit);
+
+  /**
+   * take the throughput permits if they are available within the timeout, a zero timeout doesn't
+   * wait at all.
+   *
+   * @return false if the permits are not taken
+   */
+  boolean tryThroughput(long size, long timeout, TimeUnit unit);
+}
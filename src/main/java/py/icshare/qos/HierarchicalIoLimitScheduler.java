@@ -0,0 +1,361 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package py.icshare.qos;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.function.LongConsumer;
+import java.util.function.LongSupplier;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import py.io.qos.IoLimitationEntry;
+
+/**
+ * Limit the IOs of a storage pool by a tree of token buckets: the pool, the drivers (driver
+ * containers) using it, and the volumes each driver serves.
+ *
+ * <p>Every node but the pool is assured a share of its parent's rate, split among the siblings by
+ * their weights. An IO within the share of its volume is admitted at once and charged to all the
+ * ancestors. An IO beyond the share borrows from the parent, which lends what its own share still
+ * has, and so on up to the pool, whose rate is the hard cap of all IOs: the pool lends only the
+ * permits it has, never while the IOs within their shares keep it in debt, and a borrower waits
+ * for its own share or the pool, whichever has the permits first. So the tokens an idle tenant
+ * doesn't use go to the busy ones, while each tenant always gets its share when it asks for it. A
+ * node can also be capped by the upper IOPS of an {@link IoLimitationEntry}, the lower IOPS of the
+ * entry is then its weight.
+ *
+ * <p>Permits are weighted IOs as in {@link IoLimitScheduler}: a rate of N IOPS is N * {@link
+ * IoLimitScheduler#IO_WEIGHT} permits per second, a read costs {@link IoLimitScheduler#READ_WEIGHT}
+ * and a write {@link IoLimitScheduler#WRITE_WEIGHT}. The time spent waiting for a cap or for the
+ * pool is recorded for each level, see {@link #getAdmissionLatency(QosLevel)}.
+ */
+public class HierarchicalIoLimitScheduler {
+  public static final long DEFAULT_WEIGHT = 1;
+  private static final Logger logger = LoggerFactory.getLogger(HierarchicalIoLimitScheduler.class);
+
+  private final LongSupplier nanoClock;
+  private final LongConsumer nanoSleeper;
+  private final QosNode pool;
+  private final Map<QosLevel, AdmissionLatency> latencies;
+
+  public HierarchicalIoLimitScheduler(long poolIops) {
+    this(poolIops, System::nanoTime, TokenBucket::sleep);
+  }
+
+  /**
+   * a scheduler whose buckets read the given clock and wait with the given sleeper, so that a test
+   * can run them on a clock of its own.
+   */
+  HierarchicalIoLimitScheduler(long poolIops, LongSupplier nanoClock, LongConsumer nanoSleeper) {
+    Validate.isTrue(poolIops > 0, "pool iops must be positive: " + poolIops);
+    this.nanoClock = nanoClock;
+    this.nanoSleeper = nanoSleeper;
+    this.pool = new QosNode(QosLevel.Pool, null, toPermits(poolIops), nanoClock, nanoSleeper);
+    this.latencies = new EnumMap<>(QosLevel.class);
+    for (QosLevel level : QosLevel.values()) {
+      latencies.put(level, new AdmissionLatency());
+    }
+  }
+
+  private static long toPermits(long iops) {
+    return iops * IoLimitScheduler.IO_WEIGHT;
+  }
+
+  /**
+   * cap the pool at the upper IOPS of the entry.
+   */
+  public synchronized void setPoolLimitation(IoLimitationEntry entry) {
+    long upperIops = entry.getUpperLimitedIops();
+    Validate.isTrue(upperIops > 0, "pool iops must be positive: " + upperIops);
+    long rate = toPermits(upperIops);
+    pool.assured.setRate(rate, rate);
+    rebalance(pool);
+  }
+
+  /**
+   * cap a driver at the upper IOPS of the entry and weigh it by the lower IOPS, a null entry
+   * removes the cap.
+   */
+  public synchronized void setDriverLimitation(long driverContainerId, IoLimitationEntry entry) {
+    QosNode driver = getOrAddDriver(driverContainerId);
+    driver.setLimitation(entry, nanoClock, nanoSleeper);
+    rebalance(pool);
+  }
+
+  /**
+   * cap the volume of the relationship at the upper IOPS of the entry and weigh it by the lower
+   * IOPS, a null entry removes the cap. The caller picks the entry working now for a dynamic
+   * limitation, as {@link IoLimitScheduler} does.
+   */
+  public synchronized void bind(IoLimitationRelationship relationship, IoLimitationEntry entry) {
+    QosNode driver = getOrAddDriver(relationship.getDriverContainerId());
+    QosNode volume = getOrAddVolume(driver, relationship.getVolumeId());
+    volume.setLimitation(entry, nanoClock, nanoSleeper);
+    rebalance(driver);
+  }
+
+  public synchronized void unbind(IoLimitationRelationship relationship) {
+    removeVolume(relationship.getDriverContainerId(), relationship.getVolumeId());
+  }
+
+  public synchronized void removeVolume(long driverContainerId, long volumeId) {
+    QosNode driver = pool.children.get(driverContainerId);
+    if (driver != null && driver.children.remove(volumeId) != null) {
+      rebalance(driver);
+    }
+  }
+
+  public synchronized void removeDriver(long driverContainerId) {
+    if (pool.children.remove(driverContainerId) != null) {
+      rebalance(pool);
+    }
+  }
+
+  public void tryGettingReadIos(long driverContainerId, long volumeId, int count) {
+    tryGettingIos(driverContainerId, volumeId, count * IoLimitScheduler.READ_WEIGHT);
+  }
+
+  public void tryGettingWriteIos(long driverContainerId, long volumeId, int count) {
+    tryGettingIos(driverContainerId, volumeId, count * IoLimitScheduler.WRITE_WEIGHT);
+  }
+
+  /**
+   * admit an IO of the given permits for the volume, waiting for the caps on the way and, if
+   * neither a share on the way nor the pool has the permits, for whichever of them has them first.
+   * A volume not known yet is added with the default weight.
+   */
+  public void tryGettingIos(long driverContainerId, long volumeId, long permits) {
+    QosNode driver = pool.children.get(driverContainerId);
+    QosNode volume = driver == null ? null : driver.children.get(volumeId);
+    if (volume == null) {
+      volume = addVolume(driverContainerId, volumeId);
+    }
+
+    QosNode[] path = new QosNode[QosLevel.values().length];
+    int depth = 0;
+    for (QosNode node = volume; node != null; node = node.parent) {
+      path[depth++] = node;
+    }
+    long[] waitNanos = new long[QosLevel.values().length];
+    // the caps are waited for once, a retry only waits for the shares and the pool again
+    int cappedLevels = 0;
+    admission:
+    while (true) {
+      for (int i = 0; i < depth; i++) {
+        QosNode node = path[i];
+        if (i == cappedLevels) {
+          TokenBucket ceil = node.ceil;
+          if (ceil != null) {
+            waitNanos[node.level.ordinal()] += ceil.acquire(permits);
+          }
+          cappedLevels++;
+        }
+        if (node.assured.tryAcquire(permits)) {
+          // within the share, nothing is lent by the ancestors but their tokens are used all the
+          // same, so a pool in debt lends nothing until it is paid back
+          for (int j = i + 1; j < depth; j++) {
+            if (j >= cappedLevels && path[j].ceil != null) {
+              path[j].ceil.reserve(permits);
+            }
+            path[j].assured.reserve(permits);
+          }
+          break admission;
+        }
+      }
+
+      long retryNanos = Long.MAX_VALUE;
+      for (int i = 0; i < depth; i++) {
+        if (permits <= path[i].assured.getCapacity()) {
+          retryNanos = Math.min(retryNanos, path[i].assured.nanosUntilAvailable(permits));
+        }
+      }
+      if (retryNanos == Long.MAX_VALUE) {
+        // no bucket ever holds that many, go into debt with the pool for them instead
+        waitNanos[QosLevel.Pool.ordinal()] += pool.assured.acquire(permits);
+        break;
+      }
+      nanoSleeper.accept(retryNanos);
+      waitNanos[QosLevel.Pool.ordinal()] += retryNanos;
+    }
+
+    for (QosLevel level : QosLevel.values()) {
+      latencies.get(level).record(waitNanos[level.ordinal()]);
+    }
+  }
+
+  public AdmissionLatency getAdmissionLatency(QosLevel level) {
+    return latencies.get(level);
+  }
+
+  /**
+   * the IOPS a driver is assured now.
+   */
+  public long getAssuredIops(long driverContainerId) {
+    QosNode driver = pool.children.get(driverContainerId);
+    return driver == null ? 0 : driver.assuredIops();
+  }
+
+  /**
+   * the IOPS a volume is assured now.
+   */
+  public long getAssuredIops(long driverContainerId, long volumeId) {
+    QosNode driver = pool.children.get(driverContainerId);
+    QosNode volume = driver == null ? null : driver.children.get(volumeId);
+    return volume == null ? 0 : volume.assuredIops();
+  }
+
+  private synchronized QosNode addVolume(long driverContainerId, long volumeId) {
+    QosNode driver = getOrAddDriver(driverContainerId);
+    QosNode volume = getOrAddVolume(driver, volumeId);
+    rebalance(driver);
+    return volume;
+  }
+
+  private QosNode getOrAddDriver(long driverContainerId) {
+    QosNode driver = pool.children.get(driverContainerId);
+    if (driver == null) {
+      driver = new QosNode(QosLevel.Driver, pool, 1, nanoClock, nanoSleeper);
+      pool.children.put(driverContainerId, driver);
+      logger.warn("driver container {} joins the pool", driverContainerId);
+      rebalance(pool);
+    }
+    return driver;
+  }
+
+  private QosNode getOrAddVolume(QosNode driver, long volumeId) {
+    QosNode volume = driver.children.get(volumeId);
+    if (volume == null) {
+      volume = new QosNode(QosLevel.Volume, driver, 1, nanoClock, nanoSleeper);
+      driver.children.put(volumeId, volume);
+    }
+    return volume;
+  }
+
+  /**
+   * split the share of the node among its children by their weights.
+   */
+  private void rebalance(QosNode node) {
+    if (node.children.isEmpty()) {
+      return;
+    }
+    long totalWeight = 0;
+    for (QosNode child : node.children.values()) {
+      totalWeight += child.weight;
+    }
+    long shareRate = node.shareRate();
+    for (QosNode child : node.children.values()) {
+      long rate = Math.max(1, (long) ((double) shareRate * child.weight / totalWeight));
+      child.assured.setRate(rate, rate);
+      rebalance(child);
+    }
+  }
+
+  public enum QosLevel {
+    Pool,
+    Driver,
+    Volume
+  }
+
+  /**
+   * the time IOs waited at one level of the tree.
+   */
+  public static class AdmissionLatency {
+    private final AtomicLong count = new AtomicLong(0);
+    private final AtomicLong totalNanos = new AtomicLong(0);
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    private void record(long nanos) {
+      count.incrementAndGet();
+      totalNanos.addAndGet(nanos);
+      maxNanos.accumulate(nanos);
+    }
+
+    public long getCount() {
+      return count.get();
+    }
+
+    public long getMeanNanos() {
+      long admitted = count.get();
+      return admitted == 0 ? 0 : totalNanos.get() / admitted;
+    }
+
+    public long getMaxNanos() {
+      return maxNanos.get();
+    }
+
+    public void reset() {
+      count.set(0);
+      totalNanos.set(0);
+      maxNanos.reset();
+    }
+
+    @Override
+    public String toString() {
+      return "AdmissionLatency [count=" + getCount() + ", meanNanos=" + getMeanNanos()
+          + ", maxNanos=" + getMaxNanos() + "]";
+    }
+  }
+
+  private static class QosNode {
+    private final QosLevel level;
+    private final QosNode parent;
+    private final Map<Long, QosNode> children = new ConcurrentHashMap<>();
+    private final TokenBucket assured;
+    private volatile TokenBucket ceil;
+    private long weight = DEFAULT_WEIGHT;
+
+    private QosNode(QosLevel level, QosNode parent, long rate, LongSupplier nanoClock,
+        LongConsumer nanoSleeper) {
+      this.level = level;
+      this.parent = parent;
+      this.assured = new TokenBucket(rate, rate, nanoClock, nanoSleeper);
+    }
+
+    private void setLimitation(IoLimitationEntry entry, LongSupplier nanoClock,
+        LongConsumer nanoSleeper) {
+      if (entry == null) {
+        ceil = null;
+        weight = DEFAULT_WEIGHT;
+        return;
+      }
+      long upperIops = entry.getUpperLimitedIops();
+      long lowerIops = entry.getLowerLimitedIops();
+      weight = lowerIops > 0 ? lowerIops : DEFAULT_WEIGHT;
+      if (upperIops > 0) {
+        long rate = toPermits(upperIops);
+        ceil = new TokenBucket(rate, rate, nanoClock, nanoSleeper);
+      } else {
+        ceil = null;
+      }
+    }
+
+    private long assuredIops() {
+      return assured.getPermitsPerSecond() / IoLimitScheduler.IO_WEIGHT;
+    }
+
+    /**
+     * the rate split among the children, no more than the cap.
+     */
+    private long shareRate() {
+      long rate = assured.getPermitsPerSecond();
+      TokenBucket currentCeil = ceil;
+      return currentCeil == null ? rate : Math.min(rate, currentCeil.getPermitsPerSecond());
+    }
+  }
+}
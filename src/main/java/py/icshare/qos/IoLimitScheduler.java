@@ -341,14 +341,64 @@ public class IoLimitScheduler {
     }
   }
 
+  /**
+   * take the IO permits of a read within the timeout, a zero timeout doesn't wait at all.
+   *
+   * @return false if the permits are not taken
+   */
+  public boolean tryGettingReadIos(int count, long timeout, TimeUnit unit) {
+    return tryGettingIos(count * READ_WEIGHT, timeout, unit);
+  }
+
+  /**
+   * take the IO permits of a write within the timeout, a zero timeout doesn't wait at all.
+   *
+   * @return false if the permits are not taken
+   */
+  public boolean tryGettingWriteIos(int count, long timeout, TimeUnit unit) {
+    return tryGettingIos(count * WRITE_WEIGHT, timeout, unit);
+  }
+
   public void tryGettingIos(int ioCount) {
-    if (limitManager != null) {
+    if (limitManager == null || !limitManager.isOpen()) {
+      return;
+    }
+    if (limitManager instanceof BulkIoLimitManager) {
+      ((BulkIoLimitManager) limitManager).tryGettingIos(ioCount);
+    } else {
       for (int i = 0; i < ioCount; i++) {
         limitManager.tryGettingAnIo();
       }
     }
   }
 
+  /**
+   * take the IO permits within the timeout.
+   *
+   * <p>A limit manager which can't take permits in bulk can only wait for one permit at a time,
+   * so the deadline is checked before each permit, and a zero timeout never takes any. Such a
+   * manager can't give permits back either, the permits taken before the deadline are spent.
+   *
+   * @return false if the permits are not taken
+   */
+  public boolean tryGettingIos(int ioCount, long timeout, TimeUnit unit) {
+    if (limitManager == null || !limitManager.isOpen()) {
+      return true;
+    }
+    if (limitManager instanceof BulkIoLimitManager) {
+      return ((BulkIoLimitManager) limitManager).tryGettingIos(ioCount, timeout, unit);
+    }
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    for (int i = 0; i < ioCount; i++) {
+      if (System.nanoTime() - deadline >= 0) {
+        logger.debug("took {} of {} IO permits before the deadline", i, ioCount);
+        return false;
+      }
+      limitManager.tryGettingAnIo();
+    }
+    return true;
+  }
+
   public void tryReadThroughput(long size) {
     if (limitManager != null && limitManager.isOpen()) {
       limitManager.tryThroughput(size * READ_WEIGHT);
@@ -367,6 +417,31 @@ public class IoLimitScheduler {
     }
   }
 
+  public boolean tryReadThroughput(long size, long timeout, TimeUnit unit) {
+    return tryThroughput(size * READ_WEIGHT, timeout, unit);
+  }
+
+  public boolean tryWriteThroughput(long size, long timeout, TimeUnit unit) {
+    return tryThroughput(size * WRITE_WEIGHT, timeout, unit);
+  }
+
+  /**
+   * take the throughput permits within the timeout. A limit manager which can't take permits in
+   * bulk always waits for them.
+   *
+   * @return false if the permits are not taken
+   */
+  public boolean tryThroughput(long size, long timeout, TimeUnit unit) {
+    if (limitManager == null || !limitManager.isOpen()) {
+      return true;
+    }
+    if (limitManager instanceof BulkIoLimitManager) {
+      return ((BulkIoLimitManager) limitManager).tryThroughput(size, timeout, unit);
+    }
+    limitManager.tryThroughput(size);
+    return true;
+  }
+
   public void slowDownExceptFor(long volumeId, int level) throws TException {
     limitManager.slowDownExceptFor(volumeId, level);
   }
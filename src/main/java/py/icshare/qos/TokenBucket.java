@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package py.icshare.qos;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+import java.util.function.LongSupplier;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * A token bucket refilled at a fixed rate up to its capacity.
+ *
+ * <p>Any number of permits are taken at once. A blocking acquisition takes the permits right away
+ * and waits out the debt it leaves in the bucket, so callers waiting at the same time are served
+ * in the order they come.
+ */
+public class TokenBucket {
+  private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  private final LongSupplier nanoClock;
+  private final LongConsumer nanoSleeper;
+  private long permitsPerSecond;
+  private long capacity;
+  // negative when acquisitions are waiting for the refill
+  private double tokens;
+  private long lastRefillNanos;
+
+  /**
+   * a bucket starting full, holding at most one second of permits.
+   */
+  public TokenBucket(long permitsPerSecond) {
+    this(permitsPerSecond, permitsPerSecond);
+  }
+
+  public TokenBucket(long permitsPerSecond, long capacity) {
+    this(permitsPerSecond, capacity, System::nanoTime);
+  }
+
+  TokenBucket(long permitsPerSecond, long capacity, LongSupplier nanoClock) {
+    this(permitsPerSecond, capacity, nanoClock, TokenBucket::sleep);
+  }
+
+  /**
+   * a bucket on the given clock, waiting for the refill with the given sleeper.
+   */
+  TokenBucket(long permitsPerSecond, long capacity, LongSupplier nanoClock,
+      LongConsumer nanoSleeper) {
+    this.nanoClock = nanoClock;
+    this.nanoSleeper = nanoSleeper;
+    this.lastRefillNanos = nanoClock.getAsLong();
+    setRate(permitsPerSecond, capacity);
+    this.tokens = capacity;
+  }
+
+  /**
+   * change the rate and the capacity, the permits in the bucket are kept up to the new capacity.
+   */
+  public synchronized void setRate(long permitsPerSecond, long capacity) {
+    Validate.isTrue(permitsPerSecond > 0, "rate must be positive: " + permitsPerSecond);
+    Validate.isTrue(capacity > 0, "capacity must be positive: " + capacity);
+    refill(nanoClock.getAsLong());
+    this.permitsPerSecond = permitsPerSecond;
+    this.capacity = capacity;
+    tokens = Math.min(tokens, capacity);
+  }
+
+  public synchronized long getPermitsPerSecond() {
+    return permitsPerSecond;
+  }
+
+  public synchronized long getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * the permits in the bucket now, negative when acquisitions are waiting.
+   */
+  public synchronized long availablePermits() {
+    refill(nanoClock.getAsLong());
+    return (long) Math.floor(tokens);
+  }
+
+  /**
+   * take the permits, waiting until the bucket has refilled them.
+   *
+   * @return the nanoseconds waited
+   */
+  public long acquire(long permits) {
+    long waitNanos = reserve(permits);
+    nanoSleeper.accept(waitNanos);
+    return waitNanos;
+  }
+
+  /**
+   * take the permits if the bucket has them now.
+   */
+  public boolean tryAcquire(long permits) {
+    return tryReserve(permits, 0) == 0;
+  }
+
+  /**
+   * take the permits if the bucket will have them within the timeout, and wait for them.
+   */
+  public boolean tryAcquire(long permits, long timeout, TimeUnit unit) {
+    long waitNanos = tryReserve(permits, unit.toNanos(timeout));
+    if (waitNanos < 0) {
+      return false;
+    }
+    nanoSleeper.accept(waitNanos);
+    return true;
+  }
+
+  /**
+   * take the permits and return the nanoseconds to wait before using them.
+   */
+  synchronized long reserve(long permits) {
+    Validate.isTrue(permits >= 0, "permits must not be negative: " + permits);
+    refill(nanoClock.getAsLong());
+    tokens -= permits;
+    return nanosToPayBack(0);
+  }
+
+  /**
+   * take the permits if the bucket will have them within the given nanoseconds.
+   *
+   * @return the nanoseconds to wait before using the permits, or -1 if they are not taken
+   */
+  synchronized long tryReserve(long permits, long maxWaitNanos) {
+    Validate.isTrue(permits >= 0, "permits must not be negative: " + permits);
+    refill(nanoClock.getAsLong());
+    long waitNanos = nanosToPayBack(permits);
+    if (waitNanos > maxWaitNanos) {
+      return -1;
+    }
+    tokens -= permits;
+    return waitNanos;
+  }
+
+  /**
+   * the nanoseconds until the bucket has the permits, 0 if it has them now.
+   */
+  synchronized long nanosUntilAvailable(long permits) {
+    refill(nanoClock.getAsLong());
+    return nanosToPayBack(permits);
+  }
+
+  private long nanosToPayBack(long permits) {
+    double missing = permits - tokens;
+    if (missing <= 0) {
+      return 0;
+    }
+    return (long) Math.ceil(missing * NANOS_PER_SECOND / permitsPerSecond);
+  }
+
+  private void refill(long nowNanos) {
+    long elapsed = nowNanos - lastRefillNanos;
+    if (elapsed > 0) {
+      tokens = Math.min(capacity, tokens + (double) elapsed * permitsPerSecond / NANOS_PER_SECOND);
+      lastRefillNanos = nowNanos;
+    }
+  }
+
+  static void sleep(long nanos) {
+    if (nanos <= 0) {
+      return;
+    }
+    try {
+      TimeUnit.NANOSECONDS.sleep(nanos);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "TokenBucket [permitsPerSecond=" + permitsPerSecond + ", capacity=" + capacity
+        + ", tokens=" + tokens + "]";
+  }
+}
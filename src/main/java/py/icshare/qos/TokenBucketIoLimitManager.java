@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package py.icshare.qos;
+
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import py.io.qos.IoLimitationEntry;
+import py.periodic.UnableToStartException;
+
+/**
+ * Limit the IOs by two token buckets filled at the upper IOPS and the upper throughput of the
+ * working limitation entry.
+ *
+ * <p>The permits asked for are already weighted by the caller, see {@link
+ * IoLimitScheduler#READ_WEIGHT} and {@link IoLimitScheduler#WRITE_WEIGHT}, so the buckets are
+ * filled with {@link IoLimitScheduler#IO_WEIGHT} permits per IO or per unit of throughput. A
+ * bucket holds at most one second of permits. A limit which is not positive is not enforced.
+ */
+public class TokenBucketIoLimitManager implements BulkIoLimitManager {
+  private static final Logger logger = LoggerFactory.getLogger(TokenBucketIoLimitManager.class);
+
+  private volatile IoLimitationEntry ioLimitationEntry;
+  private volatile TokenBucket iopsBucket;
+  private volatile TokenBucket throughputBucket;
+
+  private static TokenBucket buildBucket(long limit) {
+    if (limit <= 0) {
+      return null;
+    }
+    return new TokenBucket(limit * IoLimitScheduler.IO_WEIGHT);
+  }
+
+  @Override
+  public synchronized void updateLimitationsAndOpen(IoLimitationEntry ioLimitationEntry)
+      throws UnableToStartException {
+    Validate.notNull(ioLimitationEntry);
+    long upperIops = ioLimitationEntry.getUpperLimitedIops();
+    long upperThroughput = ioLimitationEntry.getUpperLimitedThroughput();
+    iopsBucket = buildBucket(upperIops);
+    throughputBucket = buildBucket(upperThroughput);
+    this.ioLimitationEntry = ioLimitationEntry;
+    logger.warn("limit IOPS to {} and throughput to {}, entry {}", upperIops, upperThroughput,
+        ioLimitationEntry.getEntryId());
+  }
+
+  @Override
+  public synchronized void close() {
+    ioLimitationEntry = null;
+    iopsBucket = null;
+    throughputBucket = null;
+  }
+
+  @Override
+  public boolean isOpen() {
+    return ioLimitationEntry != null;
+  }
+
+  @Override
+  public IoLimitationEntry getIoLimitationEntry() {
+    return ioLimitationEntry;
+  }
+
+  @Override
+  public void tryGettingAnIo() {
+    tryGettingIos(1);
+  }
+
+  @Override
+  public void tryGettingIos(int permits) {
+    TokenBucket bucket = iopsBucket;
+    if (bucket != null) {
+      bucket.acquire(permits);
+    }
+  }
+
+  @Override
+  public boolean tryGettingIos(int permits, long timeout, TimeUnit unit) {
+    TokenBucket bucket = iopsBucket;
+    return bucket == null || bucket.tryAcquire(permits, timeout, unit);
+  }
+
+  @Override
+  public void tryThroughput(long size) {
+    TokenBucket bucket = throughputBucket;
+    if (bucket != null) {
+      bucket.acquire(size);
+    }
+  }
+
+  @Override
+  public boolean tryThroughput(long size, long timeout, TimeUnit unit) {
+    TokenBucket bucket = throughputBucket;
+    return bucket == null || bucket.tryAcquire(size, timeout, unit);
+  }
+
+  @Override
+  public void slowDownExceptFor(long volumeId, int level) {
+    logger.warn("slowing down volumes by level is not supported, volume {}, level {}", volumeId,
+        level);
+  }
+
+  @Override
+  public void resetSlowLevel(long volumeId) {
+    logger.warn("slowing down volumes by level is not supported, volume {}", volumeId);
+  }
+}
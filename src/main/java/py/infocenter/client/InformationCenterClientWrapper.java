@@ -14,14 +14,22 @@
 
 package py.infocenter.client;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.LongFunction;
 import java.util.function.Predicate;
+import org.apache.commons.lang3.Validate;
 import org.apache.thrift.TException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -86,6 +94,9 @@ import py.volume.VolumeMetadata;
 public class InformationCenterClientWrapper {
   private static final int DEFAULT_PAGINATION_COUNT_WHEN_GET_VOLUME = 3000;
   private static Logger logger = LoggerFactory.getLogger(InformationCenterClientWrapper.class);
+  // fetches and decodes the pages of a volume ahead of the one being merged
+  private static final ExecutorService volumePageFetcher = Executors.newCachedThreadPool(
+      new ThreadFactoryBuilder().setNameFormat("volume-page-fetcher-%d").setDaemon(true).build());
   private final InformationCenter.Iface delegate;
 
   public InformationCenterClientWrapper(InformationCenter.Iface client) {
@@ -137,6 +148,23 @@ public class InformationCenterClientWrapper {
     return delegate.reportSegmentUnitsMetadata(request);
   }
 
+  /**
+   * report the units, only the ones changed since the last report of the reporter are converted.
+   *
+   * <p>The request still lists every unit so that the info center keeps them alive, the unchanged
+   * ones reuse the thrift built for an earlier report.
+   */
+  public ReportSegmentUnitsMetadataResponse reportSegmentUnitsMetadata(InstanceId instanceId,
+      Collection<SegmentUnitMetadata> segmentUnitMetadatas, SegmentUnitMetadataReporter reporter)
+      throws TException {
+    SegmentUnitMetadataReporter.Report report = reporter.buildReport(segmentUnitMetadatas);
+    ReportSegmentUnitsMetadataRequest request = new ReportSegmentUnitsMetadataRequest(
+        RequestIdBuilder.get(),
+        instanceId.getId(), new ArrayList<>(report.getAllUnits()));
+
+    return delegate.reportSegmentUnitsMetadata(request);
+  }
+
   public ReportSegmentUnitRecycleFailResponse reportSegmentUnitRecycleFail(
       Collection<SegmentUnitMetadata> segmentUnitMetadatas) throws TException {
     List<SegmentUnitMetadataThrift> segUnitMetadataThrifts = new ArrayList<>(
@@ -224,17 +252,7 @@ public class InformationCenterClientWrapper {
 
         if (!getVolumeResponse.isLeftSegment()) {
           /* get the driver, use the last one **/
-          List<DriverMetadata> driverMetadatas = new ArrayList<>();
-          if (getVolumeResponse.getDriverMetadatas() != null
-              && getVolumeResponse.getDriverMetadatas().size() > 0) {
-            for (DriverMetadataThrift driverMetadataThrift : getVolumeResponse
-                .getDriverMetadatas()) {
-              driverMetadatas
-                  .add(RequestResponseHelper.buildDriverMetadataFrom(driverMetadataThrift));
-            }
-
-            volumeMetadataAndDrivers.setDriverMetadatas(driverMetadatas);
-          } //end get driver
+          setDriverMetadatas(volumeMetadataAndDrivers, getVolumeResponse);
           break;
         } else {
           // start index doesn't move this time
@@ -268,6 +286,114 @@ public class InformationCenterClientWrapper {
     return volumeMetadataAndDrivers;
   }
 
+  /**
+   * Get the volume page by page like {@link #getVolumeByPagination(long, long)}, but keep up to
+   * pagesInFlight page requests in flight, and decode the pages on a worker pool while later pages
+   * are still on the wire.
+   *
+   * <p>The first page tells the segment count of the volume, the pages after it are requested at
+   * the segment indexes they start at when every page is full. Pages are merged in segment order,
+   * the segments a short page leaves out are fetched one page after another as in the serial way.
+   * The delegate has to take concurrent calls.
+   */
+  public VolumeMetadataAndDrivers getVolumeByPagination(long volumeId, long accountId,
+      int pagesInFlight) throws Exception {
+    Validate.isTrue(pagesInFlight > 0, "pages in flight must be positive: %s", pagesInFlight);
+    if (pagesInFlight == 1) {
+      return getVolumeByPagination(volumeId, accountId);
+    }
+    VolumePage page = fetchVolumePage(volumeId, accountId, 0);
+    if (page.volumeMetadata == null) {
+      return getVolumeByPagination(volumeId, accountId);
+    }
+
+    VolumeMetadataAndDrivers volumeMetadataAndDrivers = new VolumeMetadataAndDrivers();
+    VolumeMetadata volumeMetadata = page.volumeMetadata;
+    volumeMetadataAndDrivers.setVolumeMetadata(volumeMetadata);
+    int segmentCount = volumeMetadata.getSegmentCount();
+    int nextStartIndex = page.nextStartIndex;
+    int speculativeStartIndex = nextStartIndex;
+    int maxTryTimeWhenStartIndexNotMove = 5;
+    Deque<PendingVolumePage> pendingPages = new ArrayDeque<>();
+    try {
+      while (page.leftSegment) {
+        while (pendingPages.size() < pagesInFlight && speculativeStartIndex < segmentCount) {
+          int startIndex = speculativeStartIndex;
+          pendingPages.add(new PendingVolumePage(startIndex, volumePageFetcher
+              .submit(() -> fetchVolumePage(volumeId, accountId, startIndex))));
+          speculativeStartIndex += DEFAULT_PAGINATION_COUNT_WHEN_GET_VOLUME;
+        }
+
+        PendingVolumePage pendingPage = pendingPages.peek();
+        if (pendingPage != null && pendingPage.startIndex <= nextStartIndex) {
+          pendingPages.poll();
+          page = pendingPage.get();
+        } else {
+          // a short page left a gap, or the volume has more segments than its size tells
+          page = fetchVolumePage(volumeId, accountId, nextStartIndex);
+        }
+
+        if (page.nextStartIndex > nextStartIndex) {
+          if (page.volumeMetadata != null) {
+            for (SegmentMetadata segmentMetadata : page.volumeMetadata.getSegments()) {
+              volumeMetadata
+                  .addSegmentMetadata(segmentMetadata, segmentMetadata.getLatestMembership());
+            }
+          }
+          nextStartIndex = page.nextStartIndex;
+        } else if (page.startIndex == nextStartIndex && page.leftSegment) {
+          logger.warn("get volume:{}, but start index:{} doesn't move", volumeId,
+              nextStartIndex);
+          maxTryTimeWhenStartIndexNotMove--;
+          if (maxTryTimeWhenStartIndexNotMove == 0) {
+            logger.error(
+                "after several times to get volume:{}, can not get whole volume, stuck at:{}",
+                volumeId, nextStartIndex);
+            throw new Exception();
+          }
+          Thread.sleep(200);
+        }
+      }
+    } finally {
+      for (PendingVolumePage pendingPage : pendingPages) {
+        pendingPage.future.cancel(false);
+      }
+    }
+
+    setDriverMetadatas(volumeMetadataAndDrivers, page.response);
+    logger.info("getVolumeByPagination, got volume:{} with {} segments", volumeId,
+        volumeMetadata.getSegmentTableSize());
+    return volumeMetadataAndDrivers;
+  }
+
+  private VolumePage fetchVolumePage(long volumeId, long accountId, int startIndex)
+      throws TException {
+    GetVolumeRequest getVolumeByPaginationRequest = new GetVolumeRequest();
+    getVolumeByPaginationRequest.setRequestId(RequestIdBuilder.get());
+    getVolumeByPaginationRequest.setVolumeId(volumeId);
+    getVolumeByPaginationRequest.setAccountId(accountId);
+    getVolumeByPaginationRequest.setEnablePagination(true);
+    getVolumeByPaginationRequest.setStartSegmentIndex(startIndex);
+    getVolumeByPaginationRequest.setPaginationNumber(DEFAULT_PAGINATION_COUNT_WHEN_GET_VOLUME);
+    GetVolumeResponse getVolumeResponse = delegate.getVolume(getVolumeByPaginationRequest);
+    logger.debug("got the page of volume:{} from segment index:{}, next start index:{}",
+        volumeId, startIndex, getVolumeResponse.getNextStartSegmentIndex());
+    return new VolumePage(startIndex, getVolumeResponse);
+  }
+
+  private void setDriverMetadatas(VolumeMetadataAndDrivers volumeMetadataAndDrivers,
+      GetVolumeResponse getVolumeResponse) {
+    List<DriverMetadata> driverMetadatas = new ArrayList<>();
+    if (getVolumeResponse.getDriverMetadatas() != null
+        && getVolumeResponse.getDriverMetadatas().size() > 0) {
+      for (DriverMetadataThrift driverMetadataThrift : getVolumeResponse.getDriverMetadatas()) {
+        driverMetadatas.add(RequestResponseHelper.buildDriverMetadataFrom(driverMetadataThrift));
+      }
+
+      volumeMetadataAndDrivers.setDriverMetadatas(driverMetadatas);
+    }
+  }
+
   /**
    * To get volume access rules from information center.
    *
@@ -467,4 +593,44 @@ public class InformationCenterClientWrapper {
     }
   }
 
+  /**
+   * A page of a volume, decoded on the thread fetching it.
+   */
+  private static class VolumePage {
+    private final int startIndex;
+    private final GetVolumeResponse response;
+    private final int nextStartIndex;
+    private final boolean leftSegment;
+    private final VolumeMetadata volumeMetadata;
+
+    private VolumePage(int startIndex, GetVolumeResponse response) {
+      this.startIndex = startIndex;
+      this.response = response;
+      this.nextStartIndex = response.getNextStartSegmentIndex();
+      this.leftSegment = response.isLeftSegment();
+      this.volumeMetadata = response.isSetVolumeMetadata()
+          ? RequestResponseHelper.buildVolumeFrom(response.getVolumeMetadata()) : null;
+    }
+  }
+
+  private static class PendingVolumePage {
+    private final int startIndex;
+    private final Future<VolumePage> future;
+
+    private PendingVolumePage(int startIndex, Future<VolumePage> future) {
+      this.startIndex = startIndex;
+      this.future = future;
+    }
+
+    private VolumePage get() throws Exception {
+      try {
+        return future.get();
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof Exception) {
+          throw (Exception) e.getCause();
+        }
+        throw e;
+      }
+    }
+  }
 }
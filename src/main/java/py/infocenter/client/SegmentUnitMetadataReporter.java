@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package py.infocenter.client;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import py.RequestResponseHelper;
+import py.archive.segment.SegId;
+import py.archive.segment.SegmentUnitMetadata;
+import py.thrift.share.SegmentUnitMetadataThrift;
+
+/**
+ * Builds the segment unit reports of a data node, only converting the units changed since they
+ * were reported last time.
+ *
+ * <p>Each unit carries a change generation ({@link SegmentUnitMetadata#getChangeGeneration()}).
+ * The thrift of a unit is kept with the generation it was built at, and reused as long as the
+ * generation does not move. Every {@code fullReportInterval} reports all units are converted
+ * again, which resynchronizes anything changed without bumping the generation.
+ */
+public class SegmentUnitMetadataReporter {
+  public static final int DEFAULT_FULL_REPORT_INTERVAL = 10;
+  private static final Logger logger = LoggerFactory.getLogger(SegmentUnitMetadataReporter.class);
+
+  private final int fullReportInterval;
+  private final Map<SegId, ReportedUnit> reportedUnits = new HashMap<>();
+  private int reportsSinceFull;
+
+  public SegmentUnitMetadataReporter() {
+    this(DEFAULT_FULL_REPORT_INTERVAL);
+  }
+
+  public SegmentUnitMetadataReporter(int fullReportInterval) {
+    Validate.isTrue(fullReportInterval > 0, "full report interval must be positive: %s",
+        fullReportInterval);
+    this.fullReportInterval = fullReportInterval;
+  }
+
+  /**
+   * build the report of the given units, the units not given any more are forgotten.
+   */
+  public synchronized Report buildReport(Collection<SegmentUnitMetadata> segmentUnits) {
+    boolean full = reportsSinceFull == 0;
+    reportsSinceFull = (reportsSinceFull + 1) % fullReportInterval;
+
+    Map<SegId, ReportedUnit> lastReportedUnits = new HashMap<>(reportedUnits);
+    reportedUnits.clear();
+    Report report = new Report(full, segmentUnits.size());
+    for (SegmentUnitMetadata segmentUnit : segmentUnits) {
+      SegId segId = segmentUnit.getSegId();
+      // read the generation before converting, a change racing with the conversion bumps it again
+      long generation = segmentUnit.getChangeGeneration();
+      ReportedUnit reportedUnit = lastReportedUnits.get(segId);
+      if (!full && reportedUnit != null && reportedUnit.segmentUnit == segmentUnit
+          && reportedUnit.generation == generation) {
+        report.heartbeats.put(segId, generation);
+      } else {
+        reportedUnit = new ReportedUnit(segmentUnit, generation,
+            RequestResponseHelper.buildThriftSegUnitMetadataFrom(segmentUnit));
+        report.changedUnits.add(reportedUnit.thrift);
+      }
+      reportedUnits.put(segId, reportedUnit);
+      report.allUnits.add(reportedUnit.thrift);
+    }
+    logger.debug("built a {} segment unit report, {} changed, {} unchanged",
+        full ? "full" : "incremental", report.changedUnits.size(), report.heartbeats.size());
+    return report;
+  }
+
+  /**
+   * make the next report a full one, e.g. after the info center asks for a resync.
+   */
+  public synchronized void requestFullReport() {
+    reportsSinceFull = 0;
+  }
+
+  private static class ReportedUnit {
+    private final SegmentUnitMetadata segmentUnit;
+    private final long generation;
+    private final SegmentUnitMetadataThrift thrift;
+
+    private ReportedUnit(SegmentUnitMetadata segmentUnit, long generation,
+        SegmentUnitMetadataThrift thrift) {
+      this.segmentUnit = segmentUnit;
+      this.generation = generation;
+      this.thrift = thrift;
+    }
+  }
+
+  /**
+   * A report of segment units.
+   */
+  public static class Report {
+    private final boolean full;
+    private final List<SegmentUnitMetadataThrift> changedUnits = new ArrayList<>();
+    private final Map<SegId, Long> heartbeats = new HashMap<>();
+    private final List<SegmentUnitMetadataThrift> allUnits;
+
+    private Report(boolean full, int unitCount) {
+      this.full = full;
+      this.allUnits = new ArrayList<>(unitCount);
+    }
+
+    public boolean isFull() {
+      return full;
+    }
+
+    /**
+     * the units converted for this report, all of them in a full report.
+     */
+    public List<SegmentUnitMetadataThrift> getChangedUnits() {
+      return Collections.unmodifiableList(changedUnits);
+    }
+
+    /**
+     * the generations of the units unchanged since the last report.
+     */
+    public Map<SegId, Long> getHeartbeats() {
+      return Collections.unmodifiableMap(heartbeats);
+    }
+
+    /**
+     * the changed units and the thrift kept for the unchanged ones.
+     */
+    public List<SegmentUnitMetadataThrift> getAllUnits() {
+      return Collections.unmodifiableList(allUnits);
+    }
+  }
+}
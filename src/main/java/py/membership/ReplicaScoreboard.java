@@ -0,0 +1,298 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package py.membership;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+import org.apache.commons.lang3.Validate;
+import py.common.struct.EndPoint;
+
+/**
+ * Read latency and error statistics of the members of segments, used to read from the fastest
+ * member and to decide when a read is slow enough to send a hedged duplicate.
+ *
+ * <p>Each end point keeps an exponentially weighted moving average of its read latency and of its
+ * error rate, and the number of its reads in flight. The score of a member is its average latency
+ * scaled by its queue, plus a fixed cost for each failed read weighted by its error rate, the lower
+ * the better. A member not read for a while has its averages halved for each idle period, so that
+ * one bad period is not held against it forever.
+ *
+ * <p>The hedge delay is a percentile of the latencies of all reads, kept in a histogram whose
+ * counts are halved from time to time so that it follows the recent reads.
+ */
+public class ReplicaScoreboard {
+  public static final double DEFAULT_ALPHA = 0.2;
+  public static final double DEFAULT_HEDGE_PERCENTILE = 0.95;
+  public static final long DEFAULT_MIN_HEDGE_DELAY_NANOS = TimeUnit.MICROSECONDS.toNanos(500);
+
+  // what a failed read costs, as it has to be read again from another member
+  private static final double ERROR_COST_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+  private static final long IDLE_PERIOD_NANOS = TimeUnit.SECONDS.toNanos(1);
+  // no hedged read until the histogram has seen this many reads
+  private static final int MIN_SAMPLES = 100;
+  private static final int HEDGE_DELAY_REFRESH_INTERVAL = 64;
+  private static final int DECAY_INTERVAL = 8192;
+  // each power of two is split into 4 buckets, so a percentile is off by 25% at most
+  private static final int SUB_BUCKET_BITS = 2;
+  private static final int BUCKET_COUNT = 64 << SUB_BUCKET_BITS;
+
+  private final ConcurrentHashMap<EndPoint, ReplicaStats> replicaStats = new ConcurrentHashMap<>();
+  private final double alpha;
+  private final double hedgePercentile;
+  private final long minHedgeDelayNanos;
+  private final LongSupplier nanoClock;
+  private final AtomicLongArray latencyBuckets = new AtomicLongArray(BUCKET_COUNT);
+  private final AtomicLong sampleCount = new AtomicLong();
+  private volatile long hedgeDelayNanos = Long.MAX_VALUE;
+
+  public ReplicaScoreboard() {
+    this(DEFAULT_ALPHA, DEFAULT_HEDGE_PERCENTILE, DEFAULT_MIN_HEDGE_DELAY_NANOS);
+  }
+
+  public ReplicaScoreboard(double alpha, double hedgePercentile, long minHedgeDelayNanos) {
+    this(alpha, hedgePercentile, minHedgeDelayNanos, System::nanoTime);
+  }
+
+  ReplicaScoreboard(double alpha, double hedgePercentile, long minHedgeDelayNanos,
+      LongSupplier nanoClock) {
+    Validate.isTrue(alpha > 0 && alpha <= 1, "alpha should be in (0, 1]: %s", alpha);
+    Validate.isTrue(hedgePercentile > 0 && hedgePercentile < 1,
+        "hedge percentile should be in (0, 1): %s", hedgePercentile);
+    Validate.isTrue(minHedgeDelayNanos >= 0);
+    this.alpha = alpha;
+    this.hedgePercentile = hedgePercentile;
+    this.minHedgeDelayNanos = minHedgeDelayNanos;
+    this.nanoClock = nanoClock;
+  }
+
+  private static int bucketOf(long latencyNanos) {
+    long value = Math.max(latencyNanos, 1L);
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    if (exponent < SUB_BUCKET_BITS) {
+      return (int) value;
+    }
+    int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & ((1 << SUB_BUCKET_BITS) - 1);
+    return (exponent << SUB_BUCKET_BITS) + subBucket;
+  }
+
+  private static long upperBoundOf(int bucket) {
+    int exponent = bucket >>> SUB_BUCKET_BITS;
+    if (exponent < SUB_BUCKET_BITS) {
+      return bucket;
+    }
+    int subBucket = bucket & ((1 << SUB_BUCKET_BITS) - 1);
+    long width = 1L << (exponent - SUB_BUCKET_BITS);
+    return (1L << exponent) + (subBucket + 1) * width - 1;
+  }
+
+  /**
+   * whether a read can be sent to the member.
+   */
+  public static boolean isEligible(IoMember ioMember) {
+    MemberIoStatus memberIoStatus = ioMember.getMemberIoStatus();
+    return memberIoStatus != null && !memberIoStatus.isReadDown() && !ioMember.isCheckRead();
+  }
+
+  public long now() {
+    return nanoClock.getAsLong();
+  }
+
+  public void readStarted(EndPoint endPoint) {
+    statsOf(endPoint).started();
+  }
+
+  public void readCompleted(EndPoint endPoint, long latencyNanos) {
+    statsOf(endPoint).completed(latencyNanos, now());
+    latencyBuckets.incrementAndGet(bucketOf(latencyNanos));
+    long samples = sampleCount.incrementAndGet();
+    if (samples % DECAY_INTERVAL == 0) {
+      for (int i = 0; i < BUCKET_COUNT; i++) {
+        long count = latencyBuckets.get(i);
+        // losing a concurrent increment here is fine
+        latencyBuckets.set(i, count >>> 1);
+      }
+    }
+    if (samples >= MIN_SAMPLES && samples % HEDGE_DELAY_REFRESH_INTERVAL == 0) {
+      hedgeDelayNanos = Math.max(minHedgeDelayNanos, percentile(hedgePercentile));
+    }
+  }
+
+  public void readFailed(EndPoint endPoint) {
+    statsOf(endPoint).failed(now());
+  }
+
+  /**
+   * the members a read can be sent to, the fastest first.
+   */
+  public List<IoMember> rank(Collection<IoMember> ioMembers) {
+    long now = now();
+    List<IoMember> eligibleMembers = new ArrayList<>(ioMembers.size());
+    for (IoMember ioMember : ioMembers) {
+      if (isEligible(ioMember)) {
+        eligibleMembers.add(ioMember);
+      }
+    }
+    if (eligibleMembers.size() > 1) {
+      double[] scores = new double[eligibleMembers.size()];
+      List<Integer> order = new ArrayList<>(scores.length);
+      for (int i = 0; i < scores.length; i++) {
+        scores[i] = getScore(eligibleMembers.get(i).getEndPoint(), now);
+        order.add(i);
+      }
+      order.sort(Comparator.comparingDouble(i -> scores[i]));
+      List<IoMember> ranked = new ArrayList<>(scores.length);
+      for (int i : order) {
+        ranked.add(eligibleMembers.get(i));
+      }
+      return ranked;
+    }
+    return eligibleMembers;
+  }
+
+  /**
+   * the fastest member a read can be sent to, or null if there is none.
+   */
+  public IoMember pickFastest(Collection<IoMember> ioMembers) {
+    long now = now();
+    IoMember fastest = null;
+    double fastestScore = Double.MAX_VALUE;
+    for (IoMember ioMember : ioMembers) {
+      if (!isEligible(ioMember)) {
+        continue;
+      }
+      double score = getScore(ioMember.getEndPoint(), now);
+      if (fastest == null || score < fastestScore) {
+        fastest = ioMember;
+        fastestScore = score;
+      }
+    }
+    return fastest;
+  }
+
+  /**
+   * how long to wait for a read before sending a hedged duplicate, Long.MAX_VALUE if there have
+   * not been enough reads to tell yet.
+   */
+  public long getHedgeDelayNanos() {
+    return hedgeDelayNanos;
+  }
+
+  public double getScore(EndPoint endPoint) {
+    return getScore(endPoint, now());
+  }
+
+  public double getAverageLatencyNanos(EndPoint endPoint) {
+    ReplicaStats stats = replicaStats.get(endPoint);
+    return stats == null ? 0 : stats.averageLatencyNanos(now());
+  }
+
+  public double getErrorRate(EndPoint endPoint) {
+    ReplicaStats stats = replicaStats.get(endPoint);
+    return stats == null ? 0 : stats.errorRate;
+  }
+
+  public void remove(EndPoint endPoint) {
+    replicaStats.remove(endPoint);
+  }
+
+  /**
+   * the latency which the given fraction of the recent reads took no longer than.
+   */
+  long percentile(double fraction) {
+    long[] counts = new long[BUCKET_COUNT];
+    long total = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      counts[i] = latencyBuckets.get(i);
+      total += counts[i];
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(total * fraction);
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return upperBoundOf(i);
+      }
+    }
+    return upperBoundOf(BUCKET_COUNT - 1);
+  }
+
+  private double getScore(EndPoint endPoint, long now) {
+    ReplicaStats stats = replicaStats.get(endPoint);
+    // a member never read from scores 0, so that it is tried first
+    return stats == null ? 0 : stats.score(now);
+  }
+
+  private ReplicaStats statsOf(EndPoint endPoint) {
+    ReplicaStats stats = replicaStats.get(endPoint);
+    if (stats == null) {
+      stats = replicaStats.computeIfAbsent(endPoint, ep -> new ReplicaStats());
+    }
+    return stats;
+  }
+
+  private class ReplicaStats {
+    private int inFlight;
+    private double latencyNanos;
+    private double errorRate;
+    private long lastUpdateTime;
+    private boolean sampled;
+
+    private synchronized void started() {
+      inFlight++;
+    }
+
+    private synchronized void completed(long latency, long now) {
+      inFlight = Math.max(0, inFlight - 1);
+      latencyNanos = sampled ? latencyNanos + alpha * (latency - latencyNanos) : latency;
+      errorRate -= alpha * errorRate;
+      sampled = true;
+      lastUpdateTime = now;
+    }
+
+    private synchronized void failed(long now) {
+      inFlight = Math.max(0, inFlight - 1);
+      errorRate += alpha * (1 - errorRate);
+      lastUpdateTime = now;
+    }
+
+    private double idleDecay(long now) {
+      long idlePeriods = (now - lastUpdateTime) / IDLE_PERIOD_NANOS;
+      if (idlePeriods <= 0) {
+        return 1;
+      }
+      return idlePeriods >= 62 ? 0 : 1.0 / (1L << idlePeriods);
+    }
+
+    private synchronized double averageLatencyNanos(long now) {
+      return latencyNanos * idleDecay(now);
+    }
+
+    private synchronized double score(long now) {
+      double decay = idleDecay(now);
+      return latencyNanos * decay * (1 + inFlight) + errorRate * decay * ERROR_COST_NANOS;
+    }
+  }
+}
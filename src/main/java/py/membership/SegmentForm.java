@@ -17,6 +17,7 @@ package py.membership;
 import org.apache.commons.lang3.Validate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.helpers.NOPLogger;
 import py.instance.InstanceId;
 import py.volume.VolumeType;
 
@@ -316,7 +317,7 @@ public enum SegmentForm {
       // if primary down, stop write
       boolean createSuccess = false;
       if (ioActionContext.isPrimaryDown()) {
-        logger.error("if primary down, can not sent to members in this:{}", this);
+        logger().error("if primary down, can not sent to members in this:{}", this);
       } else {
         // send PS
         if (goodPrimaryCount > 0 && goodSecondariesCount > 0) {
@@ -347,7 +348,7 @@ public enum SegmentForm {
       // if primary down, stop write
       boolean canCommit = false;
       if (ioActionContext.isPrimaryDown()) {
-        logger.error("if primary down, can not sent to members in this:{}", this);
+        logger().error("if primary down, can not sent to members in this:{}", this);
       } else {
         // send PS
         if (goodPrimaryCount > 0 && goodSecondariesCount > 0) {
@@ -409,7 +410,7 @@ public enum SegmentForm {
       // if primary down, stop write
       boolean createSuccess = false;
       if (ioActionContext.isPrimaryDown()) {
-        logger.error("if primary down, can not sent to members in this:{}", this);
+        logger().error("if primary down, can not sent to members in this:{}", this);
       } else {
         // send PJ or P(if joining secondary down)
         if (goodPrimaryCount > 0) {
@@ -444,7 +445,7 @@ public enum SegmentForm {
       // if primary down, stop write
       boolean canCommit = false;
       if (ioActionContext.isPrimaryDown()) {
-        logger.error("if primary down, can not sent to members in this:{}", this);
+        logger().error("if primary down, can not sent to members in this:{}", this);
       } else {
         // send PJ or P(if joining secondary down)
         if (goodPrimaryCount > 0) {
@@ -504,7 +505,7 @@ public enum SegmentForm {
     @Override
     public boolean mergeCreateLogResult(int goodPrimaryCount, int goodSecondariesCount,
         int goodJoiningSecondariesCount, IoActionContext ioActionContext, VolumeType volumeType) {
-      logger.error("if primary down, can not sent to members in this:{}", this);
+      logger().error("if primary down, can not sent to members in this:{}", this);
       return false;
     }
 
@@ -524,7 +525,7 @@ public enum SegmentForm {
     @Override
     public boolean mergeCommitLogResult(int goodPrimaryCount, int goodSecondariesCount,
         int goodJoiningSecondariesCount, IoActionContext ioActionContext, VolumeType volumeType) {
-      logger.error("if primary down, can not sent to members in this:{}", this);
+      logger().error("if primary down, can not sent to members in this:{}", this);
       return false;
     }
 
@@ -568,7 +569,7 @@ public enum SegmentForm {
     public boolean mergeCreateLogResult(int goodPrimaryCount, int goodSecondariesCount,
         int goodJoiningSecondariesCount, IoActionContext ioActionContext, VolumeType volumeType) {
       if (ioActionContext.isPrimaryDown()) {
-        logger.error("primary down at this:{}, can not write any more", this);
+        logger().error("primary down at this:{}, can not write any more", this);
       } else {
         if (goodPrimaryCount > 0) {
           return true;
@@ -594,7 +595,7 @@ public enum SegmentForm {
     public boolean mergeCommitLogResult(int goodPrimaryCount, int goodSecondariesCount,
         int goodJoiningSecondariesCount, IoActionContext ioActionContext, VolumeType volumeType) {
       if (ioActionContext.isPrimaryDown()) {
-        logger.error("primary down at this:{}, can not write any more", this);
+        logger().error("primary down at this:{}, can not write any more", this);
       } else {
         if (goodPrimaryCount > 0) {
           return true;
@@ -655,7 +656,7 @@ public enum SegmentForm {
       // if primary down, stop write
       boolean createSuccess = false;
       if (ioActionContext.isPrimaryDown()) {
-        logger.error("if primary down, can not sent to members in this:{}", this);
+        logger().error("if primary down, can not sent to members in this:{}", this);
       } else {
         // send PS or P(if secondary down)
         if (goodPrimaryCount > 0) {
@@ -692,7 +693,7 @@ public enum SegmentForm {
       // if primary down, stop write
       boolean canCommit = false;
       if (ioActionContext.isPrimaryDown()) {
-        logger.error("if primary down, can not sent to members in this:{}", this);
+        logger().error("if primary down, can not sent to members in this:{}", this);
       } else {
         // send PS or P(if secondary down)
         if (goodPrimaryCount > 0) {
@@ -755,7 +756,7 @@ public enum SegmentForm {
       // if primary down, stop write
       boolean createSuccess = false;
       if (ioActionContext.isPrimaryDown()) {
-        logger.error("if primary down, can not sent to members in this:{}", this);
+        logger().error("if primary down, can not sent to members in this:{}", this);
       } else {
         // send PJ or P(if J down)
         if (goodPrimaryCount > 0) {
@@ -790,7 +791,7 @@ public enum SegmentForm {
       // if primary down, stop write
       boolean canCommit = false;
       if (ioActionContext.isPrimaryDown()) {
-        logger.error("if primary down, can not sent to members in this:{}", this);
+        logger().error("if primary down, can not sent to members in this:{}", this);
       } else {
         // send PJ or P(if J down)
         if (goodPrimaryCount > 0) {
@@ -851,7 +852,7 @@ public enum SegmentForm {
     public boolean mergeCreateLogResult(int goodPrimaryCount, int goodSecondariesCount,
         int goodJoiningSecondariesCount, IoActionContext ioActionContext, VolumeType volumeType) {
       if (ioActionContext.isPrimaryDown()) {
-        logger.error("primary is down at:{}, can not write any more", this);
+        logger().error("primary is down at:{}, can not write any more", this);
       } else {
         if (goodPrimaryCount > 0) {
           return true;
@@ -877,7 +878,7 @@ public enum SegmentForm {
     public boolean mergeCommitLogResult(int goodPrimaryCount, int goodSecondariesCount,
         int goodJoiningSecondariesCount, IoActionContext ioActionContext, VolumeType volumeType) {
       if (ioActionContext.isPrimaryDown()) {
-        logger.error("primary is down at:{}, can not write any more", this);
+        logger().error("primary is down at:{}, can not write any more", this);
       } else {
         if (goodPrimaryCount > 0) {
           return true;
@@ -1074,7 +1075,7 @@ public enum SegmentForm {
       // if primary down, stop write
       boolean createSuccess = false;
       if (ioActionContext.isPrimaryDown()) {
-        logger.error("if primary down, can not sent to members in this:{}", this);
+        logger().error("if primary down, can not sent to members in this:{}", this);
       } else {
         // send PJ or P(if J down)
         if (goodPrimaryCount > 0) {
@@ -1109,7 +1110,7 @@ public enum SegmentForm {
       // if primary down, stop write
       boolean canCommit = false;
       if (ioActionContext.isPrimaryDown()) {
-        logger.error("if primary down, can not sent to members in this:{}", this);
+        logger().error("if primary down, can not sent to members in this:{}", this);
       } else {
         // send PJ or P(if J down)
         if (goodPrimaryCount > 0) {
@@ -1173,7 +1174,7 @@ public enum SegmentForm {
       // if primary down, stop write
       boolean createSuccess = false;
       if (ioActionContext.isPrimaryDown()) {
-        logger.error("if primary down, can not sent to members in this:{}", this);
+        logger().error("if primary down, can not sent to members in this:{}", this);
       } else {
         // send P
         if (goodPrimaryCount > 0) {
@@ -1202,7 +1203,7 @@ public enum SegmentForm {
       // if primary down, stop write
       boolean canCommit = false;
       if (ioActionContext.isPrimaryDown()) {
-        logger.error("if primary down, can not sent to members in this:{}", this);
+        logger().error("if primary down, can not sent to members in this:{}", this);
       } else {
         // send P
         if (goodPrimaryCount > 0) {
@@ -1264,7 +1265,7 @@ public enum SegmentForm {
       // if primary down, stop write
       boolean createSuccess = false;
       if (ioActionContext.isPrimaryDown()) {
-        logger.error("if primary down, can not sent to members in this:{}", this);
+        logger().error("if primary down, can not sent to members in this:{}", this);
       } else {
         // send P
         if (goodPrimaryCount > 0) {
@@ -1282,7 +1283,7 @@ public enum SegmentForm {
       boolean readSuccess = false;
       // read from P
       if (ioActionContext.isPrimaryDown()) {
-        logger.error("if primary down, can not sent to members in this:{}", this);
+        logger().error("if primary down, can not sent to members in this:{}", this);
       } else {
         if (goodPrimaryCount > 0) {
           readSuccess = true;
@@ -1297,7 +1298,7 @@ public enum SegmentForm {
       // if primary down, stop write
       boolean canCommit = false;
       if (ioActionContext.isPrimaryDown()) {
-        logger.error("if primary down, can not sent to members in this:{}", this);
+        logger().error("if primary down, can not sent to members in this:{}", this);
       } else {
         // send P
         if (goodPrimaryCount > 0) {
@@ -1358,7 +1359,7 @@ public enum SegmentForm {
         int goodJoiningSecondariesCount, IoActionContext ioActionContext, VolumeType volumeType) {
       boolean createSuccess = false;
       if (ioActionContext.isPrimaryDown()) {
-        logger.warn("primary is down at:{}, so can't write any more", this);
+        logger().warn("primary is down at:{}, so can't write any more", this);
       } else {
         // send PS or P(if S down)
         if (goodPrimaryCount > 0) {
@@ -1394,7 +1395,7 @@ public enum SegmentForm {
         int goodJoiningSecondariesCount, IoActionContext ioActionContext, VolumeType volumeType) {
       boolean canCommit = false;
       if (ioActionContext.isPrimaryDown()) {
-        logger.warn("primary is down at:{}, so can't write any more", this);
+        logger().warn("primary is down at:{}, so can't write any more", this);
       } else {
         // send PS or P(if S down)
         if (goodPrimaryCount > 0) {
@@ -1458,7 +1459,7 @@ public enum SegmentForm {
       // if primary down, stop write
       boolean createSuccess = false;
       if (ioActionContext.isPrimaryDown()) {
-        logger.error("if primary down, can not sent to members in this:{}", this);
+        logger().error("if primary down, can not sent to members in this:{}", this);
       } else {
         // send PJ or P(if J down)
         if (goodPrimaryCount > 0) {
@@ -1493,7 +1494,7 @@ public enum SegmentForm {
       // if primary down, stop write
       boolean canCommit = false;
       if (ioActionContext.isPrimaryDown()) {
-        logger.error("if primary down, can not sent to members in this:{}", this);
+        logger().error("if primary down, can not sent to members in this:{}", this);
       } else {
         // send PJ or P(if J down)
         if (goodPrimaryCount > 0) {
@@ -1556,7 +1557,7 @@ public enum SegmentForm {
       // if primary down, stop write
       boolean createSuccess = false;
       if (ioActionContext.isPrimaryDown()) {
-        logger.error("if primary down, can not sent to members in this:{}", this);
+        logger().error("if primary down, can not sent to members in this:{}", this);
       } else {
         // send P
         if (goodPrimaryCount > 0) {
@@ -1585,7 +1586,7 @@ public enum SegmentForm {
       // if primary down, stop write
       boolean canCommit = false;
       if (ioActionContext.isPrimaryDown()) {
-        logger.error("if primary down, can not sent to members in this:{}", this);
+        logger().error("if primary down, can not sent to members in this:{}", this);
       } else {
         // send P
         if (goodPrimaryCount > 0) {
@@ -1669,7 +1670,7 @@ public enum SegmentForm {
         IoActionContext ioActionContext, VolumeType volumeType) {
       // must p and s down
       if (primaryCount == 0 && secondariesCount == 0) {
-        logger.warn("primary and secondaries down, processWriteIOActionContext in this:{}", this);
+        logger().warn("primary and secondaries down, processWriteIOActionContext in this:{}", this);
         ioActionContext.setResendDirectly(true);
       }
     }
@@ -3322,6 +3323,14 @@ public enum SegmentForm {
     this.value = value;
   }
 
+  /**
+   * compiling a {@link SegmentFormDecisionTable} walks through every io state on purpose, so the
+   * warnings about unexpected states are muted there.
+   */
+  private static Logger logger() {
+    return SegmentFormDecisionTable.isCompiling() ? NOPLogger.NOP_LOGGER : logger;
+  }
+
   public static SegmentForm findByName(String name) {
     SegmentForm segmentForm = null;
     switch (name) {
@@ -3391,9 +3400,7 @@ public enum SegmentForm {
       Validate.isTrue(false, "primary can not be null");
     }
 
-    segmentForm = volumeType.getSegmentForm(membership.getSecondaries().size(),
-        membership.getJoiningSecondaries().size(),
-        membership.getArbiters().size(), membership.getInactiveSecondaries().size());
+    segmentForm = membership.getSegmentForm(volumeType);
     if (segmentForm == null) {
       Validate.isTrue(false, "invalid segment form. the value is empty" + " , at:" + membership);
     }
@@ -3442,11 +3449,16 @@ public enum SegmentForm {
 
   public boolean writable(int primaryCount, int secondariesCount, int joiningSecondariesCount,
       VolumeType volumeType) {
-    IoActionContext ioActionContext = new IoActionContext();
-    processWriteIoActionContext(primaryCount, secondariesCount, joiningSecondariesCount,
-        ioActionContext,
-        volumeType);
-    return !ioActionContext.isResendDirectly();
+    return getDecisionTable(volumeType)
+        .writable(primaryCount, secondariesCount, joiningSecondariesCount);
+  }
+
+  /**
+   * get the precomputed quorum decisions of this form, which give the same results as the methods
+   * of this enum without walking through their branches on each io.
+   */
+  public SegmentFormDecisionTable getDecisionTable(VolumeType volumeType) {
+    return SegmentFormDecisionTable.of(this, volumeType);
   }
 
   public boolean writeDoneDirectly(int primaryDisconnectCount, int secondaryDisconnectCount,
@@ -0,0 +1,385 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package py.membership;
+
+import py.volume.VolumeType;
+
+/**
+ * Precomputed quorum decisions of one {@link SegmentForm} under one {@link VolumeType}.
+ *
+ * <p>The table is compiled by evaluating the enum logic of the form over every input it can
+ * legally see (at most one primary, two secondaries, two joining secondaries and two arbiters, a
+ * write fan-out of at most five members, and the four io context flags). After that, each
+ * decision made on an io completion is a single bit lookup without any allocation. Inputs out of
+ * the compiled range are delegated to the enum, so results are always identical to the enum.
+ *
+ * <p>All tables are compiled when the class is loaded, and each table fills its bitsets in its
+ * constructor, so a table is fully visible to any thread that gets it.
+ */
+public final class SegmentFormDecisionTable {
+  static final int FLAG_PRIMARY_DOWN = 1;
+  static final int FLAG_SECONDARY_DOWN = 1 << 1;
+  static final int FLAG_JOINING_SECONDARY_DOWN = 1 << 2;
+  static final int FLAG_MET_READ_DOWN_SECONDARY = 1 << 3;
+  static final int FLAG_COMBINATIONS = 1 << 4;
+
+  static final int MAX_PRIMARY = 1;
+  static final int MAX_SECONDARY = 2;
+  static final int MAX_JOINING_SECONDARY = 2;
+  static final int MAX_ARBITER = 2;
+  static final int MAX_FETCH = 1;
+  // the create and commit merges compare the good members with the write fan-out in the io
+  // context, so the fan-out is one more dimension of their tables
+  static final int MAX_TOTAL_WRITE = MAX_PRIMARY + MAX_SECONDARY + MAX_JOINING_SECONDARY;
+
+  private static final int MERGE_WRITE_SIZE = (MAX_PRIMARY + 1) * (MAX_SECONDARY + 1)
+      * (MAX_JOINING_SECONDARY + 1) * (MAX_TOTAL_WRITE + 1) * FLAG_COMBINATIONS;
+  private static final int MERGE_READ_SIZE = (MAX_PRIMARY + 1) * (MAX_FETCH + 1)
+      * (MAX_SECONDARY + 1) * (MAX_JOINING_SECONDARY + 1) * (MAX_ARBITER + 1) * FLAG_COMBINATIONS;
+  private static final int PROCESS_WRITE_SIZE = (MAX_PRIMARY + 1) * (MAX_SECONDARY + 1)
+      * (MAX_JOINING_SECONDARY + 1) * FLAG_COMBINATIONS;
+  private static final int PROCESS_READ_SIZE = (MAX_PRIMARY + 1) * (MAX_SECONDARY + 1)
+      * (MAX_JOINING_SECONDARY + 1) * (MAX_ARBITER + 1) * FLAG_COMBINATIONS;
+  private static final int DONE_DIRECTLY_SIZE = (MAX_PRIMARY + 1) * (MAX_SECONDARY + 1)
+      * (MAX_JOINING_SECONDARY + 1) * (MAX_ARBITER + 1);
+
+  // initialized before the tables, the enum logic checks it while the tables are compiled
+  private static final ThreadLocal<Boolean> compiling = ThreadLocal.withInitial(() -> false);
+  private static final SegmentFormDecisionTable[][] tables = compileAll();
+
+  private final SegmentForm segmentForm;
+  private final VolumeType volumeType;
+  private final long[] createSuccess = new long[words(MERGE_WRITE_SIZE)];
+  private final long[] canCommit = new long[words(MERGE_WRITE_SIZE)];
+  private final long[] readSuccess = new long[words(MERGE_READ_SIZE)];
+  private final long[] writeResendDirectly = new long[words(PROCESS_WRITE_SIZE)];
+  private final long[] readResendDirectly = new long[words(PROCESS_READ_SIZE)];
+  private final long[] readDropCheckReaders = new long[words(PROCESS_READ_SIZE)];
+  private final long[] writeDoneDirectly = new long[words(DONE_DIRECTLY_SIZE)];
+  private final long[] readDoneDirectly = new long[words(DONE_DIRECTLY_SIZE)];
+
+  private SegmentFormDecisionTable(SegmentForm segmentForm, VolumeType volumeType) {
+    this.segmentForm = segmentForm;
+    this.volumeType = volumeType;
+    compile();
+  }
+
+  /**
+   * Get the decision table of the given form and volume type.
+   */
+  public static SegmentFormDecisionTable of(SegmentForm segmentForm, VolumeType volumeType) {
+    return tables[segmentForm.ordinal()][volumeType.ordinal()];
+  }
+
+  private static SegmentFormDecisionTable[][] compileAll() {
+    SegmentFormDecisionTable[][] tables =
+        new SegmentFormDecisionTable[SegmentForm.values().length][VolumeType.values().length];
+    compiling.set(true);
+    try {
+      for (SegmentForm segmentForm : SegmentForm.values()) {
+        for (VolumeType volumeType : VolumeType.values()) {
+          tables[segmentForm.ordinal()][volumeType.ordinal()] = new SegmentFormDecisionTable(
+              segmentForm, volumeType);
+        }
+      }
+    } finally {
+      compiling.set(false);
+    }
+    return tables;
+  }
+
+  /**
+   * the enum logic logs unexpected io states, which are all expected while compiling a table.
+   */
+  static boolean isCompiling() {
+    return compiling.get();
+  }
+
+  static int flagsOf(IoActionContext ioActionContext) {
+    int flags = 0;
+    if (ioActionContext.isPrimaryDown()) {
+      flags |= FLAG_PRIMARY_DOWN;
+    }
+    if (ioActionContext.isSecondaryDown()) {
+      flags |= FLAG_SECONDARY_DOWN;
+    }
+    if (ioActionContext.isJoiningSecondaryDown()) {
+      flags |= FLAG_JOINING_SECONDARY_DOWN;
+    }
+    if (ioActionContext.isMetReadDownSecondary()) {
+      flags |= FLAG_MET_READ_DOWN_SECONDARY;
+    }
+    return flags;
+  }
+
+  private void compile() {
+    ProbeIoActionContext probe = new ProbeIoActionContext();
+    SecondariesCountInfo secondariesCountInfo = new SecondariesCountInfo();
+    for (int flags = 0; flags < FLAG_COMBINATIONS; flags++) {
+      for (int p = 0; p <= MAX_PRIMARY; p++) {
+        for (int s = 0; s <= MAX_SECONDARY; s++) {
+          for (int j = 0; j <= MAX_JOINING_SECONDARY; j++) {
+            for (int total = 0; total <= MAX_TOTAL_WRITE; total++) {
+              int index = mergeWriteIndex(p, s, j, total, flags);
+              probe.reset(flags, total);
+              set(createSuccess, index,
+                  segmentForm.mergeCreateLogResult(p, s, j, probe, volumeType));
+              probe.reset(flags, total);
+              set(canCommit, index,
+                  segmentForm.mergeCommitLogResult(p, s, j, probe, volumeType));
+            }
+
+            probe.reset(flags, 0);
+            segmentForm.processWriteIoActionContext(p, s, j, probe, volumeType);
+            set(writeResendDirectly, processWriteIndex(p, s, j, flags),
+                probe.isResendDirectly());
+
+            for (int a = 0; a <= MAX_ARBITER; a++) {
+              probe.reset(flags, 0);
+              segmentForm.processReadIoActionContext(p, s, j, a, probe, volumeType);
+              int index = processReadIndex(p, s, j, a, flags);
+              set(readResendDirectly, index, probe.isResendDirectly());
+              set(readDropCheckReaders, index, probe.checkReadersDropped);
+
+              for (int fetch = 0; fetch <= MAX_FETCH; fetch++) {
+                if (fetch > s) {
+                  continue;
+                }
+                secondariesCountInfo.setFetchCount(fetch);
+                secondariesCountInfo.setCheckCount(s - fetch);
+                probe.reset(flags, 0);
+                set(readSuccess, mergeReadIndex(p, fetch, s - fetch, j, a, flags),
+                    segmentForm.mergeReadLogResult(p, secondariesCountInfo, j, a, probe,
+                        volumeType));
+              }
+
+              if (flags == 0) {
+                int doneIndex = doneDirectlyIndex(p, s, j, a);
+                set(writeDoneDirectly, doneIndex,
+                    segmentForm.writeDoneDirectly(p, s, j, a, volumeType));
+                set(readDoneDirectly, doneIndex,
+                    segmentForm.readDoneDirectly(p, s, j, a, volumeType));
+              }
+            }
+          }
+        }
+      }
+    }
+  }
+
+  private static int words(int bits) {
+    return (bits + Long.SIZE - 1) / Long.SIZE;
+  }
+
+  private static void set(long[] bits, int index, boolean value) {
+    if (value) {
+      bits[index >>> 6] |= 1L << index;
+    }
+  }
+
+  private static boolean get(long[] bits, int index) {
+    return (bits[index >>> 6] & (1L << index)) != 0;
+  }
+
+  private static boolean inRange(int primary, int secondary, int joiningSecondary) {
+    return primary >= 0 && primary <= MAX_PRIMARY && secondary >= 0 && secondary <= MAX_SECONDARY
+        && joiningSecondary >= 0 && joiningSecondary <= MAX_JOINING_SECONDARY;
+  }
+
+  private static boolean inRange(int primary, int secondary, int joiningSecondary, int arbiter) {
+    return inRange(primary, secondary, joiningSecondary) && arbiter >= 0 && arbiter <= MAX_ARBITER;
+  }
+
+  private static int mergeWriteIndex(int p, int s, int j, int total, int flags) {
+    return ((((p * (MAX_SECONDARY + 1) + s) * (MAX_JOINING_SECONDARY + 1) + j)
+        * (MAX_TOTAL_WRITE + 1) + total) * FLAG_COMBINATIONS) + flags;
+  }
+
+  private static int mergeReadIndex(int p, int fetch, int check, int j, int a, int flags) {
+    return (((((p * (MAX_FETCH + 1) + fetch) * (MAX_SECONDARY + 1) + check)
+        * (MAX_JOINING_SECONDARY + 1) + j) * (MAX_ARBITER + 1) + a) * FLAG_COMBINATIONS) + flags;
+  }
+
+  private static int processWriteIndex(int p, int s, int j, int flags) {
+    return ((p * (MAX_SECONDARY + 1) + s) * (MAX_JOINING_SECONDARY + 1) + j) * FLAG_COMBINATIONS
+        + flags;
+  }
+
+  private static int processReadIndex(int p, int s, int j, int a, int flags) {
+    return (((p * (MAX_SECONDARY + 1) + s) * (MAX_JOINING_SECONDARY + 1) + j) * (MAX_ARBITER + 1)
+        + a) * FLAG_COMBINATIONS + flags;
+  }
+
+  private static int doneDirectlyIndex(int p, int s, int j, int a) {
+    return ((p * (MAX_SECONDARY + 1) + s) * (MAX_JOINING_SECONDARY + 1) + j) * (MAX_ARBITER + 1)
+        + a;
+  }
+
+  public SegmentForm getSegmentForm() {
+    return segmentForm;
+  }
+
+  public VolumeType getVolumeType() {
+    return volumeType;
+  }
+
+  public boolean mergeCreateLogResult(int goodPrimaryCount, int goodSecondariesCount,
+      int goodJoiningSecondariesCount, IoActionContext ioActionContext) {
+    int total = ioActionContext.getTotalWriteCount();
+    if (!inRange(goodPrimaryCount, goodSecondariesCount, goodJoiningSecondariesCount)
+        || total < 0 || total > MAX_TOTAL_WRITE) {
+      return segmentForm.mergeCreateLogResult(goodPrimaryCount, goodSecondariesCount,
+          goodJoiningSecondariesCount, ioActionContext, volumeType);
+    }
+    return get(createSuccess, mergeWriteIndex(goodPrimaryCount, goodSecondariesCount,
+        goodJoiningSecondariesCount, total, flagsOf(ioActionContext)));
+  }
+
+  public boolean mergeCommitLogResult(int goodPrimaryCount, int goodSecondariesCount,
+      int goodJoiningSecondariesCount, IoActionContext ioActionContext) {
+    int total = ioActionContext.getTotalWriteCount();
+    if (!inRange(goodPrimaryCount, goodSecondariesCount, goodJoiningSecondariesCount)
+        || total < 0 || total > MAX_TOTAL_WRITE) {
+      return segmentForm.mergeCommitLogResult(goodPrimaryCount, goodSecondariesCount,
+          goodJoiningSecondariesCount, ioActionContext, volumeType);
+    }
+    return get(canCommit, mergeWriteIndex(goodPrimaryCount, goodSecondariesCount,
+        goodJoiningSecondariesCount, total, flagsOf(ioActionContext)));
+  }
+
+  public boolean mergeReadLogResult(int goodPrimaryCount, SecondariesCountInfo secondariesCountInfo,
+      int goodJoiningSecondariesCount, int goodArbiterCount, IoActionContext ioActionContext) {
+    int fetch = secondariesCountInfo.getFetchCount();
+    int check = secondariesCountInfo.getCheckCount();
+    if (!inRange(goodPrimaryCount, fetch + check, goodJoiningSecondariesCount, goodArbiterCount)
+        || fetch < 0 || fetch > MAX_FETCH || check < 0) {
+      return segmentForm.mergeReadLogResult(goodPrimaryCount, secondariesCountInfo,
+          goodJoiningSecondariesCount, goodArbiterCount, ioActionContext, volumeType);
+    }
+    return get(readSuccess, mergeReadIndex(goodPrimaryCount, fetch, check,
+        goodJoiningSecondariesCount, goodArbiterCount, flagsOf(ioActionContext)));
+  }
+
+  public void processWriteIoActionContext(int primaryCount, int secondariesCount,
+      int joiningSecondariesCount, IoActionContext ioActionContext) {
+    if (!inRange(primaryCount, secondariesCount, joiningSecondariesCount)) {
+      segmentForm.processWriteIoActionContext(primaryCount, secondariesCount,
+          joiningSecondariesCount, ioActionContext, volumeType);
+      return;
+    }
+    if (get(writeResendDirectly, processWriteIndex(primaryCount, secondariesCount,
+        joiningSecondariesCount, flagsOf(ioActionContext)))) {
+      ioActionContext.setResendDirectly(true);
+    }
+  }
+
+  public void processReadIoActionContext(int primaryCount, int secondariesCount,
+      int joiningSecondariesCount, int goodArbiterCount, IoActionContext ioActionContext) {
+    if (!inRange(primaryCount, secondariesCount, joiningSecondariesCount, goodArbiterCount)) {
+      segmentForm.processReadIoActionContext(primaryCount, secondariesCount,
+          joiningSecondariesCount, goodArbiterCount, ioActionContext, volumeType);
+      return;
+    }
+    int index = processReadIndex(primaryCount, secondariesCount, joiningSecondariesCount,
+        goodArbiterCount, flagsOf(ioActionContext));
+    if (get(readDropCheckReaders, index)) {
+      ioActionContext.doNotNeedCheckRead();
+    }
+    if (get(readResendDirectly, index)) {
+      ioActionContext.setResendDirectly(true);
+    }
+  }
+
+  /**
+   * same as {@link SegmentForm#writable(int, int, int, VolumeType)}, which evaluates the write
+   * rules against an empty io context, i.e. every role is treated as down.
+   */
+  public boolean writable(int primaryCount, int secondariesCount, int joiningSecondariesCount) {
+    if (!inRange(primaryCount, secondariesCount, joiningSecondariesCount)) {
+      IoActionContext ioActionContext = new IoActionContext();
+      segmentForm.processWriteIoActionContext(primaryCount, secondariesCount,
+          joiningSecondariesCount, ioActionContext, volumeType);
+      return !ioActionContext.isResendDirectly();
+    }
+    return !get(writeResendDirectly, processWriteIndex(primaryCount, secondariesCount,
+        joiningSecondariesCount, FLAG_PRIMARY_DOWN | FLAG_SECONDARY_DOWN
+            | FLAG_JOINING_SECONDARY_DOWN));
+  }
+
+  public boolean writeDoneDirectly(int primaryDisconnectCount, int secondaryDisconnectCount,
+      int joiningSecondaryDisconnectCount, int arbiterDisconnectCount) {
+    if (!inRange(primaryDisconnectCount, secondaryDisconnectCount,
+        joiningSecondaryDisconnectCount, arbiterDisconnectCount)) {
+      return segmentForm.writeDoneDirectly(primaryDisconnectCount, secondaryDisconnectCount,
+          joiningSecondaryDisconnectCount, arbiterDisconnectCount, volumeType);
+    }
+    return get(writeDoneDirectly, doneDirectlyIndex(primaryDisconnectCount,
+        secondaryDisconnectCount, joiningSecondaryDisconnectCount, arbiterDisconnectCount));
+  }
+
+  public boolean readDoneDirectly(int primaryDisconnectCount, int secondaryDisconnectCount,
+      int joiningSecondaryDisconnectCount, int arbiterDisconnectCount) {
+    if (!inRange(primaryDisconnectCount, secondaryDisconnectCount,
+        joiningSecondaryDisconnectCount, arbiterDisconnectCount)) {
+      return segmentForm.readDoneDirectly(primaryDisconnectCount, secondaryDisconnectCount,
+          joiningSecondaryDisconnectCount, arbiterDisconnectCount, volumeType);
+    }
+    return get(readDoneDirectly, doneDirectlyIndex(primaryDisconnectCount,
+        secondaryDisconnectCount, joiningSecondaryDisconnectCount, arbiterDisconnectCount));
+  }
+
+  @Override
+  public String toString() {
+    return "SegmentFormDecisionTable{" + "segmentForm=" + segmentForm + ", volumeType="
+        + volumeType + '}';
+  }
+
+  /**
+   * an io context whose down flags are dictated by the compiler instead of being derived from
+   * io members, and which records the side effects the enum logic applies to it.
+   */
+  static class ProbeIoActionContext extends IoActionContext {
+    private int flags;
+    private boolean checkReadersDropped;
+
+    void reset(int flags, int totalWriteCount) {
+      this.flags = flags;
+      this.checkReadersDropped = false;
+      setResendDirectly(false);
+      setMetReadDownSecondary((flags & FLAG_MET_READ_DOWN_SECONDARY) != 0);
+      setTotalWriteCount(totalWriteCount);
+    }
+
+    @Override
+    public boolean isPrimaryDown() {
+      return (flags & FLAG_PRIMARY_DOWN) != 0;
+    }
+
+    @Override
+    public boolean isSecondaryDown() {
+      return (flags & FLAG_SECONDARY_DOWN) != 0;
+    }
+
+    @Override
+    public boolean isJoiningSecondaryDown() {
+      return (flags & FLAG_JOINING_SECONDARY_DOWN) != 0;
+    }
+
+    @Override
+    public void doNotNeedCheckRead() {
+      checkReadersDropped = true;
+    }
+  }
+}
@@ -19,7 +19,6 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -63,15 +62,19 @@ public class SegmentMembership {
   // Primary host's namePyAbstractClientChannel
   private final InstanceId primary;
   private final InstanceId tempPrimary;
-  // Secondaries hosts' names. Secondary set could be empty because there could be a primary and an
-  // arbiter
-  // TODO: instead of using lots of sets, we can use one set to store secondaries, and
-  // one byte to indicate the secondary's status: arbiter, inactive or joining.
-  // when a secondary changes from active to inactive, we only need to change its status
-  private final Set<InstanceId> secondaries;
-  private final Set<InstanceId> arbiters;
-  private final Set<InstanceId> inactiveSecondaries;
-  private final Set<InstanceId> joiningSecondaries;
+  // roles of the members other than the primary, stored in memberRoles
+  static final byte ROLE_SECONDARY = 1;
+  static final byte ROLE_ARBITER = 2;
+  static final byte ROLE_INACTIVE_SECONDARY = 3;
+  static final byte ROLE_JOINING_SECONDARY = 4;
+  private static final long[] NO_MEMBER_IDS = new long[0];
+  private static final byte[] NO_MEMBER_ROLES = new byte[0];
+  // Secondaries, arbiters, inactive secondaries and joining secondaries. A group never has more
+  // than a few members, so instead of a set per role, all of them are kept in one small array
+  // sorted by (role, id) with their roles at the same positions, and looked up by linear scans.
+  // Secondaries could be empty because there could be a primary and an arbiter.
+  private final long[] memberIds;
+  private final byte[] memberRoles;
 
   // these two are for re-balancing support
   private final InstanceId primaryCandidate;
@@ -87,6 +90,11 @@ public class SegmentMembership {
   @JsonIgnore
   private Map<InstanceId, MemberIoStatus> memberIoStatusMap;
 
+  // segment forms resolved from this membership, indexed by the ordinal of the volume type. The
+  // membership is immutable, so a form never changes once it is resolved.
+  @JsonIgnore
+  private final SegmentForm[] segmentForms = new SegmentForm[VolumeType.values().length];
+
   public SegmentMembership(final InstanceId primary, final Collection<InstanceId> secondaries) {
     this(new SegmentVersion(0, 0), primary, null, secondaries, null, null, null, null, null);
   }
@@ -144,43 +152,38 @@ public class SegmentMembership {
       this.primaryCandidate = primaryCandidate;
     }
 
-    // secondaries could be null
-    if (secondaries != null) {
-      this.secondaries = new HashSet<>(secondaries);
-      Validate.isTrue(!secondaries.contains(primary),
-          "this should not happen. the secondaries should not contain the specified primary");
-    } else {
-      this.secondaries = new HashSet<>();
-    }
-
-    if (arbiters != null) {
-      this.arbiters = new HashSet<>(arbiters);
-      Validate.isTrue(!arbiters.contains(primary),
-          "this should not happen. the arbiter should not contain the specified primary");
-    } else {
-      this.arbiters = new HashSet<>();
-    }
-
-    if (inactiveSecondaries != null) {
-      this.inactiveSecondaries = new HashSet<>(inactiveSecondaries);
-      Validate.isTrue(!inactiveSecondaries.contains(primary),
-          "this should not happen. the inactiveSecondaries should not contain the specified "
-              + "primary");
-    } else {
-      this.inactiveSecondaries = new HashSet<>();
-    }
-
-    if (joiningSecondaries != null) {
-      this.joiningSecondaries = new HashSet<>(joiningSecondaries);
-      Validate.isTrue(!joiningSecondaries.contains(primary),
-          "this should not happen. the joiningSecondaries should not contain the specified"
-              + " primary");
-    } else {
-      this.joiningSecondaries = new HashSet<>();
-    }
-
-    quorumUpdated =
-        this.secondaries.isEmpty() && this.arbiters.isEmpty() && this.joiningSecondaries.isEmpty();
+    Validate.isTrue(secondaries == null || !secondaries.contains(primary),
+        "this should not happen. the secondaries should not contain the specified primary");
+    Validate.isTrue(arbiters == null || !arbiters.contains(primary),
+        "this should not happen. the arbiter should not contain the specified primary");
+    Validate.isTrue(inactiveSecondaries == null || !inactiveSecondaries.contains(primary),
+        "this should not happen. the inactiveSecondaries should not contain the specified "
+            + "primary");
+    Validate.isTrue(joiningSecondaries == null || !joiningSecondaries.contains(primary),
+        "this should not happen. the joiningSecondaries should not contain the specified"
+            + " primary");
+
+    int capacity = sizeOf(secondaries) + sizeOf(arbiters) + sizeOf(inactiveSecondaries)
+        + sizeOf(joiningSecondaries);
+    long[] ids = capacity == 0 ? NO_MEMBER_IDS : new long[capacity];
+    byte[] roles = capacity == 0 ? NO_MEMBER_ROLES : new byte[capacity];
+    int memberCount = 0;
+    memberCount = appendMembers(ids, roles, memberCount, secondaries, ROLE_SECONDARY);
+    memberCount = appendMembers(ids, roles, memberCount, arbiters, ROLE_ARBITER);
+    memberCount = appendMembers(ids, roles, memberCount, inactiveSecondaries,
+        ROLE_INACTIVE_SECONDARY);
+    memberCount = appendMembers(ids, roles, memberCount, joiningSecondaries,
+        ROLE_JOINING_SECONDARY);
+    if (memberCount < capacity) {
+      // duplicated ids in a collection
+      ids = Arrays.copyOf(ids, memberCount);
+      roles = Arrays.copyOf(roles, memberCount);
+    }
+    this.memberIds = ids;
+    this.memberRoles = roles;
+
+    quorumUpdated = count(ROLE_SECONDARY) == 0 && count(ROLE_ARBITER) == 0
+        && count(ROLE_JOINING_SECONDARY) == 0;
 
     this.memberIoStatusMap = new ConcurrentHashMap<>();
   }
@@ -189,10 +192,9 @@ public class SegmentMembership {
     this.segmentVersion = new SegmentVersion(copyFrom.getSegmentVersion());
     this.primary = new InstanceId(copyFrom.getPrimary());
     this.tempPrimary = copyFrom.tempPrimary == null ? null : new InstanceId(copyFrom.tempPrimary);
-    this.secondaries = new HashSet<>(copyFrom.secondaries);
-    this.arbiters = new HashSet<>(copyFrom.arbiters);
-    this.inactiveSecondaries = new HashSet<>(copyFrom.inactiveSecondaries);
-    this.joiningSecondaries = new HashSet<>(copyFrom.joiningSecondaries);
+    // the member arrays are never modified, so they can be shared
+    this.memberIds = copyFrom.memberIds;
+    this.memberRoles = copyFrom.memberRoles;
     this.memberIoStatusMap = new ConcurrentHashMap<>(copyFrom.memberIoStatusMap);
     this.secondaryCandidate =
         copyFrom.secondaryCandidate == null ? null : new InstanceId(copyFrom.secondaryCandidate);
@@ -200,6 +202,38 @@ public class SegmentMembership {
         copyFrom.primaryCandidate == null ? null : new InstanceId(copyFrom.primaryCandidate);
   }
 
+  private static int sizeOf(Collection<InstanceId> members) {
+    return members == null ? 0 : members.size();
+  }
+
+  /**
+   * insert the members into the arrays, keeping them sorted by (role, id) and skipping the ones
+   * already there with the same role.
+   */
+  private static int appendMembers(long[] ids, byte[] roles, int count,
+      Collection<InstanceId> members, byte role) {
+    if (members == null) {
+      return count;
+    }
+    for (InstanceId member : members) {
+      long id = member.getId();
+      int position = count;
+      while (position > 0 && (roles[position - 1] > role
+          || (roles[position - 1] == role && ids[position - 1] > id))) {
+        position--;
+      }
+      if (position > 0 && roles[position - 1] == role && ids[position - 1] == id) {
+        continue;
+      }
+      System.arraycopy(ids, position, ids, position + 1, count - position);
+      System.arraycopy(roles, position, roles, position + 1, count - position);
+      ids[position] = id;
+      roles[position] = role;
+      count++;
+    }
+    return count;
+  }
+
   public static SegmentMembership deserializeFromObjectMapperContent(String value) {
     logger.debug("segment member ship from json value is {}", value);
     String[] fields = value.split(",");
@@ -280,15 +314,107 @@ public class SegmentMembership {
     return segmentVersion;
   }
 
+  /**
+   * Get the segment form of this membership in the given volume type. The form is resolved at the
+   * first call and cached, so that io paths do not count the member sets again.
+   *
+   * @return null if the membership does not fit any form of the volume type
+   */
+  public SegmentForm getSegmentForm(VolumeType volumeType) {
+    SegmentForm segmentForm = segmentForms[volumeType.ordinal()];
+    if (segmentForm == null) {
+      segmentForm = volumeType.getSegmentForm(count(ROLE_SECONDARY),
+          count(ROLE_JOINING_SECONDARY), count(ROLE_ARBITER), count(ROLE_INACTIVE_SECONDARY));
+      segmentForms[volumeType.ordinal()] = segmentForm;
+    }
+    return segmentForm;
+  }
+
+  /**
+   * ids of the members other than the primary, sorted by (role, id). The array must not be
+   * modified.
+   */
+  long[] memberIds() {
+    return memberIds;
+  }
+
+  /**
+   * roles of the ids in {@link #memberIds()}. The array must not be modified.
+   */
+  byte[] memberRoles() {
+    return memberRoles;
+  }
+
   public boolean contain(InstanceId id) {
     Validate.notNull(id);
-    return id.equals(primary) || secondaries.contains(id) || arbiters.contains(id)
-        || inactiveSecondaries
-        .contains(id) || joiningSecondaries.contains(id) || id.equals(secondaryCandidate);
+    return id.equals(primary) || indexOf(id.getId()) >= 0 || id.equals(secondaryCandidate);
   }
 
   public boolean contain(long id) {
-    return contain(new InstanceId(id));
+    return (primary != null && primary.getId() == id) || indexOf(id) >= 0
+        || (secondaryCandidate != null && secondaryCandidate.getId() == id);
+  }
+
+  private int indexOf(long id) {
+    for (int i = 0; i < memberIds.length; i++) {
+      if (memberIds[i] == id) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private boolean hasMember(InstanceId id, byte role) {
+    if (id == null) {
+      return false;
+    }
+    long value = id.getId();
+    for (int i = 0; i < memberIds.length; i++) {
+      if (memberIds[i] == value && memberRoles[i] == role) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private int count(byte role) {
+    int count = 0;
+    for (byte memberRole : memberRoles) {
+      if (memberRole == role) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private Set<InstanceId> membersOf(byte role) {
+    Set<InstanceId> members = new HashSet<>();
+    for (int i = 0; i < memberIds.length; i++) {
+      if (memberRoles[i] == role) {
+        members.add(new InstanceId(memberIds[i]));
+      }
+    }
+    return members;
+  }
+
+  private Set<InstanceId> membersOf(byte role1, byte role2) {
+    Set<InstanceId> members = new HashSet<>();
+    for (int i = 0; i < memberIds.length; i++) {
+      if (memberRoles[i] == role1 || memberRoles[i] == role2) {
+        members.add(new InstanceId(memberIds[i]));
+      }
+    }
+    return members;
+  }
+
+  private Set<InstanceId> membersExcept(byte role) {
+    Set<InstanceId> members = new HashSet<>();
+    for (int i = 0; i < memberIds.length; i++) {
+      if (memberRoles[i] != role) {
+        members.add(new InstanceId(memberIds[i]));
+      }
+    }
+    return members;
   }
 
   public boolean isPrimary(InstanceId id) {
@@ -305,19 +431,19 @@ public class SegmentMembership {
   }
 
   public boolean isSecondary(InstanceId id) {
-    return id != null && secondaries.contains(id);
+    return hasMember(id, ROLE_SECONDARY);
   }
 
   public boolean isArbiter(InstanceId id) {
-    return id != null && arbiters.contains(id);
+    return hasMember(id, ROLE_ARBITER);
   }
 
   public boolean isJoiningSecondary(InstanceId id) {
-    return id != null && joiningSecondaries.contains(id);
+    return hasMember(id, ROLE_JOINING_SECONDARY);
   }
 
   public boolean isInactiveSecondary(InstanceId id) {
-    return id != null && inactiveSecondaries.contains(id);
+    return hasMember(id, ROLE_INACTIVE_SECONDARY);
   }
 
   public InstanceId getPrimary() {
@@ -345,53 +471,43 @@ public class SegmentMembership {
   }
 
   public Set<InstanceId> getSecondaries() {
-    return new HashSet<>(secondaries);
+    return membersOf(ROLE_SECONDARY);
   }
 
   public Set<InstanceId> getArbiters() {
-    return arbiters;
+    return membersOf(ROLE_ARBITER);
   }
 
   public Set<InstanceId> getInactiveSecondaries() {
-    return inactiveSecondaries;
+    return membersOf(ROLE_INACTIVE_SECONDARY);
   }
 
   public Set<InstanceId> getJoiningSecondaries() {
-    return joiningSecondaries;
+    return membersOf(ROLE_JOINING_SECONDARY);
   }
 
   @JsonIgnore
   public Set<InstanceId> getAllSecondaries() {
     Set<InstanceId> allSecondaries = new HashSet<>();
-    allSecondaries.addAll(secondaries);
-    allSecondaries.addAll(arbiters);
-    allSecondaries.addAll(inactiveSecondaries);
-    allSecondaries.addAll(joiningSecondaries);
+    for (long memberId : memberIds) {
+      allSecondaries.add(new InstanceId(memberId));
+    }
     return allSecondaries;
   }
 
   @JsonIgnore
   public Set<InstanceId> getAliveSecondariesWithoutArbitersAndCandidate() {
-    Set<InstanceId> allSecondariesWithoutArbiters = new HashSet<>();
-    allSecondariesWithoutArbiters.addAll(secondaries);
-    allSecondariesWithoutArbiters.addAll(joiningSecondaries);
-    return allSecondariesWithoutArbiters;
+    return membersOf(ROLE_SECONDARY, ROLE_JOINING_SECONDARY);
   }
 
   @JsonIgnore
   public Set<InstanceId> getSecondariesAndArbiters() {
-    Set<InstanceId> secondariesAndArbiters = new HashSet<>();
-    secondariesAndArbiters.addAll(secondaries);
-    secondariesAndArbiters.addAll(arbiters);
-    return secondariesAndArbiters;
+    return membersOf(ROLE_SECONDARY, ROLE_ARBITER);
   }
 
   @JsonIgnore
   public Set<InstanceId> getHeartBeatMembers() {
-    Set<InstanceId> heartBeatMembers = new HashSet<>();
-    heartBeatMembers.addAll(secondaries);
-    heartBeatMembers.addAll(arbiters);
-    heartBeatMembers.addAll(joiningSecondaries);
+    Set<InstanceId> heartBeatMembers = membersExcept(ROLE_INACTIVE_SECONDARY);
     if (secondaryCandidate != null) {
       heartBeatMembers.add(secondaryCandidate);
     }
@@ -400,30 +516,18 @@ public class SegmentMembership {
 
   @JsonIgnore
   public Set<InstanceId> getAliveSecondaries() {
-    Set<InstanceId> activeSecondaries = new HashSet<>();
-    activeSecondaries.addAll(secondaries);
-    activeSecondaries.addAll(arbiters);
-    activeSecondaries.addAll(joiningSecondaries);
-    return activeSecondaries;
+    return membersExcept(ROLE_INACTIVE_SECONDARY);
   }
 
   @JsonIgnore
   public Set<InstanceId> getWriteSecondaries() {
-    Set<InstanceId> writeSecondaries = new HashSet<>();
-    writeSecondaries.addAll(secondaries);
-    writeSecondaries.addAll(joiningSecondaries);
-    return writeSecondaries;
+    return membersOf(ROLE_SECONDARY, ROLE_JOINING_SECONDARY);
   }
 
   @JsonIgnore
   public Set<InstanceId> getMembers() {
-    Set<InstanceId> members = new HashSet<>();
-
+    Set<InstanceId> members = getAllSecondaries();
     members.add(primary);
-    members.addAll(secondaries);
-    members.addAll(arbiters);
-    members.addAll(inactiveSecondaries);
-    members.addAll(joiningSecondaries);
     return members;
   }
 
@@ -451,26 +555,23 @@ public class SegmentMembership {
    * secondaries set.
    */
   public SegmentMembership addSecondaries(InstanceId... newSecondaries) {
-    Set<InstanceId> secondariesInNewMembership = new HashSet<>(
-        secondaries.size() + newSecondaries.length);
-    secondariesInNewMembership.addAll(secondaries);
+    Set<InstanceId> secondariesInNewMembership = getSecondaries();
     boolean changed = secondariesInNewMembership.addAll(Arrays.asList(newSecondaries));
 
     return new SegmentMembership(
         changed ? this.segmentVersion.incGeneration() : new SegmentVersion(segmentVersion),
-        primary, secondariesInNewMembership, this.arbiters, this.inactiveSecondaries,
-        this.joiningSecondaries);
+        primary, secondariesInNewMembership, getArbiters(), getInactiveSecondaries(),
+        getJoiningSecondaries());
   }
 
   public SegmentMembership addArbiters(InstanceId... newArbiters) {
-    Set<InstanceId> arbitersInNewMembership = new HashSet<>(arbiters.size() + newArbiters.length);
-    arbitersInNewMembership.addAll(arbiters);
+    Set<InstanceId> arbitersInNewMembership = getArbiters();
     boolean changed = arbitersInNewMembership.addAll(Arrays.asList(newArbiters));
 
     return new SegmentMembership(
         changed ? this.segmentVersion.incGeneration() : new SegmentVersion(segmentVersion),
-        primary, this.secondaries, arbitersInNewMembership, this.inactiveSecondaries,
-        this.joiningSecondaries);
+        primary, getSecondaries(), arbitersInNewMembership, getInactiveSecondaries(),
+        getJoiningSecondaries());
   }
 
   /**
@@ -481,48 +582,47 @@ public class SegmentMembership {
       // the secondary doesn't exist in the membership, return null to indicate an error
       return null;
     }
-    Set<InstanceId> secondariesInNewMembership = new HashSet<>(secondaries.size());
-    secondariesInNewMembership.addAll(secondaries);
+    Set<InstanceId> secondariesInNewMembership = getSecondaries();
     secondariesInNewMembership.add(newSecondary);
     secondariesInNewMembership.remove(secondary);
 
     return new SegmentMembership(this.segmentVersion.incGeneration(), primary,
         secondariesInNewMembership,
-        this.arbiters, this.inactiveSecondaries, this.joiningSecondaries);
+        getArbiters(), getInactiveSecondaries(), getJoiningSecondaries());
   }
 
   public SegmentMembership removeInactiveSecondaryAndAddArbiter(InstanceId inactiveSecondary,
       InstanceId newArbiter) {
-    if (!inactiveSecondaries.contains(inactiveSecondary)) {
+    if (!isInactiveSecondary(inactiveSecondary)) {
       return null;
     }
 
-    Set<InstanceId> inactiveSecondariesInNewMembership = new HashSet<>(inactiveSecondaries);
-    Set<InstanceId> arbitersInNewMembership = new HashSet<>(arbiters);
+    Set<InstanceId> inactiveSecondariesInNewMembership = getInactiveSecondaries();
+    Set<InstanceId> arbitersInNewMembership = getArbiters();
 
     inactiveSecondariesInNewMembership.remove(inactiveSecondary);
     arbitersInNewMembership.add(newArbiter);
 
-    return new SegmentMembership(this.segmentVersion.incGeneration(), primary, secondaries,
+    return new SegmentMembership(this.segmentVersion.incGeneration(), primary, getSecondaries(),
         arbitersInNewMembership,
-        inactiveSecondariesInNewMembership, this.joiningSecondaries);
+        inactiveSecondariesInNewMembership, getJoiningSecondaries());
   }
 
   public SegmentMembership removeInactiveSecondaryAndAddJoiningSecondary(
       InstanceId inactiveSecondary,
       InstanceId newSecondary) {
-    if (!inactiveSecondaries.contains(inactiveSecondary)) {
+    if (!isInactiveSecondary(inactiveSecondary)) {
       return null;
     }
 
-    Set<InstanceId> joiningSecondariesInNewMembership = new HashSet<>(joiningSecondaries);
-    Set<InstanceId> inactiveSecondariesInNewMembership = new HashSet<>(inactiveSecondaries);
+    Set<InstanceId> joiningSecondariesInNewMembership = getJoiningSecondaries();
+    Set<InstanceId> inactiveSecondariesInNewMembership = getInactiveSecondaries();
 
     inactiveSecondariesInNewMembership.remove(inactiveSecondary);
     joiningSecondariesInNewMembership.add(newSecondary);
 
-    return new SegmentMembership(this.segmentVersion.incGeneration(), primary, secondaries,
-        arbiters,
+    return new SegmentMembership(this.segmentVersion.incGeneration(), primary, getSecondaries(),
+        getArbiters(),
         inactiveSecondariesInNewMembership, joiningSecondariesInNewMembership);
   }
 
@@ -536,11 +636,11 @@ public class SegmentMembership {
    * @return the new membership
    */
   public SegmentMembership removeSecondary(InstanceId secondary) {
-    Set<InstanceId> secondariesInNewMembership = new HashSet<>(secondaries);
+    Set<InstanceId> secondariesInNewMembership = getSecondaries();
     if (secondariesInNewMembership.remove(secondary)) {
       return new SegmentMembership(this.segmentVersion.incGeneration(), primary,
           secondariesInNewMembership,
-          this.arbiters, this.inactiveSecondaries, this.joiningSecondaries);
+          getArbiters(), getInactiveSecondaries(), getJoiningSecondaries());
     } else {
       logger.info("membership doesn't contain the secondary ", toString(), secondary);
       return null;
@@ -554,10 +654,10 @@ public class SegmentMembership {
    * @return the new membership
    */
   public SegmentMembership removeArbiter(InstanceId arbiter) {
-    Set<InstanceId> arbitersInNewMembership = new HashSet<>(arbiters);
+    Set<InstanceId> arbitersInNewMembership = getArbiters();
     if (arbitersInNewMembership.remove(arbiter)) {
-      return new SegmentMembership(this.segmentVersion.incGeneration(), primary, secondaries,
-          arbitersInNewMembership, this.inactiveSecondaries, this.joiningSecondaries);
+      return new SegmentMembership(this.segmentVersion.incGeneration(), primary, getSecondaries(),
+          arbitersInNewMembership, getInactiveSecondaries(), getJoiningSecondaries());
     } else {
       logger.info("membership doesn't contain the secondary ", toString(), arbiter);
       return null;
@@ -566,11 +666,11 @@ public class SegmentMembership {
 
   public SegmentMembership newPrimaryChosen(InstanceId newPrimary) {
     if (primary.equals(newPrimary)) {
-      return new SegmentMembership(this.segmentVersion.incEpoch(), primary, null, secondaries,
-          arbiters, inactiveSecondaries, joiningSecondaries, null, null);
+      return new SegmentMembership(this.segmentVersion.incEpoch(), primary, null, getSecondaries(),
+          getArbiters(), getInactiveSecondaries(), getJoiningSecondaries(), null, null);
     } else if (isSecondary(newPrimary)) {
-      Set<InstanceId> secondariesInNewMembership = new HashSet<>(secondaries);
-      Set<InstanceId> inactiveSecondariesInNewMembership = new HashSet<>(inactiveSecondaries);
+      Set<InstanceId> secondariesInNewMembership = getSecondaries();
+      Set<InstanceId> inactiveSecondariesInNewMembership = getInactiveSecondaries();
       secondariesInNewMembership.remove(newPrimary);
       if (tempPrimary != null) {
         // if temp primary is present, the old primary is actually already inactive.
@@ -591,8 +691,8 @@ public class SegmentMembership {
         secondariesInNewMembership.add(primary);
       }
       return new SegmentMembership(this.segmentVersion.incEpoch(), newPrimary, null,
-          secondariesInNewMembership, arbiters, inactiveSecondariesInNewMembership,
-          joiningSecondaries, null, null);
+          secondariesInNewMembership, getArbiters(), inactiveSecondariesInNewMembership,
+          getJoiningSecondaries(), null, null);
     } else {
       logger.warn("The given new primary {} is not secondary or primary in membership {}",
           newPrimary, this);
@@ -601,45 +701,45 @@ public class SegmentMembership {
   }
 
   public SegmentMembership arbiterBecomeInactive(InstanceId arbiter) {
-    Set<InstanceId> arbitersInNewMembership = new HashSet<>(arbiters);
-    Set<InstanceId> inactiveSecondariesInNewMembership = new HashSet<>(inactiveSecondaries);
+    Set<InstanceId> arbitersInNewMembership = getArbiters();
+    Set<InstanceId> inactiveSecondariesInNewMembership = getInactiveSecondaries();
 
     if (arbitersInNewMembership.remove(arbiter)) {
       inactiveSecondariesInNewMembership.add(arbiter);
       return new SegmentMembership(this.segmentVersion.incGeneration(), primary, tempPrimary,
-          secondaries,
-          arbitersInNewMembership, inactiveSecondariesInNewMembership, joiningSecondaries, null,
-          null);
+          getSecondaries(),
+          arbitersInNewMembership, inactiveSecondariesInNewMembership, getJoiningSecondaries(),
+          null, null);
     } else {
       return null;
     }
   }
 
   public SegmentMembership aliveSecondaryBecomeInactive(InstanceId secondary) {
-    Set<InstanceId> secondariesInNewMembership = new HashSet<>(secondaries);
-    Set<InstanceId> joiningSecondariesInNewMembership = new HashSet<>(joiningSecondaries);
+    Set<InstanceId> secondariesInNewMembership = getSecondaries();
+    Set<InstanceId> joiningSecondariesInNewMembership = getJoiningSecondaries();
 
-    Set<InstanceId> inactiveSecondariesInNewMembership = new HashSet<>(inactiveSecondaries);
+    Set<InstanceId> inactiveSecondariesInNewMembership = getInactiveSecondaries();
 
     if (secondariesInNewMembership.remove(secondary) || joiningSecondariesInNewMembership
         .remove(secondary)) {
       inactiveSecondariesInNewMembership.add(secondary);
       return new SegmentMembership(this.segmentVersion.incGeneration(), primary, tempPrimary,
           secondariesInNewMembership,
-          arbiters, inactiveSecondariesInNewMembership, joiningSecondariesInNewMembership, null,
-          null);
+          getArbiters(), inactiveSecondariesInNewMembership, joiningSecondariesInNewMembership,
+          null, null);
     } else {
       return this;
     }
   }
 
   public SegmentMembership removeInactiveSecondary(InstanceId inactiveSecondary) {
-    Set<InstanceId> inactiveSecondariesInNewMembership = new HashSet<>(inactiveSecondaries);
+    Set<InstanceId> inactiveSecondariesInNewMembership = getInactiveSecondaries();
 
     if (inactiveSecondariesInNewMembership.remove(inactiveSecondary)) {
       SegmentMembership newMembership = new SegmentMembership(this.segmentVersion.incGeneration(),
-          primary,
-          secondaries, arbiters, inactiveSecondariesInNewMembership, joiningSecondaries);
+          primary, getSecondaries(), getArbiters(), inactiveSecondariesInNewMembership,
+          getJoiningSecondaries());
       newMembership.setQuorumUpdated(quorumUpdated);
       return newMembership;
     } else {
@@ -648,41 +748,41 @@ public class SegmentMembership {
   }
 
   public SegmentMembership addJoiningSecondary(InstanceId joiningSecondary) {
-    Set<InstanceId> joiningSecondariesInNewMembership = new HashSet<>(joiningSecondaries);
+    Set<InstanceId> joiningSecondariesInNewMembership = getJoiningSecondaries();
     if (joiningSecondariesInNewMembership.add(joiningSecondary)) {
       // the joining secondary doesn't exist in the set of the joining secondary at the current
       // membership
       Validate.isTrue(!this.contain(joiningSecondary));
-      return new SegmentMembership(this.segmentVersion.incGeneration(), primary, secondaries,
-          arbiters,
-          inactiveSecondaries, joiningSecondariesInNewMembership);
+      return new SegmentMembership(this.segmentVersion.incGeneration(), primary, getSecondaries(),
+          getArbiters(),
+          getInactiveSecondaries(), joiningSecondariesInNewMembership);
     } else {
       return this;
     }
   }
 
   public SegmentMembership joiningSecondaryBecomeSecondary(InstanceId joiningSecondary) {
-    Set<InstanceId> joiningSecondariesInNewMembership = new HashSet<>(joiningSecondaries);
-    Set<InstanceId> secondariesInNewMembership = new HashSet<>(secondaries);
+    Set<InstanceId> joiningSecondariesInNewMembership = getJoiningSecondaries();
+    Set<InstanceId> secondariesInNewMembership = getSecondaries();
 
     if (joiningSecondariesInNewMembership.remove(joiningSecondary)) {
       secondariesInNewMembership.add(joiningSecondary);
       return new SegmentMembership(this.segmentVersion.incGeneration(), primary,
           secondariesInNewMembership,
-          arbiters, inactiveSecondaries, joiningSecondariesInNewMembership);
+          getArbiters(), getInactiveSecondaries(), joiningSecondariesInNewMembership);
     } else {
       return this;
     }
   }
 
   public SegmentMembership joiningSecondaryBecomeInactive(InstanceId joiningSecondary) {
-    Set<InstanceId> joiningSecondariesInNewMembership = new HashSet<>(joiningSecondaries);
-    Set<InstanceId> inactiveSecondariesInNewMembership = new HashSet<>(inactiveSecondaries);
+    Set<InstanceId> joiningSecondariesInNewMembership = getJoiningSecondaries();
+    Set<InstanceId> inactiveSecondariesInNewMembership = getInactiveSecondaries();
 
     if (joiningSecondariesInNewMembership.remove(joiningSecondary)) {
       inactiveSecondariesInNewMembership.add(joiningSecondary);
-      return new SegmentMembership(this.segmentVersion.incGeneration(), primary, secondaries,
-          arbiters,
+      return new SegmentMembership(this.segmentVersion.incGeneration(), primary, getSecondaries(),
+          getArbiters(),
           inactiveSecondariesInNewMembership, joiningSecondariesInNewMembership);
     } else {
       return this;
@@ -690,13 +790,13 @@ public class SegmentMembership {
   }
 
   public SegmentMembership inactiveSecondaryBecomeJoining(InstanceId newMember) {
-    Set<InstanceId> joiningSecondariesInNewMembership = new HashSet<>(joiningSecondaries);
-    Set<InstanceId> inactiveSecondariesInNewMembership = new HashSet<>(inactiveSecondaries);
+    Set<InstanceId> joiningSecondariesInNewMembership = getJoiningSecondaries();
+    Set<InstanceId> inactiveSecondariesInNewMembership = getInactiveSecondaries();
 
     if (inactiveSecondariesInNewMembership.remove(newMember)) {
       joiningSecondariesInNewMembership.add(newMember);
-      return new SegmentMembership(this.segmentVersion.incGeneration(), primary, secondaries,
-          arbiters,
+      return new SegmentMembership(this.segmentVersion.incGeneration(), primary, getSecondaries(),
+          getArbiters(),
           inactiveSecondariesInNewMembership, joiningSecondariesInNewMembership);
     } else {
       return this;
@@ -704,13 +804,13 @@ public class SegmentMembership {
   }
 
   public SegmentMembership inactiveSecondaryBecomeArbiter(InstanceId newMember) {
-    Set<InstanceId> arbitersInNewMembership = new HashSet<>(arbiters);
-    Set<InstanceId> inactiveSecondariesInNewMembership = new HashSet<>(inactiveSecondaries);
+    Set<InstanceId> arbitersInNewMembership = getArbiters();
+    Set<InstanceId> inactiveSecondariesInNewMembership = getInactiveSecondaries();
 
     if (inactiveSecondariesInNewMembership.remove(newMember)) {
       arbitersInNewMembership.add(newMember);
-      return new SegmentMembership(this.segmentVersion.incGeneration(), primary, secondaries,
-          arbitersInNewMembership, inactiveSecondariesInNewMembership, joiningSecondaries);
+      return new SegmentMembership(this.segmentVersion.incGeneration(), primary, getSecondaries(),
+          arbitersInNewMembership, inactiveSecondariesInNewMembership, getJoiningSecondaries());
     } else {
       return this;
     }
@@ -718,27 +818,27 @@ public class SegmentMembership {
 
   public SegmentMembership secondaryBecomePrimaryCandidate(InstanceId secondary) {
     InstanceId newPrimaryCandidate;
-    if (secondaries.contains(secondary) && primaryCandidate == null) {
+    if (isSecondary(secondary) && primaryCandidate == null) {
       newPrimaryCandidate = secondary;
       SegmentVersion newSegmentVersion = this.segmentVersion;
       newSegmentVersion = newSegmentVersion.incGeneration();
-      return new SegmentMembership(newSegmentVersion, primary, null, secondaries, arbiters,
-          inactiveSecondaries,
-          joiningSecondaries, null, newPrimaryCandidate);
+      return new SegmentMembership(newSegmentVersion, primary, null, getSecondaries(),
+          getArbiters(), getInactiveSecondaries(), getJoiningSecondaries(), null,
+          newPrimaryCandidate);
     } else {
       return null;
     }
   }
 
   public SegmentMembership primaryCandidateBecomePrimary(InstanceId primaryCandidate) {
-    if (primaryCandidate != null && secondaries.contains(primaryCandidate) && primaryCandidate
+    if (primaryCandidate != null && isSecondary(primaryCandidate) && primaryCandidate
         .equals(this.primaryCandidate)) {
-      Set<InstanceId> newSecondaries = new HashSet<>(secondaries);
+      Set<InstanceId> newSecondaries = getSecondaries();
       newSecondaries.remove(primaryCandidate);
       newSecondaries.add(primary);
       return new SegmentMembership(this.segmentVersion.incEpoch(), primaryCandidate, newSecondaries,
-          arbiters,
-          inactiveSecondaries, joiningSecondaries);
+          getArbiters(),
+          getInactiveSecondaries(), getJoiningSecondaries());
     } else {
       return null;
     }
@@ -751,16 +851,16 @@ public class SegmentMembership {
 
   public SegmentMembership secondaryBecomeTempPrimary(int incGeneration, InstanceId secondary) {
     InstanceId newTempPrimary;
-    if (secondaries.contains(secondary)) {
+    if (isSecondary(secondary)) {
       newTempPrimary = secondary;
       //add more generation to be larger than the old p's generation
       SegmentVersion newSegmentVersion = this.segmentVersion;
       for (int i = 0; i < incGeneration; i++) {
         newSegmentVersion = newSegmentVersion.incGeneration();
       }
-      return new SegmentMembership(newSegmentVersion, primary, newTempPrimary, secondaries,
-          arbiters,
-          inactiveSecondaries, joiningSecondaries, null, null);
+      return new SegmentMembership(newSegmentVersion, primary, newTempPrimary, getSecondaries(),
+          getArbiters(),
+          getInactiveSecondaries(), getJoiningSecondaries(), null, null);
     } else {
       return null;
     }
@@ -774,26 +874,25 @@ public class SegmentMembership {
       newSegmentVersion = newSegmentVersion.incGeneration();
     }
     newTempPrimary = tempPrimary == potentialPrimary ? tempPrimary : null;
-    return new SegmentMembership(newSegmentVersion, primary, newTempPrimary, secondaries, arbiters,
-        inactiveSecondaries, joiningSecondaries, null, null);
+    return new SegmentMembership(newSegmentVersion, primary, newTempPrimary, getSecondaries(),
+        getArbiters(), getInactiveSecondaries(), getJoiningSecondaries(), null, null);
   }
 
   public SegmentMembership addSecondaryCandidate(InstanceId secondaryCandidate) {
     if (secondaryCandidate == null) {
       return this;
     } else {
-      return new SegmentMembership(this.segmentVersion.incGeneration(), primary, null, secondaries,
-          arbiters,
-          inactiveSecondaries, joiningSecondaries, new InstanceId(secondaryCandidate.getId()),
-          null);
+      return new SegmentMembership(this.segmentVersion.incGeneration(), primary, null,
+          getSecondaries(), getArbiters(), getInactiveSecondaries(), getJoiningSecondaries(),
+          new InstanceId(secondaryCandidate.getId()), null);
     }
   }
 
   public SegmentMembership removeSecondaryCandidate(InstanceId secondaryCandidate) {
     if (this.secondaryCandidate != null && this.secondaryCandidate.equals(secondaryCandidate)) {
-      return new SegmentMembership(this.segmentVersion.incGeneration(), primary, null, secondaries,
-          arbiters,
-          inactiveSecondaries, joiningSecondaries, null, null);
+      return new SegmentMembership(this.segmentVersion.incGeneration(), primary, null,
+          getSecondaries(), getArbiters(), getInactiveSecondaries(), getJoiningSecondaries(), null,
+          null);
     } else {
       return this;
     }
@@ -801,11 +900,11 @@ public class SegmentMembership {
 
   public SegmentMembership secondaryCandidateBecomesJoining(InstanceId secondaryCandidate) {
     if (this.secondaryCandidate != null && this.secondaryCandidate.equals(secondaryCandidate)) {
-      Set<InstanceId> joiningSecondariesInNewMembership = new HashSet<>(joiningSecondaries);
+      Set<InstanceId> joiningSecondariesInNewMembership = getJoiningSecondaries();
       joiningSecondariesInNewMembership.add(new InstanceId(secondaryCandidate));
-      return new SegmentMembership(this.segmentVersion.incGeneration(), primary, null, secondaries,
-          arbiters,
-          inactiveSecondaries, joiningSecondariesInNewMembership, null, null);
+      return new SegmentMembership(this.segmentVersion.incGeneration(), primary, null,
+          getSecondaries(), getArbiters(), getInactiveSecondaries(),
+          joiningSecondariesInNewMembership, null, null);
     } else {
       return this;
     }
@@ -815,15 +914,15 @@ public class SegmentMembership {
       InstanceId secondaryCandidate,
       InstanceId replacee) {
     if (this.secondaryCandidate != null && this.secondaryCandidate.equals(secondaryCandidate)) {
-      Set<InstanceId> secondariesInNewMembership = new HashSet<>(secondaries);
-      Set<InstanceId> inactiveSecondariesInNewMembership = new HashSet<>(inactiveSecondaries);
-      Set<InstanceId> joiningSecondariesInNewMembership = new HashSet<>(joiningSecondaries);
+      Set<InstanceId> secondariesInNewMembership = getSecondaries();
+      Set<InstanceId> inactiveSecondariesInNewMembership = getInactiveSecondaries();
+      Set<InstanceId> joiningSecondariesInNewMembership = getJoiningSecondaries();
       if (secondariesInNewMembership.remove(replacee) || inactiveSecondariesInNewMembership
           .remove(replacee)
           || joiningSecondariesInNewMembership.remove(replacee)) {
         secondariesInNewMembership.add(new InstanceId(secondaryCandidate));
         return new SegmentMembership(this.segmentVersion.incGeneration(), primary, null,
-            secondariesInNewMembership, arbiters, inactiveSecondariesInNewMembership,
+            secondariesInNewMembership, getArbiters(), inactiveSecondariesInNewMembership,
             joiningSecondariesInNewMembership, null, null);
       } else {
         return this;
@@ -862,19 +961,9 @@ public class SegmentMembership {
     if (tempPrimary != null ? !tempPrimary.equals(that.tempPrimary) : that.tempPrimary != null) {
       return false;
     }
-    if (secondaries != null ? !secondaries.equals(that.secondaries) : that.secondaries != null) {
-      return false;
-    }
-    if (arbiters != null ? !arbiters.equals(that.arbiters) : that.arbiters != null) {
-      return false;
-    }
-    if (inactiveSecondaries != null
-        ? !inactiveSecondaries.equals(that.inactiveSecondaries)
-        : that.inactiveSecondaries != null) {
-      return false;
-    }
-    if (joiningSecondaries != null
-        ? !joiningSecondaries.equals(that.joiningSecondaries) : that.joiningSecondaries != null) {
+    // members are kept sorted by (role, id), so equal member sets have equal arrays
+    if (!Arrays.equals(memberIds, that.memberIds) || !Arrays.equals(memberRoles,
+        that.memberRoles)) {
       return false;
     }
     if (secondaryCandidate != null
@@ -894,10 +983,8 @@ public class SegmentMembership {
     int result = segmentVersion != null ? segmentVersion.hashCode() : 0;
     result = prime * result + primary.hashCode();
     result = prime * result + (tempPrimary != null ? tempPrimary.hashCode() : 0);
-    result = prime * result + (secondaries != null ? secondaries.hashCode() : 0);
-    result = prime * result + (arbiters != null ? arbiters.hashCode() : 0);
-    result = prime * result + (inactiveSecondaries != null ? inactiveSecondaries.hashCode() : 0);
-    result = prime * result + (joiningSecondaries != null ? joiningSecondaries.hashCode() : 0);
+    result = prime * result + Arrays.hashCode(memberIds);
+    result = prime * result + Arrays.hashCode(memberRoles);
     result = prime * result + (secondaryCandidate != null ? secondaryCandidate.hashCode() : 0);
     return result;
   }
@@ -909,20 +996,20 @@ public class SegmentMembership {
     builder.append(segmentVersion);
     builder.append(", primary=").append(primary).append(", tempPrimary=").append(tempPrimary);
 
-    if (!secondaries.isEmpty()) {
-      builder.append(", secondaries=").append(secondaries);
+    if (count(ROLE_SECONDARY) > 0) {
+      builder.append(", secondaries=").append(getSecondaries());
     }
 
-    if (!arbiters.isEmpty()) {
-      builder.append(", arbiters=").append(arbiters);
+    if (count(ROLE_ARBITER) > 0) {
+      builder.append(", arbiters=").append(getArbiters());
     }
 
-    if (!inactiveSecondaries.isEmpty()) {
-      builder.append(", inactiveSecondary=").append(inactiveSecondaries);
+    if (count(ROLE_INACTIVE_SECONDARY) > 0) {
+      builder.append(", inactiveSecondary=").append(getInactiveSecondaries());
     }
 
-    if (!joiningSecondaries.isEmpty()) {
-      builder.append(", joiningSecondary=").append(joiningSecondaries);
+    if (count(ROLE_JOINING_SECONDARY) > 0) {
+      builder.append(", joiningSecondary=").append(getJoiningSecondaries());
     }
 
     if (secondaryCandidate != null) {
@@ -1002,12 +1089,11 @@ public class SegmentMembership {
   }
 
   public int size() {
-    return 1 + secondaries.size() + arbiters.size() + inactiveSecondaries.size()
-        + joiningSecondaries.size();
+    return 1 + memberIds.length;
   }
 
   public int aliveSize() {
-    return 1 + secondaries.size() + arbiters.size() + joiningSecondaries.size();
+    return 1 + memberIds.length - count(ROLE_INACTIVE_SECONDARY);
   }
 
   /**
@@ -1018,7 +1104,7 @@ public class SegmentMembership {
    * membership yet
    */
   public boolean allowNewJoiningSecondary(int ntotalSecondaries) {
-    return secondaries.size() < ntotalSecondaries && joiningSecondaries.size() == 0;
+    return count(ROLE_SECONDARY) < ntotalSecondaries && count(ROLE_JOINING_SECONDARY) == 0;
   }
 
   /**
@@ -1030,13 +1116,14 @@ public class SegmentMembership {
   public boolean checkBadWriteResultOfSecondariesAndArbiters(int nwriteQuorum,
       int badSecondariesCount,
       int badJoiningSecondariesCount, int badArbitersCount) {
-    int broadcastSecondariesCount = secondaries.size();
+    int broadcastSecondariesCount = count(ROLE_SECONDARY);
     if (tempPrimary != null) {
       broadcastSecondariesCount--;
     }
     int goodSecondariesCount = broadcastSecondariesCount - badSecondariesCount;
-    int goodJoiningSecondariesCount = joiningSecondaries.size() - badJoiningSecondariesCount;
-    int goodArbitersCount = arbiters.size() - badArbitersCount;
+    int goodJoiningSecondariesCount =
+        count(ROLE_JOINING_SECONDARY) - badJoiningSecondariesCount;
+    int goodArbitersCount = count(ROLE_ARBITER) - badArbitersCount;
     return !checkWriteResultOfSecondariesAndArbiters(nwriteQuorum, goodSecondariesCount,
         goodJoiningSecondariesCount, goodArbitersCount);
   }
@@ -1065,7 +1152,7 @@ public class SegmentMembership {
     //def q = subQuorum
     int subQuorum = nwriteQuorum - 1;
     //def s = numS or numS - 1 (if tp exist)
-    int broadcastSecondariesCount = secondaries.size();
+    int broadcastSecondariesCount = count(ROLE_SECONDARY);
     if (tempPrimary != null) {
       broadcastSecondariesCount--;
     }
@@ -1082,7 +1169,7 @@ public class SegmentMembership {
 
     //else ensure gj >= min(q-gs,j)
     if (goodJoiningSecondariesCount < Math
-        .min(subQuorum - goodSecondariesCount, joiningSecondaries.size())) {
+        .min(subQuorum - goodSecondariesCount, count(ROLE_JOINING_SECONDARY))) {
       return false;
     }
 
@@ -1097,7 +1184,7 @@ public class SegmentMembership {
 
   // check if all secondaries required by the specified volume present
   public boolean allSecondariesPresent(VolumeType volumeType) {
-    return secondaries.size() == volumeType.getNumSecondaries();
+    return count(ROLE_SECONDARY) == volumeType.getNumSecondaries();
   }
 
   // TODO : remove this
@@ -1203,59 +1290,41 @@ public class SegmentMembership {
   }
 
   public String serializeToObjectMapperContent() {
-    String value = "";
-    value += segmentVersion.getEpoch();
-    value += ",";
-    value += segmentVersion.getGeneration();
-    value += ",";
-    value += primary == null ? null_value : primary.getId();
-    value += ",";
-    value += tempPrimary == null ? null_value : tempPrimary.getId();
-    value += ",";
-    Iterator<InstanceId> idIterator = secondaries.iterator();
-    while (idIterator.hasNext()) {
-      InstanceId instanceId = idIterator.next();
-      value += instanceId.getId();
-      if (!idIterator.hasNext()) {
-        break;
-      }
-      value += ":";
-    }
-    value += ",";
-    idIterator = arbiters.iterator();
-    while (idIterator.hasNext()) {
-      InstanceId instanceId = idIterator.next();
-      value += instanceId.getId();
-      if (!idIterator.hasNext()) {
-        break;
-      }
-      value += ":";
-    }
-    value += ",";
-    idIterator = inactiveSecondaries.iterator();
-    while (idIterator.hasNext()) {
-      InstanceId instanceId = idIterator.next();
-      value += instanceId.getId();
-      if (!idIterator.hasNext()) {
-        break;
-      }
-      value += ":";
-    }
-    value += ",";
-    idIterator = joiningSecondaries.iterator();
-    while (idIterator.hasNext()) {
-      InstanceId instanceId = idIterator.next();
-      value += instanceId.getId();
-      if (!idIterator.hasNext()) {
-        break;
-      }
-      value += ":";
-    }
-    value += ",";
-    value += primaryCandidate == null ? null_value : primaryCandidate.getId();
-    value += ",";
-    value += secondaryCandidate == null ? null_value : secondaryCandidate.getId();
+    StringBuilder builder = new StringBuilder(32 + 20 * memberIds.length);
+    builder.append(segmentVersion.getEpoch());
+    builder.append(',');
+    builder.append(segmentVersion.getGeneration());
+    builder.append(',');
+    builder.append(primary == null ? null_value : primary.getId());
+    builder.append(',');
+    builder.append(tempPrimary == null ? null_value : tempPrimary.getId());
+    builder.append(',');
+    appendMemberIds(builder, ROLE_SECONDARY);
+    builder.append(',');
+    appendMemberIds(builder, ROLE_ARBITER);
+    builder.append(',');
+    appendMemberIds(builder, ROLE_INACTIVE_SECONDARY);
+    builder.append(',');
+    appendMemberIds(builder, ROLE_JOINING_SECONDARY);
+    builder.append(',');
+    builder.append(primaryCandidate == null ? null_value : primaryCandidate.getId());
+    builder.append(',');
+    builder.append(secondaryCandidate == null ? null_value : secondaryCandidate.getId());
+    String value = builder.toString();
     logger.debug("segment member ship to json value is {}", value);
     return value;
   }
+
+  private void appendMemberIds(StringBuilder builder, byte role) {
+    boolean first = true;
+    for (int i = 0; i < memberIds.length; i++) {
+      if (memberRoles[i] == role) {
+        if (!first) {
+          builder.append(':');
+        }
+        builder.append(memberIds[i]);
+        first = false;
+      }
+    }
+  }
 }
\ No newline at end of file
@@ -0,0 +1,354 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package py.membership;
+
+import io.netty.buffer.ByteBuf;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.lang3.Validate;
+import py.archive.segment.SegmentVersion;
+import py.instance.InstanceId;
+
+/**
+ * Binary codec of {@link SegmentMembership}, a compact replacement of the text form of {@link
+ * SegmentMembership#serializeToObjectMapperContent()}, which is still kept for compatibility.
+ *
+ * <p>Layout of version 1:
+ * <pre>
+ *   version       1 byte
+ *   epoch         unsigned varint
+ *   generation    unsigned varint
+ *   flags         1 byte, which of primary, temp primary, primary candidate and secondary
+ *                 candidate are present
+ *   primary       zigzag varint, present ones of the four single members, each encoded as the
+ *   ...           delta to the primary (or as is for the primary itself)
+ *   member count  unsigned varint
+ *   members       per member: role byte, then zigzag varint delta of the id to the previous
+ *                 member (to the primary for the first one). Members are sorted by (role, id).
+ * </pre>
+ *
+ * <p>Members of a segment are usually created on the same few data nodes, so their ids are close
+ * to each other and the deltas are much shorter than the ids.
+ */
+public final class SegmentMembershipCodec {
+  public static final byte VERSION_1 = 1;
+
+  private static final int FLAG_PRIMARY = 1;
+  private static final int FLAG_TEMP_PRIMARY = 1 << 1;
+  private static final int FLAG_PRIMARY_CANDIDATE = 1 << 2;
+  private static final int FLAG_SECONDARY_CANDIDATE = 1 << 3;
+  private static final int MAX_VARINT_LONG_BYTES = 10;
+
+  private SegmentMembershipCodec() {
+  }
+
+  /**
+   * the exact number of bytes {@link #encode(SegmentMembership, ByteBuffer)} writes.
+   */
+  public static int encodedSize(SegmentMembership membership) {
+    SegmentVersion version = membership.getSegmentVersion();
+    long base = baseOf(membership);
+    int size = 1 + varIntSize(version.getEpoch()) + varIntSize(version.getGeneration()) + 1;
+    size += singleMemberSize(membership.getPrimary(), 0);
+    size += singleMemberSize(membership.getTempPrimary(), base);
+    size += singleMemberSize(membership.getPrimaryCandidate(), base);
+    size += singleMemberSize(membership.getSecondaryCandidate(), base);
+
+    long[] memberIds = membership.memberIds();
+    size += varIntSize(memberIds.length);
+    long previous = base;
+    for (long memberId : memberIds) {
+      size += 1 + varLongSize(zigzag(memberId - previous));
+      previous = memberId;
+    }
+    return size;
+  }
+
+  public static byte[] encode(SegmentMembership membership) {
+    ByteBuffer buffer = ByteBuffer.allocate(encodedSize(membership));
+    encode(membership, buffer);
+    return buffer.array();
+  }
+
+  /**
+   * write the membership at the position of the buffer, which has to have {@link
+   * #encodedSize(SegmentMembership)} bytes remaining.
+   */
+  public static void encode(SegmentMembership membership, ByteBuffer buffer) {
+    SegmentVersion version = membership.getSegmentVersion();
+    long base = baseOf(membership);
+    buffer.put(VERSION_1);
+    writeVarLong(buffer, version.getEpoch());
+    writeVarLong(buffer, version.getGeneration());
+    buffer.put((byte) flagsOf(membership));
+    writeSingleMember(buffer, membership.getPrimary(), 0);
+    writeSingleMember(buffer, membership.getTempPrimary(), base);
+    writeSingleMember(buffer, membership.getPrimaryCandidate(), base);
+    writeSingleMember(buffer, membership.getSecondaryCandidate(), base);
+
+    long[] memberIds = membership.memberIds();
+    byte[] memberRoles = membership.memberRoles();
+    writeVarLong(buffer, memberIds.length);
+    long previous = base;
+    for (int i = 0; i < memberIds.length; i++) {
+      buffer.put(memberRoles[i]);
+      writeVarLong(buffer, zigzag(memberIds[i] - previous));
+      previous = memberIds[i];
+    }
+  }
+
+  /**
+   * write the membership at the writer index of the buffer, which grows as needed.
+   */
+  public static void encode(SegmentMembership membership, ByteBuf buffer) {
+    SegmentVersion version = membership.getSegmentVersion();
+    long base = baseOf(membership);
+    buffer.ensureWritable(encodedSize(membership));
+    buffer.writeByte(VERSION_1);
+    writeVarLong(buffer, version.getEpoch());
+    writeVarLong(buffer, version.getGeneration());
+    buffer.writeByte(flagsOf(membership));
+    writeSingleMember(buffer, membership.getPrimary(), 0);
+    writeSingleMember(buffer, membership.getTempPrimary(), base);
+    writeSingleMember(buffer, membership.getPrimaryCandidate(), base);
+    writeSingleMember(buffer, membership.getSecondaryCandidate(), base);
+
+    long[] memberIds = membership.memberIds();
+    byte[] memberRoles = membership.memberRoles();
+    writeVarLong(buffer, memberIds.length);
+    long previous = base;
+    for (int i = 0; i < memberIds.length; i++) {
+      buffer.writeByte(memberRoles[i]);
+      writeVarLong(buffer, zigzag(memberIds[i] - previous));
+      previous = memberIds[i];
+    }
+  }
+
+  public static SegmentMembership decode(byte[] bytes) {
+    return decode(ByteBuffer.wrap(bytes));
+  }
+
+  /**
+   * read a membership from the position of the buffer, and move the position after it.
+   */
+  public static SegmentMembership decode(ByteBuffer buffer) {
+    byte version = buffer.get();
+    Validate.isTrue(version == VERSION_1, "unknown segment membership codec version: %s",
+        version);
+    int epoch = (int) readVarLong(buffer);
+    int generation = (int) readVarLong(buffer);
+    int flags = buffer.get();
+    InstanceId primary = readSingleMember(buffer, flags, FLAG_PRIMARY, 0);
+    long base = primary == null ? 0 : primary.getId();
+    InstanceId tempPrimary = readSingleMember(buffer, flags, FLAG_TEMP_PRIMARY, base);
+    InstanceId primaryCandidate = readSingleMember(buffer, flags, FLAG_PRIMARY_CANDIDATE, base);
+    InstanceId secondaryCandidate = readSingleMember(buffer, flags, FLAG_SECONDARY_CANDIDATE,
+        base);
+
+    int count = (int) readVarLong(buffer);
+    Validate.isTrue(count >= 0 && count <= buffer.remaining() / 2,
+        "invalid segment membership member count: %s", count);
+    MemberLists memberLists = new MemberLists(count);
+    long previous = base;
+    for (int i = 0; i < count; i++) {
+      byte role = buffer.get();
+      previous += unzigzag(readVarLong(buffer));
+      memberLists.add(role, previous);
+    }
+    return memberLists.build(new SegmentVersion(epoch, generation), primary, tempPrimary,
+        secondaryCandidate, primaryCandidate);
+  }
+
+  /**
+   * read a membership from the reader index of the buffer, and move the reader index after it.
+   */
+  public static SegmentMembership decode(ByteBuf buffer) {
+    byte version = buffer.readByte();
+    Validate.isTrue(version == VERSION_1, "unknown segment membership codec version: %s",
+        version);
+    int epoch = (int) readVarLong(buffer);
+    int generation = (int) readVarLong(buffer);
+    int flags = buffer.readByte();
+    InstanceId primary = readSingleMember(buffer, flags, FLAG_PRIMARY, 0);
+    long base = primary == null ? 0 : primary.getId();
+    InstanceId tempPrimary = readSingleMember(buffer, flags, FLAG_TEMP_PRIMARY, base);
+    InstanceId primaryCandidate = readSingleMember(buffer, flags, FLAG_PRIMARY_CANDIDATE, base);
+    InstanceId secondaryCandidate = readSingleMember(buffer, flags, FLAG_SECONDARY_CANDIDATE,
+        base);
+
+    int count = (int) readVarLong(buffer);
+    Validate.isTrue(count >= 0 && count <= buffer.readableBytes() / 2,
+        "invalid segment membership member count: %s", count);
+    MemberLists memberLists = new MemberLists(count);
+    long previous = base;
+    for (int i = 0; i < count; i++) {
+      byte role = buffer.readByte();
+      previous += unzigzag(readVarLong(buffer));
+      memberLists.add(role, previous);
+    }
+    return memberLists.build(new SegmentVersion(epoch, generation), primary, tempPrimary,
+        secondaryCandidate, primaryCandidate);
+  }
+
+  private static long baseOf(SegmentMembership membership) {
+    return membership.getPrimary() == null ? 0 : membership.getPrimary().getId();
+  }
+
+  private static int flagsOf(SegmentMembership membership) {
+    int flags = 0;
+    if (membership.getPrimary() != null) {
+      flags |= FLAG_PRIMARY;
+    }
+    if (membership.getTempPrimary() != null) {
+      flags |= FLAG_TEMP_PRIMARY;
+    }
+    if (membership.getPrimaryCandidate() != null) {
+      flags |= FLAG_PRIMARY_CANDIDATE;
+    }
+    if (membership.getSecondaryCandidate() != null) {
+      flags |= FLAG_SECONDARY_CANDIDATE;
+    }
+    return flags;
+  }
+
+  private static int singleMemberSize(InstanceId member, long base) {
+    return member == null ? 0 : varLongSize(zigzag(member.getId() - base));
+  }
+
+  private static void writeSingleMember(ByteBuffer buffer, InstanceId member, long base) {
+    if (member != null) {
+      writeVarLong(buffer, zigzag(member.getId() - base));
+    }
+  }
+
+  private static void writeSingleMember(ByteBuf buffer, InstanceId member, long base) {
+    if (member != null) {
+      writeVarLong(buffer, zigzag(member.getId() - base));
+    }
+  }
+
+  private static InstanceId readSingleMember(ByteBuffer buffer, int flags, int flag, long base) {
+    return (flags & flag) == 0 ? null : new InstanceId(base + unzigzag(readVarLong(buffer)));
+  }
+
+  private static InstanceId readSingleMember(ByteBuf buffer, int flags, int flag, long base) {
+    return (flags & flag) == 0 ? null : new InstanceId(base + unzigzag(readVarLong(buffer)));
+  }
+
+  static long zigzag(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  static long unzigzag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  static int varIntSize(int value) {
+    return varLongSize(value & 0xffffffffL);
+  }
+
+  static int varLongSize(long value) {
+    int size = 1;
+    while ((value & ~0x7fL) != 0) {
+      value >>>= 7;
+      size++;
+    }
+    return size;
+  }
+
+  private static void writeVarLong(ByteBuffer buffer, long value) {
+    while ((value & ~0x7fL) != 0) {
+      buffer.put((byte) ((value & 0x7f) | 0x80));
+      value >>>= 7;
+    }
+    buffer.put((byte) value);
+  }
+
+  private static void writeVarLong(ByteBuf buffer, long value) {
+    while ((value & ~0x7fL) != 0) {
+      buffer.writeByte((int) ((value & 0x7f) | 0x80));
+      value >>>= 7;
+    }
+    buffer.writeByte((int) value);
+  }
+
+  private static long readVarLong(ByteBuffer buffer) {
+    long value = 0;
+    for (int shift = 0, i = 0; i < MAX_VARINT_LONG_BYTES; shift += 7, i++) {
+      byte b = buffer.get();
+      value |= (long) (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IllegalArgumentException("malformed varint in segment membership");
+  }
+
+  private static long readVarLong(ByteBuf buffer) {
+    long value = 0;
+    for (int shift = 0, i = 0; i < MAX_VARINT_LONG_BYTES; shift += 7, i++) {
+      byte b = buffer.readByte();
+      value |= (long) (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IllegalArgumentException("malformed varint in segment membership");
+  }
+
+  /**
+   * collects the decoded members by role for the constructor of the membership.
+   */
+  private static class MemberLists {
+    private final List<InstanceId> secondaries;
+    private final List<InstanceId> arbiters;
+    private final List<InstanceId> inactiveSecondaries;
+    private final List<InstanceId> joiningSecondaries;
+
+    MemberLists(int count) {
+      this.secondaries = new ArrayList<>(count);
+      this.arbiters = new ArrayList<>();
+      this.inactiveSecondaries = new ArrayList<>();
+      this.joiningSecondaries = new ArrayList<>();
+    }
+
+    void add(byte role, long id) {
+      InstanceId member = new InstanceId(id);
+      switch (role) {
+        case SegmentMembership.ROLE_SECONDARY:
+          secondaries.add(member);
+          break;
+        case SegmentMembership.ROLE_ARBITER:
+          arbiters.add(member);
+          break;
+        case SegmentMembership.ROLE_INACTIVE_SECONDARY:
+          inactiveSecondaries.add(member);
+          break;
+        case SegmentMembership.ROLE_JOINING_SECONDARY:
+          joiningSecondaries.add(member);
+          break;
+        default:
+          throw new IllegalArgumentException("unknown segment membership role: " + role);
+      }
+    }
+
+    SegmentMembership build(SegmentVersion version, InstanceId primary, InstanceId tempPrimary,
+        InstanceId secondaryCandidate, InstanceId primaryCandidate) {
+      return new SegmentMembership(version, primary, tempPrimary, secondaries, arbiters,
+          inactiveSecondaries, joiningSecondaries, secondaryCandidate, primaryCandidate);
+    }
+  }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package py.netty.datanode;
+
+import io.netty.buffer.ByteBufAllocator;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import py.common.struct.EndPoint;
+import py.membership.IoMember;
+import py.membership.ReplicaScoreboard;
+import py.netty.core.MethodCallback;
+import py.proto.Broadcastlog.PbReadRequest;
+
+/**
+ * Send a read to the fastest of the members chosen for it, and if no response comes back within
+ * the hedge delay of the {@link ReplicaScoreboard}, send the same read to the next fastest member
+ * too. The first good response is passed to the caller and any later one is released.
+ *
+ * <p>A member failing passes the read on to the next member in the ranking at once, so a read
+ * fails only after every member has been tried and failed, with the last exception. To keep the
+ * extra load bounded, hedged duplicates are never more than the given ratio of reads, while the
+ * reads passed on after a failure are not counted.
+ */
+public class HedgedReader {
+  public static final double DEFAULT_MAX_HEDGE_RATIO = 0.1;
+  private static final Logger logger = LoggerFactory.getLogger(HedgedReader.class);
+
+  private final ReplicaScoreboard scoreboard;
+  private final Function<EndPoint, AsyncDataNode.AsyncIface> clientProvider;
+  private final ScheduledExecutorService hedgeTimer;
+  private final double maxHedgeRatio;
+  private final AtomicLong readCount = new AtomicLong();
+  private final AtomicLong hedgedReadCount = new AtomicLong();
+  private final AtomicLong hedgeWinCount = new AtomicLong();
+
+  public HedgedReader(ReplicaScoreboard scoreboard,
+      Function<EndPoint, AsyncDataNode.AsyncIface> clientProvider) {
+    this(scoreboard, clientProvider, newHedgeTimer(), DEFAULT_MAX_HEDGE_RATIO);
+  }
+
+  public HedgedReader(ReplicaScoreboard scoreboard,
+      Function<EndPoint, AsyncDataNode.AsyncIface> clientProvider,
+      ScheduledExecutorService hedgeTimer, double maxHedgeRatio) {
+    Validate.isTrue(maxHedgeRatio >= 0 && maxHedgeRatio <= 1,
+        "max hedge ratio should be in [0, 1]: %s", maxHedgeRatio);
+    this.scoreboard = scoreboard;
+    this.clientProvider = clientProvider;
+    this.hedgeTimer = hedgeTimer;
+    this.maxHedgeRatio = maxHedgeRatio;
+  }
+
+  private static ScheduledExecutorService newHedgeTimer() {
+    ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+      Thread thread = Executors.defaultThreadFactory().newThread(runnable);
+      thread.setName("hedged-read-timer");
+      thread.setDaemon(true);
+      return thread;
+    });
+    // most reads come back before their hedge, don't keep their cancelled tasks around
+    timer.setRemoveOnCancelPolicy(true);
+    return timer;
+  }
+
+  /**
+   * read from the members which the read can be sent to, see {@link
+   * ReplicaScoreboard#isEligible(IoMember)}.
+   */
+  public void read(PbReadRequest request, Collection<IoMember> ioMembers,
+      MethodCallback<PyReadResponse> callback) {
+    List<IoMember> rankedMembers = scoreboard.rank(ioMembers);
+    if (rankedMembers.isEmpty()) {
+      callback.fail(new IllegalArgumentException("no member to read from: " + ioMembers));
+      return;
+    }
+
+    readCount.incrementAndGet();
+    HedgedRead hedgedRead = new HedgedRead(request, rankedMembers, callback);
+    hedgedRead.sendNext(false);
+    if (rankedMembers.size() > 1) {
+      long hedgeDelayNanos = scoreboard.getHedgeDelayNanos();
+      if (hedgeDelayNanos != Long.MAX_VALUE) {
+        hedgedRead.scheduleHedge(hedgeDelayNanos);
+      }
+    }
+  }
+
+  public long getReadCount() {
+    return readCount.get();
+  }
+
+  public long getHedgedReadCount() {
+    return hedgedReadCount.get();
+  }
+
+  /**
+   * how many reads were answered by the hedged duplicate first.
+   */
+  public long getHedgeWinCount() {
+    return hedgeWinCount.get();
+  }
+
+  private boolean takeHedgeBudget() {
+    long hedged = hedgedReadCount.get();
+    while (hedged < maxHedgeRatio * readCount.get()) {
+      if (hedgedReadCount.compareAndSet(hedged, hedged + 1)) {
+        return true;
+      }
+      hedged = hedgedReadCount.get();
+    }
+    return false;
+  }
+
+  private class HedgedRead {
+    private final PbReadRequest request;
+    private final List<IoMember> rankedMembers;
+    private final MethodCallback<PyReadResponse> callback;
+    private final AtomicBoolean done = new AtomicBoolean(false);
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicInteger nextMember = new AtomicInteger();
+    private final AtomicReference<Exception> lastException = new AtomicReference<>();
+    private volatile ScheduledFuture<?> hedgeFuture;
+
+    private HedgedRead(PbReadRequest request, List<IoMember> rankedMembers,
+        MethodCallback<PyReadResponse> callback) {
+      this.request = request;
+      this.rankedMembers = rankedMembers;
+      this.callback = callback;
+    }
+
+    /**
+     * send the read to the next member in the ranking, return false if every member has been tried.
+     */
+    private boolean sendNext(boolean hedged) {
+      int index = nextMember.getAndIncrement();
+      if (index >= rankedMembers.size()) {
+        return false;
+      }
+      EndPoint endPoint = rankedMembers.get(index).getEndPoint();
+      if (hedged) {
+        logger.debug("hedging read {} to {}", request.getRequestId(), endPoint);
+      }
+      outstanding.incrementAndGet();
+      scoreboard.readStarted(endPoint);
+      Attempt attempt = new Attempt(endPoint, hedged, scoreboard.now());
+      try {
+        clientProvider.apply(endPoint).read(request, attempt);
+      } catch (Exception e) {
+        attempt.fail(e);
+      }
+      return true;
+    }
+
+    private void scheduleHedge(long hedgeDelayNanos) {
+      try {
+        hedgeFuture = hedgeTimer.schedule(this::hedge, hedgeDelayNanos, TimeUnit.NANOSECONDS);
+      } catch (Exception e) {
+        logger.warn("can not schedule a hedged read for {}", request.getRequestId(), e);
+      }
+      if (done.get()) {
+        cancelHedge();
+      }
+    }
+
+    private void hedge() {
+      if (done.get() || nextMember.get() >= rankedMembers.size() || !takeHedgeBudget()) {
+        return;
+      }
+      sendNext(true);
+    }
+
+    private void cancelHedge() {
+      ScheduledFuture<?> future = hedgeFuture;
+      if (future != null) {
+        future.cancel(false);
+      }
+    }
+
+    private class Attempt implements MethodCallback<PyReadResponse> {
+      private final EndPoint endPoint;
+      private final boolean hedged;
+      private final long startTime;
+
+      private Attempt(EndPoint endPoint, boolean hedged, long startTime) {
+        this.endPoint = endPoint;
+        this.hedged = hedged;
+        this.startTime = startTime;
+      }
+
+      @Override
+      public void complete(PyReadResponse response) {
+        scoreboard.readCompleted(endPoint, scoreboard.now() - startTime);
+        outstanding.decrementAndGet();
+        if (done.compareAndSet(false, true)) {
+          cancelHedge();
+          if (hedged) {
+            hedgeWinCount.incrementAndGet();
+          }
+          callback.complete(response);
+        } else {
+          // the other member was faster
+          response.release();
+        }
+      }
+
+      @Override
+      public void fail(Exception e) {
+        scoreboard.readFailed(endPoint);
+        logger.debug("read {} from {} failed", request.getRequestId(), endPoint, e);
+        lastException.set(e);
+        if (!done.get()) {
+          // pass the read on to the next member instead of waiting for the hedge
+          sendNext(false);
+        }
+        if (outstanding.decrementAndGet() == 0 && done.compareAndSet(false, true)) {
+          cancelHedge();
+          callback.fail(lastException.get());
+        }
+      }
+
+      @Override
+      public ByteBufAllocator getAllocator() {
+        return callback.getAllocator();
+      }
+    }
+  }
+}
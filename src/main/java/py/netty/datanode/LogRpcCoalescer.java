@@ -0,0 +1,377 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package py.netty.datanode;
+
+import com.google.protobuf.AbstractMessageLite;
+import io.netty.buffer.ByteBufAllocator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.function.Function;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import py.common.struct.EndPoint;
+import py.netty.core.MethodCallback;
+import py.netty.message.MethodType;
+import py.proto.Broadcastlog.GiveYouLogIdRequest;
+import py.proto.Broadcastlog.GiveYouLogIdResponse;
+import py.proto.Broadcastlog.PbAsyncSyncLogsBatchRequest;
+import py.proto.Broadcastlog.PbAsyncSyncLogsBatchResponse;
+import py.proto.Broadcastlog.PbBackwardSyncLogsRequest;
+import py.proto.Broadcastlog.PbBackwardSyncLogsResponse;
+import py.proto.Commitlog.PbCommitlogRequest;
+import py.proto.Commitlog.PbCommitlogResponse;
+
+/**
+ * Gather the log rpcs ({@code syncLog}, {@code backwardSyncLog}, {@code addOrCommitLogs} and
+ * {@code giveYouLogId}) of all the segments going to the same datanode, and send them as one batch
+ * when the oldest of them has waited for the window, or as soon as the batch is full.
+ *
+ * <p>How a batch goes out is up to the {@link BatchSender}, the default one passes the rpcs of a
+ * batch to the client of the datanode one after another, each still its own message. Only a sender
+ * framing a batch as one message saves anything, so the default window is 0 and every rpc is passed
+ * through as soon as it comes. Every rpc keeps its own callback, a batch that can not be sent fails
+ * the callbacks of all its rpcs, and the batches to the same datanode are sent in order.
+ *
+ * <p>The batch sizes and the latency the window adds are counted, to be weighed against the
+ * messages saved.
+ */
+public class LogRpcCoalescer {
+  public static final long DEFAULT_WINDOW_MICROS = 0;
+  public static final int DEFAULT_MAX_BATCH_SIZE = 64;
+  private static final Logger logger = LoggerFactory.getLogger(LogRpcCoalescer.class);
+
+  private final BatchSender batchSender;
+  private final ScheduledExecutorService flushTimer;
+  private final long windowNanos;
+  private final int maxBatchSize;
+  private final ConcurrentHashMap<EndPoint, PendingBatch> pendingBatches =
+      new ConcurrentHashMap<>();
+  private final AtomicLong rpcCount = new AtomicLong();
+  private final AtomicLong batchCount = new AtomicLong();
+  private final AtomicLong messageCount = new AtomicLong();
+  private final AtomicLong addedLatencyNanos = new AtomicLong();
+  private final LongAccumulator maxAddedLatencyNanos = new LongAccumulator(Long::max, 0);
+  private final LongAccumulator maxBatchSizeSent = new LongAccumulator(Long::max, 0);
+
+  public LogRpcCoalescer(Function<EndPoint, AsyncDataNode.AsyncIface> clientProvider) {
+    this(sendOneByOne(clientProvider), newFlushTimer(), DEFAULT_WINDOW_MICROS,
+        DEFAULT_MAX_BATCH_SIZE);
+  }
+
+  public LogRpcCoalescer(BatchSender batchSender, ScheduledExecutorService flushTimer,
+      long windowMicros, int maxBatchSize) {
+    Validate.isTrue(windowMicros >= 0, "window should not be negative: %s", windowMicros);
+    Validate.isTrue(maxBatchSize > 0, "max batch size should be positive: %s", maxBatchSize);
+    this.batchSender = batchSender;
+    this.flushTimer = flushTimer;
+    this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+    this.maxBatchSize = maxBatchSize;
+  }
+
+  private static ScheduledExecutorService newFlushTimer() {
+    ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+      Thread thread = Executors.defaultThreadFactory().newThread(runnable);
+      thread.setName("log-rpc-flush-timer");
+      thread.setDaemon(true);
+      return thread;
+    });
+    // full batches go out before their window, don't keep their cancelled tasks around
+    timer.setRemoveOnCancelPolicy(true);
+    return timer;
+  }
+
+  /**
+   * a sender passing the rpcs of a batch to the client of their datanode in order.
+   */
+  public static BatchSender sendOneByOne(
+      Function<EndPoint, AsyncDataNode.AsyncIface> clientProvider) {
+    return (endPoint, batch) -> {
+      AsyncDataNode.AsyncIface client = clientProvider.apply(endPoint);
+      for (LogRpc<?, ?> rpc : batch) {
+        try {
+          rpc.sendTo(client);
+        } catch (Exception e) {
+          rpc.fail(e);
+        }
+      }
+    };
+  }
+
+  public void syncLog(EndPoint endPoint, PbAsyncSyncLogsBatchRequest request,
+      MethodCallback<PbAsyncSyncLogsBatchResponse> callback) {
+    add(endPoint, new LogRpc<>(MethodType.SYNCLOG, request, callback));
+  }
+
+  public void backwardSyncLog(EndPoint endPoint, PbBackwardSyncLogsRequest request,
+      MethodCallback<PbBackwardSyncLogsResponse> callback) {
+    add(endPoint, new LogRpc<>(MethodType.BACKWARDSYNCLOG, request, callback));
+  }
+
+  public void addOrCommitLogs(EndPoint endPoint, PbCommitlogRequest request,
+      MethodCallback<PbCommitlogResponse> callback) {
+    add(endPoint, new LogRpc<>(MethodType.ADDORCOMMITLOGS, request, callback));
+  }
+
+  public void giveYouLogId(EndPoint endPoint, GiveYouLogIdRequest request,
+      MethodCallback<GiveYouLogIdResponse> callback) {
+    add(endPoint, new LogRpc<>(MethodType.GIVEYOULOGID, request, callback));
+  }
+
+  /**
+   * send the pending rpcs of all datanodes now.
+   */
+  public void flush() {
+    for (PendingBatch pendingBatch : pendingBatches.values()) {
+      while (pendingBatch.flush()) {
+        // until all the pending rpcs are sent, a batch at a time
+      }
+    }
+  }
+
+  public long getRpcCount() {
+    return rpcCount.get();
+  }
+
+  public long getBatchCount() {
+    return batchCount.get();
+  }
+
+  /**
+   * how many fewer messages are sent than there are rpcs, only the batches the sender frames as one
+   * message save any.
+   */
+  public long getSavedMessageCount() {
+    return rpcCount.get() - messageCount.get();
+  }
+
+  public double getMeanBatchSize() {
+    long batches = batchCount.get();
+    return batches == 0 ? 0 : (double) rpcCount.get() / batches;
+  }
+
+  public long getMaxBatchSize() {
+    return maxBatchSizeSent.get();
+  }
+
+  /**
+   * the mean time the rpcs wait in a batch before it is sent.
+   */
+  public long getMeanAddedLatencyNanos() {
+    long rpcs = rpcCount.get();
+    return rpcs == 0 ? 0 : addedLatencyNanos.get() / rpcs;
+  }
+
+  public long getMaxAddedLatencyNanos() {
+    return maxAddedLatencyNanos.get();
+  }
+
+  private void add(EndPoint endPoint, LogRpc<?, ?> rpc) {
+    if (windowNanos == 0) {
+      List<LogRpc<?, ?>> batch = new ArrayList<>(1);
+      batch.add(rpc);
+      send(endPoint, batch);
+      return;
+    }
+    pendingBatches.computeIfAbsent(endPoint, PendingBatch::new).add(rpc);
+  }
+
+  private void send(EndPoint endPoint, List<LogRpc<?, ?>> batch) {
+    long now = System.nanoTime();
+    for (LogRpc<?, ?> rpc : batch) {
+      long waited = now - rpc.createTime;
+      addedLatencyNanos.addAndGet(waited);
+      maxAddedLatencyNanos.accumulate(waited);
+    }
+    rpcCount.addAndGet(batch.size());
+    batchCount.incrementAndGet();
+    messageCount.addAndGet(batchSender.framesBatch() ? 1 : batch.size());
+    maxBatchSizeSent.accumulate(batch.size());
+
+    try {
+      batchSender.send(endPoint, batch);
+    } catch (Exception e) {
+      logger.warn("can not send a batch of {} log rpcs to {}", batch.size(), endPoint, e);
+      for (LogRpc<?, ?> rpc : batch) {
+        rpc.fail(e);
+      }
+    }
+  }
+
+  /**
+   * send a batch of log rpcs to a datanode, the callback of every rpc in it must be completed or
+   * failed in the end.
+   */
+  public interface BatchSender {
+    void send(EndPoint endPoint, List<LogRpc<?, ?>> batch);
+
+    /**
+     * whether a batch goes out as one message, rather than a message for every rpc in it.
+     */
+    default boolean framesBatch() {
+      return false;
+    }
+  }
+
+  /**
+   * A log rpc waiting in a batch. It is the callback passed to the client, so that the callback of
+   * the caller is completed or failed only once, even if the client fails it and then throws.
+   */
+  public static class LogRpc<RequestT extends AbstractMessageLite, ResponseT> implements
+      MethodCallback<ResponseT> {
+    private final MethodType methodType;
+    private final RequestT request;
+    private final MethodCallback<ResponseT> callback;
+    private final AtomicBoolean done = new AtomicBoolean(false);
+    private final long createTime = System.nanoTime();
+
+    private LogRpc(MethodType methodType, RequestT request, MethodCallback<ResponseT> callback) {
+      this.methodType = methodType;
+      this.request = request;
+      this.callback = callback;
+    }
+
+    public MethodType getMethodType() {
+      return methodType;
+    }
+
+    public RequestT getRequest() {
+      return request;
+    }
+
+    @Override
+    public void complete(ResponseT response) {
+      if (done.compareAndSet(false, true)) {
+        callback.complete(response);
+      }
+    }
+
+    @Override
+    public void fail(Exception e) {
+      if (done.compareAndSet(false, true)) {
+        callback.fail(e);
+      }
+    }
+
+    @Override
+    public ByteBufAllocator getAllocator() {
+      return callback.getAllocator();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void sendTo(AsyncDataNode.AsyncIface client) {
+      switch (methodType) {
+        case SYNCLOG:
+          client.syncLog((PbAsyncSyncLogsBatchRequest) request,
+              (MethodCallback<PbAsyncSyncLogsBatchResponse>) this);
+          break;
+        case BACKWARDSYNCLOG:
+          client.backwardSyncLog((PbBackwardSyncLogsRequest) request,
+              (MethodCallback<PbBackwardSyncLogsResponse>) this);
+          break;
+        case ADDORCOMMITLOGS:
+          client.addOrCommitLogs((PbCommitlogRequest) request,
+              (MethodCallback<PbCommitlogResponse>) this);
+          break;
+        case GIVEYOULOGID:
+          client.giveYouLogId((GiveYouLogIdRequest) request,
+              (MethodCallback<GiveYouLogIdResponse>) this);
+          break;
+        default:
+          throw new IllegalArgumentException("not a log rpc: " + methodType);
+      }
+    }
+  }
+
+  private class PendingBatch {
+    private final EndPoint endPoint;
+    // a batch is taken and sent under it, so that a later batch never overtakes an earlier one
+    private final Object sendLock = new Object();
+    private List<LogRpc<?, ?>> rpcs = new ArrayList<>();
+    private ScheduledFuture<?> flushFuture;
+
+    private PendingBatch(EndPoint endPoint) {
+      this.endPoint = endPoint;
+    }
+
+    private void add(LogRpc<?, ?> rpc) {
+      boolean full;
+      synchronized (this) {
+        rpcs.add(rpc);
+        full = rpcs.size() >= maxBatchSize;
+        if (!full && flushFuture == null) {
+          scheduleFlush();
+        }
+      }
+      if (full) {
+        flush();
+      }
+    }
+
+    /**
+     * send at most a full batch of the pending rpcs, return false if there is none.
+     */
+    private boolean flush() {
+      synchronized (sendLock) {
+        List<LogRpc<?, ?>> batch;
+        synchronized (this) {
+          if (rpcs.isEmpty()) {
+            return false;
+          }
+          batch = take();
+        }
+        send(endPoint, batch);
+        return true;
+      }
+    }
+
+    private void scheduleFlush() {
+      try {
+        flushFuture = flushTimer.schedule(this::flush, windowNanos, TimeUnit.NANOSECONDS);
+      } catch (Exception e) {
+        // the rpcs wait for the next full batch or an explicit flush
+        logger.warn("can not schedule the flush of the log rpcs to {}", endPoint, e);
+      }
+    }
+
+    private List<LogRpc<?, ?>> take() {
+      if (flushFuture != null) {
+        flushFuture.cancel(false);
+        flushFuture = null;
+      }
+      List<LogRpc<?, ?>> batch;
+      if (rpcs.size() <= maxBatchSize) {
+        batch = rpcs;
+        rpcs = new ArrayList<>();
+      } else {
+        // more came while the previous batch was being sent, the rest wait for their window
+        List<LogRpc<?, ?>> head = rpcs.subList(0, maxBatchSize);
+        batch = new ArrayList<>(head);
+        head.clear();
+        scheduleFlush();
+      }
+      return batch;
+    }
+  }
+}
@@ -17,10 +17,11 @@ package py.netty.datanode;
 import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.CodedOutputStream;
 import com.google.protobuf.GeneratedMessage;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Parser;
 import io.netty.buffer.ByteBuf;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import org.apache.commons.lang.Validate;
 import py.archive.ArchiveOptions;
 import py.netty.message.Header;
@@ -29,15 +30,11 @@ import py.netty.message.MessageCarryDataInterface;
 import py.proto.Broadcastlog.PbCopyPageRequest;
 
 public class PyCopyPageRequest extends GeneratedMessage implements MessageCarryDataInterface {
+  private static final Parser<PbCopyPageRequest> PARSER = PbCopyPageRequest.getDefaultInstance()
+      .getParserForType();
   private static int pageSize;
-  private static Method parseFrom;
 
   static {
-    try {
-      parseFrom = PbCopyPageRequest.class.getMethod("parseFrom", CodedInputStream.class);
-    } catch (NoSuchMethodException | SecurityException e) {
-      throw new RuntimeException("can init class PYCopyPageRequest");
-    }
     pageSize = (int) ArchiveOptions.PAGE_SIZE;
   }
 
@@ -51,10 +48,19 @@ public class PyCopyPageRequest extends GeneratedMessage implements MessageCarryD
 
   public static PyCopyPageRequest parseFrom(Message msg, CodedInputStream inputStream)
       throws IllegalAccessException, IllegalArgumentException, InvocationTargetException {
-    Header header = msg.getHeader();
-    ByteBuf body = msg.getBuffer();
+    return parseFrom(msg.getHeader(), msg.getBuffer(), inputStream);
+  }
+
+  static PyCopyPageRequest parseFrom(Header header, ByteBuf body, CodedInputStream inputStream)
+      throws InvocationTargetException {
+    PbCopyPageRequest object;
+    try {
+      object = PARSER.parseFrom(inputStream);
+    } catch (InvalidProtocolBufferException e) {
+      // the same as the callers got when the metadata was parsed by reflection
+      throw new InvocationTargetException(e);
+    }
 
-    PbCopyPageRequest object = (PbCopyPageRequest) parseFrom.invoke(null, inputStream);
     if (header.getDataLength() > 0) {
       Validate.isTrue(header.getDataLength() == body.readableBytes());
       return new PyCopyPageRequest(object, body);
@@ -17,11 +17,12 @@ package py.netty.datanode;
 import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.CodedOutputStream;
 import com.google.protobuf.GeneratedMessage;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Parser;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import org.apache.commons.lang3.Validate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,15 +35,8 @@ import py.proto.Broadcastlog.PbReadResponseUnit;
 
 public class PyReadResponse extends GeneratedMessage implements MessageCarryDataInterface {
   private static final Logger logger = LoggerFactory.getLogger(PyReadResponse.class);
-  private static Method parseFrom;
-
-  static {
-    try {
-      parseFrom = PbReadResponse.class.getMethod("parseFrom", CodedInputStream.class);
-    } catch (NoSuchMethodException | SecurityException e) {
-      throw new RuntimeException("can init class PYWriteRequest");
-    }
-  }
+  private static final Parser<PbReadResponse> PARSER = PbReadResponse.getDefaultInstance()
+      .getParserForType();
 
   private final PbReadResponse metadata;
   private ByteBuf data;
@@ -62,25 +56,32 @@ public class PyReadResponse extends GeneratedMessage implements MessageCarryData
 
   public static PyReadResponse parseFrom(Message msg, CodedInputStream inputStream)
       throws IllegalAccessException, IllegalArgumentException, InvocationTargetException {
-    Header header = msg.getHeader();
-    ByteBuf body = msg.getBuffer();
-
-    PbReadResponse metadata = (PbReadResponse) parseFrom.invoke(null, inputStream);
-    Validate.isTrue(header.getDataLength() == body.readableBytes());
-    if (header.getDataLength() > 0) {
-      /*
-       * pass msg to user, and user make sure call PYReadResponse.release()
-       */
-      return new PyReadResponse(metadata, body);
-    } else {
-      Validate.isTrue(header.getDataLength() == 0);
+    PyReadResponse response = parseFrom(msg.getHeader(), msg.getBuffer(), inputStream);
+    if (response.data == null) {
       /*
        * if we do NOT pass msg to user, should release msg here, because no one will release msg
        * if we don't.
        */
       msg.release();
-      return new PyReadResponse(metadata, null);
     }
+    return response;
+  }
+
+  /**
+   * the body is passed to the response when there is data, and user make sure call {@link
+   * #release()}.
+   */
+  static PyReadResponse parseFrom(Header header, ByteBuf body, CodedInputStream inputStream)
+      throws InvocationTargetException {
+    PbReadResponse metadata;
+    try {
+      metadata = PARSER.parseFrom(inputStream);
+    } catch (InvalidProtocolBufferException e) {
+      // the same as the callers got when the metadata was parsed by reflection
+      throw new InvocationTargetException(e);
+    }
+    Validate.isTrue(header.getDataLength() == body.readableBytes());
+    return new PyReadResponse(metadata, header.getDataLength() > 0 ? body : null);
   }
 
   public static Class<?> getMetadataType() {
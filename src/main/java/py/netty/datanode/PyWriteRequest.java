@@ -17,11 +17,12 @@ package py.netty.datanode;
 import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.CodedOutputStream;
 import com.google.protobuf.GeneratedMessage;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Parser;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import org.apache.commons.lang.Validate;
 import py.netty.message.Header;
 import py.netty.message.Message;
@@ -29,15 +30,8 @@ import py.netty.message.MessageCarryDataInterface;
 import py.proto.Broadcastlog.PbWriteRequest;
 
 public class PyWriteRequest extends GeneratedMessage implements MessageCarryDataInterface {
-  private static Method parseFrom;
-
-  static {
-    try {
-      parseFrom = PbWriteRequest.class.getMethod("parseFrom", CodedInputStream.class);
-    } catch (NoSuchMethodException | SecurityException e) {
-      throw new RuntimeException("can init class PYWriteRequest");
-    }
-  }
+  private static final Parser<PbWriteRequest> PARSER = PbWriteRequest.getDefaultInstance()
+      .getParserForType();
 
   private final PbWriteRequest metadata;
   private final ByteBuf data;
@@ -57,15 +51,24 @@ public class PyWriteRequest extends GeneratedMessage implements MessageCarryData
 
   public static PyWriteRequest parseFrom(Message msg, CodedInputStream inputStream)
       throws IllegalAccessException, IllegalArgumentException, InvocationTargetException {
-    Header header = msg.getHeader();
-    ByteBuf body = msg.getBuffer();
-
-    PbWriteRequest object = (PbWriteRequest) parseFrom.invoke(null, inputStream);
     /*
      * It's different from PYReadResponse, msg will be released finally when call method callback,
      * please watch AsyncRequestHandler.generateCallback(Message msg, ChannelHandlerContext ctx),
      * so no need release here even NOT pass msg to user.
      */
+    return parseFrom(msg.getHeader(), msg.getBuffer(), inputStream);
+  }
+
+  static PyWriteRequest parseFrom(Header header, ByteBuf body, CodedInputStream inputStream)
+      throws InvocationTargetException {
+    PbWriteRequest object;
+    try {
+      object = PARSER.parseFrom(inputStream);
+    } catch (InvalidProtocolBufferException e) {
+      // the same as the callers got when the metadata was parsed by reflection
+      throw new InvocationTargetException(e);
+    }
+
     if (header.getDataLength() > 0) {
       Validate.isTrue(header.getDataLength() == body.readableBytes());
       return new PyWriteRequest(object, body);
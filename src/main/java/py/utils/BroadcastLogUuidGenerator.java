@@ -92,7 +92,29 @@ public abstract class BroadcastLogUuidGenerator {
   }
 
   public long generateUuid() {
-    return (highPartial.getVal() << lowerPartial.getBits()) | lowerPartial.incrementAndGet();
+    return buildUuid(lowerPartial.reserve(1));
+  }
+
+  /**
+   * reserve count consecutive values of the lower part, the values are taken modulo the lower part
+   * range by {@link #buildUuid(long)}.
+   *
+   * @return the first one of the reserved values
+   */
+  protected long reserveLowerValues(int count) {
+    return lowerPartial.reserve(count);
+  }
+
+  /**
+   * the uuid of a value reserved by {@link #reserveLowerValues(int)}, a value past the maximum of
+   * the lower part starts from 0 again.
+   */
+  protected long buildUuid(long lowerVal) {
+    return (highPartial.getVal() << lowerPartial.getBits()) | (lowerVal & lowerPartial.getJudge());
+  }
+
+  protected long getLowerPartialMax() {
+    return lowerPartial.getJudge();
   }
 
   public long parseHighPartial(long val) {
@@ -145,19 +167,12 @@ public abstract class BroadcastLogUuidGenerator {
       super(bits, initVal);
     }
 
-    protected long incrementAndGet() {
-      long v = super.val.incrementAndGet();
-      if (v > super.judge) {
-        synchronized (lock) {
-          v = super.val.incrementAndGet();
-          if (v > super.judge) {
-            logger.warn("reset uuid lower part from {} to 0", Long.toHexString(v));
-            v = 0;
-            super.val.set(v);
-          }
-        }
-      }
-      return v;
+    /**
+     * the counter is never reset, masking it with the judge wraps the values to 0 after the
+     * maximum just like resetting it would, without a lock.
+     */
+    protected long reserve(int count) {
+      return super.val.getAndAdd(count) + 1;
     }
   }
 
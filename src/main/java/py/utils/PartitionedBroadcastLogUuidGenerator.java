@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package py.utils;
+
+import org.apache.commons.lang.Validate;
+import py.common.RequestIdBuilder;
+
+/**
+ * a {@link BroadcastLogUuidGenerator} for many threads generating uuids at the same time.
+ *
+ * <p>Each thread reserves a block of lower part values from the shared counter at once, and hands
+ * them out without touching the counter again until the block is used up. So the threads only
+ * contend on the counter once per block instead of once per uuid.
+ *
+ * <p>The uuids of one thread still increase (wrapping to 0 after the maximum of the lower part), so
+ * {@link #compare(long, long)} keeps ordering them. The uuids of different threads are only unique,
+ * their order is off by up to a block per thread. Values left in the block of a thread that stops
+ * generating are never used.
+ */
+public abstract class PartitionedBroadcastLogUuidGenerator extends BroadcastLogUuidGenerator {
+  public static final int DEFAULT_BLOCK_SIZE = 1024;
+
+  private final int blockSize;
+  // the next value and the end of the block of each thread
+  private final ThreadLocal<long[]> blocks = ThreadLocal.withInitial(() -> new long[2]);
+
+  public PartitionedBroadcastLogUuidGenerator() {
+    super();
+    this.blockSize = DEFAULT_BLOCK_SIZE;
+  }
+
+  public PartitionedBroadcastLogUuidGenerator(int highBits, int lowerBits, int blockSize) {
+    super(highBits, lowerBits);
+    this.blockSize = blockSize;
+    validateBlockSize();
+  }
+
+  public PartitionedBroadcastLogUuidGenerator(int highBits, int lowerBits, long highVal,
+      long lowerVal, int blockSize) {
+    super(highBits, lowerBits, highVal, lowerVal);
+    this.blockSize = blockSize;
+    validateBlockSize();
+  }
+
+  public static PartitionedBroadcastLogUuidGenerator getInstance() {
+    return DefaultGeneratorHolder.generator;
+  }
+
+  private void validateBlockSize() {
+    Validate.isTrue(blockSize > 0 && blockSize <= getLowerPartialMax(),
+        "block size " + blockSize + " does not fit the lower part");
+  }
+
+  @Override
+  public long generateUuid() {
+    long[] block = blocks.get();
+    if (block[0] == block[1]) {
+      block[0] = reserveLowerValues(blockSize);
+      block[1] = block[0] + blockSize;
+    }
+    return buildUuid(block[0]++);
+  }
+
+  private static class DefaultGeneratorHolder {
+    private static final PartitionedBroadcastLogUuidGenerator generator =
+        new PartitionedBroadcastLogUuidGenerator() {
+          @Override
+          public long randomWatchDog() {
+            return Math.abs((int) RequestIdBuilder.get());
+          }
+        };
+  }
+}
@@ -0,0 +1,491 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package py.utils;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import py.netty.datanode.PyReadResponse;
+import py.proto.Broadcastlog.PbBroadcastLog;
+import py.proto.Broadcastlog.PbIoUnitResult;
+import py.proto.Broadcastlog.PbReadResponse;
+import py.proto.Broadcastlog.PbReadResponseUnit;
+
+/**
+ * Merge the read responses from the secondaries after the primary is down or their checksums
+ * mismatch. It replaces {@link ReadMergeHelper}.
+ *
+ * <p>The response with the largest pcl id is the base. For each unit read ok by more than one
+ * response, the logs to merge of all of them are laid over the base data from the newest log to the
+ * oldest, each log taking the bytes no newer log has taken. The merged data of the unit is then
+ * composed of slices of the responses the bytes come from, nothing is copied. The intervals live in
+ * sorted int arrays of a per thread scratch, so a merge allocates little beyond the merged
+ * metadata.
+ */
+public class ReadMergeEngine {
+  private static final Logger logger = LoggerFactory.getLogger(ReadMergeEngine.class);
+  private static final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+  // the source of a unit without data
+  private static final int NO_SOURCE = -1;
+
+  /**
+   * merge the responses, any number of them. The merged response owns the given responses, and
+   * they are all released if the merge fails.
+   *
+   * @return the merged response, or null if the responses can not be merged
+   */
+  public static PyReadResponse merge(PyReadResponse[] responses, int pageSize) {
+    if (responses.length <= 1) {
+      logger.debug("there is no need merging {}", responses[0].getMetadata());
+      return responses[0];
+    }
+
+    try {
+      int base = 0;
+      int unitCount = responses[0].getResponseUnitsCount();
+      for (int r = 1; r < responses.length; r++) {
+        Validate.isTrue(responses[r].getResponseUnitsCount() == unitCount,
+            "responses have different units, %s %s", unitCount,
+            responses[r].getResponseUnitsCount());
+        if (responses[r].getMetadata().getPclId() > responses[base].getMetadata().getPclId()) {
+          base = r;
+        }
+      }
+
+      PbReadResponse baseMetadata = responses[base].getMetadata();
+      logger.debug("need merging {} responses, base {}", responses.length, baseMetadata);
+      PbReadResponse.Builder responseBuilder = baseMetadata.toBuilder().clearResponseUnits();
+      int[] unitSources = new int[unitCount];
+      int[][] unitPlans = new int[unitCount][];
+      Scratch scratch = ReadMergeEngine.scratch.get();
+      for (int i = 0; i < unitCount; i++) {
+        responseBuilder.addResponseUnits(
+            mergeUnit(responses, base, i, pageSize, scratch, unitSources, unitPlans));
+      }
+      return new MergedReadResponse(responseBuilder.build(), responses, unitSources, unitPlans);
+    } catch (Throwable t) {
+      logger.error("caught an exception when merge read responses", t);
+      for (PyReadResponse response : responses) {
+        if (response != null) {
+          response.release();
+        }
+      }
+      return null;
+    }
+  }
+
+  /**
+   * decide where the data of the unit comes from.
+   *
+   * <p>If all responses read the unit ok or free, the unit is free if none read it ok, read from
+   * the only one that read it ok, or merged from all that read it ok. Otherwise the merge fails no
+   * matter whether some response read it ok.
+   */
+  private static PbReadResponseUnit mergeUnit(PyReadResponse[] responses, int base, int index,
+      int pageSize, Scratch scratch, int[] unitSources, int[][] unitPlans) {
+    unitSources[index] = NO_SOURCE;
+    int okCount = 0;
+    int target = NO_SOURCE;
+    for (int r = 0; r < responses.length; r++) {
+      PbIoUnitResult result = responses[r].getMetadata().getResponseUnits(index).getResult();
+      if (result == PbIoUnitResult.OK) {
+        okCount++;
+        // merge onto the base, or the one with the largest pcl id if the base read it free
+        if (target == NO_SOURCE || r == base || (target != base
+            && responses[r].getMetadata().getPclId() > responses[target].getMetadata()
+            .getPclId())) {
+          target = r;
+        }
+      } else if (result != PbIoUnitResult.FREE) {
+        logger.warn("unit {} of response {} is {}, can not merge", index, r, result);
+        return responses[base].getMetadata().getResponseUnits(index).toBuilder()
+            .setResult(PbIoUnitResult.MERGE_FAIL).build();
+      }
+    }
+
+    if (okCount == 0) {
+      return responses[base].getMetadata().getResponseUnits(index).toBuilder()
+          .setResult(PbIoUnitResult.FREE).build();
+    }
+    PbReadResponseUnit targetUnit = responses[target].getMetadata().getResponseUnits(index);
+    unitSources[index] = target;
+    if (okCount == 1) {
+      return targetUnit;
+    }
+
+    try {
+      unitPlans[index] = plan(responses, target, index, pageSize, scratch);
+      return targetUnit.toBuilder().setResult(PbIoUnitResult.MERGE_OK).build();
+    } catch (Exception e) {
+      logger.error("can not merge unit {}", index, e);
+      unitSources[index] = NO_SOURCE;
+      return targetUnit.toBuilder().setResult(PbIoUnitResult.MERGE_FAIL).build();
+    }
+  }
+
+  /**
+   * lay the logs of all responses that read the unit ok over the target data.
+   *
+   * @return the runs making up the unit data as (response, from, to) triples in unit offsets, or
+   *     null if all bytes come from the target
+   */
+  static int[] plan(PyReadResponse[] responses, int target, int index, int pageSize,
+      Scratch scratch) {
+    PbReadResponseUnit targetUnit = responses[target].getMetadata().getResponseUnits(index);
+    int unitLength = targetUnit.getLength();
+    int unitOffsetInPage = (int) (targetUnit.getOffset() % pageSize);
+
+    // the logs of the target go first, so that a log the target has is taken from the target
+    scratch.logCount = 0;
+    collectLogs(responses[target], target, index, pageSize, unitOffsetInPage, unitLength,
+        scratch);
+    for (int r = 0; r < responses.length; r++) {
+      if (r != target
+          && responses[r].getMetadata().getResponseUnits(index).getResult() == PbIoUnitResult.OK) {
+        collectLogs(responses[r], r, index, pageSize, unitOffsetInPage, unitLength, scratch);
+      }
+    }
+    scratch.sortLogsByIdDescending();
+
+    scratch.coveredCount = 0;
+    scratch.runCount = 0;
+    long previousLogId = 0;
+    for (int k = 0; k < scratch.logCount; k++) {
+      int log = scratch.logOrder[k];
+      long logId = scratch.logIds[log];
+      if (k > 0 && logId == previousLogId) {
+        continue;
+      }
+      previousLogId = logId;
+      scratch.cover(scratch.logStarts[log], scratch.logEnds[log], scratch.logOwners[log], target);
+      if (scratch.isCovered(unitLength)) {
+        break;
+      }
+    }
+
+    if (scratch.runCount == 0) {
+      return null;
+    }
+    return scratch.buildPlan(target, unitLength);
+  }
+
+  private static void collectLogs(PyReadResponse response, int owner, int index, int pageSize,
+      int unitOffsetInPage, int unitLength, Scratch scratch) {
+    List<PbBroadcastLog> logs = response.getMetadata().getResponseUnits(index)
+        .getLogsToMergeList();
+    for (int l = 0; l < logs.size(); l++) {
+      PbBroadcastLog log = logs.get(l);
+      int start = (int) (log.getOffset() % pageSize) - unitOffsetInPage;
+      int end = start + log.getLength();
+      start = Math.max(start, 0);
+      end = Math.min(end, unitLength);
+      if (start < end) {
+        scratch.addLog(log.getLogId(), start, end, owner);
+      }
+    }
+  }
+
+  /**
+   * the arrays a merge works in, reused by the merges of a thread.
+   */
+  static class Scratch {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private long[] logIds = new long[INITIAL_CAPACITY];
+    private int[] logStarts = new int[INITIAL_CAPACITY];
+    private int[] logEnds = new int[INITIAL_CAPACITY];
+    private int[] logOwners = new int[INITIAL_CAPACITY];
+    private int[] logOrder = new int[INITIAL_CAPACITY];
+    private int[] sortBuffer = new int[INITIAL_CAPACITY];
+    private int logCount;
+
+    // the disjoint, non adjacent intervals taken by the logs so far, sorted
+    private int[] coveredStarts = new int[INITIAL_CAPACITY];
+    private int[] coveredEnds = new int[INITIAL_CAPACITY];
+    private int coveredCount;
+
+    // the intervals taken from responses other than the target
+    private int[] runOwners = new int[INITIAL_CAPACITY];
+    private int[] runStarts = new int[INITIAL_CAPACITY];
+    private int[] runEnds = new int[INITIAL_CAPACITY];
+    private long[] runKeys = new long[INITIAL_CAPACITY];
+    private int runCount;
+
+    private int[] plan = new int[INITIAL_CAPACITY * 3];
+
+    private void addLog(long logId, int start, int end, int owner) {
+      if (logCount == logIds.length) {
+        int capacity = logCount * 2;
+        logIds = Arrays.copyOf(logIds, capacity);
+        logStarts = Arrays.copyOf(logStarts, capacity);
+        logEnds = Arrays.copyOf(logEnds, capacity);
+        logOwners = Arrays.copyOf(logOwners, capacity);
+        logOrder = new int[capacity];
+        sortBuffer = new int[capacity];
+      }
+      logIds[logCount] = logId;
+      logStarts[logCount] = start;
+      logEnds[logCount] = end;
+      logOwners[logCount] = owner;
+      logCount++;
+    }
+
+    /**
+     * a stable merge sort of the log indexes, so that a log the target has stays before the same
+     * log of the others.
+     */
+    private void sortLogsByIdDescending() {
+      for (int i = 0; i < logCount; i++) {
+        logOrder[i] = i;
+      }
+      int[] from = logOrder;
+      int[] to = sortBuffer;
+      for (int width = 1; width < logCount; width *= 2) {
+        for (int left = 0; left < logCount; left += 2 * width) {
+          int middle = Math.min(left + width, logCount);
+          int right = Math.min(left + 2 * width, logCount);
+          int i = left;
+          int j = middle;
+          int k = left;
+          while (i < middle && j < right) {
+            to[k++] = logIds[from[j]] > logIds[from[i]] ? from[j++] : from[i++];
+          }
+          while (i < middle) {
+            to[k++] = from[i++];
+          }
+          while (j < right) {
+            to[k++] = from[j++];
+          }
+        }
+        int[] swap = from;
+        from = to;
+        to = swap;
+      }
+      if (from != logOrder) {
+        System.arraycopy(from, 0, logOrder, 0, logCount);
+      }
+    }
+
+    private boolean isCovered(int unitLength) {
+      return coveredCount == 1 && coveredStarts[0] == 0 && coveredEnds[0] >= unitLength;
+    }
+
+    /**
+     * take the bytes of [start, end) not taken by any newer log, and record the ones not from the
+     * target as runs.
+     */
+    private void cover(int start, int end, int owner, int target) {
+      // the first interval ending after start
+      int first = 0;
+      int high = coveredCount;
+      while (first < high) {
+        int middle = (first + high) >>> 1;
+        if (coveredEnds[middle] <= start) {
+          first = middle + 1;
+        } else {
+          high = middle;
+        }
+      }
+
+      int cursor = start;
+      int last = first;
+      while (last < coveredCount && coveredStarts[last] < end) {
+        if (coveredStarts[last] > cursor && owner != target) {
+          addRun(owner, cursor, coveredStarts[last]);
+        }
+        cursor = Math.max(cursor, coveredEnds[last]);
+        last++;
+      }
+      if (cursor < end && owner != target) {
+        addRun(owner, cursor, end);
+      }
+
+      // merge [start, end) with the intervals it overlaps or touches
+      int mergeFrom = first;
+      if (mergeFrom > 0 && coveredEnds[mergeFrom - 1] == start) {
+        mergeFrom--;
+      }
+      int mergeTo = last;
+      if (mergeTo < coveredCount && coveredStarts[mergeTo] == end) {
+        mergeTo++;
+      }
+      int mergedStart = start;
+      int mergedEnd = end;
+      if (mergeFrom < mergeTo) {
+        mergedStart = Math.min(start, coveredStarts[mergeFrom]);
+        mergedEnd = Math.max(end, coveredEnds[mergeTo - 1]);
+      }
+      int removed = mergeTo - mergeFrom;
+      if (removed == 0) {
+        ensureCoveredCapacity(coveredCount + 1);
+      }
+      int tail = coveredCount - mergeTo;
+      System.arraycopy(coveredStarts, mergeTo, coveredStarts, mergeFrom + 1, tail);
+      System.arraycopy(coveredEnds, mergeTo, coveredEnds, mergeFrom + 1, tail);
+      coveredStarts[mergeFrom] = mergedStart;
+      coveredEnds[mergeFrom] = mergedEnd;
+      coveredCount += 1 - removed;
+    }
+
+    private void ensureCoveredCapacity(int capacity) {
+      if (capacity > coveredStarts.length) {
+        coveredStarts = Arrays.copyOf(coveredStarts, coveredStarts.length * 2);
+        coveredEnds = Arrays.copyOf(coveredEnds, coveredEnds.length * 2);
+      }
+    }
+
+    private void addRun(int owner, int start, int end) {
+      if (runCount == runOwners.length) {
+        int capacity = runCount * 2;
+        runOwners = Arrays.copyOf(runOwners, capacity);
+        runStarts = Arrays.copyOf(runStarts, capacity);
+        runEnds = Arrays.copyOf(runEnds, capacity);
+        runKeys = new long[capacity];
+      }
+      runOwners[runCount] = owner;
+      runStarts[runCount] = start;
+      runEnds[runCount] = end;
+      runCount++;
+    }
+
+    /**
+     * fill the gaps between the runs with the target, and join the neighbours from the same
+     * response.
+     */
+    private int[] buildPlan(int target, int unitLength) {
+      // the runs are disjoint, sort them by start
+      for (int i = 0; i < runCount; i++) {
+        runKeys[i] = ((long) runStarts[i] << 32) | i;
+      }
+      Arrays.sort(runKeys, 0, runCount);
+
+      int length = 0;
+      int cursor = 0;
+      for (int k = 0; k < runCount; k++) {
+        int run = (int) runKeys[k];
+        if (runStarts[run] > cursor) {
+          length = appendToPlan(length, target, cursor, runStarts[run]);
+        }
+        length = appendToPlan(length, runOwners[run], runStarts[run], runEnds[run]);
+        cursor = runEnds[run];
+      }
+      if (cursor < unitLength) {
+        length = appendToPlan(length, target, cursor, unitLength);
+      }
+      return Arrays.copyOf(plan, length);
+    }
+
+    private int appendToPlan(int length, int owner, int start, int end) {
+      if (length > 0 && plan[length - 3] == owner && plan[length - 1] == start) {
+        plan[length - 1] = end;
+        return length;
+      }
+      if (length + 3 > plan.length) {
+        plan = Arrays.copyOf(plan, plan.length * 2);
+      }
+      plan[length] = owner;
+      plan[length + 1] = start;
+      plan[length + 2] = end;
+      return length + 3;
+    }
+  }
+
+  /**
+   * the merged response, whose unit data is read from the response the unit comes from, or
+   * composed of the slices of the responses in the plan of the unit.
+   */
+  static class MergedReadResponse extends PyReadResponse {
+    private final PyReadResponse[] responses;
+    private final int[] unitSources;
+    private final int[][] unitPlans;
+    private final ByteBuf[] composedData;
+
+    MergedReadResponse(PbReadResponse metadata, PyReadResponse[] responses, int[] unitSources,
+        int[][] unitPlans) {
+      super(metadata, null, false);
+      this.responses = responses;
+      this.unitSources = unitSources;
+      this.unitPlans = unitPlans;
+      this.composedData = new ByteBuf[unitSources.length];
+    }
+
+    int[] getPlan(int index) {
+      return unitPlans[index];
+    }
+
+    int getSource(int index) {
+      return unitSources[index];
+    }
+
+    @Override
+    public ByteBuf getResponseUnitData(int index) {
+      if (unitSources[index] == NO_SOURCE) {
+        logger.error("can not read unit {} which is {}", index,
+            getMetadata().getResponseUnits(index).getResult());
+        return null;
+      }
+      if (unitPlans[index] == null) {
+        return responses[unitSources[index]].getResponseUnitData(index);
+      }
+      return composedData(index).duplicate().retain();
+    }
+
+    @Override
+    public ByteBuf getResponseUnitDataWithoutRetain(int index) {
+      if (unitSources[index] == NO_SOURCE) {
+        logger.error("can not read unit {} which is {}", index,
+            getMetadata().getResponseUnits(index).getResult());
+        return null;
+      }
+      if (unitPlans[index] == null) {
+        return responses[unitSources[index]].getResponseUnitDataWithoutRetain(index);
+      }
+      return composedData(index);
+    }
+
+    private ByteBuf composedData(int index) {
+      ByteBuf data = composedData[index];
+      if (data == null) {
+        int[] plan = unitPlans[index];
+        ByteBuf[] slices = new ByteBuf[plan.length / 3];
+        for (int i = 0; i < plan.length; i += 3) {
+          slices[i / 3] = responses[plan[i]].getResponseUnitDataWithoutRetain(index)
+              .slice(plan[i + 1], plan[i + 2] - plan[i + 1]).retain();
+        }
+        data = Unpooled.wrappedBuffer(slices);
+        composedData[index] = data;
+      }
+      return data;
+    }
+
+    @Override
+    public void release() {
+      for (int i = 0; i < composedData.length; i++) {
+        if (composedData[i] != null) {
+          composedData[i].release();
+          composedData[i] = null;
+        }
+      }
+      for (PyReadResponse response : responses) {
+        response.release();
+      }
+    }
+  }
+}
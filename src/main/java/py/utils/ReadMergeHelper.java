@@ -36,6 +36,12 @@ import py.proto.Broadcastlog.PbIoUnitResult;
 import py.proto.Broadcastlog.PbReadResponse;
 import py.proto.Broadcastlog.PbReadResponseUnit;
 
+/**
+ * merge the read responses of two secondaries.
+ *
+ * @deprecated use {@link ReadMergeEngine}, which merges any number of responses without copying
+ *     data.
+ */
 @Deprecated
 public class ReadMergeHelper {
   private static final Logger logger = LoggerFactory.getLogger(ReadMergeHelper.class);
@@ -0,0 +1,291 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package py.volume;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import py.archive.segment.SegmentMetadata;
+import py.archive.segment.SegmentMetadata.SegmentStatus;
+import py.archive.segment.SegmentUnitMetadata;
+import py.archive.segment.SegmentUnitStatus;
+import py.instance.InstanceId;
+import py.membership.SegmentMembership;
+
+/**
+ * Running counters of the segment statuses in a volume, so that volume status transitions do not
+ * have to walk every segment.
+ *
+ * <p>A segment is evaluated again only when it is marked changed (a segment unit of it is put or
+ * updated, or the segment is added to the volume), or when the earliest report of its units times
+ * out. Anything changing the segment table or segment units behind the volume's back has to call
+ * {@link #markAllChanged()}.
+ *
+ * <p>Segments only notify the volume they are added to, so the counters of a copy of that volume
+ * are not told about changes. Such counters are built untracked, and recount all segments on each
+ * refresh.
+ */
+class SegmentStatusCounters {
+  private static final Logger logger = LoggerFactory.getLogger(SegmentStatusCounters.class);
+
+  // the highest membership still has joining or inactive secondaries
+  static final int FLAG_JOINING_OR_INACTIVE = 1;
+  // some segment unit does not have a full membership
+  static final int FLAG_UNITS_NOT_FULL = 1 << 1;
+  // any other reason making the segment not stable, e.g. a member is missing or not in the role
+  // the membership gives it
+  static final int FLAG_NOT_SETTLED = 1 << 2;
+  private static final int FLAG_COUNT = 3;
+
+  /**
+   * recount all segments after every refresh and compare with the running counters, only for
+   * tests.
+   */
+  private static volatile boolean consistencyCheckEnabled = false;
+
+  private final VolumeMetadata volume;
+  private final boolean tracked;
+  private final Set<Integer> changedSegments = ConcurrentHashMap.newKeySet();
+  private final Map<Integer, SegmentTally> tallies = new HashMap<>();
+  private final PriorityQueue<Deadline> deadlines = new PriorityQueue<>();
+  private final int[] statusCounts = new int[SegmentStatus.values().length];
+  private final int[] flagCounts = new int[FLAG_COUNT];
+  private int unavailableCount;
+  private Map<Integer, SegmentMetadata> countedTable;
+  private volatile boolean allChanged = true;
+
+  SegmentStatusCounters(VolumeMetadata volume) {
+    this(volume, true);
+  }
+
+  SegmentStatusCounters(VolumeMetadata volume, boolean tracked) {
+    this.volume = volume;
+    this.tracked = tracked;
+  }
+
+  static void setConsistencyCheckEnabled(boolean enabled) {
+    consistencyCheckEnabled = enabled;
+  }
+
+  void markChanged(int segIndex) {
+    changedSegments.add(segIndex);
+  }
+
+  void markAllChanged() {
+    allChanged = true;
+  }
+
+  /**
+   * bring the counters up to date with the segments of the volume.
+   */
+  synchronized void refresh() {
+    Map<Integer, SegmentMetadata> segmentTable = volume.getSegmentTable();
+    long now = System.currentTimeMillis();
+    if (!tracked || allChanged || countedTable != segmentTable
+        || tallies.size() != segmentTable.size()) {
+      allChanged = false;
+      changedSegments.clear();
+      recountAll(segmentTable, now);
+    } else {
+      for (Integer segIndex : changedSegments) {
+        changedSegments.remove(segIndex);
+        evaluate(segIndex, segmentTable.get(segIndex), now);
+      }
+      while (!deadlines.isEmpty() && deadlines.peek().time <= now) {
+        Deadline deadline = deadlines.poll();
+        SegmentTally tally = tallies.get(deadline.segIndex);
+        // a segment re-evaluated after the deadline was queued has queued a newer one
+        if (tally != null && tally.deadline == deadline.time) {
+          evaluate(deadline.segIndex, segmentTable.get(deadline.segIndex), now);
+        }
+      }
+      // a segment might be removed from the table directly
+      if (tallies.size() != segmentTable.size()) {
+        recountAll(segmentTable, now);
+      }
+    }
+
+    if (consistencyCheckEnabled) {
+      checkConsistency(segmentTable, now);
+    }
+  }
+
+  synchronized int getUnavailableCount() {
+    return unavailableCount;
+  }
+
+  synchronized int getStatusCount(SegmentStatus status) {
+    return statusCounts[status.ordinal()];
+  }
+
+  synchronized int getFlagCount(int flag) {
+    return flagCounts[Integer.numberOfTrailingZeros(flag)];
+  }
+
+  synchronized boolean isAllStable() {
+    for (int flagCount : flagCounts) {
+      if (flagCount != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void recountAll(Map<Integer, SegmentMetadata> segmentTable, long now) {
+    tallies.clear();
+    deadlines.clear();
+    Arrays.fill(statusCounts, 0);
+    Arrays.fill(flagCounts, 0);
+    unavailableCount = 0;
+    countedTable = segmentTable;
+    for (Map.Entry<Integer, SegmentMetadata> entry : segmentTable.entrySet()) {
+      evaluate(entry.getKey(), entry.getValue(), now);
+    }
+  }
+
+  private void evaluate(int segIndex, SegmentMetadata segmentMetadata, long now) {
+    SegmentTally tally = tallies.get(segIndex);
+    if (tally != null) {
+      count(tally, -1);
+    }
+    if (segmentMetadata == null) {
+      tallies.remove(segIndex);
+      return;
+    }
+    if (tally == null) {
+      tally = new SegmentTally();
+      tallies.put(segIndex, tally);
+    }
+
+    tally.status = segmentMetadata.getSegmentStatus(now);
+    tally.flags = stabilityFlags(segmentMetadata, tally.status, volume.getVolumeType());
+    tally.deadline = segmentMetadata.getEarliestUnitTimeout();
+    count(tally, 1);
+    if (tally.deadline != Long.MAX_VALUE) {
+      deadlines.add(new Deadline(tally.deadline, segIndex));
+    }
+    logger.debug("volume {} segment {} is {} with stability flags {}", volume.getVolumeId(),
+        segIndex, tally.status, tally.flags);
+  }
+
+  private void count(SegmentTally tally, int delta) {
+    statusCounts[tally.status.ordinal()] += delta;
+    if (!tally.status.available()) {
+      unavailableCount += delta;
+    }
+    for (int i = 0; i < FLAG_COUNT; i++) {
+      if ((tally.flags & (1 << i)) != 0) {
+        flagCounts[i] += delta;
+      }
+    }
+  }
+
+  private void checkConsistency(Map<Integer, SegmentMetadata> segmentTable, long now) {
+    for (SegmentMetadata segmentMetadata : segmentTable.values()) {
+      segmentMetadata.invalidateSegmentStatus();
+    }
+    SegmentStatusCounters expected = new SegmentStatusCounters(volume);
+    expected.recountAll(segmentTable, now);
+    if (expected.unavailableCount != unavailableCount
+        || !Arrays.equals(expected.statusCounts, statusCounts)
+        || !Arrays.equals(expected.flagCounts, flagCounts)) {
+      String errMsg = "segment status counters of volume " + volume.getVolumeId()
+          + " are inconsistent, counted " + Arrays.toString(statusCounts)
+          + Arrays.toString(flagCounts) + ", expected " + Arrays.toString(expected.statusCounts)
+          + Arrays.toString(expected.flagCounts);
+      logger.error(errMsg);
+      throw new IllegalStateException(errMsg);
+    }
+  }
+
+  /**
+   * the reasons why the segment keeps the volume from being stable, as flags.
+   */
+  static int stabilityFlags(SegmentMetadata segmentMetadata, SegmentStatus segmentStatus,
+      VolumeType volumeType) {
+    SegmentMembership highestMembership = getHighestMembership(segmentMetadata);
+    if (highestMembership == null || highestMembership.size() < 3) {
+      return FLAG_NOT_SETTLED;
+    }
+
+    int flags = 0;
+    if (!highestMembership.getJoiningSecondaries().isEmpty()
+        || !highestMembership.getInactiveSecondaries().isEmpty()) {
+      flags |= FLAG_JOINING_OR_INACTIVE;
+    }
+
+    SegmentUnitMetadata segmentUnitMetadata = segmentMetadata
+        .getSegmentUnitMetadata(highestMembership.getPrimary());
+    if (segmentUnitMetadata == null
+        || segmentUnitMetadata.getStatus() != SegmentUnitStatus.Primary
+        || !segmentStatus.isStable()) {
+      flags |= FLAG_NOT_SETTLED;
+    } else {
+      for (InstanceId instanceId : highestMembership.getAllSecondaries()) {
+        segmentUnitMetadata = segmentMetadata.getSegmentUnitMetadata(instanceId);
+        if (segmentUnitMetadata == null
+            || (segmentUnitMetadata.getStatus() != SegmentUnitStatus.Secondary
+            && segmentUnitMetadata.getStatus() != SegmentUnitStatus.Arbiter)) {
+          flags |= FLAG_NOT_SETTLED;
+          break;
+        }
+      }
+    }
+
+    for (SegmentUnitMetadata segUnit : segmentMetadata.getSegmentUnitMetadataTable().values()) {
+      if (segUnit.getMembership().size() != volumeType.getNumMembers()) {
+        flags |= FLAG_UNITS_NOT_FULL;
+        break;
+      }
+    }
+    return flags;
+  }
+
+  private static SegmentMembership getHighestMembership(SegmentMetadata segmentMetadata) {
+    SegmentMembership highestMembership = null;
+    for (SegmentUnitMetadata segUnit : segmentMetadata.getSegmentUnitMetadataTable().values()) {
+      if (segUnit.getMembership().compareTo(highestMembership) > 0) {
+        highestMembership = segUnit.getMembership();
+      }
+    }
+    return highestMembership;
+  }
+
+  private static class SegmentTally {
+    private SegmentStatus status;
+    private int flags;
+    private long deadline;
+  }
+
+  private static class Deadline implements Comparable<Deadline> {
+    private final long time;
+    private final int segIndex;
+
+    Deadline(long time, int segIndex) {
+      this.time = time;
+      this.segIndex = segIndex;
+    }
+
+    @Override
+    public int compareTo(Deadline other) {
+      return Long.compare(time, other.time);
+    }
+  }
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package py.volume;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiConsumer;
+import java.util.function.ObjIntConsumer;
+import org.apache.commons.lang3.Validate;
+import py.archive.segment.SegmentMetadata;
+
+/**
+ * The segments of a volume, kept in arrays indexed by the segment index instead of a hash map
+ * keyed by boxed integers.
+ *
+ * <p>The slots are allocated in chunks of {@link #CHUNK_SIZE} segments, only when a segment of the
+ * chunk is put, so a sparse table, e.g. the extend segment table which starts at the end of the
+ * volume, costs a null per empty chunk. The directory of chunks grows when the volume is extended.
+ *
+ * <p>Lookups and iteration do not lock, and iteration is always in the order of segment index.
+ * Like a {@link java.util.concurrent.ConcurrentHashMap}, the iterators are weakly consistent and
+ * never throw {@link java.util.ConcurrentModificationException}, and null values are not allowed.
+ * Updates are serialized on the table.
+ */
+public final class SegmentTable extends AbstractMap<Integer, SegmentMetadata> {
+  static final int CHUNK_SHIFT = 10;
+  static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+  private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+  private volatile AtomicReferenceArray<SegmentMetadata>[] chunks = newDirectory(0);
+  private volatile int size;
+  private Set<Entry<Integer, SegmentMetadata>> entrySet;
+  private Collection<SegmentMetadata> values;
+
+  public SegmentTable() {
+  }
+
+  public SegmentTable(Map<Integer, SegmentMetadata> segments) {
+    putAll(segments);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static AtomicReferenceArray<SegmentMetadata>[] newDirectory(int length) {
+    return new AtomicReferenceArray[length];
+  }
+
+  public SegmentMetadata get(int segIndex) {
+    AtomicReferenceArray<SegmentMetadata>[] chunks = this.chunks;
+    int chunkIndex = segIndex >>> CHUNK_SHIFT;
+    if (segIndex < 0 || chunkIndex >= chunks.length) {
+      return null;
+    }
+    AtomicReferenceArray<SegmentMetadata> chunk = chunks[chunkIndex];
+    return chunk == null ? null : chunk.get(segIndex & CHUNK_MASK);
+  }
+
+  public boolean containsIndex(int segIndex) {
+    return get(segIndex) != null;
+  }
+
+  public synchronized SegmentMetadata put(int segIndex, SegmentMetadata segment) {
+    Validate.notNull(segment);
+    Validate.isTrue(segIndex >= 0, "negative segment index %s", segIndex);
+    int chunkIndex = segIndex >>> CHUNK_SHIFT;
+    AtomicReferenceArray<SegmentMetadata>[] chunks = this.chunks;
+    if (chunkIndex >= chunks.length) {
+      // grow by half again at least, extending a volume adds segments one by one
+      chunks = Arrays.copyOf(chunks, Math.max(chunkIndex + 1, chunks.length * 3 / 2));
+    }
+    AtomicReferenceArray<SegmentMetadata> chunk = chunks[chunkIndex];
+    if (chunk == null) {
+      chunk = new AtomicReferenceArray<>(CHUNK_SIZE);
+      chunks[chunkIndex] = chunk;
+    }
+    // publish the new directory only after the chunk is in it
+    this.chunks = chunks;
+    SegmentMetadata old = chunk.getAndSet(segIndex & CHUNK_MASK, segment);
+    if (old == null) {
+      size++;
+    }
+    return old;
+  }
+
+  public synchronized SegmentMetadata remove(int segIndex) {
+    AtomicReferenceArray<SegmentMetadata>[] chunks = this.chunks;
+    int chunkIndex = segIndex >>> CHUNK_SHIFT;
+    if (segIndex < 0 || chunkIndex >= chunks.length || chunks[chunkIndex] == null) {
+      return null;
+    }
+    SegmentMetadata old = chunks[chunkIndex].getAndSet(segIndex & CHUNK_MASK, null);
+    if (old != null) {
+      size--;
+    }
+    return old;
+  }
+
+  /**
+   * walk the segments in the order of segment index, without boxing the indexes.
+   */
+  public void forEachSegment(ObjIntConsumer<SegmentMetadata> consumer) {
+    AtomicReferenceArray<SegmentMetadata>[] chunks = this.chunks;
+    for (int chunkIndex = 0; chunkIndex < chunks.length; chunkIndex++) {
+      AtomicReferenceArray<SegmentMetadata> chunk = chunks[chunkIndex];
+      if (chunk == null) {
+        continue;
+      }
+      for (int i = 0; i < CHUNK_SIZE; i++) {
+        SegmentMetadata segment = chunk.get(i);
+        if (segment != null) {
+          consumer.accept(segment, (chunkIndex << CHUNK_SHIFT) | i);
+        }
+      }
+    }
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  @Override
+  public SegmentMetadata get(Object key) {
+    return key instanceof Integer ? get(((Integer) key).intValue()) : null;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return get(key) != null;
+  }
+
+  @Override
+  public SegmentMetadata put(Integer key, SegmentMetadata value) {
+    return put(key.intValue(), value);
+  }
+
+  @Override
+  public synchronized SegmentMetadata putIfAbsent(Integer key, SegmentMetadata value) {
+    SegmentMetadata old = get(key.intValue());
+    return old != null ? old : put(key.intValue(), value);
+  }
+
+  @Override
+  public SegmentMetadata remove(Object key) {
+    return key instanceof Integer ? remove(((Integer) key).intValue()) : null;
+  }
+
+  @Override
+  public synchronized void clear() {
+    chunks = newDirectory(0);
+    size = 0;
+  }
+
+  @Override
+  public void forEach(BiConsumer<? super Integer, ? super SegmentMetadata> action) {
+    forEachSegment((segment, segIndex) -> action.accept(segIndex, segment));
+  }
+
+  @Override
+  public Set<Entry<Integer, SegmentMetadata>> entrySet() {
+    if (entrySet == null) {
+      entrySet = new AbstractSet<Entry<Integer, SegmentMetadata>>() {
+        @Override
+        public Iterator<Entry<Integer, SegmentMetadata>> iterator() {
+          return new SegmentIterator<Entry<Integer, SegmentMetadata>>() {
+            @Override
+            Entry<Integer, SegmentMetadata> current(int segIndex, SegmentMetadata segment) {
+              return new SegmentEntry(segIndex, segment);
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return size;
+        }
+
+        @Override
+        public void clear() {
+          SegmentTable.this.clear();
+        }
+      };
+    }
+    return entrySet;
+  }
+
+  @Override
+  public Collection<SegmentMetadata> values() {
+    if (values == null) {
+      values = new AbstractCollection<SegmentMetadata>() {
+        @Override
+        public Iterator<SegmentMetadata> iterator() {
+          return new SegmentIterator<SegmentMetadata>() {
+            @Override
+            SegmentMetadata current(int segIndex, SegmentMetadata segment) {
+              return segment;
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return size;
+        }
+
+        @Override
+        public void clear() {
+          SegmentTable.this.clear();
+        }
+      };
+    }
+    return values;
+  }
+
+  private abstract class SegmentIterator<T> implements Iterator<T> {
+    private final AtomicReferenceArray<SegmentMetadata>[] chunks = SegmentTable.this.chunks;
+    private int nextIndex = -1;
+    private SegmentMetadata nextSegment;
+    private int lastIndex = -1;
+
+    SegmentIterator() {
+      advance(0);
+    }
+
+    abstract T current(int segIndex, SegmentMetadata segment);
+
+    private void advance(int fromIndex) {
+      int segIndex = fromIndex;
+      while ((segIndex >>> CHUNK_SHIFT) < chunks.length) {
+        AtomicReferenceArray<SegmentMetadata> chunk = chunks[segIndex >>> CHUNK_SHIFT];
+        if (chunk == null) {
+          segIndex = ((segIndex >>> CHUNK_SHIFT) + 1) << CHUNK_SHIFT;
+          continue;
+        }
+        SegmentMetadata segment = chunk.get(segIndex & CHUNK_MASK);
+        if (segment != null) {
+          nextIndex = segIndex;
+          nextSegment = segment;
+          return;
+        }
+        segIndex++;
+      }
+      nextIndex = -1;
+      nextSegment = null;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return nextSegment != null;
+    }
+
+    @Override
+    public T next() {
+      if (nextSegment == null) {
+        throw new NoSuchElementException();
+      }
+      T current = current(nextIndex, nextSegment);
+      lastIndex = nextIndex;
+      advance(nextIndex + 1);
+      return current;
+    }
+
+    @Override
+    public void remove() {
+      if (lastIndex < 0) {
+        throw new IllegalStateException();
+      }
+      SegmentTable.this.remove(lastIndex);
+      lastIndex = -1;
+    }
+  }
+
+  private final class SegmentEntry extends SimpleEntry<Integer, SegmentMetadata> {
+    private SegmentEntry(int segIndex, SegmentMetadata segment) {
+      super(segIndex, segment);
+    }
+
+    @Override
+    public SegmentMetadata setValue(SegmentMetadata value) {
+      put(getKey(), value);
+      return super.setValue(value);
+    }
+  }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package py.volume;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import py.archive.segment.SegmentMetadata;
+import py.membership.SegmentMembership;
+
+/**
+ * An immutable version of the segment table and the segment membership history of a volume.
+ *
+ * <p>Every change to the volume publishes a new version, sharing all untouched parts with the
+ * previous one: the slots are kept in chunks of {@link #CHUNK_SIZE} segments, and a change copies
+ * only the directory of chunks and the chunk it lands in. So readers get a consistent view of all
+ * segments with a single volatile read, and never need a lock.
+ *
+ * <p>Note the segment metadata themselves are shared with the volume and still change in place,
+ * it is which segments the volume has and their memberships that are consistent in a version.
+ */
+public final class SegmentTableVersion {
+  static final int CHUNK_SHIFT = 8;
+  static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+  private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+  private static final SegmentMembership[] NO_MEMBERSHIP = new SegmentMembership[0];
+
+  static final SegmentTableVersion EMPTY = new SegmentTableVersion(0, new Slot[0][], 0);
+
+  private final long version;
+  private final Slot[][] chunks;
+  private final int segmentCount;
+
+  private SegmentTableVersion(long version, Slot[][] chunks, int segmentCount) {
+    this.version = version;
+    this.chunks = chunks;
+    this.segmentCount = segmentCount;
+  }
+
+  /**
+   * how many changes have been published before this version.
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * the number of segments in the segment table, segments being extended are not counted.
+   */
+  public int getSegmentCount() {
+    return segmentCount;
+  }
+
+  public SegmentMetadata getSegment(int segIndex) {
+    Slot slot = slot(segIndex);
+    return slot == null ? null : slot.segment;
+  }
+
+  /**
+   * the latest membership of the segment, might be null if no segment unit exist in this segment.
+   */
+  public SegmentMembership getMembership(int segIndex) {
+    Slot slot = slot(segIndex);
+    if (slot == null || slot.history.length == 0) {
+      return null;
+    }
+    return slot.history[slot.history.length - 1];
+  }
+
+  /**
+   * the memberships kept for the segment, the oldest first.
+   */
+  public List<SegmentMembership> getMembershipHistory(int segIndex) {
+    Slot slot = slot(segIndex);
+    if (slot == null) {
+      return Collections.emptyList();
+    }
+    return Collections.unmodifiableList(Arrays.asList(slot.history));
+  }
+
+  /**
+   * the segments of the table, in the order of segment index.
+   */
+  public List<SegmentMetadata> getSegments() {
+    List<SegmentMetadata> segments = new ArrayList<>(segmentCount);
+    for (Slot[] chunk : chunks) {
+      if (chunk == null) {
+        continue;
+      }
+      for (Slot slot : chunk) {
+        if (slot != null && slot.segment != null) {
+          segments.add(slot.segment);
+        }
+      }
+    }
+    return segments;
+  }
+
+  private Slot slot(int segIndex) {
+    int chunkIndex = segIndex >>> CHUNK_SHIFT;
+    if (segIndex < 0 || chunkIndex >= chunks.length) {
+      return null;
+    }
+    Slot[] chunk = chunks[chunkIndex];
+    return chunk == null ? null : chunk[segIndex & CHUNK_MASK];
+  }
+
+  /**
+   * the version after a segment is put to the segment table, or to the extend segment table if
+   * segment is null, along with its highest membership.
+   */
+  SegmentTableVersion withSegment(int segIndex, SegmentMetadata segment,
+      SegmentMembership membership, int historyLimit) {
+    Slot old = slot(segIndex);
+    SegmentMetadata newSegment = segment == null && old != null ? old.segment : segment;
+    SegmentMembership[] history = offer(old == null ? NO_MEMBERSHIP : old.history, membership,
+        historyLimit);
+    return with(segIndex, old, new Slot(newSegment, history));
+  }
+
+  /**
+   * the version after a membership of an existing segment is updated, null if the segment has no
+   * membership history.
+   */
+  SegmentTableVersion withMembership(int segIndex, SegmentMembership membership,
+      int historyLimit) {
+    Slot old = slot(segIndex);
+    if (old == null) {
+      return null;
+    }
+    return with(segIndex, old,
+        new Slot(old.segment, offer(old.history, membership, historyLimit)));
+  }
+
+  /**
+   * the version after the membership history of a segment not in the segment table is dropped.
+   */
+  SegmentTableVersion withoutMembership(int segIndex) {
+    Slot old = slot(segIndex);
+    if (old == null) {
+      return this;
+    }
+    return with(segIndex, old, old.segment == null ? null : new Slot(old.segment, NO_MEMBERSHIP));
+  }
+
+  /**
+   * the version with the segments of the given table, keeping the membership histories. Chunks
+   * with no segment changed are still shared.
+   */
+  SegmentTableVersion withSegmentTable(Map<Integer, SegmentMetadata> segmentTable) {
+    int maxIndex = -1;
+    for (Integer segIndex : segmentTable.keySet()) {
+      maxIndex = Math.max(maxIndex, segIndex);
+    }
+    int chunkCount = maxIndex < 0 ? chunks.length
+        : Math.max(chunks.length, (maxIndex >>> CHUNK_SHIFT) + 1);
+    Slot[][] newChunks = new Slot[chunkCount][];
+    int newCount = 0;
+    boolean changed = false;
+    for (int chunkIndex = 0; chunkIndex < chunkCount; chunkIndex++) {
+      Slot[] chunk = chunkIndex < chunks.length ? chunks[chunkIndex] : null;
+      Slot[] newChunk = null;
+      boolean chunkChanged = false;
+      for (int i = 0; i < CHUNK_SIZE; i++) {
+        int segIndex = (chunkIndex << CHUNK_SHIFT) | i;
+        Slot old = chunk == null ? null : chunk[i];
+        SegmentMetadata segment = segmentTable.get(segIndex);
+        Slot slot = old;
+        if (old == null ? segment != null : old.segment != segment) {
+          chunkChanged = true;
+          SegmentMembership[] history = old == null ? NO_MEMBERSHIP : old.history;
+          slot = segment == null && history.length == 0 ? null : new Slot(segment, history);
+        }
+        if (slot != null) {
+          if (newChunk == null) {
+            newChunk = new Slot[CHUNK_SIZE];
+          }
+          newChunk[i] = slot;
+          if (slot.segment != null) {
+            newCount++;
+          }
+        }
+      }
+      newChunks[chunkIndex] = chunkChanged ? newChunk : chunk;
+      changed |= chunkChanged;
+    }
+    if (!changed) {
+      return this;
+    }
+    return new SegmentTableVersion(version + 1, newChunks, newCount);
+  }
+
+  private SegmentTableVersion with(int segIndex, Slot old, Slot slot) {
+    int chunkIndex = segIndex >>> CHUNK_SHIFT;
+    Slot[][] newChunks = Arrays.copyOf(chunks, Math.max(chunks.length, chunkIndex + 1));
+    Slot[] chunk = newChunks[chunkIndex];
+    newChunks[chunkIndex] = chunk == null ? new Slot[CHUNK_SIZE] : chunk.clone();
+    newChunks[chunkIndex][segIndex & CHUNK_MASK] = slot;
+
+    int newCount = segmentCount;
+    if (old != null && old.segment != null) {
+      newCount--;
+    }
+    if (slot != null && slot.segment != null) {
+      newCount++;
+    }
+    return new SegmentTableVersion(version + 1, newChunks, newCount);
+  }
+
+  private static SegmentMembership[] offer(SegmentMembership[] history,
+      SegmentMembership membership, int historyLimit) {
+    int keep = Math.min(history.length, historyLimit - 1);
+    SegmentMembership[] newHistory = new SegmentMembership[keep + 1];
+    System.arraycopy(history, history.length - keep, newHistory, 0, keep);
+    newHistory[keep] = membership;
+    return newHistory;
+  }
+
+  private static final class Slot {
+    private final SegmentMetadata segment;
+    private final SegmentMembership[] history;
+
+    private Slot(SegmentMetadata segment, SegmentMembership[] history) {
+      this.segment = segment;
+      this.history = history;
+    }
+  }
+}
@@ -39,6 +39,7 @@ import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import py.archive.segment.SegId;
@@ -124,10 +125,20 @@ public class VolumeMetadata implements Comparable<VolumeMetadata> {
   // Map from the logic index of a segment to its segment membership
   @JsonIgnore
   private Map<Integer, LimitQueue<SegmentMembership>> memberships;
+  // the segments keyed by their indexes, in arrays rather than hash maps of boxed indexes
   @JsonIgnore
-  private Map<Integer, SegmentMetadata> segmentTable;
+  private SegmentTable segmentTable;
   @JsonIgnore
-  private Map<Integer, SegmentMetadata> extendSegmentTable;
+  private SegmentTable extendSegmentTable;
+  // running counters of the segment statuses, saving the status evaluation from walking segments.
+  // A copy of the volume gets untracked counters, as segments only notify the volume they are in
+  @JsonIgnore
+  private SegmentStatusCounters segmentStatusCounters = new SegmentStatusCounters(this);
+  // the latest immutable version of the segment table and memberships, for lock-free readers.
+  // A copy starts from the version of its source and publishes its own versions from then on
+  @JsonIgnore
+  private AtomicReference<SegmentTableVersion> segmentTableVersion = new AtomicReference<>(
+      SegmentTableVersion.EMPTY);
   /**
    * The range set records which segment has been asked to be created. If a volume is
    * simple-configured, we need to consult the volume layout when judging it available or not
@@ -217,8 +228,8 @@ public class VolumeMetadata implements Comparable<VolumeMetadata> {
     this.volumeStatus = VolumeStatus.ToBeCreated;
     this.volumeExtendStatus = VolumeExtendStatus.ToBeCreated;
 
-    segmentTable = new ConcurrentHashMap<>();
-    extendSegmentTable = new ConcurrentHashMap<>();
+    segmentTable = new SegmentTable();
+    extendSegmentTable = new SegmentTable();
     memberships = new ConcurrentHashMap<>();
     volumeLayoutRange = TreeRangeSet.create();
 
@@ -350,8 +361,11 @@ public class VolumeMetadata implements Comparable<VolumeMetadata> {
     this.persistedToDatabase = src.isPersistedToDatabase();
     this.segmentSize = src.getSegmentSize();
     this.memberships = src.getMemberships();
-    this.segmentTable = src.getSegmentTable();
-    this.extendSegmentTable = src.getExtendSegmentTable();
+    this.segmentTable = src.segmentTable;
+    // the segments keep notifying src only
+    this.segmentStatusCounters = new SegmentStatusCounters(this, false);
+    this.segmentTableVersion = new AtomicReference<>(src.segmentTableVersion.get());
+    this.extendSegmentTable = src.extendSegmentTable;
     this.volumeLayoutRange = src.getVolumeLayoutRange();
     this.volumeLayoutString = src.getVolumeLayout();
     this.needToPersistVolumeLayout = src.isNeedToPersistVolumeLayout();
@@ -404,7 +418,7 @@ public class VolumeMetadata implements Comparable<VolumeMetadata> {
     this.lastFixVolumeTime = src.getLastFixVolumeTime();
     this.persistedToDatabase = src.isPersistedToDatabase();
     this.segmentSize = src.getSegmentSize();
-    this.extendSegmentTable = src.getExtendSegmentTable();
+    this.extendSegmentTable = src.extendSegmentTable;
     this.volumeLayoutRange = src.getVolumeLayoutRange();
     this.volumeLayoutString = src.getVolumeLayout();
     this.needToPersistVolumeLayout = src.isNeedToPersistVolumeLayout();
@@ -569,6 +583,50 @@ public class VolumeMetadata implements Comparable<VolumeMetadata> {
       throw new RuntimeException(errMsg);
     }
     segmentMemberships.offer(membership);
+    segmentTableVersion.updateAndGet(version -> {
+      SegmentTableVersion newVersion = version.withMembership(segIndex, membership,
+          DEFAULT_STORE_HISTORY_OF_SEGMENT_MEMBERSHIP);
+      return newVersion == null ? version : newVersion;
+    });
+    segmentStatusCounters.markChanged(segIndex);
+  }
+
+  /**
+   * Notify the volume that the segment or its segment units have changed, and that its status has
+   * to be evaluated again.
+   */
+  public void markSegmentChanged(int segIndex) {
+    segmentStatusCounters.markChanged(segIndex);
+  }
+
+  /**
+   * Notify the volume that segments or segment units have been changed without {@link
+   * #markSegmentChanged(int)}, e.g. through the maps returned by {@link #getSegmentTable()} and
+   * {@link SegmentMetadata#getSegmentUnitMetadataTable()}.
+   */
+  public void markAllSegmentsChanged() {
+    segmentStatusCounters.markAllChanged();
+    if (segmentTable != null) {
+      segmentTableVersion.updateAndGet(version -> version.withSegmentTable(segmentTable));
+    }
+  }
+
+  /**
+   * The latest version of the segment table and the membership history. It never changes once
+   * got, so it is a consistent view of the segments without any lock, a later change of the volume
+   * shows up in a later version.
+   */
+  @JsonIgnore
+  public SegmentTableVersion getSegmentTableVersion() {
+    return segmentTableVersion.get();
+  }
+
+  /**
+   * Recount the segment statuses after every status evaluation and fail on any difference with the
+   * running counters. It is for tests only, as it walks all segments again.
+   */
+  public static void setSegmentStatusConsistencyCheck(boolean enabled) {
+    SegmentStatusCounters.setConsistencyCheckEnabled(enabled);
   }
 
   /**
@@ -602,11 +660,15 @@ public class VolumeMetadata implements Comparable<VolumeMetadata> {
       memberships.put(segIndex, segmentMemberships);
     }
     segmentMemberships.offer(highestMembershipInSegment);
+    segmentTableVersion.updateAndGet(version -> version
+        .withSegment(segIndex, segmentMetadata, highestMembershipInSegment,
+            DEFAULT_STORE_HISTORY_OF_SEGMENT_MEMBERSHIP));
     /*
      * segment also can track the volume which belong to, segment use it to get quorum when decide
      * segment status
      */
     segmentMetadata.setVolume(this);
+    segmentStatusCounters.markChanged(segIndex);
   }
 
   public void addExtendSegmentMetadata(SegmentMetadata segmentMetadata,
@@ -628,6 +690,9 @@ public class VolumeMetadata implements Comparable<VolumeMetadata> {
       memberships.put(segIndex, segmentMemberships);
     }
     segmentMemberships.offer(highestMembershipInSegment);
+    segmentTableVersion.updateAndGet(version -> version
+        .withSegment(segIndex, null, highestMembershipInSegment,
+            DEFAULT_STORE_HISTORY_OF_SEGMENT_MEMBERSHIP));
     /*
      * segment also can track the volume which belong to, segment use it to get quorum when decide
      * segment status
@@ -723,16 +788,13 @@ public class VolumeMetadata implements Comparable<VolumeMetadata> {
   }
 
   /**
-   * This function returns the list of segments in the volume. Note that there is no guarantee that
-   * the segment at the front of the list has smaller index than those at the end.
+   * This function returns the list of segments in the volume, in the order of segment index.
    */
   @JsonIgnore
   public List<SegmentMetadata> getSegments() {
-    List<SegmentMetadata> segmentsMetadata = new ArrayList<>();
-
-    for (Map.Entry<Integer, SegmentMetadata> segmentMetadataEntry : segmentTable.entrySet()) {
-      segmentsMetadata.add(segmentMetadataEntry.getValue());
-    }
+    List<SegmentMetadata> segmentsMetadata = new ArrayList<>(segmentTable.size());
+    segmentTable.forEachSegment((segmentMetadata, segIndex) -> segmentsMetadata
+        .add(segmentMetadata));
     return segmentsMetadata;
   }
 
@@ -956,13 +1018,12 @@ public class VolumeMetadata implements Comparable<VolumeMetadata> {
       return false;
     }
 
-    for (SegmentMetadata segmentMetadata : segmentTable.values()) {
-      if (!segmentMetadata.getSegmentStatus().available()) {
-        logger.warn("for volume :{}, {}, find the unavailable segment:{}", volumeId, name,
-            segmentMetadata);
-        available = false;
-        break;
-      }
+    segmentStatusCounters.refresh();
+    int unavailableCount = segmentStatusCounters.getUnavailableCount();
+    if (unavailableCount > 0) {
+      logger.warn("for volume :{}, {}, find {} unavailable segments", volumeId, name,
+          unavailableCount);
+      available = false;
     }
     return available;
   }
@@ -1005,110 +1066,35 @@ public class VolumeMetadata implements Comparable<VolumeMetadata> {
       return false;
     }
 
-    List<SegmentMetadata> segDatas = getSegments();
-    if (null == segDatas) {
+    if (null == segmentTable) {
       logger.error("segments is null, {} ", this);
       return false;
     }
-    if (volumeStatus == VolumeStatus.Available || volumeStatus == VolumeStatus.Stable) {
-      if (segDatas.isEmpty()) {
+    // check if segment count equal to volume size divided by segment size
+    if (segmentTable.size() != volumeSize / segmentSize) {
+      if (segmentTable.isEmpty()) {
         logger.warn("Not stable : volume status is OK, but segments size is zero {}", this);
+      } else {
+        logger.warn("Not stable : volume doesn't have enough segments yet");
       }
-    }
-
-    // check if segment count equal to volume size divided by segment size
-    if (segDatas.size() != volumeSize / segmentSize) {
-      logger.warn("Not stable : volume doesn't have enough segments yet");
       return false;
     }
 
-    for (SegmentMetadata segmentMetadata : segDatas) {
-      SegmentMembership highestMembership = getHighestMembership(segmentMetadata);
-      if (highestMembership == null || highestMembership.size() < 3) {
-        logger.warn("Not stable, membership is null or size less than 3. SegId:{}",
-            segmentMetadata.getSegId());
-        return false;
-      }
-
-      SegmentUnitMetadata segmentUnitMetadata = segmentMetadata
-          .getSegmentUnitMetadata(highestMembership.getPrimary());
-      if (segmentUnitMetadata == null) {
-        logger.warn("Not stable, segment unit meta data is null. SegId:{}",
-            segmentMetadata.getSegId());
-        return false;
-      }
-
-      // check that primary is ok
-      if (segmentUnitMetadata.getStatus() != SegmentUnitStatus.Primary) {
-        logger.warn(
-            "Not stable, the primary we got from membership is not in status primary but {}. "
-                + "SegId:{}",
-            segmentUnitMetadata.getStatus(), segmentMetadata.getSegId());
-        return false;
-      }
-
-      if (!highestMembership.getJoiningSecondaries().isEmpty()) {
-        logger.warn("Not stable, there are still joining secondaries. SegId:{}",
-            segmentMetadata.getSegId());
-        return false;
-      }
-
-      if (!highestMembership.getInactiveSecondaries().isEmpty()) {
-        logger.warn("Not stable, there are still inactive secondaries. SegId:{}",
-            segmentMetadata.getSegId());
-        return false;
-      }
-
-      for (InstanceId instanceId : highestMembership.getAllSecondaries()) {
-        segmentUnitMetadata = segmentMetadata.getSegmentUnitMetadata(instanceId);
-        if (segmentUnitMetadata == null) {
-          logger.warn("Not stable, a secondary we got from membership is not present. SegId:{}",
-              segmentMetadata.getSegId());
-          return false;
-        } else if (segmentUnitMetadata.getStatus() != SegmentUnitStatus.Secondary
-            && segmentUnitMetadata.getStatus() != SegmentUnitStatus.Arbiter) {
-          logger.warn(
-              "Not stable, a secondary we got from membership is not secondary or arbiter but {}. "
-                  + "SegId:{}",
-              segmentUnitMetadata.getStatus(), segmentMetadata.getSegId());
-          return false;
-        }
-      }
-
-      if (!segmentMetadata.getSegmentStatus().isStable()) {
-        logger.warn("Not stable, segment's is not stable. SegId:{}",
-            segmentMetadata.getSegId());
-        return false;
-      }
-
-      // check for segment unit has the full membership
-      for (SegmentUnitMetadata segUnit : segmentMetadata.getSegmentUnits()) {
-        if (segUnit.getMembership().size() != volumeType.getNumMembers()) {
-          logger.warn("Not stable, segment unit membership not full. SegId:{}",
-              segmentMetadata.getSegId());
-          return false;
-        }
-      }
+    segmentStatusCounters.refresh();
+    if (!segmentStatusCounters.isAllStable()) {
+      logger.warn(
+          "Not stable, segments with joining or inactive secondaries:{}, segments with unit "
+              + "membership not full:{}, other unstable segments:{}",
+          segmentStatusCounters.getFlagCount(SegmentStatusCounters.FLAG_JOINING_OR_INACTIVE),
+          segmentStatusCounters.getFlagCount(SegmentStatusCounters.FLAG_UNITS_NOT_FULL),
+          segmentStatusCounters.getFlagCount(SegmentStatusCounters.FLAG_NOT_SETTLED));
+      return false;
     }
 
     logger.info("Volume {} is stable now", name);
     return true;
   }
 
-  @JsonIgnore
-  private SegmentMembership getHighestMembership(SegmentMetadata segmentMetadata) {
-    SegmentMembership highestMembership = null;
-    for (Map.Entry<InstanceId, SegmentUnitMetadata> entry : segmentMetadata
-        .getSegmentUnitMetadataTable()
-        .entrySet()) {
-      if (entry.getValue().getMembership().compareTo(highestMembership) > 0) {
-        highestMembership = entry.getValue().getMembership();
-      }
-    }
-
-    return highestMembership;
-  }
-
   @JsonIgnore
   public boolean isAllSegmentInDeleting() {
     int segmentCount = (int) (this.getVolumeSize() / this.getSegmentSize());
@@ -1116,26 +1102,15 @@ public class VolumeMetadata implements Comparable<VolumeMetadata> {
       return false;
     }
 
-    for (SegmentMetadata segmentMetadata : segmentTable.values()) {
-      if (segmentMetadata.getSegmentStatus() != SegmentMetadata.SegmentStatus.Deleting) {
-        return false;
-      }
-    }
-
-    return true;
+    segmentStatusCounters.refresh();
+    return segmentStatusCounters.getStatusCount(SegmentMetadata.SegmentStatus.Deleting)
+        == segmentCount;
   }
 
   @JsonIgnore
   public boolean isSomeSegmentInDead() {
-    boolean isDead = false;
-    for (SegmentMetadata segmentMetadata : segmentTable.values()) {
-      if (segmentMetadata.getSegmentStatus() == SegmentMetadata.SegmentStatus.Dead) {
-        isDead = true;
-        break;
-      }
-    }
-
-    return isDead;
+    segmentStatusCounters.refresh();
+    return segmentStatusCounters.getStatusCount(SegmentMetadata.SegmentStatus.Dead) > 0;
   }
 
   /**
@@ -1256,7 +1231,9 @@ public class VolumeMetadata implements Comparable<VolumeMetadata> {
     int count = getSegmentCount();
 
     for (int i = 0; i < extendCount; i++) {
-      memberships.remove(count + i);
+      int segIndex = count + i;
+      memberships.remove(segIndex);
+      segmentTableVersion.updateAndGet(version -> version.withoutMembership(segIndex));
       addSegmentOrder.remove(new Integer(count + i));
     }
   }
@@ -1429,8 +1406,16 @@ public class VolumeMetadata implements Comparable<VolumeMetadata> {
     return segmentTable;
   }
 
+  /**
+   * The segments are copied to a {@link SegmentTable} unless they already are one, so later
+   * changes to the given map are not seen by the volume.
+   */
   public void setSegmentTable(Map<Integer, SegmentMetadata> segmentTable) {
-    this.segmentTable = segmentTable;
+    this.segmentTable = asSegmentTable(segmentTable);
+    this.segmentStatusCounters = new SegmentStatusCounters(this);
+    this.segmentTableVersion.set(segmentTable == null
+        ? SegmentTableVersion.EMPTY
+        : this.segmentTableVersion.get().withSegmentTable(segmentTable));
   }
 
   public RangeSet<Integer> getVolumeLayoutRange() {
@@ -1541,16 +1526,21 @@ public class VolumeMetadata implements Comparable<VolumeMetadata> {
   }
 
   public void setExtendSegmentTable(Map<Integer, SegmentMetadata> extendSegmentTable) {
-    this.extendSegmentTable = extendSegmentTable;
+    this.extendSegmentTable = asSegmentTable(extendSegmentTable);
+  }
+
+  private static SegmentTable asSegmentTable(Map<Integer, SegmentMetadata> segments) {
+    if (segments == null || segments instanceof SegmentTable) {
+      return (SegmentTable) segments;
+    }
+    return new SegmentTable(segments);
   }
 
   @JsonIgnore
   public List<SegmentMetadata> getExtendSegments() {
-    List<SegmentMetadata> segmentsMetadata = new ArrayList<>();
-
-    for (Map.Entry<Integer, SegmentMetadata> segmentMetadataEntry : extendSegmentTable.entrySet()) {
-      segmentsMetadata.add(segmentMetadataEntry.getValue());
-    }
+    List<SegmentMetadata> segmentsMetadata = new ArrayList<>(extendSegmentTable.size());
+    extendSegmentTable.forEachSegment((segmentMetadata, segIndex) -> segmentsMetadata
+        .add(segmentMetadata));
     return segmentsMetadata;
   }
 
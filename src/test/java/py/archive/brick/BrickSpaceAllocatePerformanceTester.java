@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package py.archive.brick;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import py.archive.ArchiveOptions;
+import py.archive.brick.FreeExtentBrickSpaceManager.FitPolicy;
+import py.archive.page.MultiPageAddress;
+import py.archive.segment.SegId;
+import py.common.bitmap.Bitmap;
+import py.exception.NotEnoughSpaceException;
+import py.test.TestBase;
+
+/**
+ * allocation latency and fragmentation of shadow page allocation on one brick, comparing a first
+ * fit scan of the allocate bitmap against {@link FreeExtentBrickSpaceManager} with both policies.
+ *
+ * <p>Random sized allocations fill the brick up to {@link #FILL_RATIO}, from then on random
+ * allocated runs are freed to keep it there, which fragments the free space over time.
+ */
+public class BrickSpaceAllocatePerformanceTester extends TestBase {
+  private static final Logger logger = LoggerFactory
+      .getLogger(BrickSpaceAllocatePerformanceTester.class);
+  // a 1G brick of 8K pages
+  private static final int PAGE_COUNT = 128 * 1024;
+  private static final int MAX_RUN = 64;
+  private static final int COUNT = 200000;
+  private static final double FILL_RATIO = 0.9;
+
+  @Before
+  public void before() {
+    ArchiveOptions.initContants(8192, PAGE_COUNT * 8192L, 0);
+  }
+
+  /**
+   * the first fit scan of the bitmap, what finding contiguous pages costs without an index.
+   */
+  private static int scanFirstFit(Bitmap bitmap, int count) {
+    int run = 0;
+    for (int i = 0; i < PAGE_COUNT; i++) {
+      run = bitmap.get(i) ? 0 : run + 1;
+      if (run == count) {
+        return i - count + 1;
+      }
+    }
+    return -1;
+  }
+
+  private void runBitmapScan(long seed) {
+    Random random = new Random(seed);
+    Bitmap bitmap = new Bitmap(PAGE_COUNT);
+    List<int[]> allocated = new ArrayList<>();
+    long[] latencies = new long[COUNT];
+    int failures = 0;
+    for (int i = 0; i < COUNT; i++) {
+      while (bitmap.cardinality() > PAGE_COUNT * FILL_RATIO) {
+        int[] run = allocated.remove(random.nextInt(allocated.size()));
+        for (int p = run[0]; p < run[0] + run[1]; p++) {
+          bitmap.clear(p);
+        }
+      }
+      int count = 1 + random.nextInt(MAX_RUN);
+      long start = System.nanoTime();
+      int index = scanFirstFit(bitmap, count);
+      if (index >= 0) {
+        for (int p = index; p < index + count; p++) {
+          bitmap.set(p);
+        }
+        allocated.add(new int[]{index, count});
+      } else {
+        failures++;
+      }
+      latencies[i] = System.nanoTime() - start;
+    }
+    report("bitmap scan", latencies, failures, PAGE_COUNT - bitmap.cardinality(), -1, -1);
+  }
+
+  private void runExtentIndex(long seed, FitPolicy policy) {
+    Random random = new Random(seed);
+    BrickMetadata brick = new BrickMetadata(new SegId(1L, 0), 0, 0,
+        BrickStatus.shadowPageAllocated, null, PAGE_COUNT, PAGE_COUNT);
+    FreeExtentBrickSpaceManager manager = new FreeExtentBrickSpaceManager(brick);
+    List<MultiPageAddress> allocated = new ArrayList<>();
+    long[] latencies = new long[COUNT];
+    int failures = 0;
+    for (int i = 0; i < COUNT; i++) {
+      while (PAGE_COUNT - manager.getFreePageCount() > PAGE_COUNT * FILL_RATIO) {
+        manager.free(allocated.remove(random.nextInt(allocated.size())));
+      }
+      int count = 1 + random.nextInt(MAX_RUN);
+      long start = System.nanoTime();
+      try {
+        allocated.add(manager.allocate(count, policy));
+      } catch (NotEnoughSpaceException e) {
+        failures++;
+      }
+      latencies[i] = System.nanoTime() - start;
+    }
+    report(policy.name(), latencies, failures, manager.getFreePageCount(),
+        manager.getFreeExtentCount(), manager.getLargestFreeRun());
+  }
+
+  private void report(String name, long[] latencies, int failures, int freePages,
+      int extentCount, int largestRun) {
+    long total = 0;
+    for (long latency : latencies) {
+      total += latency;
+    }
+    Arrays.sort(latencies);
+    logger.debug("{}: avg {} ns, p99 {} ns, max {} ns, failed allocations {}, free pages {}, "
+            + "free runs {}, largest free run {}", name, total / latencies.length,
+        latencies[latencies.length * 99 / 100], latencies[latencies.length - 1], failures,
+        freePages, extentCount, largestRun);
+  }
+
+  @Test
+  public void test() {
+    for (int round = 0; round < 3; round++) {
+      logger.debug("-------round {}---------", round);
+      long seed = System.currentTimeMillis();
+      runBitmapScan(seed);
+      runExtentIndex(seed, FitPolicy.FirstFit);
+      runExtentIndex(seed, FitPolicy.BestFit);
+    }
+  }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package py.archive.brick;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Before;
+import org.junit.Test;
+import py.archive.ArchiveOptions;
+import py.archive.brick.FreeExtentBrickSpaceManager.FitPolicy;
+import py.archive.page.MultiPageAddress;
+import py.archive.segment.SegId;
+import py.exception.NotEnoughSpaceException;
+import py.test.TestBase;
+
+public class FreeExtentBrickSpaceManagerTest extends TestBase {
+  private static final int PAGE_COUNT = 512;
+  private static final long DATA_OFFSET = 1024 * 1024;
+
+  @Before
+  public void before() {
+    ArchiveOptions.initContants(8192, PAGE_COUNT * 8192L, 0);
+  }
+
+  private BrickMetadata newBrick() {
+    return new BrickMetadata(new SegId(1L, 0), DATA_OFFSET, 0, BrickStatus.shadowPageAllocated,
+        null, PAGE_COUNT, PAGE_COUNT);
+  }
+
+  private int pageIndexOf(MultiPageAddress address) {
+    return (int) (address.getStartPageAddress().getOffsetInSegment()
+        / ArchiveOptions.PAGE_PHYSICAL_SIZE);
+  }
+
+  @Test
+  public void allocateAndFree() throws Exception {
+    BrickMetadata brick = newBrick();
+    FreeExtentBrickSpaceManager manager = new FreeExtentBrickSpaceManager(brick);
+    assertEquals(PAGE_COUNT, manager.getLargestFreeRun());
+    assertEquals(PAGE_COUNT * 8192, manager.getFreeSpace());
+
+    MultiPageAddress first = manager.allocate(10, FitPolicy.FirstFit);
+    assertEquals(0, pageIndexOf(first));
+    assertEquals(10, first.getPageCount());
+    assertEquals(DATA_OFFSET, first.getStartPageAddress().getSegUnitOffsetInArchive());
+    MultiPageAddress second = manager.allocate(20, FitPolicy.FirstFit);
+    assertEquals(10, pageIndexOf(second));
+    assertFalse(manager.isPageFree(29));
+    assertTrue(manager.isPageFree(30));
+    assertEquals(PAGE_COUNT - 30, brick.getFreePageCount());
+    assertEquals(30, brick.getAllocateBitmap().cardinality());
+    assertTrue(brick.isBitmapNeedPersisted());
+
+    manager.free(first);
+    assertEquals(2, manager.getFreeExtentCount());
+    manager.free(second);
+    assertEquals(1, manager.getFreeExtentCount());
+    assertEquals(PAGE_COUNT, manager.getLargestFreeRun());
+    assertEquals(PAGE_COUNT, brick.getFreePageCount());
+    assertEquals(0, brick.getAllocateBitmap().cardinality());
+  }
+
+  @Test
+  public void fitPolicies() throws Exception {
+    BrickMetadata brick = newBrick();
+    // free runs: [0, 8), [16, 20), [24, PAGE_COUNT)
+    for (int i = 8; i < 16; i++) {
+      brick.getAllocateBitmap().set(i);
+    }
+    for (int i = 20; i < 24; i++) {
+      brick.getAllocateBitmap().set(i);
+    }
+    FreeExtentBrickSpaceManager manager = new FreeExtentBrickSpaceManager(brick);
+    assertEquals(3, manager.getFreeExtentCount());
+    assertEquals(PAGE_COUNT - 12, manager.getFreePageCount());
+    assertEquals(PAGE_COUNT - 12, brick.getFreePageCount());
+
+    assertEquals(16, pageIndexOf(manager.allocate(3, FitPolicy.BestFit)));
+    assertEquals(0, pageIndexOf(manager.allocate(3, FitPolicy.FirstFit)));
+    assertEquals(3, pageIndexOf(manager.allocate(5, FitPolicy.BestFit)));
+    assertEquals(24, pageIndexOf(manager.allocate(2, FitPolicy.FirstFit)));
+    assertEquals(19, pageIndexOf(manager.allocate(1, FitPolicy.BestFit)));
+
+    try {
+      manager.allocate(PAGE_COUNT, FitPolicy.FirstFit);
+      fail();
+    } catch (NotEnoughSpaceException e) {
+      logger.info("caught expected exception", e);
+    }
+  }
+
+  @Test
+  public void allocateScattered() throws Exception {
+    BrickMetadata brick = newBrick();
+    FreeExtentBrickSpaceManager manager = new FreeExtentBrickSpaceManager(brick);
+    List<MultiPageAddress> evens = new ArrayList<>();
+    for (int i = 0; i < PAGE_COUNT / 64; i++) {
+      MultiPageAddress address = manager.allocate(32, FitPolicy.FirstFit);
+      manager.allocate(32, FitPolicy.FirstFit);
+      evens.add(address);
+    }
+    for (MultiPageAddress address : evens) {
+      manager.free(address);
+    }
+    assertEquals(PAGE_COUNT / 64, manager.getFreeExtentCount());
+    assertEquals(32, manager.getLargestFreeRun());
+
+    List<MultiPageAddress> addresses = manager.allocate(100);
+    assertEquals(4, addresses.size());
+    int allocated = 0;
+    for (MultiPageAddress address : addresses) {
+      allocated += address.getPageCount();
+    }
+    assertEquals(100, allocated);
+    assertEquals(PAGE_COUNT / 2 - 100, manager.getFreePageCount());
+
+    try {
+      manager.allocate(PAGE_COUNT);
+      fail();
+    } catch (NotEnoughSpaceException e) {
+      logger.info("caught expected exception", e);
+    }
+    assertEquals(PAGE_COUNT / 2 - 100, manager.getFreePageCount());
+
+    manager.markAllPageUsed();
+    assertEquals(0, manager.getFreePageCount());
+    assertEquals(0, manager.getLargestFreeRun());
+    assertEquals(PAGE_COUNT, brick.getAllocateBitmap().cardinality());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void freeNotAllocated() throws Exception {
+    FreeExtentBrickSpaceManager manager = new FreeExtentBrickSpaceManager(newBrick());
+    MultiPageAddress address = manager.allocate(4, FitPolicy.BestFit);
+    manager.free(address);
+    manager.free(address);
+  }
+
+  @Test
+  public void randomAgainstBitmap() throws Exception {
+    Random random = new Random(System.currentTimeMillis());
+    BrickMetadata brick = newBrick();
+    FreeExtentBrickSpaceManager manager = new FreeExtentBrickSpaceManager(brick);
+    List<MultiPageAddress> allocated = new ArrayList<>();
+    for (int round = 0; round < 2000; round++) {
+      if (!allocated.isEmpty() && random.nextInt(3) == 0) {
+        manager.free(allocated.remove(random.nextInt(allocated.size())));
+      } else {
+        int count = 1 + random.nextInt(16);
+        try {
+          allocated.add(manager.allocate(count,
+              random.nextBoolean() ? FitPolicy.BestFit : FitPolicy.FirstFit));
+        } catch (NotEnoughSpaceException e) {
+          assertTrue(manager.getLargestFreeRun() < count);
+        }
+      }
+
+      // the index has to agree with the bitmap
+      int longestRun = 0;
+      int run = 0;
+      for (int i = 0; i < PAGE_COUNT; i++) {
+        run = manager.isPageFree(i) ? run + 1 : 0;
+        longestRun = Math.max(longestRun, run);
+      }
+      assertEquals(longestRun, manager.getLargestFreeRun());
+      assertEquals(PAGE_COUNT - brick.getAllocateBitmap().cardinality(),
+          manager.getFreePageCount());
+    }
+
+    // a manager built from the persisted bitmap sees the same free runs
+    FreeExtentBrickSpaceManager reloaded = new FreeExtentBrickSpaceManager(brick);
+    assertEquals(manager.getFreeExtentCount(), reloaded.getFreeExtentCount());
+    assertEquals(manager.getLargestFreeRun(), reloaded.getLargestFreeRun());
+  }
+
+  @Test
+  public void concurrentAllocation() throws Exception {
+    final FreeExtentBrickSpaceManager[] managers = new FreeExtentBrickSpaceManager[2];
+    final BrickMetadata[] bricks = new BrickMetadata[managers.length];
+    for (int i = 0; i < managers.length; i++) {
+      bricks[i] = newBrick();
+      managers[i] = new FreeExtentBrickSpaceManager(bricks[i]);
+    }
+
+    int threadCount = 8;
+    CountDownLatch latch = new CountDownLatch(threadCount);
+    AtomicReference<Throwable> error = new AtomicReference<>();
+    for (int t = 0; t < threadCount; t++) {
+      final FreeExtentBrickSpaceManager manager = managers[t % managers.length];
+      new Thread(() -> {
+        try {
+          Random random = new Random();
+          for (int round = 0; round < 1000; round++) {
+            MultiPageAddress address = manager.allocate(1 + random.nextInt(8),
+                FitPolicy.BestFit);
+            for (int i = 0; i < address.getPageCount(); i++) {
+              assertFalse(manager.isPageFree(pageIndexOf(address) + i));
+            }
+            manager.free(address);
+          }
+        } catch (Throwable e) {
+          error.compareAndSet(null, e);
+        } finally {
+          latch.countDown();
+        }
+      }).start();
+    }
+    latch.await();
+    if (error.get() != null) {
+      throw new AssertionError(error.get());
+    }
+    for (int i = 0; i < managers.length; i++) {
+      assertEquals(PAGE_COUNT, managers[i].getLargestFreeRun());
+      assertEquals(0, bricks[i].getAllocateBitmap().cardinality());
+    }
+  }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package py.archive.segment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import py.common.bitmap.Bitmap;
+import py.test.TestBase;
+
+/**
+ * compressed bitmap test, checked against {@link BitSet}.
+ */
+public class CompressedBitmapTest extends TestBase {
+  // not a multiple of the chunk size nor of a word, so that the last chunk is a partial one
+  private static final int NBITS = CompressedBitmap.CHUNK_BITS * 5 + 104;
+
+  private static void assertMatches(BitSet expected, CompressedBitmap bitmap) {
+    assertEquals(expected.cardinality(), bitmap.cardinality());
+    for (int i = 0; i < NBITS; i++) {
+      assertEquals("bit " + i, expected.get(i), bitmap.get(i));
+    }
+    for (int i = 0; i < NBITS; i += 37) {
+      int nextSet = expected.nextSetBit(i);
+      assertEquals(nextSet < 0 ? NBITS : nextSet, bitmap.nextSetBit(i));
+      assertEquals(Math.min(expected.nextClearBit(i), NBITS), bitmap.nextClearBit(i));
+    }
+    assertEquals(expected.cardinality() == NBITS, bitmap.allSet());
+  }
+
+  @Test
+  public void singleBits() {
+    CompressedBitmap bitmap = new CompressedBitmap(NBITS);
+    for (int i = 0; i < NBITS; i++) {
+      assertFalse(bitmap.get(i));
+      bitmap.set(i);
+      assertTrue(bitmap.get(i));
+    }
+    assertTrue(bitmap.allSet());
+    assertEquals(0, bitmap.denseChunkCount());
+    assertEquals(NBITS, bitmap.nextClearBit(0));
+
+    bitmap.clear(CompressedBitmap.CHUNK_BITS + 1);
+    assertEquals(CompressedBitmap.CHUNK_BITS + 1, bitmap.nextClearBit(0));
+    assertEquals(NBITS - 1, bitmap.cardinality());
+    assertEquals(1, bitmap.denseChunkCount());
+
+    for (int i = 0; i < NBITS; i++) {
+      bitmap.clear(i);
+    }
+    assertTrue(bitmap.isEmpty());
+    assertEquals(0, bitmap.denseChunkCount());
+    assertEquals(NBITS, bitmap.nextSetBit(0));
+  }
+
+  @Test
+  public void rangeOperations() {
+    CompressedBitmap bitmap = new CompressedBitmap(NBITS);
+    BitSet expected = new BitSet(NBITS);
+
+    bitmap.set(10, NBITS - 10);
+    expected.set(10, NBITS - 10);
+    assertMatches(expected, bitmap);
+    // only the first and the last chunk are partial
+    assertEquals(2, bitmap.denseChunkCount());
+
+    bitmap.clear(63, 129);
+    expected.clear(63, 129);
+    bitmap.clear(CompressedBitmap.CHUNK_BITS, CompressedBitmap.CHUNK_BITS * 2);
+    expected.clear(CompressedBitmap.CHUNK_BITS, CompressedBitmap.CHUNK_BITS * 2);
+    bitmap.set(5, 5);
+    assertMatches(expected, bitmap);
+
+    bitmap.set(0, NBITS);
+    expected.set(0, NBITS);
+    assertMatches(expected, bitmap);
+    assertEquals(0, bitmap.denseChunkCount());
+
+    bitmap.clear(0, NBITS);
+    assertTrue(bitmap.isEmpty());
+    assertEquals(0, bitmap.denseChunkCount());
+  }
+
+  @Test
+  public void runs() {
+    CompressedBitmap bitmap = new CompressedBitmap(NBITS);
+    bitmap.set(0, 3);
+    bitmap.set(100, CompressedBitmap.CHUNK_BITS * 3);
+    bitmap.set(NBITS - 1);
+
+    List<int[]> setRuns = new ArrayList<>();
+    bitmap.forEachRun(true, (fromIndex, toIndex) -> setRuns.add(new int[]{fromIndex, toIndex}));
+    assertEquals(3, setRuns.size());
+    assertEquals(0, setRuns.get(0)[0]);
+    assertEquals(3, setRuns.get(0)[1]);
+    assertEquals(100, setRuns.get(1)[0]);
+    assertEquals(CompressedBitmap.CHUNK_BITS * 3, setRuns.get(1)[1]);
+    assertEquals(NBITS - 1, setRuns.get(2)[0]);
+    assertEquals(NBITS, setRuns.get(2)[1]);
+
+    List<int[]> clearRuns = new ArrayList<>();
+    bitmap.forEachRun(false, (fromIndex, toIndex) -> clearRuns.add(new int[]{fromIndex, toIndex}));
+    assertEquals(2, clearRuns.size());
+    assertEquals(3, clearRuns.get(0)[0]);
+    assertEquals(100, clearRuns.get(0)[1]);
+    assertEquals(CompressedBitmap.CHUNK_BITS * 3, clearRuns.get(1)[0]);
+    assertEquals(NBITS - 1, clearRuns.get(1)[1]);
+  }
+
+  @Test
+  public void inverseAndOr() {
+    Random random = new Random(System.currentTimeMillis());
+    CompressedBitmap bitmap = new CompressedBitmap(NBITS);
+    BitSet expected = new BitSet(NBITS);
+    bitmap.set(CompressedBitmap.CHUNK_BITS, CompressedBitmap.CHUNK_BITS * 2);
+    expected.set(CompressedBitmap.CHUNK_BITS, CompressedBitmap.CHUNK_BITS * 2);
+    for (int i = 0; i < 1000; i++) {
+      int index = random.nextInt(NBITS);
+      bitmap.set(index);
+      expected.set(index);
+    }
+
+    bitmap.inverse();
+    expected.flip(0, NBITS);
+    assertMatches(expected, bitmap);
+
+    CompressedBitmap other = new CompressedBitmap(NBITS);
+    BitSet otherExpected = new BitSet(NBITS);
+    other.set(0, CompressedBitmap.CHUNK_BITS);
+    otherExpected.set(0, CompressedBitmap.CHUNK_BITS);
+    for (int i = 0; i < 1000; i++) {
+      int index = random.nextInt(NBITS);
+      other.set(index);
+      otherExpected.set(index);
+    }
+    bitmap.or(other);
+    expected.or(otherExpected);
+    assertMatches(expected, bitmap);
+  }
+
+  @Test
+  public void randomOperations() {
+    Random random = new Random(System.currentTimeMillis());
+    CompressedBitmap bitmap = new CompressedBitmap(NBITS);
+    BitSet expected = new BitSet(NBITS);
+    for (int round = 0; round < 200; round++) {
+      int from = random.nextInt(NBITS);
+      int to = from + random.nextInt(NBITS - from + 1);
+      switch (random.nextInt(4)) {
+        case 0:
+          bitmap.set(from, to);
+          expected.set(from, to);
+          break;
+        case 1:
+          bitmap.clear(from, to);
+          expected.clear(from, to);
+          break;
+        case 2:
+          bitmap.set(from);
+          expected.set(from);
+          break;
+        default:
+          bitmap.clear(from);
+          expected.clear(from);
+          break;
+      }
+      if (round % 20 == 0) {
+        assertMatches(expected, bitmap);
+      }
+    }
+    assertMatches(expected, bitmap);
+
+    CompressedBitmap copy = bitmap.copy();
+    assertEquals(bitmap, copy);
+    assertEquals(bitmap.hashCode(), copy.hashCode());
+    copy.inverse();
+    assertNotEquals(bitmap, copy);
+  }
+
+  @Test
+  public void convertBitmap() {
+    Random random = new Random(System.currentTimeMillis());
+    CompressedBitmap bitmap = new CompressedBitmap(NBITS);
+    bitmap.set(200, CompressedBitmap.CHUNK_BITS * 2);
+    for (int i = 0; i < 1000; i++) {
+      bitmap.set(random.nextInt(NBITS));
+    }
+    bitmap.set(NBITS - 1);
+
+    Bitmap dense = bitmap.toBitmap();
+    assertEquals(bitmap.cardinality(), dense.cardinality());
+    for (int i = 0; i < NBITS; i++) {
+      assertEquals(bitmap.get(i), dense.get(i));
+    }
+    assertEquals(bitmap, CompressedBitmap.valueOf(dense));
+    assertEquals(bitmap, CompressedBitmap.valueOf(Bitmap.valueOf(dense.toByteArray())));
+  }
+}
@@ -20,6 +20,9 @@ import static org.junit.Assert.assertTrue;
 import static py.archive.segment.SegmentUnitBitmap.SegmentUnitBitMapType.Data;
 import static py.archive.segment.SegmentUnitBitmap.SegmentUnitBitMapType.Migration;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
 import org.junit.Before;
 import org.junit.Test;
@@ -124,6 +127,18 @@ public class SegmentUnitBitmapTest {
     }
   }
 
+  @Test
+  public void copyBitMap() throws Exception {
+    SegmentUnitBitmap bitmap = new SegmentUnitBitmap(64);
+    bitmap.set(3, Data);
+
+    Bitmap copy = bitmap.copyBitMap(Data);
+    assertTrue(copy.get(3));
+    assertFalse(copy.get(4));
+    copy.set(4);
+    assertFalse(bitmap.get(4, Data));
+  }
+
   @Test
   public void initForClone() throws Exception {
     SegmentUnitBitmap cloneBitmap = new SegmentUnitBitmap(64);
@@ -146,4 +161,26 @@ public class SegmentUnitBitmapTest {
     }
   }
 
-}
\ No newline at end of file
+  @Test
+  public void rangeAndRuns() throws Exception {
+    SegmentUnitBitmap bitmap = new SegmentUnitBitmap(496);
+    bitmap.set(0, 496, Migration);
+    bitmap.clear(100, 300, Migration);
+    bitmap.clear(400, Migration);
+    assertEquals(295, bitmap.cardinality(Migration));
+    assertEquals(100, bitmap.nextClearBit(0, Migration));
+    assertEquals(300, bitmap.nextSetBit(100, Migration));
+
+    List<Integer> clearRuns = new ArrayList<>();
+    bitmap.forEachRun(Migration, false, (fromIndex, toIndex) -> {
+      clearRuns.add(fromIndex);
+      clearRuns.add(toIndex);
+    });
+    assertEquals(Arrays.asList(100, 300, 400, 401), clearRuns);
+
+    SegmentUnitBitmap fromArray = SegmentUnitBitmap.valueOf(bitmap.toByteArray());
+    assertEquals(bitmap, fromArray);
+    assertEquals(SegmentUnitBitmap.bitMapLength(496), bitmap.toByteArray().length);
+  }
+
+}
@@ -413,4 +413,25 @@ public class SegmentStatusTest extends TestBase {
     segmentMetadata.getSegmentStatus();
     assertEquals(SegmentMetadata.SegmentStatus.Writable, segmentMetadata.getSegmentStatus());
   }
+
+  @Test
+  public void testSegmentStatusKeptUntilUnitChangesOrTimesOut() {
+    long now = System.currentTimeMillis();
+    assertEquals(SegmentStatus.Healthy, seg1.getSegmentStatus(now));
+    assertEquals(SegmentStatus.Healthy, seg1.getSegmentStatus(now));
+
+    // a report of a unit is seen by the next query
+    secondaryUnit1.setStatus(SegmentUnitStatus.Unknown);
+    assertEquals(SegmentStatus.Degraded, seg1.getSegmentStatus(now));
+    secondaryUnit1.setStatus(SegmentUnitStatus.Secondary);
+    assertEquals(SegmentStatus.Healthy, seg1.getSegmentStatus(now));
+
+    // units time out at the given clock without any report
+    long timeout = seg1.getEarliestUnitTimeout();
+    assertTrue(timeout > now);
+    assertEquals(SegmentStatus.Healthy, seg1.getSegmentStatus(timeout - 1));
+    assertEquals(SegmentStatus.Unavailable, seg1.getSegmentStatus(timeout + 1000));
+    assertEquals(0, seg1.getSegmentUnitCount());
+  }
+
 }
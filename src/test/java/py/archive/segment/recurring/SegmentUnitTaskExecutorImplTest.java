@@ -161,6 +161,94 @@ public class SegmentUnitTaskExecutorImplTest extends TestBase {
 
   }
 
+  @Test
+  public void shardedCaseTest() throws Exception {
+    segmentUnitProcessorFactory = new SegmentUnitProcessorFactory() {
+      @Override
+      public SegmentUnitProcessor generate(SegmentUnitTaskContext context) {
+        return new SegmentUnitProcessorForTesting(context, 0, null, false);
+      }
+    };
+
+    contextFactory = new SegmentUnitTaskContextFactoryImplForTest();
+
+    SegmentUnitTaskExecutorImpl taskExecutor = new SegmentUnitTaskExecutorImpl(
+        segmentUnitProcessorFactory,
+        contextFactory, 10, 20, 100, "Testing", 4);
+    assertEquals(4, taskExecutor.getShardCount());
+    taskExecutor.start();
+    // the testing context factory generates the contexts by the volume id of the segment unit
+    List<SegId> segIds = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      SegId segId = new SegId((long) i + 1, i);
+      segIds.add(segId);
+      taskExecutor.addSegmentUnit(segId);
+    }
+
+    Thread.sleep(3000);
+    assertEquals(32, taskExecutor.getTaskCount());
+
+    // pausing and reviving go to the shard of the segment unit
+    for (SegId segId : segIds) {
+      taskExecutor.pause(segId);
+    }
+    Thread.sleep(1000);
+    stopWorkThread();
+    Thread.sleep(1000);
+    for (SegId segId : segIds) {
+      assertTrue(taskExecutor.isPaused(segId));
+    }
+    assertEquals(32, taskExecutor.getTaskCount());
+
+    startWorkThread();
+    segmentUnitCallbackTest = new SegmentUnitCallbackTest();
+    for (SegId segId : segIds) {
+      taskExecutor.removeSegmentUnit(segId, segmentUnitCallbackTest);
+    }
+    stopProcess();
+    Thread.sleep(3000);
+    assertEquals(0, taskExecutor.getTaskCount());
+    taskExecutor.shutdown();
+  }
+
+  @Test
+  public void timingWheelCaseTest() throws Exception {
+    segmentUnitProcessorFactory = new SegmentUnitProcessorFactory() {
+      @Override
+      public SegmentUnitProcessor generate(SegmentUnitTaskContext context) {
+        return new SegmentUnitProcessorForTesting(context, 0, null, false);
+      }
+    };
+
+    contextFactory = new SegmentUnitTaskContextFactoryImplForTest();
+
+    SegmentUnitTaskExecutorImpl taskExecutor = new SegmentUnitTaskExecutorImpl(
+        segmentUnitProcessorFactory,
+        contextFactory, 10, 20, 100, "Testing", 2, SegmentUnitTaskQueueType.TimingWheel);
+    taskExecutor.start();
+    SegId segId1 = new SegId(1L, 1);
+    SegId segId2 = new SegId(2L, 2);
+    taskExecutor.addSegmentUnit(segId1);
+    taskExecutor.addSegmentUnit(segId2);
+
+    Thread.sleep(3000);
+    assertEquals(8, taskExecutor.getTaskCount());
+
+    segmentUnitCallbackTest = new SegmentUnitCallbackTest();
+    taskExecutor.removeSegmentUnit(segId1, segmentUnitCallbackTest);
+    taskExecutor.removeSegmentUnit(segId2, segmentUnitCallbackTest);
+    stopProcess();
+    Thread.sleep(3000);
+    assertEquals(0, taskExecutor.getTaskCount());
+    taskExecutor.shutdown();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void invalidShardCountTest() {
+    new SegmentUnitTaskExecutorImpl(context -> null,
+        new SegmentUnitTaskContextFactoryImplForTest(), 1, 1, 1, "Testing", 0);
+  }
+
   @Test
   public void delTaskTest() throws Exception {
     segmentUnitProcessorFactory = new SegmentUnitProcessorFactory() {
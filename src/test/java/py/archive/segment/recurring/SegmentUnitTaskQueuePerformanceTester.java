@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package py.archive.segment.recurring;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import py.archive.segment.SegId;
+import py.test.TestBase;
+
+/**
+ * compare the delay queue and the timing wheel holding the recurring tasks of a datanode with many
+ * segment units: one puller drains the due contexts and some workers put them back with short
+ * delays, like the task executor does.
+ */
+public class SegmentUnitTaskQueuePerformanceTester extends TestBase {
+  private static final Logger logger = LoggerFactory
+      .getLogger(SegmentUnitTaskQueuePerformanceTester.class);
+  private static final int SEGMENT_UNIT_COUNT = 50000;
+  private static final int MAX_DELAY_MS = 50;
+  private static final int WORKER_COUNT = 4;
+  private static final long RUN_TIME_MS = 10000;
+  // lateness histogram in milliseconds, the last slot counts everything later
+  private static final int MAX_LATENESS_MS = 1000;
+
+  @Test
+  public void testThroughputAndLateness() throws Exception {
+    run(SegmentUnitTaskQueueType.DelayQueue, new DelayQueueTaskQueue());
+    run(SegmentUnitTaskQueueType.TimingWheel, new TimingWheelTaskQueue());
+  }
+
+  private void run(SegmentUnitTaskQueueType type, SegmentUnitTaskQueue queue)
+      throws InterruptedException {
+    Random random = new Random(0);
+    for (int i = 0; i < SEGMENT_UNIT_COUNT; i++) {
+      SegmentUnitTaskContext context = new SegmentUnitTaskContext(
+          new SegIdContextKey(new SegId((long) i / 1000, i % 1000)));
+      context.updateDelayWithForce(random.nextInt(MAX_DELAY_MS));
+      queue.put(context);
+    }
+
+    AtomicBoolean stop = new AtomicBoolean(false);
+    BlockingQueue<SegmentUnitTaskContext> done = new ArrayBlockingQueue<>(SEGMENT_UNIT_COUNT);
+    List<Thread> workers = new ArrayList<>();
+    for (int i = 0; i < WORKER_COUNT; i++) {
+      Random workerRandom = new Random(i);
+      Thread worker = new Thread(() -> {
+        while (!stop.get()) {
+          try {
+            SegmentUnitTaskContext context = done.poll(10, TimeUnit.MILLISECONDS);
+            if (context != null) {
+              context.updateDelayWithForce(1 + workerRandom.nextInt(MAX_DELAY_MS));
+              queue.put(context);
+            }
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+      });
+      worker.start();
+      workers.add(worker);
+    }
+
+    long[] lateness = new long[MAX_LATENESS_MS + 1];
+    long drained = 0;
+    List<SegmentUnitTaskContext> contexts = new ArrayList<>();
+    long start = System.currentTimeMillis();
+    while (System.currentTimeMillis() - start < RUN_TIME_MS) {
+      if (queue.drainTo(contexts) == 0) {
+        Thread.sleep(1);
+        continue;
+      }
+      for (SegmentUnitTaskContext context : contexts) {
+        long late = -context.getDelay(TimeUnit.MILLISECONDS);
+        lateness[(int) Math.min(Math.max(late, 0), MAX_LATENESS_MS)]++;
+        done.add(context);
+      }
+      drained += contexts.size();
+      contexts.clear();
+    }
+    long elapsed = System.currentTimeMillis() - start;
+    stop.set(true);
+    for (Thread worker : workers) {
+      worker.join();
+    }
+
+    logger.debug("{}: {} contexts per second, lateness p50 {}ms, p99 {}ms, p99.9 {}ms, max {}ms",
+        type, drained * 1000 / elapsed, percentile(lateness, drained, 0.5),
+        percentile(lateness, drained, 0.99), percentile(lateness, drained, 0.999),
+        percentile(lateness, drained, 1.0));
+  }
+
+  private static int percentile(long[] histogram, long total, double percentile) {
+    long threshold = (long) Math.ceil(total * percentile);
+    long count = 0;
+    for (int i = 0; i < histogram.length; i++) {
+      count += histogram[i];
+      if (count >= threshold && count > 0) {
+        return i;
+      }
+    }
+    return histogram.length - 1;
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package py.archive.segment.recurring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import py.archive.segment.SegId;
+import py.test.TestBase;
+
+public class TimingWheelTaskQueueTest extends TestBase {
+  private static SegmentUnitTaskContext newContext(int index, long delay) {
+    SegmentUnitTaskContext context = new SegmentUnitTaskContext(
+        new SegIdContextKey(new SegId(1L, index)));
+    context.updateDelay(delay);
+    return context;
+  }
+
+  private static List<SegmentUnitTaskContext> drainUntilNotEmpty(SegmentUnitTaskQueue queue,
+      long timeoutMs) throws InterruptedException {
+    List<SegmentUnitTaskContext> contexts = new ArrayList<>();
+    long deadline = System.currentTimeMillis() + timeoutMs;
+    while (queue.drainTo(contexts) == 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(1);
+    }
+    return contexts;
+  }
+
+  @Test
+  public void testExpireInOrderOfTicks() throws Exception {
+    TimingWheelTaskQueue queue = new TimingWheelTaskQueue(5, 64);
+    SegmentUnitTaskContext now = newContext(0, 0);
+    SegmentUnitTaskContext soon = newContext(1, 100);
+    SegmentUnitTaskContext later = newContext(2, 300);
+    queue.put(later);
+    queue.put(soon);
+    queue.put(now);
+    assertEquals(3, queue.size());
+    assertEquals(3, queue.snapshot().size());
+
+    List<SegmentUnitTaskContext> contexts = drainUntilNotEmpty(queue, 1000);
+    assertEquals(1, contexts.size());
+    assertSame(now, contexts.get(0));
+
+    contexts = drainUntilNotEmpty(queue, 1000);
+    assertEquals(1, contexts.size());
+    assertSame(soon, contexts.get(0));
+    assertTrue(soon.getDelay(TimeUnit.MILLISECONDS) <= 0);
+
+    contexts = drainUntilNotEmpty(queue, 1000);
+    assertEquals(1, contexts.size());
+    assertSame(later, contexts.get(0));
+    assertTrue(later.getDelay(TimeUnit.MILLISECONDS) <= 0);
+    assertEquals(0, queue.size());
+  }
+
+  @Test
+  public void testDelayLongerThanOneRound() throws Exception {
+    // one round of the wheel is 16ms
+    TimingWheelTaskQueue queue = new TimingWheelTaskQueue(1, 16);
+    SegmentUnitTaskContext context = newContext(0, 200);
+    queue.put(context);
+
+    List<SegmentUnitTaskContext> contexts = drainUntilNotEmpty(queue, 1000);
+    assertEquals(1, contexts.size());
+    assertTrue(context.getDelay(TimeUnit.MILLISECONDS) <= 0);
+  }
+
+  @Test
+  public void testDelayExtendedInWheel() throws Exception {
+    TimingWheelTaskQueue queue = new TimingWheelTaskQueue(1, 64);
+    SegmentUnitTaskContext context = newContext(0, 20);
+    queue.put(context);
+    // move it into its bucket, then extend its delay
+    queue.drainTo(new ArrayList<>());
+    context.updateDelay(200);
+
+    List<SegmentUnitTaskContext> contexts = drainUntilNotEmpty(queue, 1000);
+    assertEquals(1, contexts.size());
+    assertTrue(context.getDelay(TimeUnit.MILLISECONDS) <= 0);
+    assertEquals(0, queue.size());
+  }
+
+  @Test
+  public void testIdleForRounds() throws Exception {
+    TimingWheelTaskQueue queue = new TimingWheelTaskQueue(1, 16);
+    for (int i = 0; i < 10; i++) {
+      queue.put(newContext(i, i * 5));
+    }
+    Thread.sleep(100);
+    List<SegmentUnitTaskContext> contexts = new ArrayList<>();
+    assertEquals(10, queue.drainTo(contexts));
+    assertEquals(10, contexts.size());
+    assertEquals(0, queue.size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testWheelSizeNotPowerOfTwo() {
+    new TimingWheelTaskQueue(1, 100);
+  }
+}
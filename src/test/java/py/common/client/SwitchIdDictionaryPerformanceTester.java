@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package py.common.client;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import py.RequestResponseHelper;
+import py.SwitchIdDictionary;
+import py.test.TestBase;
+
+/**
+ * compare encoding and decoding the ids of a compact volume report with the random short codes of
+ * {@link RequestResponseHelper#checkAndPutSwitchValue} against the dense {@link
+ * SwitchIdDictionary}, for reports of 10k, 100k and 1m segment units.
+ *
+ * <p>Each segment unit carries the volume id, its instance and archive, and the three members of
+ * its membership, the same ids the switch report encodes.
+ */
+public class SwitchIdDictionaryPerformanceTester extends TestBase {
+  private static final Logger logger = LoggerFactory
+      .getLogger(SwitchIdDictionaryPerformanceTester.class);
+  private static final int INSTANCE_COUNT = 500;
+  private static final int ARCHIVES_PER_INSTANCE = 12;
+  private static final int IDS_PER_UNIT = 6;
+
+  /**
+   * the ids of the report, in the order the report encodes them.
+   */
+  private static long[] reportIds(int unitCount, Random random) {
+    long[] instanceIds = new long[INSTANCE_COUNT];
+    for (int i = 0; i < instanceIds.length; i++) {
+      instanceIds[i] = random.nextLong() & Long.MAX_VALUE;
+    }
+    long[] archiveIds = new long[INSTANCE_COUNT * ARCHIVES_PER_INSTANCE];
+    for (int i = 0; i < archiveIds.length; i++) {
+      archiveIds[i] = random.nextLong() & Long.MAX_VALUE;
+    }
+    long volumeId = random.nextLong() & Long.MAX_VALUE;
+
+    long[] ids = new long[unitCount * IDS_PER_UNIT];
+    int index = 0;
+    for (int unit = 0; unit < unitCount; unit++) {
+      int instance = random.nextInt(INSTANCE_COUNT);
+      ids[index++] = volumeId;
+      ids[index++] = instanceIds[random.nextInt(INSTANCE_COUNT)];
+      ids[index++] = instanceIds[random.nextInt(INSTANCE_COUNT)];
+      ids[index++] = instanceIds[random.nextInt(INSTANCE_COUNT)];
+      ids[index++] = archiveIds[instance * ARCHIVES_PER_INSTANCE
+          + random.nextInt(ARCHIVES_PER_INSTANCE)];
+      ids[index++] = instanceIds[instance];
+    }
+    return ids;
+  }
+
+  private static long runRandomShorts(long[] ids) {
+    long checksum = 0;
+    Map<Long, Short> switchValue = new HashMap<>();
+    Set<Short> checkSet = new HashSet<>();
+    short[] codes = new short[ids.length];
+    for (int i = 0; i < ids.length; i++) {
+      RequestResponseHelper.checkAndPutSwitchValue(ids[i], switchValue, checkSet);
+      codes[i] = switchValue.get(ids[i]);
+    }
+
+    Map<Short, Long> switchValueReversal = new HashMap<>();
+    for (Map.Entry<Long, Short> entry : switchValue.entrySet()) {
+      switchValueReversal.put(entry.getValue(), entry.getKey());
+    }
+    for (short code : codes) {
+      checksum += switchValueReversal.get(code);
+    }
+    return checksum;
+  }
+
+  private static long runDictionary(long[] ids) {
+    long checksum = 0;
+    SwitchIdDictionary dictionary = new SwitchIdDictionary();
+    short[] codes = new short[ids.length];
+    for (int i = 0; i < ids.length; i++) {
+      codes[i] = dictionary.encode(ids[i]);
+    }
+
+    SwitchIdDictionary.Decoder decoder = SwitchIdDictionary
+        .decoder(dictionary.toSwitchStructValue());
+    for (short code : codes) {
+      checksum += decoder.decode(code);
+    }
+    return checksum;
+  }
+
+  @Test
+  public void testEncodeAndDecode() {
+    int[] unitCounts = {10000, 100000, 1000000};
+    Random random = new Random(1);
+    long[][] reports = new long[unitCounts.length][];
+    for (int i = 0; i < unitCounts.length; i++) {
+      reports[i] = reportIds(unitCounts[i], random);
+    }
+
+    for (int round = 0; round < 5; round++) {
+      logger.debug("-------round {}---------", round);
+      for (int i = 0; i < unitCounts.length; i++) {
+        long time = System.nanoTime();
+        long randomChecksum = runRandomShorts(reports[i]);
+        long randomNanos = System.nanoTime() - time;
+
+        time = System.nanoTime();
+        long dictionaryChecksum = runDictionary(reports[i]);
+        long dictionaryNanos = System.nanoTime() - time;
+
+        logger.debug("{} segment units: random shorts {} ms, dictionary {} ms, checksums {} {}",
+            unitCounts[i], randomNanos / 1000000, dictionaryNanos / 1000000, randomChecksum,
+            dictionaryChecksum);
+      }
+    }
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package py.common.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+import py.SwitchIdDictionary;
+import py.test.TestBase;
+
+public class SwitchIdDictionaryTest extends TestBase {
+  @Test
+  public void testCodesAreDenseAndDeterministic() {
+    long[] ids = {1234567890123L, 5L, -7L, 0L, 1234567890123L, Long.MAX_VALUE, 5L};
+    SwitchIdDictionary dictionary = new SwitchIdDictionary();
+    SwitchIdDictionary another = new SwitchIdDictionary();
+    short[] expected = {0, 1, 2, 3, 0, 4, 1};
+    for (int i = 0; i < ids.length; i++) {
+      assertEquals(expected[i], dictionary.encode(ids[i]));
+      assertEquals(expected[i], another.encode(ids[i]));
+    }
+    assertEquals(5, dictionary.size());
+    assertEquals(dictionary.toSwitchStructValue(), another.toSwitchStructValue());
+  }
+
+  @Test
+  public void testRoundTripOfFullDictionary() {
+    Random random = new Random(1);
+    SwitchIdDictionary dictionary = new SwitchIdDictionary();
+    long[] ids = new long[SwitchIdDictionary.MAX_SIZE];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = random.nextLong();
+      assertEquals((short) i, dictionary.encode(ids[i]));
+    }
+    try {
+      dictionary.encode(random.nextLong());
+      fail();
+    } catch (IllegalArgumentException e) {
+      logger.debug("the dictionary is full", e);
+    }
+
+    Map<Long, Short> switchStructValue = dictionary.toSwitchStructValue();
+    assertEquals(ids.length, switchStructValue.size());
+    SwitchIdDictionary.Decoder decoder = SwitchIdDictionary.decoder(switchStructValue);
+    for (long id : ids) {
+      assertEquals(id, decoder.decode(dictionary.encode(id)));
+    }
+  }
+
+  @Test
+  public void testDecodeSparseCodes() {
+    // the codes of the random short encoder
+    Map<Long, Short> switchStructValue = new HashMap<>();
+    switchStructValue.put(100L, (short) -3);
+    switchStructValue.put(200L, (short) 7000);
+    SwitchIdDictionary.Decoder decoder = SwitchIdDictionary.decoder(switchStructValue);
+    assertEquals(100L, decoder.decode((short) -3));
+    assertEquals(200L, decoder.decode((short) 7000));
+    try {
+      decoder.decode((short) 1);
+      fail();
+    } catch (IllegalArgumentException e) {
+      logger.debug("unknown code", e);
+    }
+  }
+}
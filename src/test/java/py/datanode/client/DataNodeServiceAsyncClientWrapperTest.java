@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package py.datanode.client;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.thrift.async.AsyncMethodCallback;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import py.client.thrift.GenericThriftClientFactory;
+import py.common.struct.EndPoint;
+import py.datanode.client.DataNodeServiceAsyncClientWrapper.BroadcastResult;
+import py.exception.FailedToSendBroadcastRequestsException;
+import py.exception.QuorumNotFoundException;
+import py.test.TestBase;
+import py.thrift.datanode.service.BroadcastRequest;
+import py.thrift.datanode.service.BroadcastResponse;
+import py.thrift.datanode.service.BroadcastTypeThrift;
+import py.thrift.datanode.service.DataNodeService;
+import py.thrift.datanode.service.DataNodeService.AsyncClient.broadcast_call;
+import py.thrift.datanode.service.SegmentNotFoundExceptionThrift;
+import py.thrift.share.ResourceExhaustedExceptionThrift;
+
+public class DataNodeServiceAsyncClientWrapperTest extends TestBase {
+  private final List<AsyncMethodCallback<broadcast_call>> heldCallbacks = new ArrayList<>();
+  private GenericThriftClientFactory<DataNodeService.AsyncIface> clientFactory;
+  private ScheduledExecutorService backoffTimer;
+  private ExecutorService broadcastExecutor;
+  private DataNodeServiceAsyncClientWrapper wrapper;
+  private volatile String lastCallThread;
+
+  @SuppressWarnings("unchecked")
+  @Before
+  public void setUp() throws Exception {
+    clientFactory = mock(GenericThriftClientFactory.class);
+    backoffTimer = Executors.newSingleThreadScheduledExecutor(
+        runnable -> new Thread(runnable, "test-backoff-timer"));
+    broadcastExecutor = Executors.newSingleThreadExecutor(
+        runnable -> new Thread(runnable, "test-broadcast-executor"));
+    // decide in the callbacks, so that a broadcast is done as soon as its quorum replies
+    wrapper = new DataNodeServiceAsyncClientWrapper(clientFactory, backoffTimer, Runnable::run);
+  }
+
+  @After
+  public void tearDown() {
+    backoffTimer.shutdownNow();
+    broadcastExecutor.shutdownNow();
+  }
+
+  @Test
+  public void completeOnQuorumWithoutWaitingForTheRest() throws Exception {
+    EndPoint ep1 = new EndPoint("localhost", 10001);
+    EndPoint ep2 = new EndPoint("localhost", 10002);
+    EndPoint ep3 = new EndPoint("localhost", 10003);
+    mockClient(ep1, Reply.GOOD);
+    mockClient(ep2, Reply.GOOD);
+    mockClient(ep3, Reply.HOLD);
+
+    CompletableFuture<BroadcastResult> future = wrapper
+        .broadcastAsync(newRequest(), 1000, 2, true, Arrays.asList(ep1, ep2, ep3));
+    // the broadcast is decided by the callbacks, nobody waits for the third response
+    Assert.assertTrue(future.isDone());
+    BroadcastResult result = future.get();
+    Assert.assertEquals(2, result.getGoodResponses().size());
+    Assert.assertEquals(1, heldCallbacks.size());
+  }
+
+  @Test
+  public void completeAfterAllResponses() throws Exception {
+    EndPoint ep1 = new EndPoint("localhost", 10001);
+    EndPoint ep2 = new EndPoint("localhost", 10002);
+    EndPoint ep3 = new EndPoint("localhost", 10003);
+    mockClient(ep1, Reply.GOOD);
+    mockClient(ep2, Reply.GOOD);
+    mockClient(ep3, Reply.HOLD);
+
+    CompletableFuture<BroadcastResult> future = wrapper
+        .broadcastAsync(newRequest(), 1000, 2, false, Arrays.asList(ep1, ep2, ep3));
+    Assert.assertFalse(future.isDone());
+
+    heldCallbacks.get(0).onError(new SegmentNotFoundExceptionThrift());
+    Assert.assertTrue(future.isDone());
+    BroadcastResult result = future.get();
+    Assert.assertEquals(2, result.getGoodResponses().size());
+    Assert.assertEquals(1, result.getNumSegmentNotFoundExceptions());
+  }
+
+  @Test
+  public void quorumNotFound() throws Exception {
+    EndPoint ep1 = new EndPoint("localhost", 10001);
+    EndPoint ep2 = new EndPoint("localhost", 10002);
+    EndPoint ep3 = new EndPoint("localhost", 10003);
+    mockClient(ep1, Reply.GOOD);
+    mockClient(ep2, Reply.NOT_FOUND);
+    mockClient(ep3, Reply.NOT_FOUND);
+
+    CompletableFuture<BroadcastResult> future = wrapper
+        .broadcastAsync(newRequest(), 1000, 2, true, Arrays.asList(ep1, ep2, ep3));
+    try {
+      future.get();
+      Assert.fail("the broadcast should not succeed");
+    } catch (ExecutionException e) {
+      Assert.assertTrue(e.getCause() instanceof QuorumNotFoundException);
+    }
+
+    try {
+      wrapper.broadcast(newRequest(), 1000, 2, true, Arrays.asList(ep1, ep2, ep3));
+      Assert.fail("the broadcast should not succeed");
+    } catch (QuorumNotFoundException e) {
+      Assert.assertFalse(e.getBroadcastResult().isBroadcastSucceeded());
+    }
+  }
+
+  @Test
+  public void retryResourceExhaustedAfterBackoff() throws Exception {
+    EndPoint ep1 = new EndPoint("localhost", 10001);
+    EndPoint ep2 = new EndPoint("localhost", 10002);
+    EndPoint ep3 = new EndPoint("localhost", 10003);
+    mockClient(ep1, Reply.GOOD);
+    mockClient(ep2, Reply.NOT_FOUND);
+    AtomicInteger ep3Calls = mockClient(ep3, Reply.EXHAUSTED_ONCE);
+
+    wrapper = new DataNodeServiceAsyncClientWrapper(clientFactory, backoffTimer,
+        broadcastExecutor);
+    BroadcastResult result = wrapper
+        .broadcastAsync(null, 0, newRequest(), 1000, 2, false, Arrays.asList(ep1, ep2, ep3), true,
+            10000)
+        .get(10, TimeUnit.SECONDS);
+    Assert.assertEquals(2, ep3Calls.get());
+    // the timer only timed the backoff, the retry was sent from the broadcast executor
+    Assert.assertEquals("test-broadcast-executor", lastCallThread);
+    Assert.assertEquals(1, result.getBackoffTimes());
+    Assert.assertTrue(result.getGoodResponses().containsKey(ep1));
+    Assert.assertTrue(result.getGoodResponses().containsKey(ep3));
+  }
+
+  @Test
+  public void interruptedWaitIsNotSwallowed() throws Exception {
+    EndPoint ep1 = new EndPoint("localhost", 10001);
+    EndPoint ep2 = new EndPoint("localhost", 10002);
+    EndPoint ep3 = new EndPoint("localhost", 10003);
+    mockClient(ep1, Reply.GOOD);
+    mockClient(ep2, Reply.HOLD);
+    mockClient(ep3, Reply.HOLD);
+
+    Thread.currentThread().interrupt();
+    try {
+      wrapper.broadcast(newRequest(), 1000, 2, true, Arrays.asList(ep1, ep2, ep3));
+      Assert.fail("an interrupted broadcast should not succeed");
+    } catch (FailedToSendBroadcastRequestsException e) {
+      Assert.assertFalse(e.getBroadcastResult().isBroadcastSucceeded());
+    } finally {
+      Assert.assertTrue(Thread.interrupted());
+    }
+  }
+
+  private BroadcastRequest newRequest() {
+    BroadcastRequest request = new BroadcastRequest();
+    request.setRequestId(1L);
+    request.setLogType(BroadcastTypeThrift.GiveMeYourMembership);
+    return request;
+  }
+
+  @SuppressWarnings("unchecked")
+  private AtomicInteger mockClient(EndPoint endPoint, Reply reply) throws Exception {
+    AtomicInteger calls = new AtomicInteger();
+    DataNodeService.AsyncIface client = mock(DataNodeService.AsyncIface.class);
+    doAnswer(invocation -> {
+      BroadcastRequest request = (BroadcastRequest) invocation.getArguments()[0];
+      AsyncMethodCallback<broadcast_call> callback =
+          (AsyncMethodCallback<broadcast_call>) invocation.getArguments()[1];
+      int call = calls.incrementAndGet();
+      lastCallThread = Thread.currentThread().getName();
+      if (reply == Reply.HOLD) {
+        heldCallbacks.add(callback);
+      } else if (reply == Reply.NOT_FOUND) {
+        callback.onError(new SegmentNotFoundExceptionThrift());
+      } else if (reply == Reply.EXHAUSTED_ONCE && call == 1) {
+        callback.onError(new ResourceExhaustedExceptionThrift());
+      } else {
+        BroadcastResponse response = new BroadcastResponse();
+        response.setRequestId(request.getRequestId());
+        response.setMyInstanceId(endPoint.getPort());
+        broadcast_call broadcastCall = mock(broadcast_call.class);
+        when(broadcastCall.getResult()).thenReturn(response);
+        callback.onComplete(broadcastCall);
+      }
+      return null;
+    }).when(client).broadcast(any(BroadcastRequest.class), any(AsyncMethodCallback.class));
+    when(clientFactory.generateAsyncClient(eq(endPoint), anyLong(), anyInt())).thenReturn(client);
+    return calls;
+  }
+
+  private enum Reply {
+    GOOD, HOLD, NOT_FOUND, EXHAUSTED_ONCE
+  }
+}
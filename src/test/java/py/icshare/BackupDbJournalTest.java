@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package py.icshare;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import py.common.Utils;
+import py.test.TestBase;
+
+public class BackupDbJournalTest extends TestBase {
+  private Path directory;
+
+  private static Map<String, List<String>> tables(String tableName, String... rows) {
+    Map<String, List<String>> tables = new LinkedHashMap<>();
+    tables.put(tableName, Arrays.asList(rows));
+    return tables;
+  }
+
+  @Before
+  public void createDirectory() throws IOException {
+    directory = Files.createTempDirectory("backupDbJournal");
+  }
+
+  @After
+  public void deleteDirectory() throws Exception {
+    Utils.deleteDirectory(directory.toFile());
+  }
+
+  private Path journalPath() {
+    return directory.resolve(BackupDbJournal.JOURNAL_FILE_NAME);
+  }
+
+  @Test
+  public void replay() throws Exception {
+    BackupDbJournal journal = new BackupDbJournal(directory, 0);
+    assertTrue(journal.isEmpty());
+    journal.append(1L, tables("Domain", "{\"id\":1}", "{\"id\":2}"));
+    journal.append(2L, tables("ROLE", "{\"name\":\"admin\"}"));
+    journal.append(3L, tables("Domain", "{\"id\":3}"));
+    journal.append(null, tables("StoragePool"));
+    journal.close();
+
+    journal = new BackupDbJournal(directory, 0);
+    assertEquals(3L, journal.getSequenceId().longValue());
+    assertEquals(Collections.singletonList("{\"id\":3}"), journal.getRows("Domain"));
+    assertEquals(Collections.singletonList("{\"name\":\"admin\"}"), journal.getRows("ROLE"));
+    assertEquals(0, journal.getRows("StoragePool").size());
+    assertEquals(0, journal.getRows("ACCOUNT").size());
+    journal.close();
+  }
+
+  /**
+   * the process dies in the middle of an append, the torn record is dropped and the journal can
+   * be appended to again.
+   */
+  @Test
+  public void recoverFromTornRecord() throws Exception {
+    BackupDbJournal journal = new BackupDbJournal(directory, 0);
+    journal.append(1L, tables("Domain", "{\"id\":1}"));
+    journal.append(2L, tables("Domain", "{\"id\":2}"));
+    journal.close();
+
+    long size = Files.size(journalPath());
+    try (FileChannel channel = FileChannel.open(journalPath(), StandardOpenOption.WRITE)) {
+      channel.truncate(size - 3);
+    }
+
+    journal = new BackupDbJournal(directory, 0);
+    assertEquals(1L, journal.getSequenceId().longValue());
+    assertEquals(Collections.singletonList("{\"id\":1}"), journal.getRows("Domain"));
+    journal.append(3L, tables("Domain", "{\"id\":3}"));
+    journal.close();
+
+    journal = new BackupDbJournal(directory, 0);
+    assertEquals(3L, journal.getSequenceId().longValue());
+    assertEquals(Collections.singletonList("{\"id\":3}"), journal.getRows("Domain"));
+    journal.close();
+  }
+
+  @Test
+  public void recoverFromCorruptedRecord() throws Exception {
+    BackupDbJournal journal = new BackupDbJournal(directory, 0);
+    journal.append(1L, tables("Domain", "{\"id\":1}"));
+    long goodSize = Files.size(journalPath());
+    journal.append(2L, tables("Domain", "{\"id\":2}"));
+    journal.close();
+
+    // flip a byte in the payload of the last record
+    try (FileChannel channel = FileChannel.open(journalPath(), StandardOpenOption.READ,
+        StandardOpenOption.WRITE)) {
+      ByteBuffer buffer = ByteBuffer.allocate(1);
+      channel.read(buffer, goodSize + 10);
+      buffer.put(0, (byte) (buffer.get(0) ^ 0xff));
+      buffer.rewind();
+      channel.write(buffer, goodSize + 10);
+    }
+
+    journal = new BackupDbJournal(directory, 0);
+    assertEquals(1L, journal.getSequenceId().longValue());
+    assertEquals(Collections.singletonList("{\"id\":1}"), journal.getRows("Domain"));
+    assertEquals(goodSize, Files.size(journalPath()));
+    journal.close();
+  }
+
+  @Test
+  public void compact() throws Exception {
+    BackupDbJournal journal = new BackupDbJournal(directory, 0);
+    String row = String.format("{\"description\":\"%01000d\"}", 0);
+    for (long i = 0; i < 5000; i++) {
+      journal.append(i, tables("Domain", row, "{\"id\":" + i + "}"));
+    }
+    // compacted on the way, so the journal holds a few records only
+    assertTrue(Files.size(journalPath()) < 2 * 1024 * 1024);
+    journal.close();
+
+    journal = new BackupDbJournal(directory, 0);
+    assertEquals(4999L, journal.getSequenceId().longValue());
+    assertEquals(Arrays.asList(row, "{\"id\":4999}"), journal.getRows("Domain"));
+    journal.compact();
+    journal.close();
+
+    journal = new BackupDbJournal(directory, 0);
+    assertEquals(4999L, journal.getSequenceId().longValue());
+    assertEquals(Arrays.asList(row, "{\"id\":4999}"), journal.getRows("Domain"));
+    journal.close();
+
+    BackupDbJournal emptyJournal = new BackupDbJournal(
+        Files.createTempDirectory(directory, "empty"), 0);
+    assertNull(emptyJournal.getSequenceId());
+    emptyJournal.close();
+  }
+
+  @Test
+  public void flushPeriodically() throws Exception {
+    BackupDbJournal journal = new BackupDbJournal(directory, 10);
+    journal.append(1L, tables("Domain", "{\"id\":1}"));
+    Thread.sleep(50);
+    journal.flush();
+    journal.close();
+
+    journal = new BackupDbJournal(directory, 10);
+    assertEquals(1L, journal.getSequenceId().longValue());
+    journal.close();
+  }
+}
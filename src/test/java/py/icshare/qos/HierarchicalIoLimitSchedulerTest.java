@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package py.icshare.qos;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.LocalTime;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+import py.icshare.qos.HierarchicalIoLimitScheduler.AdmissionLatency;
+import py.icshare.qos.HierarchicalIoLimitScheduler.QosLevel;
+import py.io.qos.IoLimitationEntry;
+import py.test.TestBase;
+
+public class HierarchicalIoLimitSchedulerTest extends TestBase {
+  private static IoLimitationEntry entry(long upperIops, long lowerIops) {
+    return new IoLimitationEntry(1L, upperIops, lowerIops, 0, 0, LocalTime.MIN, LocalTime.MAX);
+  }
+
+  private static IoLimitationRelationship relationship(long driverContainerId, long volumeId) {
+    IoLimitationRelationship relationship = new IoLimitationRelationship();
+    relationship.setDriverContainerId(driverContainerId);
+    relationship.setVolumeId(volumeId);
+    return relationship;
+  }
+
+  private static final long WARM_UP_NANOS = TimeUnit.SECONDS.toNanos(2);
+  private static final long COUNTING_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+  private final AtomicLong clock = new AtomicLong(0);
+
+  /**
+   * a scheduler on the clock of the test, whose waits move the clock on instead of sleeping.
+   */
+  private HierarchicalIoLimitScheduler newScheduler(long poolIops) {
+    return new HierarchicalIoLimitScheduler(poolIops, clock::get, clock::addAndGet);
+  }
+
+  /**
+   * run reads on the volumes as if each had a thread of its own reading again as soon as its last
+   * read is admitted, and return the reads admitted to each after a warm up, when the buckets have
+   * spent their initial bursts. The reads are issued in the order of their time on the clock of
+   * the test, so the result is the same on every run.
+   */
+  private long[] runReads(HierarchicalIoLimitScheduler scheduler, long[][] volumes) {
+    long[] readyNanos = new long[volumes.length];
+    long[] reads = new long[volumes.length];
+    while (true) {
+      int next = 0;
+      for (int i = 1; i < volumes.length; i++) {
+        if (readyNanos[i] < readyNanos[next]) {
+          next = i;
+        }
+      }
+      if (readyNanos[next] >= WARM_UP_NANOS + COUNTING_NANOS) {
+        break;
+      }
+
+      clock.set(readyNanos[next]);
+      scheduler.tryGettingReadIos(volumes[next][0], volumes[next][1], 1);
+      readyNanos[next] = clock.get();
+      if (readyNanos[next] >= WARM_UP_NANOS
+          && readyNanos[next] < WARM_UP_NANOS + COUNTING_NANOS) {
+        reads[next]++;
+      }
+    }
+    return reads;
+  }
+
+  @Test
+  public void testSharesByWeight() {
+    HierarchicalIoLimitScheduler scheduler = new HierarchicalIoLimitScheduler(1000);
+    scheduler.setDriverLimitation(1L, entry(0, 3));
+    scheduler.setDriverLimitation(2L, entry(0, 1));
+    assertEquals(750, scheduler.getAssuredIops(1L));
+    assertEquals(250, scheduler.getAssuredIops(2L));
+
+    scheduler.bind(relationship(1L, 10L), null);
+    scheduler.bind(relationship(1L, 11L), null);
+    assertEquals(375, scheduler.getAssuredIops(1L, 10L));
+    assertEquals(375, scheduler.getAssuredIops(1L, 11L));
+
+    // a cap on the driver is split among its volumes instead of its share
+    scheduler.setDriverLimitation(1L, entry(300, 3));
+    assertEquals(150, scheduler.getAssuredIops(1L, 10L));
+
+    scheduler.unbind(relationship(1L, 11L));
+    assertEquals(300, scheduler.getAssuredIops(1L, 10L));
+    scheduler.removeDriver(2L);
+    assertEquals(1000, scheduler.getAssuredIops(1L));
+    assertEquals(0, scheduler.getAssuredIops(2L));
+  }
+
+  @Test
+  public void testIdleTenantLendsItsShare() {
+    HierarchicalIoLimitScheduler scheduler = newScheduler(1000);
+    scheduler.bind(relationship(1L, 1L), null);
+    scheduler.bind(relationship(2L, 2L), null);
+    assertEquals(500, scheduler.getAssuredIops(1L, 1L));
+
+    // the busy volume gets the whole pool, 1000 iops for two seconds
+    long[] reads = runReads(scheduler, new long[][]{{1L, 1L}});
+    assertEquals(2000, reads[0]);
+    assertTrue(scheduler.getAdmissionLatency(QosLevel.Pool).getMaxNanos() > 0);
+  }
+
+  @Test
+  public void testBusyTenantsGetTheirShares() {
+    HierarchicalIoLimitScheduler scheduler = newScheduler(1000);
+    scheduler.setDriverLimitation(1L, entry(0, 3));
+    scheduler.setDriverLimitation(2L, entry(0, 1));
+
+    // 750 and 250 iops of their shares for two seconds, the pool has nothing more to lend
+    long[] reads = runReads(scheduler, new long[][]{{1L, 1L}, {2L, 2L}});
+    assertTrue(reads[0] + reads[1] <= 2000);
+    assertTrue(reads[0] >= 1490);
+    assertTrue(reads[1] >= 490);
+  }
+
+  @Test
+  public void testVolumeCap() {
+    HierarchicalIoLimitScheduler scheduler = newScheduler(1000);
+    scheduler.bind(relationship(1L, 1L), entry(100, 0));
+
+    long[] reads = runReads(scheduler, new long[][]{{1L, 1L}});
+    assertEquals(200, reads[0]);
+    // a burst of 100 reads at once, then 400 reads in four seconds waiting 10ms each
+    AdmissionLatency latency = scheduler.getAdmissionLatency(QosLevel.Volume);
+    assertEquals(500, latency.getCount());
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(8), latency.getMeanNanos());
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(10), latency.getMaxNanos());
+  }
+}
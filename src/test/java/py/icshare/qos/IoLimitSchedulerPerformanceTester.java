@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package py.icshare.qos;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import py.io.qos.IoLimitManager;
+import py.io.qos.IoLimitationEntry;
+import py.periodic.UnableToStartException;
+import py.test.TestBase;
+
+/**
+ * measure the permits per second taken by 4K random writes through the scheduler, with the limits
+ * off, with limits too high to be reached so that only the cost of taking permits counts, and
+ * with an IOPS limit. The permits are taken in bulk, or one by one as before.
+ */
+public class IoLimitSchedulerPerformanceTester extends TestBase {
+  private static final Logger logger = LoggerFactory
+      .getLogger(IoLimitSchedulerPerformanceTester.class);
+  private static final int THREAD_COUNT = 4;
+  private static final long RUN_TIME_MS = 5000;
+  private static final int WRITE_SIZE = 4096;
+
+  @Test
+  public void testPermitsPerSecond() throws Exception {
+    IoLimitationEntry unreachable = new IoLimitationEntry(1L, 100000000, 0, Integer.MAX_VALUE, 0,
+        LocalTime.MIN, LocalTime.MAX);
+    IoLimitationEntry limited = new IoLimitationEntry(2L, 20000, 0, Integer.MAX_VALUE, 0,
+        LocalTime.MIN, LocalTime.MAX);
+
+    run("limits off, bulk", new TokenBucketIoLimitManager(), null);
+    run("limits off, one by one", new SingleIoLimitManager(new TokenBucketIoLimitManager()),
+        null);
+    run("unreachable limits, bulk", new TokenBucketIoLimitManager(), unreachable);
+    run("unreachable limits, one by one",
+        new SingleIoLimitManager(new TokenBucketIoLimitManager()), unreachable);
+    run("20000 iops, bulk", new TokenBucketIoLimitManager(), limited);
+    run("20000 iops, one by one", new SingleIoLimitManager(new TokenBucketIoLimitManager()),
+        limited);
+  }
+
+  private void run(String name, IoLimitManager manager, IoLimitationEntry entry)
+      throws Exception {
+    if (entry != null) {
+      manager.updateLimitationsAndOpen(entry);
+    }
+    IoLimitScheduler scheduler = new IoLimitScheduler(manager);
+    AtomicBoolean stop = new AtomicBoolean(false);
+    AtomicLong writes = new AtomicLong(0);
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < THREAD_COUNT; i++) {
+      Thread thread = new Thread(() -> {
+        long count = 0;
+        while (!stop.get()) {
+          scheduler.tryGettingWriteIos(1);
+          scheduler.tryWriteThroughput(WRITE_SIZE);
+          count++;
+        }
+        writes.addAndGet(count);
+      });
+      thread.start();
+      threads.add(thread);
+    }
+    long start = System.currentTimeMillis();
+    Thread.sleep(RUN_TIME_MS);
+    stop.set(true);
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    long elapsed = System.currentTimeMillis() - start;
+    long writesPerSecond = writes.get() * 1000 / elapsed;
+    logger.debug("{}: {} writes per second, {} IO permits per second", name, writesPerSecond,
+        writesPerSecond * IoLimitScheduler.WRITE_WEIGHT);
+    manager.close();
+  }
+
+  /**
+   * a limit manager only taking a single IO permit at a time, like the ones before bulk permits.
+   */
+  private static class SingleIoLimitManager implements IoLimitManager {
+    private final TokenBucketIoLimitManager delegate;
+
+    SingleIoLimitManager(TokenBucketIoLimitManager delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void updateLimitationsAndOpen(IoLimitationEntry ioLimitationEntry)
+        throws UnableToStartException {
+      delegate.updateLimitationsAndOpen(ioLimitationEntry);
+    }
+
+    @Override
+    public void close() {
+      delegate.close();
+    }
+
+    @Override
+    public boolean isOpen() {
+      return delegate.isOpen();
+    }
+
+    @Override
+    public IoLimitationEntry getIoLimitationEntry() {
+      return delegate.getIoLimitationEntry();
+    }
+
+    @Override
+    public void tryGettingAnIo() {
+      delegate.tryGettingAnIo();
+    }
+
+    @Override
+    public void tryThroughput(long size) {
+      delegate.tryThroughput(size);
+    }
+
+    @Override
+    public void slowDownExceptFor(long volumeId, int level) {
+      delegate.slowDownExceptFor(volumeId, level);
+    }
+
+    @Override
+    public void resetSlowLevel(long volumeId) {
+      delegate.resetSlowLevel(volumeId);
+    }
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package py.icshare.qos;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+import py.test.TestBase;
+
+public class TokenBucketTest extends TestBase {
+  private final AtomicLong clock = new AtomicLong(0);
+
+  @Test
+  public void testStartFullAndRefill() {
+    TokenBucket bucket = new TokenBucket(1000, 100, clock::get);
+    assertEquals(100, bucket.availablePermits());
+    assertTrue(bucket.tryAcquire(60));
+    assertFalse(bucket.tryAcquire(60));
+    assertEquals(40, bucket.availablePermits());
+
+    // 10ms refills 10 permits
+    clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(10));
+    assertEquals(50, bucket.availablePermits());
+
+    // never more than the capacity
+    clock.addAndGet(TimeUnit.SECONDS.toNanos(10));
+    assertEquals(100, bucket.availablePermits());
+  }
+
+  @Test
+  public void testReserveLeavesDebt() {
+    TokenBucket bucket = new TokenBucket(1000, 100, clock::get);
+    assertEquals(0, bucket.reserve(100));
+    // the next 50 permits are paid back in 50ms
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(50), bucket.reserve(50));
+    assertEquals(-50, bucket.availablePermits());
+    // and the ones after have to wait for the debt as well
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(60), bucket.reserve(10));
+  }
+
+  @Test
+  public void testTryReserveWithinTimeout() {
+    TokenBucket bucket = new TokenBucket(1000, 100, clock::get);
+    assertEquals(0, bucket.tryReserve(100, 0));
+    assertEquals(-1, bucket.tryReserve(20, TimeUnit.MILLISECONDS.toNanos(10)));
+    // nothing is taken by a failed try
+    assertEquals(0, bucket.availablePermits());
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(20),
+        bucket.tryReserve(20, TimeUnit.MILLISECONDS.toNanos(20)));
+    assertEquals(-20, bucket.availablePermits());
+  }
+
+  @Test
+  public void testSetRate() {
+    TokenBucket bucket = new TokenBucket(1000, 100, clock::get);
+    bucket.setRate(10, 10);
+    assertEquals(10, bucket.availablePermits());
+    assertTrue(bucket.tryAcquire(10));
+    clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+    assertEquals(1, bucket.availablePermits());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRateNotPositive() {
+    new TokenBucket(0);
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package py.infocenter.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Test;
+import py.test.TestBase;
+import py.volume.VolumeMetadata;
+
+public class InformationCenterClientWrapperTest extends TestBase {
+  private static final long VOLUME_ID = 1L;
+  private static final int SEGMENT_COUNT = 10000;
+
+  @Test
+  public void pipelinedPaginationGetsAllSegments() throws Exception {
+    PagedVolumeInformationCenter infoCenter = new PagedVolumeInformationCenter(VOLUME_ID,
+        SEGMENT_COUNT, 0, Collections.emptySet());
+    InformationCenterClientWrapper client = new InformationCenterClientWrapper(infoCenter.proxy());
+
+    assertSegments(client.getVolumeByPagination(VOLUME_ID, 1L).getVolumeMetadata());
+    assertSegments(client.getVolumeByPagination(VOLUME_ID, 1L, 3).getVolumeMetadata());
+  }
+
+  @Test
+  public void shortPagesAreFilledUp() throws Exception {
+    Set<Integer> shortPageStarts = new HashSet<>();
+    shortPageStarts.add(3000);
+    shortPageStarts.add(4500);
+    PagedVolumeInformationCenter infoCenter = new PagedVolumeInformationCenter(VOLUME_ID,
+        SEGMENT_COUNT, 0, shortPageStarts);
+    InformationCenterClientWrapper client = new InformationCenterClientWrapper(infoCenter.proxy());
+
+    assertSegments(client.getVolumeByPagination(VOLUME_ID, 1L, 4).getVolumeMetadata());
+  }
+
+  private void assertSegments(VolumeMetadata volumeMetadata) {
+    assertEquals(SEGMENT_COUNT, volumeMetadata.getSegmentTableSize());
+    for (int i = 0; i < SEGMENT_COUNT; i++) {
+      assertNotNull(volumeMetadata.getSegmentByIndex(i));
+    }
+  }
+}
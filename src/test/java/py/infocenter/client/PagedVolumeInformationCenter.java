@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package py.infocenter.client;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import py.RequestResponseHelper;
+import py.archive.segment.SegId;
+import py.archive.segment.SegmentMetadata;
+import py.test.TestUtils;
+import py.thrift.icshare.GetVolumeRequest;
+import py.thrift.icshare.GetVolumeResponse;
+import py.thrift.infocenter.service.InformationCenter;
+import py.thrift.share.VolumeMetadataThrift;
+import py.volume.VolumeInAction;
+import py.volume.VolumeMetadata;
+import py.volume.VolumeStatus;
+import py.volume.VolumeType;
+
+/**
+ * A stub info center only serving the pages of one volume, each after a fixed latency.
+ *
+ * <p>The pages starting at the given short page indexes only return half of the segments asked
+ * for.
+ */
+class PagedVolumeInformationCenter implements InvocationHandler {
+  private static final long SEGMENT_SIZE = 16L * 1024 * 1024;
+
+  private final long volumeId;
+  private final int segmentCount;
+  private final long latencyMs;
+  private final Set<Integer> shortPageStarts;
+  private final Map<String, VolumeMetadataThrift> pages = new ConcurrentHashMap<>();
+  private final AtomicInteger requestCount = new AtomicInteger();
+
+  PagedVolumeInformationCenter(long volumeId, int segmentCount, long latencyMs,
+      Set<Integer> shortPageStarts) {
+    this.volumeId = volumeId;
+    this.segmentCount = segmentCount;
+    this.latencyMs = latencyMs;
+    this.shortPageStarts = shortPageStarts;
+  }
+
+  InformationCenter.Iface proxy() {
+    return (InformationCenter.Iface) Proxy.newProxyInstance(getClass().getClassLoader(),
+        new Class<?>[]{InformationCenter.Iface.class}, this);
+  }
+
+  int getRequestCount() {
+    return requestCount.get();
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    if (!method.getName().equals("getVolume")) {
+      throw new UnsupportedOperationException(method.getName());
+    }
+    requestCount.incrementAndGet();
+    Thread.sleep(latencyMs);
+
+    GetVolumeRequest request = (GetVolumeRequest) args[0];
+    int startIndex = request.getStartSegmentIndex();
+    int count = request.getPaginationNumber();
+    if (shortPageStarts.contains(startIndex)) {
+      count /= 2;
+    }
+    int endIndex = Math.min(startIndex + count, segmentCount);
+    GetVolumeResponse response = new GetVolumeResponse();
+    response.setRequestId(request.getRequestId());
+    response.setVolumeMetadata(
+        pages.computeIfAbsent(startIndex + "-" + endIndex, key -> buildPage(startIndex, endIndex)));
+    response.setNextStartSegmentIndex(endIndex);
+    response.setLeftSegment(endIndex < segmentCount);
+    return response;
+  }
+
+  private VolumeMetadataThrift buildPage(int startIndex, int endIndex) {
+    VolumeMetadata volumeMetadata = new VolumeMetadata();
+    volumeMetadata.setAccountId(1L);
+    volumeMetadata.setVolumeId(volumeId);
+    volumeMetadata.setRootVolumeId(volumeId);
+    volumeMetadata.setName("paged_volume");
+    volumeMetadata.setSegmentSize(SEGMENT_SIZE);
+    volumeMetadata.setVolumeSize(SEGMENT_SIZE * segmentCount);
+    volumeMetadata.setVolumeType(VolumeType.REGULAR);
+    volumeMetadata.setVolumeStatus(VolumeStatus.Available);
+    volumeMetadata.setInAction(VolumeInAction.NULL);
+    volumeMetadata.setVersion(1);
+    volumeMetadata.setDomainId(1L);
+    volumeMetadata.setVolumeSource(VolumeMetadata.VolumeSourceType.CREATE_VOLUME);
+    for (int i = startIndex; i < endIndex; i++) {
+      SegmentMetadata segmentMetadata = TestUtils
+          .generateSegmentMetadata(new SegId(volumeId, i), VolumeType.REGULAR);
+      volumeMetadata.addSegmentMetadata(segmentMetadata, segmentMetadata.getLatestMembership());
+    }
+    return RequestResponseHelper.buildThriftVolumeFrom(volumeMetadata, true);
+  }
+}
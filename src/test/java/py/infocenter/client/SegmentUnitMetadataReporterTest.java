@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package py.infocenter.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import py.archive.segment.SegId;
+import py.archive.segment.SegmentUnitMetadata;
+import py.archive.segment.SegmentUnitStatus;
+import py.test.TestBase;
+import py.test.TestUtils;
+import py.thrift.share.SegmentUnitMetadataThrift;
+import py.thrift.share.SegmentUnitStatusThrift;
+import py.volume.VolumeType;
+
+public class SegmentUnitMetadataReporterTest extends TestBase {
+  private static final int UNIT_COUNT = 100;
+  private static final int FULL_REPORT_INTERVAL = 5;
+
+  @Test
+  public void onlyChangedUnitsAreConverted() {
+    List<SegmentUnitMetadata> units = buildUnits();
+    SegmentUnitMetadataReporter reporter = new SegmentUnitMetadataReporter(FULL_REPORT_INTERVAL);
+
+    SegmentUnitMetadataReporter.Report report = reporter.buildReport(units);
+    assertTrue(report.isFull());
+    assertEquals(UNIT_COUNT, report.getChangedUnits().size());
+    List<SegmentUnitMetadataThrift> firstUnits = report.getAllUnits();
+
+    report = reporter.buildReport(units);
+    assertFalse(report.isFull());
+    assertEquals(0, report.getChangedUnits().size());
+    assertEquals(UNIT_COUNT, report.getHeartbeats().size());
+    assertEquals(firstUnits, report.getAllUnits());
+
+    // a status change and a page written
+    units.get(3).setStatus(SegmentUnitStatus.Secondary);
+    units.get(7).setPage(0);
+    report = reporter.buildReport(units);
+    assertEquals(2, report.getChangedUnits().size());
+    assertEquals(UNIT_COUNT - 2, report.getHeartbeats().size());
+    assertEquals(SegmentUnitStatusThrift.Secondary, report.getAllUnits().get(3).getStatus());
+    assertTrue(report.getAllUnits().get(7).getRatioFreePages()
+        < firstUnits.get(7).getRatioFreePages());
+    assertEquals(units.get(3).getChangeGeneration(),
+        (long) reporter.buildReport(units).getHeartbeats().get(units.get(3).getSegId()));
+
+    // the fifth report is still incremental, the sixth one is full again
+    assertFalse(reporter.buildReport(units).isFull());
+    report = reporter.buildReport(units);
+    assertTrue(report.isFull());
+    assertEquals(UNIT_COUNT, report.getChangedUnits().size());
+    assertTrue(report.getHeartbeats().isEmpty());
+  }
+
+  @Test
+  public void replacedAndRemovedUnits() {
+    List<SegmentUnitMetadata> units = buildUnits();
+    SegmentUnitMetadataReporter reporter = new SegmentUnitMetadataReporter(FULL_REPORT_INTERVAL);
+    reporter.buildReport(units);
+
+    // a unit created again for the same segment is a different unit, even at the same generation
+    SegmentUnitMetadata oldUnit = units.get(0);
+    SegmentUnitMetadata newUnit = TestUtils.generateSegmentUnitMetadata(oldUnit.getSegId(),
+        SegmentUnitStatus.Primary, VolumeType.REGULAR);
+    units.set(0, newUnit);
+    units.remove(UNIT_COUNT - 1);
+    SegmentUnitMetadataReporter.Report report = reporter.buildReport(units);
+    assertEquals(1, report.getChangedUnits().size());
+    assertEquals(UNIT_COUNT - 1, report.getAllUnits().size());
+
+    reporter.requestFullReport();
+    assertTrue(reporter.buildReport(units).isFull());
+  }
+
+  private List<SegmentUnitMetadata> buildUnits() {
+    List<SegmentUnitMetadata> units = new ArrayList<>();
+    for (int i = 0; i < UNIT_COUNT; i++) {
+      units.add(TestUtils.generateSegmentUnitMetadata(new SegId(1L, i), SegmentUnitStatus.Primary,
+          VolumeType.REGULAR));
+    }
+    return units;
+  }
+}
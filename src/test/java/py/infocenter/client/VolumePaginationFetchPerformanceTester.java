@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package py.infocenter.client;
+
+import java.util.Collections;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import py.test.TestBase;
+
+/**
+ * how long a coordinator waits for a large volume, fetching its pages one after another against
+ * keeping several pages in flight, from a stub info center answering each page after
+ * {@link #LATENCY_MS}.
+ */
+public class VolumePaginationFetchPerformanceTester extends TestBase {
+  private static final Logger logger = LoggerFactory
+      .getLogger(VolumePaginationFetchPerformanceTester.class);
+  private static final long VOLUME_ID = 1L;
+  // 20 pages of 3000 segments
+  private static final int SEGMENT_COUNT = 60000;
+  private static final long LATENCY_MS = 50;
+
+  private void fetch(InformationCenterClientWrapper client, int pagesInFlight) throws Exception {
+    long start = System.currentTimeMillis();
+    int segmentCount = client.getVolumeByPagination(VOLUME_ID, 1L, pagesInFlight)
+        .getVolumeMetadata().getSegmentTableSize();
+    logger.debug("{} pages in flight: {} segments in {} ms", pagesInFlight, segmentCount,
+        System.currentTimeMillis() - start);
+  }
+
+  @Test
+  public void test() throws Exception {
+    PagedVolumeInformationCenter infoCenter = new PagedVolumeInformationCenter(VOLUME_ID,
+        SEGMENT_COUNT, LATENCY_MS, Collections.emptySet());
+    InformationCenterClientWrapper client = new InformationCenterClientWrapper(infoCenter.proxy());
+    for (int round = 0; round < 3; round++) {
+      logger.debug("-------round {}---------", round);
+      fetch(client, 1);
+      fetch(client, 4);
+      fetch(client, 8);
+    }
+  }
+}
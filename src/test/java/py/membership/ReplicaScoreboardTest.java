@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package py.membership;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+import py.common.struct.EndPoint;
+import py.instance.InstanceId;
+import py.proto.Broadcastlog.ReadCause;
+import py.test.TestBase;
+
+public class ReplicaScoreboardTest extends TestBase {
+  private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final AtomicLong clock = new AtomicLong(TimeUnit.SECONDS.toNanos(100));
+  private final ReplicaScoreboard scoreboard = new ReplicaScoreboard(
+      ReplicaScoreboard.DEFAULT_ALPHA, ReplicaScoreboard.DEFAULT_HEDGE_PERCENTILE, 0, clock::get);
+  private final IoMember primary = member(1, MemberIoStatus.Primary);
+  private final IoMember secondary = member(2, MemberIoStatus.Secondary);
+
+  private static IoMember member(long id, MemberIoStatus memberIoStatus) {
+    return new IoMember(new InstanceId(id), new EndPoint("10.0.0." + id, 8000), memberIoStatus,
+        ReadCause.FETCH);
+  }
+
+  private void read(IoMember ioMember, long latencyNanos, int times) {
+    for (int i = 0; i < times; i++) {
+      scoreboard.readStarted(ioMember.getEndPoint());
+      scoreboard.readCompleted(ioMember.getEndPoint(), latencyNanos);
+    }
+  }
+
+  @Test
+  public void fasterMemberIsPreferred() {
+    read(primary, 5 * MS, 10);
+    read(secondary, MS, 10);
+
+    assertEquals(Arrays.asList(secondary, primary),
+        scoreboard.rank(Arrays.asList(primary, secondary)));
+    assertSame(secondary, scoreboard.pickFastest(Arrays.asList(primary, secondary)));
+    assertEquals(MS, scoreboard.getAverageLatencyNanos(secondary.getEndPoint()), 1);
+  }
+
+  @Test
+  public void readDownAndCheckReadersAreNotChosen() {
+    IoMember readDown = member(3, MemberIoStatus.SecondaryReadDown);
+    IoMember checkReader = new IoMember(new InstanceId(4), new EndPoint("10.0.0.4", 8000),
+        MemberIoStatus.Secondary, ReadCause.CHECK);
+
+    List<IoMember> ranked = scoreboard.rank(Arrays.asList(readDown, checkReader, primary));
+    assertEquals(Arrays.asList(primary), ranked);
+    assertNull(scoreboard.pickFastest(Arrays.asList(readDown, checkReader)));
+  }
+
+  @Test
+  public void errorsAndQueuedReadsLowerTheScore() {
+    read(primary, MS, 10);
+    read(secondary, 2 * MS, 10);
+    assertSame(primary, scoreboard.pickFastest(Arrays.asList(primary, secondary)));
+
+    for (int i = 0; i < 3; i++) {
+      scoreboard.readStarted(primary.getEndPoint());
+      scoreboard.readFailed(primary.getEndPoint());
+    }
+    assertTrue(scoreboard.getErrorRate(primary.getEndPoint()) > 0.4);
+    assertSame(secondary, scoreboard.pickFastest(Arrays.asList(primary, secondary)));
+
+    read(primary, MS, 50);
+    assertSame(primary, scoreboard.pickFastest(Arrays.asList(primary, secondary)));
+    for (int i = 0; i < 2; i++) {
+      scoreboard.readStarted(primary.getEndPoint());
+    }
+    assertSame(secondary, scoreboard.pickFastest(Arrays.asList(primary, secondary)));
+  }
+
+  @Test
+  public void idleMemberIsTriedAgain() {
+    read(primary, 50 * MS, 10);
+    clock.addAndGet(TimeUnit.SECONDS.toNanos(10));
+    read(secondary, MS, 10);
+
+    assertSame(primary, scoreboard.pickFastest(Arrays.asList(primary, secondary)));
+  }
+
+  @Test
+  public void hedgeDelayFollowsThePercentile() {
+    read(primary, MS, 50);
+    assertEquals(Long.MAX_VALUE, scoreboard.getHedgeDelayNanos());
+
+    read(primary, MS, 900);
+    read(secondary, 100 * MS, 50);
+    long hedgeDelay = scoreboard.getHedgeDelayNanos();
+    assertTrue(String.valueOf(hedgeDelay), hedgeDelay >= MS && hedgeDelay <= MS * 5 / 4);
+    long p99 = scoreboard.percentile(0.99);
+    assertTrue(String.valueOf(p99), p99 >= 100 * MS && p99 <= 125 * MS);
+  }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package py.membership;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+import py.common.struct.EndPoint;
+import py.instance.InstanceId;
+import py.proto.Broadcastlog.ReadCause;
+import py.test.TestBase;
+import py.volume.VolumeType;
+
+public class SegmentFormDecisionTableTest extends TestBase {
+  private static final MemberIoStatus[] MEMBER_STATUSES = {MemberIoStatus.Primary,
+      MemberIoStatus.Secondary, MemberIoStatus.Secondary, MemberIoStatus.JoiningSecondary,
+      MemberIoStatus.JoiningSecondary, MemberIoStatus.Arbiter};
+  private static final ReadCause[] READ_CAUSES = {null, ReadCause.FETCH, ReadCause.CHECK};
+  // the io members are not changed by the decisions, so the contexts share them
+  private static final IoMember[][] MEMBERS = new IoMember[READ_CAUSES.length][];
+  // one beyond the compiled write fan-out
+  private static final int MAX_TOTAL_WRITE_TESTED = SegmentFormDecisionTable.MAX_TOTAL_WRITE + 1;
+
+  static {
+    for (int readCause = 0; readCause < READ_CAUSES.length; readCause++) {
+      MEMBERS[readCause] = new IoMember[MEMBER_STATUSES.length];
+      for (int i = 0; i < MEMBER_STATUSES.length; i++) {
+        MEMBERS[readCause][i] = new IoMember(new InstanceId(i),
+            new EndPoint("localhost", 10000 + i), MEMBER_STATUSES[i],
+            READ_CAUSES[(readCause + i) % READ_CAUSES.length]);
+      }
+    }
+  }
+
+  @Test
+  public void tableIsCachedPerFormAndVolumeType() {
+    for (SegmentForm segmentForm : SegmentForm.values()) {
+      for (VolumeType volumeType : VolumeType.values()) {
+        SegmentFormDecisionTable table = segmentForm.getDecisionTable(volumeType);
+        assertSame(table, SegmentFormDecisionTable.of(segmentForm, volumeType));
+        assertSame(segmentForm, table.getSegmentForm());
+        assertSame(volumeType, table.getVolumeType());
+      }
+    }
+  }
+
+  @Test
+  public void doneDirectlyAndWritableMatchEnumForEveryCount() {
+    for (SegmentForm segmentForm : SegmentForm.values()) {
+      for (VolumeType volumeType : VolumeType.values()) {
+        SegmentFormDecisionTable table = segmentForm.getDecisionTable(volumeType);
+        for (int p = 0; p <= 2; p++) {
+          for (int s = 0; s <= 3; s++) {
+            for (int j = 0; j <= 3; j++) {
+              IoActionContext ioActionContext = new IoActionContext();
+              segmentForm.processWriteIoActionContext(p, s, j, ioActionContext, volumeType);
+              assertEquals(!ioActionContext.isResendDirectly(), table.writable(p, s, j));
+
+              for (int a = 0; a <= 3; a++) {
+                String message = segmentForm + " " + volumeType + " " + p + s + j + a;
+                assertEquals(message, segmentForm.writeDoneDirectly(p, s, j, a, volumeType),
+                    table.writeDoneDirectly(p, s, j, a));
+                assertEquals(message, segmentForm.readDoneDirectly(p, s, j, a, volumeType),
+                    table.readDoneDirectly(p, s, j, a));
+              }
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * walk every io context the members of a segment can make (each member up or down, the met
+   * read down secondary flag, every write fan-out and read cause) against every count up to one
+   * beyond the compiled range, which exercises the fallback path too.
+   */
+  @Test
+  public void everyIoCompletionMatchesEnum() {
+    for (SegmentForm segmentForm : SegmentForm.values()) {
+      for (VolumeType volumeType : VolumeType.values()) {
+        SegmentFormDecisionTable table = segmentForm.getDecisionTable(volumeType);
+        for (int memberMask = 0; memberMask < 1 << MEMBER_STATUSES.length; memberMask++) {
+          for (int met = 0; met <= 1; met++) {
+            boolean metReadDownSecondary = met == 1;
+            for (int total = 0; total <= MAX_TOTAL_WRITE_TESTED; total++) {
+              IoActionContext context = context(memberMask, metReadDownSecondary, total, 0);
+              checkWriteMerges(segmentForm, volumeType, table, context);
+            }
+            checkReadMerges(segmentForm, volumeType, table,
+                context(memberMask, metReadDownSecondary, 0, 0));
+            for (int readCause = 0; readCause < READ_CAUSES.length; readCause++) {
+              checkProcessing(segmentForm, volumeType, table, memberMask, metReadDownSecondary,
+                  readCause);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  private void checkWriteMerges(SegmentForm segmentForm, VolumeType volumeType,
+      SegmentFormDecisionTable table, IoActionContext context) {
+    for (int p = 0; p <= 2; p++) {
+      for (int s = 0; s <= 3; s++) {
+        for (int j = 0; j <= 3; j++) {
+          int counts = p * 100 + s * 10 + j;
+          check(segmentForm.mergeCreateLogResult(p, s, j, context, volumeType),
+              table.mergeCreateLogResult(p, s, j, context), table, counts, context);
+          check(segmentForm.mergeCommitLogResult(p, s, j, context, volumeType),
+              table.mergeCommitLogResult(p, s, j, context), table, counts, context);
+        }
+      }
+    }
+  }
+
+  private void checkReadMerges(SegmentForm segmentForm, VolumeType volumeType,
+      SegmentFormDecisionTable table, IoActionContext context) {
+    SecondariesCountInfo secondariesCountInfo = new SecondariesCountInfo();
+    for (int p = 0; p <= 2; p++) {
+      for (int fetch = 0; fetch <= 2; fetch++) {
+        for (int check = 0; check <= 2; check++) {
+          secondariesCountInfo.setFetchCount(fetch);
+          secondariesCountInfo.setCheckCount(check);
+          for (int j = 0; j <= 3; j++) {
+            for (int a = 0; a <= 3; a++) {
+              check(segmentForm.mergeReadLogResult(p, secondariesCountInfo, j, a, context,
+                  volumeType), table.mergeReadLogResult(p, secondariesCountInfo, j, a, context),
+                  table, p * 10000 + fetch * 1000 + check * 100 + j * 10 + a, context);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  private void checkProcessing(SegmentForm segmentForm, VolumeType volumeType,
+      SegmentFormDecisionTable table, int memberMask, boolean metReadDownSecondary,
+      int readCause) {
+    for (int p = 0; p <= 2; p++) {
+      for (int s = 0; s <= 3; s++) {
+        for (int j = 0; j <= 3; j++) {
+          IoActionContext expected = context(memberMask, metReadDownSecondary, 0, readCause);
+          IoActionContext actual = context(memberMask, metReadDownSecondary, 0, readCause);
+          segmentForm.processWriteIoActionContext(p, s, j, expected, volumeType);
+          table.processWriteIoActionContext(p, s, j, actual);
+          check(expected.isResendDirectly(), actual.isResendDirectly(), table, p * 100 + s * 10 + j,
+              expected);
+
+          for (int a = 0; a <= 3; a++) {
+            expected = context(memberMask, metReadDownSecondary, 0, readCause);
+            actual = context(memberMask, metReadDownSecondary, 0, readCause);
+            segmentForm.processReadIoActionContext(p, s, j, a, expected, volumeType);
+            table.processReadIoActionContext(p, s, j, a, actual);
+            check(expected.isResendDirectly(), actual.isResendDirectly(), table,
+                p * 1000 + s * 100 + j * 10 + a, expected);
+            if (!expected.getIoMembers().equals(actual.getIoMembers())) {
+              assertEquals(table + " " + p + s + j + a, expected.getIoMembers(),
+                  actual.getIoMembers());
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * the messages are only built on a mismatch, there are millions of decisions to compare. The
+   * counts are given as decimal digits, e.g. 1220 for one primary, two secondaries, two joining
+   * secondaries and no arbiter.
+   */
+  private static void check(boolean expected, boolean actual, SegmentFormDecisionTable table,
+      int counts, IoActionContext context) {
+    if (expected != actual) {
+      assertEquals(table + " counts " + counts + " " + context, expected, actual);
+    }
+  }
+
+  /**
+   * a context with the members in the mask, the read causes going round from the given one.
+   */
+  private static IoActionContext context(int memberMask, boolean metReadDownSecondary,
+      int totalWriteCount, int readCause) {
+    IoActionContext ioActionContext = new IoActionContext();
+    for (int i = 0; i < MEMBER_STATUSES.length; i++) {
+      if ((memberMask & (1 << i)) != 0) {
+        ioActionContext.addIoMember(MEMBERS[readCause][i]);
+      }
+    }
+    ioActionContext.setMetReadDownSecondary(metReadDownSecondary);
+    ioActionContext.setTotalWriteCount(totalWriteCount);
+    return ioActionContext;
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package py.membership;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import py.archive.segment.SegmentVersion;
+import py.instance.InstanceId;
+import py.test.TestBase;
+import py.volume.VolumeType;
+
+/**
+ * compare the per io cost of resolving the segment form by counting the member sets against the
+ * form cached in the membership.
+ */
+public class SegmentFormPerformanceTester extends TestBase {
+  private static final Logger logger = LoggerFactory.getLogger(SegmentFormPerformanceTester.class);
+  private static final int COUNT = 10000000;
+
+  private static long resolveByCounting(SegmentMembership membership, VolumeType volumeType) {
+    long time = System.nanoTime();
+    int sum = 0;
+    for (int i = 0; i < COUNT; i++) {
+      sum += volumeType.getSegmentForm(membership.getSecondaries().size(),
+          membership.getJoiningSecondaries().size(), membership.getArbiters().size(),
+          membership.getInactiveSecondaries().size()).ordinal();
+    }
+    time = System.nanoTime() - time;
+    logger.debug("checksum {}", sum);
+    return time;
+  }
+
+  private static long resolveFromCache(SegmentMembership membership, VolumeType volumeType) {
+    long time = System.nanoTime();
+    int sum = 0;
+    for (int i = 0; i < COUNT; i++) {
+      sum += SegmentForm.getSegmentForm(membership, volumeType).ordinal();
+    }
+    time = System.nanoTime() - time;
+    logger.debug("checksum {}", sum);
+    return time;
+  }
+
+  @Test
+  public void testResolvePerformance() {
+    InstanceId primary = new InstanceId(1L);
+    SegmentMembership pss = new SegmentMembership(new SegmentVersion(1, 0), primary,
+        Arrays.asList(new InstanceId(2L), new InstanceId(3L)));
+    SegmentMembership psa = new SegmentMembership(new SegmentVersion(1, 0), primary,
+        Collections.singletonList(new InstanceId(2L)),
+        Collections.singletonList(new InstanceId(3L)));
+    SegmentMembership tps = new SegmentMembership(new SegmentVersion(1, 0), primary,
+        Collections.singletonList(new InstanceId(2L)), null,
+        Collections.singletonList(new InstanceId(3L)), null);
+
+    assertEquals(SegmentForm.PSS, SegmentForm.getSegmentForm(pss, VolumeType.REGULAR));
+    assertEquals(SegmentForm.PSA, SegmentForm.getSegmentForm(psa, VolumeType.SMALL));
+    assertEquals(SegmentForm.TPS, SegmentForm.getSegmentForm(tps, VolumeType.SMALL));
+
+    for (int round = 0; round < 5; round++) {
+      logger.debug("-------round {}---------", round);
+      report("PSS", resolveByCounting(pss, VolumeType.REGULAR),
+          resolveFromCache(pss, VolumeType.REGULAR));
+      report("PSA", resolveByCounting(psa, VolumeType.SMALL),
+          resolveFromCache(psa, VolumeType.SMALL));
+      report("TPS", resolveByCounting(tps, VolumeType.SMALL),
+          resolveFromCache(tps, VolumeType.SMALL));
+    }
+  }
+
+  private void report(String form, long countingNanos, long cachedNanos) {
+    logger.debug("{}: counting {} ns/io, cached {} ns/io", form,
+        (double) countingNanos / COUNT, (double) cachedNanos / COUNT);
+  }
+}
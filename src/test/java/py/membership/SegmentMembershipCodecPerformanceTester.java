@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package py.membership;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import py.archive.segment.SegmentVersion;
+import py.instance.InstanceId;
+import py.test.TestBase;
+
+/**
+ * compare the throughput and the size of the binary membership codec against the text form
+ * written into the segment unit metadata.
+ */
+public class SegmentMembershipCodecPerformanceTester extends TestBase {
+  private static final Logger logger = LoggerFactory
+      .getLogger(SegmentMembershipCodecPerformanceTester.class);
+  private static final int COUNT = 1000000;
+
+  private static long text(SegmentMembership membership) {
+    long time = System.nanoTime();
+    int sum = 0;
+    for (int i = 0; i < COUNT; i++) {
+      String value = membership.serializeToObjectMapperContent();
+      sum += SegmentMembership.deserializeFromObjectMapperContent(value).getSegmentVersion()
+          .getGeneration();
+    }
+    time = System.nanoTime() - time;
+    logger.debug("checksum {}", sum);
+    return time;
+  }
+
+  private static long binary(SegmentMembership membership) {
+    ByteBuffer buffer = ByteBuffer.allocate(SegmentMembershipCodec.encodedSize(membership));
+    long time = System.nanoTime();
+    int sum = 0;
+    for (int i = 0; i < COUNT; i++) {
+      buffer.clear();
+      SegmentMembershipCodec.encode(membership, buffer);
+      buffer.flip();
+      sum += SegmentMembershipCodec.decode(buffer).getSegmentVersion().getGeneration();
+    }
+    time = System.nanoTime() - time;
+    logger.debug("checksum {}", sum);
+    return time;
+  }
+
+  @Test
+  public void testCodecPerformance() {
+    SegmentMembership pss = new SegmentMembership(new SegmentVersion(5, 37),
+        new InstanceId(1560000001L),
+        Arrays.asList(new InstanceId(1560000002L), new InstanceId(1560000003L)));
+    SegmentMembership psj = new SegmentMembership(new SegmentVersion(5, 38),
+        new InstanceId(1560000001L), Collections.singletonList(new InstanceId(1560000002L)),
+        null, null, Collections.singletonList(new InstanceId(1560000004L)));
+
+    for (SegmentMembership membership : Arrays.asList(pss, psj)) {
+      assertEquals(membership,
+          SegmentMembershipCodec.decode(SegmentMembershipCodec.encode(membership)));
+      logger.debug("{}: text {} bytes, binary {} bytes", membership,
+          membership.serializeToObjectMapperContent().length(),
+          SegmentMembershipCodec.encodedSize(membership));
+    }
+
+    for (int round = 0; round < 5; round++) {
+      logger.debug("-------round {}---------", round);
+      report("PSS", text(pss), binary(pss));
+      report("PSJ", text(psj), binary(psj));
+    }
+  }
+
+  private void report(String form, long textNanos, long binaryNanos) {
+    logger.debug("{}: text {} ns/round trip, binary {} ns/round trip", form,
+        (double) textNanos / COUNT, (double) binaryNanos / COUNT);
+  }
+}
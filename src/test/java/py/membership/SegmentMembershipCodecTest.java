@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package py.membership;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+import py.archive.segment.SegmentVersion;
+import py.instance.InstanceId;
+import py.test.TestBase;
+
+public class SegmentMembershipCodecTest extends TestBase {
+  private static final int ROUNDS = 10000;
+
+  @Test
+  public void randomMembershipsRoundTrip() throws Exception {
+    long seed = System.currentTimeMillis();
+    logger.warn("random seed {}", seed);
+    Random random = new Random(seed);
+
+    for (int round = 0; round < ROUNDS; round++) {
+      SegmentMembership membership = randomMembership(random);
+      int size = SegmentMembershipCodec.encodedSize(membership);
+
+      byte[] bytes = SegmentMembershipCodec.encode(membership);
+      assertEquals(size, bytes.length);
+      assertEquals(membership, SegmentMembershipCodec.decode(bytes));
+
+      ByteBuffer buffer = ByteBuffer.allocate(size + 3);
+      buffer.put((byte) 7);
+      SegmentMembershipCodec.encode(membership, buffer);
+      assertEquals(size + 1, buffer.position());
+      buffer.flip();
+      buffer.get();
+      assertEquals(membership, SegmentMembershipCodec.decode(buffer));
+      assertEquals(0, buffer.remaining());
+
+      ByteBuf byteBuf = Unpooled.buffer(1);
+      SegmentMembershipCodec.encode(membership, byteBuf);
+      assertEquals(size, byteBuf.readableBytes());
+      assertEquals(membership, SegmentMembershipCodec.decode(byteBuf));
+      assertEquals(0, byteBuf.readableBytes());
+
+      // the binary form carries the same content as the text form
+      assertEquals(SegmentMembership.deserializeFromObjectMapperContent(
+          membership.serializeToObjectMapperContent()), SegmentMembershipCodec.decode(bytes));
+    }
+  }
+
+  @Test
+  public void binaryFormIsSmallerThanTextForm() {
+    SegmentMembership membership = new SegmentMembership(new SegmentVersion(3, 12),
+        new InstanceId(8000001L), Arrays.asList(new InstanceId(8000002L),
+        new InstanceId(8000003L)));
+    int textSize = membership.serializeToObjectMapperContent().length();
+    int binarySize = SegmentMembershipCodec.encodedSize(membership);
+    logger.debug("text {} bytes, binary {} bytes", textSize, binarySize);
+    assertTrue(binarySize * 2 < textSize);
+  }
+
+  @Test
+  public void varLongBoundaries() {
+    long[] values = {0, 1, -1, 63, -64, 64, 127, 128, Integer.MAX_VALUE, Integer.MIN_VALUE,
+        Long.MAX_VALUE, Long.MIN_VALUE};
+    for (long value : values) {
+      assertEquals(value, SegmentMembershipCodec.unzigzag(SegmentMembershipCodec.zigzag(value)));
+    }
+    assertEquals(1, SegmentMembershipCodec.varLongSize(0));
+    assertEquals(1, SegmentMembershipCodec.varLongSize(127));
+    assertEquals(2, SegmentMembershipCodec.varLongSize(128));
+    assertEquals(10, SegmentMembershipCodec.varLongSize(-1L));
+    assertEquals(5, SegmentMembershipCodec.varIntSize(Integer.MAX_VALUE + 1));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void unknownVersionIsRejected() {
+    SegmentMembership membership = new SegmentMembership(new SegmentVersion(1, 0),
+        new InstanceId(1L), Arrays.asList(new InstanceId(2L), new InstanceId(3L)));
+    byte[] bytes = SegmentMembershipCodec.encode(membership);
+    bytes[0] = (byte) (SegmentMembershipCodec.VERSION_1 + 1);
+    SegmentMembershipCodec.decode(bytes);
+  }
+
+  @Test
+  public void truncatedInputIsRejected() {
+    SegmentMembership membership = new SegmentMembership(new SegmentVersion(1, 0),
+        new InstanceId(1L), Arrays.asList(new InstanceId(2L), new InstanceId(3L)));
+    byte[] bytes = SegmentMembershipCodec.encode(membership);
+    for (int length = 0; length < bytes.length; length++) {
+      try {
+        SegmentMembershipCodec.decode(Arrays.copyOf(bytes, length));
+        throw new AssertionError("decoded a membership from " + length + " bytes");
+      } catch (RuntimeException e) {
+        logger.debug("truncated to {} bytes: {}", length, e.toString());
+      }
+    }
+  }
+
+  private SegmentMembership randomMembership(Random random) {
+    // ids of a segment are usually close, but any long is a valid id
+    long base = random.nextBoolean() ? random.nextLong() : random.nextInt(100000);
+    Set<Long> used = new HashSet<>();
+    InstanceId primary = new InstanceId(nextId(random, base, used));
+    List<InstanceId> secondaries = randomMembers(random, base, used);
+    List<InstanceId> arbiters = randomMembers(random, base, used);
+    List<InstanceId> inactiveSecondaries = randomMembers(random, base, used);
+    List<InstanceId> joiningSecondaries = randomMembers(random, base, used);
+    InstanceId tempPrimary = random.nextInt(4) == 0
+        ? new InstanceId(nextId(random, base, used)) : null;
+    InstanceId secondaryCandidate = random.nextInt(4) == 0
+        ? new InstanceId(nextId(random, base, used)) : null;
+    InstanceId primaryCandidate = random.nextInt(4) == 0
+        ? new InstanceId(nextId(random, base, used)) : null;
+    SegmentVersion version = new SegmentVersion(random.nextInt(Integer.MAX_VALUE),
+        random.nextInt(Integer.MAX_VALUE));
+    return new SegmentMembership(version, primary, tempPrimary, secondaries, arbiters,
+        inactiveSecondaries, joiningSecondaries, secondaryCandidate, primaryCandidate);
+  }
+
+  private List<InstanceId> randomMembers(Random random, long base, Set<Long> used) {
+    List<InstanceId> members = new ArrayList<>();
+    int count = random.nextInt(3);
+    for (int i = 0; i < count; i++) {
+      members.add(new InstanceId(nextId(random, base, used)));
+    }
+    return members;
+  }
+
+  private long nextId(Random random, long base, Set<Long> used) {
+    long id;
+    do {
+      id = random.nextInt(8) == 0 ? random.nextLong() : base + random.nextInt(1000) - 500;
+      // 0 stands for no temp primary, and -1 for no member in the text form
+    } while (id == 0 || id == -1 || !used.add(id));
+    return id;
+  }
+}
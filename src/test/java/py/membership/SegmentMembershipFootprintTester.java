@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package py.membership;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntFunction;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import py.archive.segment.SegmentVersion;
+import py.instance.InstanceId;
+import py.test.TestBase;
+import py.volume.VolumeType;
+
+/**
+ * measure the retained heap of the memberships kept for each segment by a volume, compared with
+ * the set per role layout the membership used before.
+ *
+ * <p>Both layouts carry the segment form cache and the member io status map, filled the way the
+ * io path fills them (the form of the volume type resolved, and the io status of every active
+ * member taken out), and the cost of those two is reported on its own so the saving of the member
+ * layout is not overstated.
+ */
+public class SegmentMembershipFootprintTester extends TestBase {
+  private static final Logger logger = LoggerFactory
+      .getLogger(SegmentMembershipFootprintTester.class);
+  private static final int SEGMENT_COUNT = 100000;
+  // the history length kept in VolumeMetadata.memberships
+  private static final int HISTORY = 3;
+
+  private static long usedMemory() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 5; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  private static SegmentMembership compact(int i) {
+    long base = i * 10L;
+    SegmentMembership membership = new SegmentMembership(new SegmentVersion(1, i),
+        new InstanceId(base + 1), Arrays.asList(new InstanceId(base + 2),
+        new InstanceId(base + 3)), null, Collections.singletonList(new InstanceId(base + 4)),
+        null);
+    membership.getSegmentForm(VolumeType.REGULAR);
+    for (InstanceId member : membership.getMembers()) {
+      // inactive secondaries never take part in io
+      if (!membership.isInactiveSecondary(member)) {
+        membership.getMemberIoStatus(member);
+      }
+    }
+    return membership;
+  }
+
+  private static SetBasedMembership setBased(int i) {
+    long base = i * 10L;
+    return new SetBasedMembership(new SegmentVersion(1, i), new InstanceId(base + 1),
+        Arrays.asList(new InstanceId(base + 2), new InstanceId(base + 3)),
+        Collections.singletonList(new InstanceId(base + 4)));
+  }
+
+  /**
+   * the two caches alone, as each membership of both layouts holds them.
+   */
+  private static Object[] caches(int i) {
+    long base = i * 10L;
+    SegmentForm[] segmentForms = new SegmentForm[VolumeType.values().length];
+    segmentForms[VolumeType.REGULAR.ordinal()] = SegmentForm.PSS;
+    Map<InstanceId, MemberIoStatus> memberIoStatusMap = new ConcurrentHashMap<>();
+    memberIoStatusMap.put(new InstanceId(base + 1), MemberIoStatus.Primary);
+    memberIoStatusMap.put(new InstanceId(base + 2), MemberIoStatus.Secondary);
+    memberIoStatusMap.put(new InstanceId(base + 3), MemberIoStatus.Secondary);
+    return new Object[]{segmentForms, memberIoStatusMap};
+  }
+
+  private static long measure(IntFunction<Object> factory) {
+    long before = usedMemory();
+    Object[] memberships = new Object[SEGMENT_COUNT * HISTORY];
+    for (int i = 0; i < memberships.length; i++) {
+      memberships[i] = factory.apply(i);
+    }
+    long bytes = usedMemory() - before;
+    logger.debug("checksum {}", memberships[memberships.length - 1].hashCode());
+    return bytes;
+  }
+
+  @Test
+  public void testFootprint() {
+    long compactBytes = measure(SegmentMembershipFootprintTester::compact);
+    long setBasedBytes = measure(SegmentMembershipFootprintTester::setBased);
+    long cacheBytes = measure(SegmentMembershipFootprintTester::caches);
+
+    logger.debug("per segment: compact {} bytes, set based {} bytes, of which the form cache and"
+            + " the io status map are {} bytes in both", compactBytes / SEGMENT_COUNT,
+        setBasedBytes / SEGMENT_COUNT, cacheBytes / SEGMENT_COUNT);
+  }
+
+  /**
+   * the fields the membership held before members were packed into arrays, with the caches
+   * filled as in {@link #compact(int)}.
+   */
+  private static class SetBasedMembership {
+    private final SegmentVersion segmentVersion;
+    private final InstanceId primary;
+    private final Set<InstanceId> secondaries;
+    private final Set<InstanceId> arbiters;
+    private final Set<InstanceId> inactiveSecondaries;
+    private final Set<InstanceId> joiningSecondaries;
+    private final Map<InstanceId, MemberIoStatus> memberIoStatusMap = new ConcurrentHashMap<>();
+    private final SegmentForm[] segmentForms = new SegmentForm[VolumeType.values().length];
+
+    SetBasedMembership(SegmentVersion segmentVersion, InstanceId primary,
+        Iterable<InstanceId> secondaries, Iterable<InstanceId> inactiveSecondaries) {
+      this.segmentVersion = segmentVersion;
+      this.primary = primary;
+      this.secondaries = new HashSet<>();
+      secondaries.forEach(this.secondaries::add);
+      this.arbiters = new HashSet<>();
+      this.inactiveSecondaries = new HashSet<>();
+      inactiveSecondaries.forEach(this.inactiveSecondaries::add);
+      this.joiningSecondaries = new HashSet<>();
+
+      segmentForms[VolumeType.REGULAR.ordinal()] = SegmentForm.PSS;
+      memberIoStatusMap.put(primary, MemberIoStatus.Primary);
+      this.secondaries.forEach(member -> memberIoStatusMap.put(member, MemberIoStatus.Secondary));
+    }
+  }
+}
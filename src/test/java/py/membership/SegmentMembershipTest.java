@@ -21,6 +21,7 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import java.util.ArrayList;
 import java.util.List;
@@ -2986,6 +2987,59 @@ public class SegmentMembershipTest extends TestBase {
     serializeTest(secondaryBecomePc);
   }
 
+  @Test
+  public void testSegmentFormCachedPerVolumeType() {
+    InstanceId primary = new InstanceId(1L);
+    InstanceId secondary = new InstanceId(2L);
+    InstanceId other = new InstanceId(3L);
+    SegmentMembership membership = new SegmentMembership(new SegmentVersion(1, 0), primary,
+        Sets.newHashSet(secondary), null, Sets.newHashSet(other), null);
+
+    assertEquals(SegmentForm.PSI, membership.getSegmentForm(VolumeType.REGULAR));
+    assertEquals(SegmentForm.TPS, membership.getSegmentForm(VolumeType.SMALL));
+    assertEquals(SegmentForm.PSI, SegmentForm.getSegmentForm(membership, VolumeType.REGULAR));
+
+    // a changed membership is a new instance and resolves its own form
+    SegmentMembership joining = membership.inactiveSecondaryBecomeJoining(other);
+    assertEquals(SegmentForm.PSJ, joining.getSegmentForm(VolumeType.REGULAR));
+    assertEquals(SegmentForm.PSI, membership.getSegmentForm(VolumeType.REGULAR));
+  }
+
+  @Test
+  public void testMembersIndependentOfOrderAndDuplicates() throws Exception {
+    InstanceId primary = new InstanceId(1L);
+    SegmentMembership membership1 = new SegmentMembership(new SegmentVersion(1, 0), primary,
+        Lists.newArrayList(new InstanceId(3L), new InstanceId(2L)),
+        Lists.newArrayList(new InstanceId(5L)), Lists.newArrayList(new InstanceId(4L)), null);
+    SegmentMembership membership2 = new SegmentMembership(new SegmentVersion(1, 0), primary,
+        Lists.newArrayList(new InstanceId(2L), new InstanceId(3L), new InstanceId(2L)),
+        Lists.newArrayList(new InstanceId(5L)), Lists.newArrayList(new InstanceId(4L)), null);
+
+    assertEquals(membership1, membership2);
+    assertEquals(membership1.hashCode(), membership2.hashCode());
+    assertEquals(5, membership2.size());
+    assertEquals(4, membership2.aliveSize());
+    assertEquals(Sets.newHashSet(new InstanceId(2L), new InstanceId(3L)),
+        membership2.getSecondaries());
+    assertTrue(membership2.isArbiter(new InstanceId(5L)));
+    assertFalse(membership2.isSecondary(new InstanceId(5L)));
+    assertTrue(membership2.isInactiveSecondary(new InstanceId(4L)));
+    assertTrue(membership2.contain(4L));
+    assertFalse(membership2.contain(6L));
+    assertEquals(Sets.newHashSet(new InstanceId(1L), new InstanceId(2L), new InstanceId(3L),
+        new InstanceId(4L), new InstanceId(5L)), membership2.getMembers());
+
+    // modifying a returned set does not touch the membership
+    membership2.getArbiters().add(new InstanceId(6L));
+    assertFalse(membership2.isArbiter(new InstanceId(6L)));
+
+    SegmentMembership joining = membership2.inactiveSecondaryBecomeJoining(new InstanceId(4L));
+    assertTrue(joining.isJoiningSecondary(new InstanceId(4L)));
+    assertFalse(joining.isInactiveSecondary(new InstanceId(4L)));
+    assertEquals(new SegmentMembership(joining), joining);
+    serializeTest(joining);
+  }
+
   public void serializeTest(SegmentMembership srcSegmentMembership) throws Exception {
     String bytes = srcSegmentMembership.serializeToObjectMapperContent();
 
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package py.netty.datanode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import py.common.struct.EndPoint;
+import py.instance.InstanceId;
+import py.membership.IoMember;
+import py.membership.MemberIoStatus;
+import py.membership.ReplicaScoreboard;
+import py.netty.core.AbstractMethodCallback;
+import py.proto.Broadcastlog.PbMembership;
+import py.proto.Broadcastlog.PbReadRequest;
+import py.proto.Broadcastlog.ReadCause;
+import py.test.TestBase;
+
+/**
+ * compare the read latency percentiles of reading from an arbitrary member, the way the members
+ * chosen by the io action context are read today, against reading through the hedged reader.
+ *
+ * <p>The stub members answer in about half a millisecond and stall for 30 ms once in a hundred
+ * reads, and one of them is three times slower than the others all the time.
+ */
+public class HedgedReadPerformanceTester extends TestBase {
+  private static final Logger logger = LoggerFactory.getLogger(HedgedReadPerformanceTester.class);
+  private static final int READ_COUNT = 50000;
+  private static final int CONCURRENCY = 32;
+  private static final long US = TimeUnit.MICROSECONDS.toNanos(1);
+
+  private static long latencyOf(long baseNanos) {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    long latency = baseNanos + (long) (-Math.log(1 - random.nextDouble()) * 200 * US);
+    if (random.nextInt(100) == 0) {
+      latency += TimeUnit.MILLISECONDS.toNanos(30);
+    }
+    return latency;
+  }
+
+  private static long percentile(long[] sortedLatencies, double fraction) {
+    int index = (int) Math.ceil(sortedLatencies.length * fraction) - 1;
+    return sortedLatencies[Math.max(0, index)];
+  }
+
+  @Test
+  public void testReadLatency() throws Exception {
+    ScheduledExecutorService responder = Executors.newScheduledThreadPool(4);
+    ScheduledExecutorService hedgeTimer = Executors.newSingleThreadScheduledExecutor();
+    try {
+      List<IoMember> ioMembers = new ArrayList<>();
+      Map<EndPoint, AsyncDataNode.AsyncIface> dataNodes = new HashMap<>();
+      long[] baseLatencies = {500 * US, 500 * US, 1500 * US};
+      for (int i = 0; i < baseLatencies.length; i++) {
+        IoMember ioMember = new IoMember(new InstanceId(i + 1),
+            new EndPoint("localhost", 10000 + i),
+            i == 0 ? MemberIoStatus.Primary : MemberIoStatus.Secondary, ReadCause.FETCH);
+        long baseLatency = baseLatencies[i];
+        ioMembers.add(ioMember);
+        dataNodes.put(ioMember.getEndPoint(),
+            new StubReadDataNode(responder, () -> latencyOf(baseLatency)));
+      }
+      PbReadRequest request = PbReadRequest.newBuilder().setRequestId(1L).setVolumeId(1L)
+          .setSegIndex(0).setFailTimes(0).setReadCause(ReadCause.FETCH)
+          .setMembership(PbMembership.newBuilder().setEpoch(0).setGeneration(0).setPrimary(1L)
+              .addSecondaries(2L).addSecondaries(3L).build()).build();
+
+      for (int round = 0; round < 3; round++) {
+        logger.debug("-------round {}---------", round);
+        long[] arbitrary = run(READ_COUNT, callback -> {
+          IoMember ioMember = ioMembers.get(ThreadLocalRandom.current().nextInt(ioMembers.size()));
+          dataNodes.get(ioMember.getEndPoint()).read(request, callback);
+        });
+        report("arbitrary member", arbitrary);
+
+        HedgedReader hedgedReader = new HedgedReader(new ReplicaScoreboard(), dataNodes::get,
+            hedgeTimer, HedgedReader.DEFAULT_MAX_HEDGE_RATIO);
+        long[] hedged = run(READ_COUNT,
+            callback -> hedgedReader.read(request, ioMembers, callback));
+        report("hedged", hedged);
+        logger.debug("hedged {} of {} reads, {} answered by the hedge first",
+            hedgedReader.getHedgedReadCount(), hedgedReader.getReadCount(),
+            hedgedReader.getHedgeWinCount());
+      }
+    } finally {
+      responder.shutdownNow();
+      hedgeTimer.shutdownNow();
+    }
+  }
+
+  private long[] run(int count, Consumer<AbstractMethodCallback<PyReadResponse>> reader)
+      throws InterruptedException {
+    long[] latencies = new long[count];
+    Semaphore inFlight = new Semaphore(CONCURRENCY);
+    CountDownLatch latch = new CountDownLatch(count);
+    for (int i = 0; i < count; i++) {
+      inFlight.acquire();
+      final int index = i;
+      final long start = System.nanoTime();
+      reader.accept(new AbstractMethodCallback<PyReadResponse>() {
+        @Override
+        public void complete(PyReadResponse object) {
+          done();
+        }
+
+        @Override
+        public void fail(Exception e) {
+          done();
+        }
+
+        private void done() {
+          latencies[index] = System.nanoTime() - start;
+          inFlight.release();
+          latch.countDown();
+        }
+      });
+    }
+    latch.await();
+    Arrays.sort(latencies);
+    return latencies;
+  }
+
+  private void report(String name, long[] sortedLatencies) {
+    logger.debug("{}: p50 {} us, p99 {} us, p99.9 {} us", name,
+        percentile(sortedLatencies, 0.5) / US, percentile(sortedLatencies, 0.99) / US,
+        percentile(sortedLatencies, 0.999) / US);
+  }
+}
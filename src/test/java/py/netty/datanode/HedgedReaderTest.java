@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package py.netty.datanode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Test;
+import py.common.struct.EndPoint;
+import py.instance.InstanceId;
+import py.membership.IoMember;
+import py.membership.MemberIoStatus;
+import py.membership.ReplicaScoreboard;
+import py.netty.core.AbstractMethodCallback;
+import py.proto.Broadcastlog.PbMembership;
+import py.proto.Broadcastlog.PbReadRequest;
+import py.proto.Broadcastlog.ReadCause;
+import py.test.TestBase;
+
+public class HedgedReaderTest extends TestBase {
+  private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final ScheduledExecutorService responder = Executors.newScheduledThreadPool(2);
+  private final ScheduledExecutorService hedgeTimer = Executors.newSingleThreadScheduledExecutor();
+  private final Map<EndPoint, AsyncDataNode.AsyncIface> dataNodes = new HashMap<>();
+  private final ReplicaScoreboard scoreboard = new ReplicaScoreboard(
+      ReplicaScoreboard.DEFAULT_ALPHA, ReplicaScoreboard.DEFAULT_HEDGE_PERCENTILE, 0);
+  private final IoMember primary = member(1, MemberIoStatus.Primary);
+  private final IoMember secondary = member(2, MemberIoStatus.Secondary);
+
+  private static IoMember member(long id, MemberIoStatus memberIoStatus) {
+    return new IoMember(new InstanceId(id), new EndPoint("localhost", 10000 + (int) id),
+        memberIoStatus, ReadCause.FETCH);
+  }
+
+  private static PbReadRequest newRequest() {
+    PbMembership membership = PbMembership.newBuilder().setEpoch(0).setGeneration(0)
+        .setPrimary(1L).addSecondaries(2L).build();
+    return PbReadRequest.newBuilder().setRequestId(1L).setVolumeId(1L).setSegIndex(0)
+        .setFailTimes(0).setReadCause(ReadCause.FETCH).setMembership(membership).build();
+  }
+
+  @After
+  public void tearDown() {
+    responder.shutdownNow();
+    hedgeTimer.shutdownNow();
+  }
+
+  private StubReadDataNode dataNode(IoMember ioMember, long latencyNanos) {
+    StubReadDataNode dataNode = new StubReadDataNode(responder, () -> latencyNanos);
+    dataNodes.put(ioMember.getEndPoint(), dataNode);
+    return dataNode;
+  }
+
+  private void warmUp(IoMember ioMember, long latencyNanos, int times) {
+    for (int i = 0; i < times; i++) {
+      scoreboard.readStarted(ioMember.getEndPoint());
+      scoreboard.readCompleted(ioMember.getEndPoint(), latencyNanos);
+    }
+  }
+
+  private Result read(HedgedReader hedgedReader, IoMember... ioMembers)
+      throws InterruptedException {
+    Result result = new Result();
+    hedgedReader.read(newRequest(), Arrays.asList(ioMembers), result);
+    assertTrue(result.latch.await(10, TimeUnit.SECONDS));
+    return result;
+  }
+
+  @Test
+  public void slowReadIsHedgedToTheNextMember() throws Exception {
+    // the primary has been the fastest so far, but it stalls now
+    warmUp(primary, MS, 100);
+    warmUp(secondary, 2 * MS, 100);
+    StubReadDataNode stalled = dataNode(primary, TimeUnit.SECONDS.toNanos(5));
+    StubReadDataNode fast = dataNode(secondary, MS);
+    HedgedReader hedgedReader = new HedgedReader(scoreboard, dataNodes::get, hedgeTimer, 1);
+
+    long start = System.nanoTime();
+    Result result = read(hedgedReader, primary, secondary);
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+    assertNotNull(result.response.get());
+    assertEquals(1, stalled.getReadCount());
+    assertEquals(1, fast.getReadCount());
+    assertEquals(1, hedgedReader.getHedgedReadCount());
+    assertEquals(1, hedgedReader.getHedgeWinCount());
+  }
+
+  @Test
+  public void fastReadIsNotHedged() throws Exception {
+    warmUp(primary, 100 * MS, 100);
+    StubReadDataNode first = dataNode(primary, MS);
+    StubReadDataNode second = dataNode(secondary, MS);
+    HedgedReader hedgedReader = new HedgedReader(scoreboard, dataNodes::get, hedgeTimer, 1);
+
+    Result result = read(hedgedReader, primary, secondary);
+    assertNotNull(result.response.get());
+    // the secondary has never been read from, so it is tried first
+    assertEquals(0, first.getReadCount());
+    assertEquals(1, second.getReadCount());
+    assertEquals(0, hedgedReader.getHedgedReadCount());
+  }
+
+  @Test
+  public void hedgedReadsAreLimitedByTheBudget() throws Exception {
+    warmUp(primary, MS, 100);
+    warmUp(secondary, 2 * MS, 100);
+    StubReadDataNode slow = dataNode(primary, 50 * MS);
+    StubReadDataNode fast = dataNode(secondary, MS);
+    HedgedReader hedgedReader = new HedgedReader(scoreboard, dataNodes::get, hedgeTimer, 0);
+
+    Result result = read(hedgedReader, primary, secondary);
+    assertNotNull(result.response.get());
+    assertEquals(1, slow.getReadCount());
+    assertEquals(0, fast.getReadCount());
+    assertEquals(0, hedgedReader.getHedgedReadCount());
+  }
+
+  @Test
+  public void readFailsWhenAllSentMembersFail() throws Exception {
+    dataNode(primary, -1);
+    HedgedReader hedgedReader = new HedgedReader(scoreboard, dataNodes::get, hedgeTimer, 1);
+
+    Result result = read(hedgedReader, primary);
+    assertNull(result.response.get());
+    assertNotNull(result.exception.get());
+    assertEquals(1, result.callCount.get());
+    assertTrue(scoreboard.getErrorRate(primary.getEndPoint()) > 0);
+  }
+
+  @Test
+  public void failedReadIsPassedToTheNextMember() throws Exception {
+    warmUp(primary, MS, 100);
+    warmUp(secondary, 2 * MS, 100);
+    StubReadDataNode failing = dataNode(primary, -1);
+    StubReadDataNode next = dataNode(secondary, MS);
+    // no budget for hedging, the read is passed on by the failure alone
+    HedgedReader hedgedReader = new HedgedReader(scoreboard, dataNodes::get, hedgeTimer, 0);
+
+    Result result = read(hedgedReader, primary, secondary);
+    assertNotNull(result.response.get());
+    assertEquals(1, result.callCount.get());
+    assertEquals(1, failing.getReadCount());
+    assertEquals(1, next.getReadCount());
+    assertEquals(0, hedgedReader.getHedgedReadCount());
+  }
+
+  @Test
+  public void readFailsAfterEveryMemberFails() throws Exception {
+    warmUp(primary, MS, 100);
+    warmUp(secondary, 2 * MS, 100);
+    StubReadDataNode first = dataNode(primary, -1);
+    StubReadDataNode second = dataNode(secondary, -1);
+    HedgedReader hedgedReader = new HedgedReader(scoreboard, dataNodes::get, hedgeTimer, 0);
+
+    Result result = read(hedgedReader, primary, secondary);
+    assertNull(result.response.get());
+    assertNotNull(result.exception.get());
+    assertEquals(1, result.callCount.get());
+    assertEquals(1, first.getReadCount());
+    assertEquals(1, second.getReadCount());
+  }
+
+  @Test
+  public void readDownMembersAreNotReadFrom() throws Exception {
+    HedgedReader hedgedReader = new HedgedReader(scoreboard, dataNodes::get, hedgeTimer, 1);
+
+    Result result = read(hedgedReader, member(3, MemberIoStatus.SecondaryReadDown));
+    assertTrue(result.exception.get() instanceof IllegalArgumentException);
+  }
+
+  private static class Result extends AbstractMethodCallback<PyReadResponse> {
+    private final CountDownLatch latch = new CountDownLatch(1);
+    private final AtomicReference<PyReadResponse> response = new AtomicReference<>();
+    private final AtomicReference<Exception> exception = new AtomicReference<>();
+    private final AtomicInteger callCount = new AtomicInteger();
+
+    @Override
+    public void complete(PyReadResponse object) {
+      callCount.incrementAndGet();
+      response.set(object);
+      latch.countDown();
+    }
+
+    @Override
+    public void fail(Exception e) {
+      callCount.incrementAndGet();
+      exception.set(e);
+      latch.countDown();
+    }
+  }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package py.netty.datanode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import py.common.struct.EndPoint;
+import py.netty.core.AbstractMethodCallback;
+import py.proto.Broadcastlog.GiveYouLogIdRequest;
+import py.proto.Broadcastlog.GiveYouLogIdResponse;
+import py.test.TestBase;
+
+/**
+ * compare the throughput and latency of the log rpcs of many segments sent one message each
+ * (window 0) against coalesced with a few windows.
+ *
+ * <p>Each stub datanode handles one message at a time, a message costs a fixed overhead and every
+ * rpc in it a little more. The batches are sent the way {@link LogRpcCoalescer#sendOneByOne} sends
+ * them, a message for every rpc, and framed as one message, so that the saving of a framing sender
+ * can be weighed against the latency the window adds.
+ */
+public class LogRpcCoalescerPerformanceTester extends TestBase {
+  private static final Logger logger = LoggerFactory
+      .getLogger(LogRpcCoalescerPerformanceTester.class);
+  private static final int DATANODE_COUNT = 4;
+  private static final int SEGMENT_COUNT = 2000;
+  private static final int RPC_COUNT = 100000;
+  private static final int CONCURRENCY = 256;
+  private static final long US = TimeUnit.MICROSECONDS.toNanos(1);
+  private static final long MESSAGE_COST_NANOS = 20 * US;
+  private static final long RPC_COST_NANOS = 2 * US;
+
+  private static void spin(long nanos) {
+    long end = System.nanoTime() + nanos;
+    while (System.nanoTime() < end) {
+      Thread.yield();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void complete(LogRpcCoalescer.LogRpc<?, ?> rpc) {
+    ((LogRpcCoalescer.LogRpc<?, GiveYouLogIdResponse>) rpc)
+        .complete(GiveYouLogIdResponse.getDefaultInstance());
+  }
+
+  private static long percentile(long[] sortedLatencies, double fraction) {
+    int index = (int) Math.ceil(sortedLatencies.length * fraction) - 1;
+    return sortedLatencies[Math.max(0, index)];
+  }
+
+  @Test
+  public void testCoalescing() throws Exception {
+    List<EndPoint> endPoints = new ArrayList<>();
+    Map<EndPoint, ExecutorService> dataNodes = new HashMap<>();
+    for (int i = 0; i < DATANODE_COUNT; i++) {
+      EndPoint endPoint = new EndPoint("localhost", 10000 + i);
+      endPoints.add(endPoint);
+      dataNodes.put(endPoint, Executors.newSingleThreadExecutor());
+    }
+    ScheduledExecutorService flushTimer = Executors.newSingleThreadScheduledExecutor();
+    // like sendOneByOne, every rpc of a batch is a message of its own
+    LogRpcCoalescer.BatchSender oneByOne = (endPoint, batch) -> {
+      for (LogRpcCoalescer.LogRpc<?, ?> rpc : batch) {
+        dataNodes.get(endPoint).execute(() -> {
+          spin(MESSAGE_COST_NANOS + RPC_COST_NANOS);
+          complete(rpc);
+        });
+      }
+    };
+    LogRpcCoalescer.BatchSender framed = new LogRpcCoalescer.BatchSender() {
+      @Override
+      public void send(EndPoint endPoint, List<LogRpcCoalescer.LogRpc<?, ?>> batch) {
+        dataNodes.get(endPoint).execute(() -> {
+          spin(MESSAGE_COST_NANOS + RPC_COST_NANOS * batch.size());
+          for (LogRpcCoalescer.LogRpc<?, ?> rpc : batch) {
+            complete(rpc);
+          }
+        });
+      }
+
+      @Override
+      public boolean framesBatch() {
+        return true;
+      }
+    };
+
+    try {
+      long[] windowMicros = {0, 50, 200, 1000};
+      for (int round = 0; round < 3; round++) {
+        logger.debug("-------round {}---------", round);
+        for (LogRpcCoalescer.BatchSender batchSender : Arrays.asList(oneByOne, framed)) {
+          String senderName = batchSender == framed ? "framed" : "one by one";
+          for (long window : windowMicros) {
+            LogRpcCoalescer coalescer = new LogRpcCoalescer(batchSender, flushTimer, window,
+                LogRpcCoalescer.DEFAULT_MAX_BATCH_SIZE);
+            long start = System.nanoTime();
+            long[] latencies = run(coalescer, endPoints);
+            long elapsed = System.nanoTime() - start;
+            logger.debug("{}, window {} us: {} rpcs/s, p50 {} us, p99 {} us", senderName, window,
+                RPC_COUNT * TimeUnit.SECONDS.toNanos(1) / elapsed,
+                percentile(latencies, 0.5) / US, percentile(latencies, 0.99) / US);
+            logger.debug("{}, window {} us: mean batch size {}, max batch size {}, added latency "
+                    + "mean {} us max {} us, {} of {} messages saved", senderName, window,
+                coalescer.getMeanBatchSize(), coalescer.getMaxBatchSize(),
+                coalescer.getMeanAddedLatencyNanos() / US,
+                coalescer.getMaxAddedLatencyNanos() / US, coalescer.getSavedMessageCount(),
+                coalescer.getRpcCount());
+          }
+        }
+      }
+    } finally {
+      flushTimer.shutdownNow();
+      for (ExecutorService dataNode : dataNodes.values()) {
+        dataNode.shutdownNow();
+      }
+    }
+  }
+
+  private long[] run(LogRpcCoalescer coalescer, List<EndPoint> endPoints)
+      throws InterruptedException {
+    long[] latencies = new long[RPC_COUNT];
+    Semaphore inFlight = new Semaphore(CONCURRENCY);
+    CountDownLatch latch = new CountDownLatch(RPC_COUNT);
+    GiveYouLogIdRequest request = GiveYouLogIdRequest.getDefaultInstance();
+    for (int i = 0; i < RPC_COUNT; i++) {
+      inFlight.acquire();
+      final int index = i;
+      final long start = System.nanoTime();
+      // the segments are spread over the datanodes
+      EndPoint endPoint = endPoints.get((i % SEGMENT_COUNT) % endPoints.size());
+      coalescer.giveYouLogId(endPoint, request, new AbstractMethodCallback<GiveYouLogIdResponse>() {
+        @Override
+        public void complete(GiveYouLogIdResponse object) {
+          done();
+        }
+
+        @Override
+        public void fail(Exception e) {
+          done();
+        }
+
+        private void done() {
+          latencies[index] = System.nanoTime() - start;
+          inFlight.release();
+          latch.countDown();
+        }
+      });
+    }
+    latch.await();
+    Arrays.sort(latencies);
+    return latencies;
+  }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package py.netty.datanode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Test;
+import py.common.struct.EndPoint;
+import py.netty.core.AbstractMethodCallback;
+import py.netty.core.MethodCallback;
+import py.netty.message.MethodType;
+import py.proto.Broadcastlog.GiveYouLogIdRequest;
+import py.proto.Broadcastlog.GiveYouLogIdResponse;
+import py.proto.Broadcastlog.PbAsyncSyncLogsBatchRequest;
+import py.proto.Broadcastlog.PbAsyncSyncLogsBatchResponse;
+import py.test.TestBase;
+
+public class LogRpcCoalescerTest extends TestBase {
+  private static final long LONG_WINDOW_MICROS = TimeUnit.SECONDS.toMicros(60);
+
+  private final ScheduledExecutorService flushTimer = Executors.newSingleThreadScheduledExecutor();
+  private final LinkedBlockingQueue<Batch> sentBatches = new LinkedBlockingQueue<>();
+  private final EndPoint first = new EndPoint("localhost", 10001);
+  private final EndPoint second = new EndPoint("localhost", 10002);
+
+  @After
+  public void tearDown() {
+    flushTimer.shutdownNow();
+  }
+
+  private LogRpcCoalescer coalescer(long windowMicros, int maxBatchSize) {
+    return new LogRpcCoalescer(
+        (endPoint, batch) -> sentBatches.add(new Batch(endPoint, batch)), flushTimer,
+        windowMicros, maxBatchSize);
+  }
+
+  @Test
+  public void fullBatchIsSentAtOnce() throws Exception {
+    LogRpcCoalescer coalescer = coalescer(LONG_WINDOW_MICROS, 4);
+    for (int i = 0; i < 4; i++) {
+      coalescer.giveYouLogId(first, GiveYouLogIdRequest.getDefaultInstance(), new Result<>());
+    }
+    coalescer.giveYouLogId(second, GiveYouLogIdRequest.getDefaultInstance(), new Result<>());
+
+    Batch batch = sentBatches.poll(10, TimeUnit.SECONDS);
+    assertNotNull(batch);
+    assertEquals(first, batch.endPoint);
+    assertEquals(4, batch.rpcs.size());
+    assertEquals(MethodType.GIVEYOULOGID, batch.rpcs.get(0).getMethodType());
+    // the rpc to the other datanode waits for its window
+    assertNull(sentBatches.poll(100, TimeUnit.MILLISECONDS));
+
+    coalescer.flush();
+    batch = sentBatches.poll(10, TimeUnit.SECONDS);
+    assertEquals(second, batch.endPoint);
+    assertEquals(1, batch.rpcs.size());
+    assertEquals(5, coalescer.getRpcCount());
+    assertEquals(2, coalescer.getBatchCount());
+    // every rpc is still its own message
+    assertEquals(0, coalescer.getSavedMessageCount());
+    assertEquals(4, coalescer.getMaxBatchSize());
+  }
+
+  @Test
+  public void onlyFramedBatchesSaveMessages() throws Exception {
+    LogRpcCoalescer coalescer = new LogRpcCoalescer(new LogRpcCoalescer.BatchSender() {
+      @Override
+      public void send(EndPoint endPoint, List<LogRpcCoalescer.LogRpc<?, ?>> batch) {
+        sentBatches.add(new Batch(endPoint, batch));
+      }
+
+      @Override
+      public boolean framesBatch() {
+        return true;
+      }
+    }, flushTimer, LONG_WINDOW_MICROS, 4);
+    for (int i = 0; i < 5; i++) {
+      coalescer.giveYouLogId(first, GiveYouLogIdRequest.getDefaultInstance(), new Result<>());
+    }
+    coalescer.flush();
+
+    assertEquals(4, sentBatches.poll(10, TimeUnit.SECONDS).rpcs.size());
+    assertEquals(1, sentBatches.poll(10, TimeUnit.SECONDS).rpcs.size());
+    assertEquals(2, coalescer.getBatchCount());
+    assertEquals(3, coalescer.getSavedMessageCount());
+  }
+
+  @Test
+  public void windowZeroPassesThrough() throws Exception {
+    LogRpcCoalescer coalescer = coalescer(LogRpcCoalescer.DEFAULT_WINDOW_MICROS, 4);
+    coalescer.giveYouLogId(first, GiveYouLogIdRequest.getDefaultInstance(), new Result<>());
+
+    Batch batch = sentBatches.poll(0, TimeUnit.SECONDS);
+    assertNotNull(batch);
+    assertEquals(1, batch.rpcs.size());
+  }
+
+  @Test
+  public void batchesToADataNodeAreSentInOrder() throws Exception {
+    List<Integer> completed = new ArrayList<>();
+    LogRpcCoalescer coalescer = new LogRpcCoalescer((endPoint, batch) -> {
+      // give a batch taken later the chance to overtake this one
+      Thread.yield();
+      for (LogRpcCoalescer.LogRpc<?, ?> rpc : batch) {
+        ((LogRpcCoalescer.LogRpc<?, GiveYouLogIdResponse>) rpc)
+            .complete(GiveYouLogIdResponse.getDefaultInstance());
+      }
+    }, flushTimer, 10, 8);
+    int count = 100000;
+    Thread flusher = new Thread(() -> {
+      while (!Thread.currentThread().isInterrupted()) {
+        coalescer.flush();
+      }
+    });
+    flusher.start();
+    try {
+      for (int i = 0; i < count; i++) {
+        final int index = i;
+        coalescer.giveYouLogId(first, GiveYouLogIdRequest.getDefaultInstance(),
+            new AbstractMethodCallback<GiveYouLogIdResponse>() {
+              @Override
+              public void complete(GiveYouLogIdResponse object) {
+                synchronized (completed) {
+                  completed.add(index);
+                }
+              }
+
+              @Override
+              public void fail(Exception e) {
+                // shows up out of order
+                synchronized (completed) {
+                  completed.add(-1);
+                }
+              }
+            });
+      }
+    } finally {
+      flusher.interrupt();
+      flusher.join();
+    }
+    coalescer.flush();
+
+    assertEquals(count, completed.size());
+    for (int i = 0; i < count; i++) {
+      assertEquals(i, (int) completed.get(i));
+    }
+  }
+
+  @Test
+  public void pendingRpcsAreSentAfterTheWindow() throws Exception {
+    LogRpcCoalescer coalescer = coalescer(TimeUnit.MILLISECONDS.toMicros(20), 100);
+    long start = System.nanoTime();
+    for (int i = 0; i < 3; i++) {
+      coalescer.syncLog(first, PbAsyncSyncLogsBatchRequest.getDefaultInstance(), new Result<>());
+    }
+
+    Batch batch = sentBatches.poll(10, TimeUnit.SECONDS);
+    assertNotNull(batch);
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+    assertEquals(3, batch.rpcs.size());
+    assertTrue(coalescer.getMaxAddedLatencyNanos() >= TimeUnit.MILLISECONDS.toNanos(20));
+  }
+
+  @Test
+  public void callbacksAreDemultiplexed() throws Exception {
+    LogRpcCoalescer coalescer = coalescer(LONG_WINDOW_MICROS, 2);
+    Result<PbAsyncSyncLogsBatchResponse> syncLogResult = new Result<>();
+    Result<GiveYouLogIdResponse> giveYouLogIdResult = new Result<>();
+    coalescer.syncLog(first, PbAsyncSyncLogsBatchRequest.getDefaultInstance(), syncLogResult);
+    coalescer.giveYouLogId(first, GiveYouLogIdRequest.getDefaultInstance(), giveYouLogIdResult);
+
+    Batch batch = sentBatches.poll(10, TimeUnit.SECONDS);
+    Exception exception = new Exception("stub failure");
+    ((LogRpcCoalescer.LogRpc<?, PbAsyncSyncLogsBatchResponse>) batch.rpcs.get(0))
+        .complete(PbAsyncSyncLogsBatchResponse.getDefaultInstance());
+    batch.rpcs.get(1).fail(exception);
+    // a callback is never invoked twice
+    batch.rpcs.get(1).fail(new Exception("late failure"));
+
+    assertSame(PbAsyncSyncLogsBatchResponse.getDefaultInstance(), syncLogResult.response.get());
+    assertNull(syncLogResult.exception.get());
+    assertSame(exception, giveYouLogIdResult.exception.get());
+    assertEquals(1, giveYouLogIdResult.callCount.get());
+  }
+
+  @Test
+  public void failedBatchFailsAllItsRpcs() throws Exception {
+    LogRpcCoalescer coalescer = new LogRpcCoalescer((endPoint, batch) -> {
+      throw new IllegalStateException("disconnected");
+    }, flushTimer, LONG_WINDOW_MICROS, 2);
+    List<Result<GiveYouLogIdResponse>> results = new ArrayList<>();
+    for (int i = 0; i < 2; i++) {
+      Result<GiveYouLogIdResponse> result = new Result<>();
+      results.add(result);
+      coalescer.giveYouLogId(first, GiveYouLogIdRequest.getDefaultInstance(), result);
+    }
+
+    for (Result<GiveYouLogIdResponse> result : results) {
+      assertTrue(result.latch.await(10, TimeUnit.SECONDS));
+      assertTrue(result.exception.get() instanceof IllegalStateException);
+    }
+  }
+
+  @Test
+  public void clientFailingAndThrowingFailsTheCallbackOnce() throws Exception {
+    AsyncDataNode.AsyncIface client = new StubReadDataNode(flushTimer, () -> 0) {
+      @Override
+      public void giveYouLogId(GiveYouLogIdRequest request,
+          MethodCallback<GiveYouLogIdResponse> callback) {
+        callback.fail(new Exception("refused"));
+        throw new IllegalStateException("disconnected");
+      }
+    };
+    LogRpcCoalescer coalescer = new LogRpcCoalescer(
+        LogRpcCoalescer.sendOneByOne(endPoint -> client), flushTimer, 0, 4);
+    Result<GiveYouLogIdResponse> result = new Result<>();
+    coalescer.giveYouLogId(first, GiveYouLogIdRequest.getDefaultInstance(), result);
+
+    assertEquals(1, result.callCount.get());
+    assertEquals("refused", result.exception.get().getMessage());
+  }
+
+  private static class Batch {
+    private final EndPoint endPoint;
+    private final List<LogRpcCoalescer.LogRpc<?, ?>> rpcs;
+
+    private Batch(EndPoint endPoint, List<LogRpcCoalescer.LogRpc<?, ?>> rpcs) {
+      this.endPoint = endPoint;
+      this.rpcs = rpcs;
+    }
+  }
+
+  private static class Result<T> extends AbstractMethodCallback<T> {
+    private final CountDownLatch latch = new CountDownLatch(1);
+    private final AtomicReference<T> response = new AtomicReference<>();
+    private final AtomicReference<Exception> exception = new AtomicReference<>();
+    private final AtomicInteger callCount = new AtomicInteger();
+
+    @Override
+    public void complete(T object) {
+      callCount.incrementAndGet();
+      response.set(object);
+      latch.countDown();
+    }
+
+    @Override
+    public void fail(Exception e) {
+      callCount.incrementAndGet();
+      exception.set(e);
+      latch.countDown();
+    }
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package py.netty.datanode;
+
+import com.google.protobuf.CodedInputStream;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import py.netty.message.Header;
+import py.netty.message.MethodType;
+import py.proto.Broadcastlog.PbCopyPageRequest;
+import py.proto.Broadcastlog.PbIoUnitResult;
+import py.proto.Broadcastlog.PbMembership;
+import py.proto.Broadcastlog.PbReadResponse;
+import py.proto.Broadcastlog.PbReadResponseUnit;
+import py.proto.Broadcastlog.PbWriteRequest;
+import py.proto.Broadcastlog.PbWriteRequestUnit;
+import py.test.TestBase;
+
+/**
+ * compare decoding the write requests, read responses and copy page requests by reflection, the
+ * way they were decoded before, against the generated parsers, in messages per second and bytes
+ * allocated per message.
+ */
+public class PyMessageDecodePerformanceTester extends TestBase {
+  private static final Logger logger = LoggerFactory
+      .getLogger(PyMessageDecodePerformanceTester.class);
+  private static final int UNIT_COUNT = 16;
+  private static final int UNIT_LENGTH = 4096;
+  private static final int COUNT = 200000;
+
+  private static PbMembership membership() {
+    return PbMembership.newBuilder().setEpoch(1).setGeneration(2).setPrimary(1)
+        .addSecondaries(2L).addSecondaries(3L).build();
+  }
+
+  private static PbWriteRequest writeRequest() {
+    PbWriteRequest.Builder builder = PbWriteRequest.newBuilder().setRequestId(1L).setVolumeId(1L)
+        .setSegIndex(2).setFailTimes(0).setZombieWrite(false).setRequestTime(0L)
+        .setMembership(membership());
+    for (int i = 0; i < UNIT_COUNT; i++) {
+      builder.addRequestUnits(PbWriteRequestUnit.newBuilder().setLogUuid(i).setLogId(i)
+          .setOffset((long) i * UNIT_LENGTH).setLength(UNIT_LENGTH).setRandomWrite(true));
+    }
+    return builder.build();
+  }
+
+  private static PbReadResponse readResponse() {
+    PbReadResponse.Builder builder = PbReadResponse.newBuilder().setRequestId(1L).setPclId(10);
+    for (int i = 0; i < UNIT_COUNT; i++) {
+      builder.addResponseUnits(PbReadResponseUnit.newBuilder().setOffset((long) i * UNIT_LENGTH)
+          .setLength(UNIT_LENGTH).setChecksum(0).setResult(PbIoUnitResult.OK));
+    }
+    return builder.build();
+  }
+
+  private static PbCopyPageRequest copyPageRequest() {
+    return PbCopyPageRequest.newBuilder().setRequestId(1L).setSegIndex(2).setSessionId(3L)
+        .setVolumeId(1L).setCopyPageUnitIndex(0).setErrorCount(0).setMembership(membership())
+        .build();
+  }
+
+  private static long allocatedBytes(ThreadMXBean threadMxBean) {
+    if (threadMxBean instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) threadMxBean)
+          .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    return 0;
+  }
+
+  private static Object decode(MethodType methodType, Method parseFrom, Header header,
+      ByteBuf body, byte[] metadata) throws Exception {
+    CodedInputStream inputStream = CodedInputStream.newInstance(metadata);
+    switch (methodType) {
+      case WRITE:
+        if (parseFrom != null) {
+          return new PyWriteRequest((PbWriteRequest) parseFrom.invoke(null, inputStream), body);
+        }
+        return PyWriteRequest.parseFrom(header, body, inputStream);
+      case READ:
+        if (parseFrom != null) {
+          return new PyReadResponse((PbReadResponse) parseFrom.invoke(null, inputStream), body);
+        }
+        return PyReadResponse.parseFrom(header, body, inputStream);
+      default:
+        if (parseFrom != null) {
+          return new PyCopyPageRequest((PbCopyPageRequest) parseFrom.invoke(null, inputStream),
+              body);
+        }
+        return PyCopyPageRequest.parseFrom(header, body, inputStream);
+    }
+  }
+
+  private static void run(MethodType methodType, Method parseFrom, Header header, ByteBuf body,
+      byte[] metadata, ThreadMXBean threadMxBean) throws Exception {
+    long hash = 0;
+    long allocated = allocatedBytes(threadMxBean);
+    long time = System.nanoTime();
+    for (int n = 0; n < COUNT; n++) {
+      hash += System.identityHashCode(decode(methodType, parseFrom, header, body, metadata));
+    }
+    time = System.nanoTime() - time;
+    allocated = allocatedBytes(threadMxBean) - allocated;
+    logger.debug("{} {}: {} messages/s, {} bytes allocated per message, hash {}", methodType,
+        parseFrom != null ? "reflection" : "parser", COUNT * 1000000000L / time,
+        allocated / COUNT, hash);
+  }
+
+  @Test
+  public void testDecodePerformance() throws Exception {
+    ThreadMXBean threadMxBean = ManagementFactory.getThreadMXBean();
+    MethodType[] methodTypes = {MethodType.WRITE, MethodType.READ, MethodType.COPY};
+    byte[][] metadata = {writeRequest().toByteArray(), readResponse().toByteArray(),
+        copyPageRequest().toByteArray()};
+    Method[] parseFroms = {
+        PbWriteRequest.class.getMethod("parseFrom", CodedInputStream.class),
+        PbReadResponse.class.getMethod("parseFrom", CodedInputStream.class),
+        PbCopyPageRequest.class.getMethod("parseFrom", CodedInputStream.class)};
+    ByteBuf body = Unpooled.directBuffer(UNIT_COUNT * UNIT_LENGTH);
+    body.writerIndex(body.capacity());
+
+    for (int round = 0; round < 5; round++) {
+      logger.debug("-------round {}---------", round);
+      for (int i = 0; i < methodTypes.length; i++) {
+        int dataLength = methodTypes[i] == MethodType.COPY ? 0 : body.readableBytes();
+        Header header = new Header((byte) methodTypes[i].getValue(), metadata[i].length,
+            dataLength, 1L);
+        run(methodTypes[i], parseFroms[i], header, body, metadata[i], threadMxBean);
+        run(methodTypes[i], null, header, body, metadata[i], threadMxBean);
+      }
+    }
+    body.release();
+  }
+}
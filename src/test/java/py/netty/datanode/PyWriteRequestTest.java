@@ -16,6 +16,7 @@ package py.netty.datanode;
 
 import static org.junit.Assert.assertEquals;
 
+import com.google.protobuf.CodedInputStream;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import java.util.ArrayList;
@@ -28,6 +29,8 @@ import py.PbRequestResponseHelper;
 import py.common.RequestIdBuilder;
 import py.instance.InstanceId;
 import py.membership.SegmentMembership;
+import py.netty.message.Header;
+import py.netty.message.MethodType;
 import py.proto.Broadcastlog.PbBroadcastLogManager;
 import py.proto.Broadcastlog.PbWriteRequest;
 import py.proto.Broadcastlog.PbWriteRequestUnit;
@@ -89,6 +92,20 @@ public class PyWriteRequestTest extends TestBase {
 
   }
 
+  @Test
+  public void testDecode() throws Exception {
+    PbWriteRequest metadata = createWriteRequest().getMetadata();
+    ByteBuf data = Unpooled.wrappedBuffer(generateRandomData(1), generateRandomData(3));
+    Header header = new Header((byte) MethodType.WRITE.getValue(), metadata.getSerializedSize(),
+        data.readableBytes(), RequestIdBuilder.get());
+
+    PyWriteRequest writeRequest = PyWriteRequest.parseFrom(header, data,
+        CodedInputStream.newInstance(metadata.toByteArray()));
+    assertEquals(metadata, writeRequest.getMetadata());
+    assertEquals(TESTING_REQUEST_UNIT_SIZE, writeRequest.getRequestUnitData(2).readableBytes());
+    assertEquals(30, writeRequest.getRequestUnitData(2).getByte(0));
+  }
+
   public PyWriteRequest createWriteRequest() throws Exception {
     /*
      * PbWriteRequest
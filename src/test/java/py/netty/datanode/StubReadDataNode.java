@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package py.netty.datanode;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+import py.netty.core.MethodCallback;
+import py.proto.Broadcastlog.GiveYouLogIdRequest;
+import py.proto.Broadcastlog.GiveYouLogIdResponse;
+import py.proto.Broadcastlog.PbAsyncSyncLogsBatchRequest;
+import py.proto.Broadcastlog.PbAsyncSyncLogsBatchResponse;
+import py.proto.Broadcastlog.PbBackwardSyncLogsRequest;
+import py.proto.Broadcastlog.PbBackwardSyncLogsResponse;
+import py.proto.Broadcastlog.PbCheckRequest;
+import py.proto.Broadcastlog.PbCheckResponse;
+import py.proto.Broadcastlog.PbCopyPageResponse;
+import py.proto.Broadcastlog.PbGetMembershipRequest;
+import py.proto.Broadcastlog.PbGetMembershipResponse;
+import py.proto.Broadcastlog.PbReadRequest;
+import py.proto.Broadcastlog.PbReadResponse;
+import py.proto.Broadcastlog.PbWriteRequest;
+import py.proto.Broadcastlog.PbWriteResponse;
+import py.proto.Commitlog;
+import py.proto.Commitlog.PbStartOnlineMigrationRequest;
+import py.proto.Commitlog.PbStartOnlineMigrationResponse;
+
+/**
+ * A local data node which only serves reads, answering each after the latency the given supplier
+ * returns, or failing it if the latency is negative.
+ */
+class StubReadDataNode implements AsyncDataNode.AsyncIface {
+  private final ScheduledExecutorService responder;
+  private final LongSupplier latencyNanos;
+  private final AtomicInteger readCount = new AtomicInteger();
+
+  StubReadDataNode(ScheduledExecutorService responder, LongSupplier latencyNanos) {
+    this.responder = responder;
+    this.latencyNanos = latencyNanos;
+  }
+
+  int getReadCount() {
+    return readCount.get();
+  }
+
+  @Override
+  public void read(PbReadRequest request, MethodCallback<PyReadResponse> callback) {
+    readCount.incrementAndGet();
+    long latency = latencyNanos.getAsLong();
+    if (latency < 0) {
+      responder.execute(() -> callback.fail(new Exception("stub read failure")));
+      return;
+    }
+    PbReadResponse response = PbReadResponse.newBuilder().setRequestId(request.getRequestId())
+        .build();
+    responder.schedule(() -> callback.complete(new PyReadResponse(response, null, false)),
+        latency, TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public void ping(MethodCallback<Object> callback) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void write(PyWriteRequest request, MethodCallback<PbWriteResponse> callback) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void copy(PyCopyPageRequest request, MethodCallback<PbCopyPageResponse> callback) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void check(PbCheckRequest request, MethodCallback<PbCheckResponse> callback) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void giveYouLogId(GiveYouLogIdRequest request,
+      MethodCallback<GiveYouLogIdResponse> callback) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void getMembership(PbGetMembershipRequest request,
+      MethodCallback<PbGetMembershipResponse> callback) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void addOrCommitLogs(Commitlog.PbCommitlogRequest request,
+      MethodCallback<Commitlog.PbCommitlogResponse> callback) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void discard(PbWriteRequest request, MethodCallback<PbWriteResponse> callback) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void syncLog(PbAsyncSyncLogsBatchRequest request,
+      MethodCallback<PbAsyncSyncLogsBatchResponse> callback) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void backwardSyncLog(PbBackwardSyncLogsRequest request,
+      MethodCallback<PbBackwardSyncLogsResponse> callback) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void startOnlineMigration(PbStartOnlineMigrationRequest request,
+      MethodCallback<PbStartOnlineMigrationResponse> callback) {
+    throw new UnsupportedOperationException();
+  }
+}
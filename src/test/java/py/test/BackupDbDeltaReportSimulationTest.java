@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package py.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import py.common.Utils;
+import py.common.struct.EndPoint;
+import py.icshare.BackupDbReporterImpl;
+import py.icshare.DbTableName;
+import py.icshare.DbTableVersions;
+import py.instance.Group;
+import py.thrift.share.ReportDbRequestThrift;
+import py.thrift.share.ReportDbResponseThrift;
+
+/**
+ * Hundreds of reporters heartbeat the same simulated info center, which changes one table now and
+ * then. Compares the rows sent both ways with full snapshots and with deltas.
+ */
+public class BackupDbDeltaReportSimulationTest extends TestBase {
+  private static final String simulationPath = "/tmp/backupDbDeltaSimulation";
+  private static final int REPORTER_COUNT = 200;
+  private static final int ROUND_COUNT = 20;
+  private static final int ROUNDS_PER_CHANGE = 5;
+
+  private final List<BackupDbReporterImpl> reporters = new ArrayList<>();
+
+  @Before
+  public void cleanTestEnvBefore() {
+    try {
+      Utils.deleteDirectory(new File(simulationPath));
+    } catch (Exception e) {
+      logger.error("fail to clean env for test", e);
+    }
+  }
+
+  @After
+  public void closeReporters() throws Exception {
+    for (BackupDbReporterImpl reporter : reporters) {
+      reporter.close();
+    }
+    reporters.clear();
+  }
+
+  @Test
+  public void deltaReportsConvergeWithFewerRows() throws Exception {
+    long fullRows = simulate(false);
+    closeReporters();
+    cleanTestEnvBefore();
+    long deltaRows = simulate(true);
+    logger.warn("{} reporters, {} rounds, rows sent with full snapshots: {}, with deltas: {}",
+        REPORTER_COUNT, ROUND_COUNT, fullRows, deltaRows);
+    assertTrue(deltaRows * 10 < fullRows);
+  }
+
+  private long simulate(boolean delta) throws Exception {
+    InfoCenter infoCenter = new InfoCenter(
+        TestUtils.buildReportDbResponse(1L, 3, 3, 3, 3, 1, 1, 1, 1, 1, 3, 3));
+    // the info center versions each reporter got last time, null before the first report
+    DbTableVersions[] acknowledged = new DbTableVersions[REPORTER_COUNT];
+    for (int i = 0; i < REPORTER_COUNT; i++) {
+      reporters.add(new BackupDbReporterImpl(simulationPath + "/" + i, 60000));
+    }
+
+    EndPoint endPoint = new EndPoint("10.0.1.1", 1234);
+    Group group = new Group(1);
+    long rows = 0;
+    for (int round = 1; round <= ROUND_COUNT; round++) {
+      if (round % ROUNDS_PER_CHANGE == 0) {
+        infoCenter.changeRoles(round + 1L, round % 3 + 1);
+      }
+      for (int i = 0; i < REPORTER_COUNT; i++) {
+        BackupDbReporterImpl reporter = reporters.get(i);
+        ReportDbRequestThrift request;
+        ReportDbResponseThrift response;
+        if (delta) {
+          request = reporter.buildReportDbRequest(endPoint, group, (long) i, acknowledged[i]);
+          response = infoCenter.respond(reporter.getTableVersions());
+          acknowledged[i] = infoCenter.versions;
+        } else {
+          request = reporter.buildReportDbRequest(endPoint, group, (long) i, true);
+          response = infoCenter.respond(null);
+        }
+        rows += countRows(request) + countRows(response);
+        reporter.processRsp(response);
+      }
+    }
+
+    for (BackupDbReporterImpl reporter : reporters) {
+      assertEquals(infoCenter.versions, reporter.getTableVersions());
+      assertEquals(infoCenter.tables.getSequenceId(), reporter.getSequenceId().longValue());
+    }
+    infoCenter.mirror.close();
+    return rows;
+  }
+
+  private static long countRows(ReportDbRequestThrift request) {
+    return size(request.getDomainThriftList()) + size(request.getStoragePoolThriftList())
+        + size(request.getVolume2RuleThriftList()) + size(request.getAccessRuleThriftList())
+        + size(request.getCapacityRecordThriftList()) + size(request.getApiThriftList())
+        + size(request.getResourceThriftList()) + size(request.getRoleThriftList())
+        + size(request.getAccountMetadataBackupThriftList())
+        + size(request.getIscsi2RuleThriftList()) + size(request.getIscsiAccessRuleThriftList());
+  }
+
+  private static long countRows(ReportDbResponseThrift response) {
+    return size(response.getDomainThriftList()) + size(response.getStoragePoolThriftList())
+        + size(response.getVolume2RuleThriftList()) + size(response.getAccessRuleThriftList())
+        + size(response.getCapacityRecordThriftList()) + size(response.getApiThriftList())
+        + size(response.getResourceThriftList()) + size(response.getRoleThriftList())
+        + size(response.getAccountMetadataBackupThriftList())
+        + size(response.getIscsi2RuleThriftList()) + size(response.getIscsiAccessRuleThriftList());
+  }
+
+  private static int size(List<?> rows) {
+    return rows == null ? 0 : rows.size();
+  }
+
+  /**
+   * holds the tables every reporter should end up with. Its versions are worked out by a reporter
+   * of its own, the same way the real info center would from the same rows.
+   */
+  private static class InfoCenter {
+    private final BackupDbReporterImpl mirror;
+    private ReportDbResponseThrift tables;
+    private DbTableVersions versions;
+
+    InfoCenter(ReportDbResponseThrift tables) {
+      this.mirror = new BackupDbReporterImpl(simulationPath + "/infoCenter", 60000);
+      update(tables);
+    }
+
+    void changeRoles(long sequenceId, int roleCount) {
+      ReportDbResponseThrift newTables = tables.deepCopy();
+      newTables.setSequenceId(sequenceId);
+      newTables.setRoleThriftList(TestUtils
+          .buildReportDbResponse(sequenceId, 0, 0, 0, 0, 0, roleCount, 0, 0, 0)
+          .getRoleThriftList());
+      update(newTables);
+    }
+
+    private void update(ReportDbResponseThrift newTables) {
+      tables = newTables;
+      mirror.processRsp(newTables);
+      versions = mirror.getTableVersions();
+    }
+
+    /**
+     * the tables differing from the reporter versions, or all of them if they are unknown.
+     */
+    ReportDbResponseThrift respond(DbTableVersions reporterVersions) {
+      ReportDbResponseThrift response = tables.deepCopy();
+      Set<DbTableName> changedTables = versions.changedSince(reporterVersions);
+      for (DbTableName table : DbTableName.values()) {
+        if (!changedTables.contains(table)) {
+          unsetTable(response, table);
+        }
+      }
+      return response;
+    }
+
+    private static void unsetTable(ReportDbResponseThrift response, DbTableName table) {
+      switch (table) {
+        case Domain:
+          response.unsetDomainThriftList();
+          break;
+        case StoragePool:
+          response.unsetStoragePoolThriftList();
+          break;
+        case Volume2RuleRelate:
+          response.unsetVolume2RuleThriftList();
+          break;
+        case AccessRule:
+          response.unsetAccessRuleThriftList();
+          break;
+        case CapacityRecord:
+          response.unsetCapacityRecordThriftList();
+          break;
+        case API:
+          response.unsetApiThriftList();
+          break;
+        case RESOURCE:
+          response.unsetResourceThriftList();
+          break;
+        case ROLE:
+          response.unsetRoleThriftList();
+          break;
+        case ACCOUNT:
+          response.unsetAccountMetadataBackupThriftList();
+          break;
+        case Iscsi2RuleRelate:
+          response.unsetIscsi2RuleThriftList();
+          break;
+        case IscsiAccessRule:
+          response.unsetIscsiAccessRuleThriftList();
+          break;
+        case VolumeRecycleInformation:
+          response.unsetVolumeRecycleInformationThriftList();
+          break;
+        case IoLimitation:
+          response.unsetIoLimitationThriftList();
+          break;
+        case MigrationRule:
+          response.unsetMigrationSpeedThriftList();
+          break;
+        case RebalanceRule:
+          response.unsetRebalanceRuleThriftList();
+          break;
+        default:
+          throw new IllegalArgumentException("unknown table " + table);
+      }
+    }
+  }
+}
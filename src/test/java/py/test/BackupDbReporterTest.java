@@ -15,18 +15,25 @@
 package py.test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Multimaps;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import org.junit.Before;
 import org.junit.Test;
@@ -34,9 +41,11 @@ import py.RequestResponseHelper;
 import py.common.RequestIdBuilder;
 import py.common.Utils;
 import py.common.struct.EndPoint;
+import py.icshare.BackupDbJournal;
 import py.icshare.BackupDbReporter;
 import py.icshare.BackupDbReporterImpl;
 import py.icshare.DbTableName;
+import py.icshare.DbTableVersions;
 import py.instance.Group;
 import py.thrift.share.ReportDbRequestThrift;
 import py.thrift.share.ReportDbResponseThrift;
@@ -370,7 +379,7 @@ public class BackupDbReporterTest extends TestBase {
     }
   }
 
-  // It will not write to file,if the List of response is the same as memory
+  // It will not journal anything, if the tables of the response are the same as memory
   @Test
   public void testProcessSave() throws Exception {
     BackupDbReporter reporter = new BackupDbReporterImpl(backupDBPath);
@@ -406,45 +415,176 @@ public class BackupDbReporterTest extends TestBase {
     assertEquals(sequenceId.longValue(),
         ((BackupDbReporterImpl) reporter).getSequenceId().longValue());
 
-    // delete file
-
-    Path stringPath = FileSystems.getDefault().getPath(backupDBPath);
-    Utils.deleteEveryThingExceptDirectory(stringPath.toFile());
-
+    // processing the same response again journals nothing
+    ((BackupDbReporterImpl) reporter).flush();
+    Path journalPath = FileSystems.getDefault()
+        .getPath(backupDBPath, BackupDbJournal.JOURNAL_FILE_NAME);
+    long journalSize = Files.size(journalPath);
     reporter.processRsp(response);
-    assertEquals(true,
-        Files.exists(FileSystems.getDefault().getPath(backupDBPath, "sequenceId_File")));
+    assertEquals(journalSize, Files.size(journalPath));
     assertEquals(sequenceId.longValue(),
         ((BackupDbReporterImpl) reporter).getSequenceId().longValue());
+    // tables are not kept in a file each any more
     assertEquals(false,
-        Files.exists(FileSystems.getDefault().getPath(backupDBPath, DbTableName.Domain.name())));
-    assertEquals(false,
-        Files.exists(
-            FileSystems.getDefault().getPath(backupDBPath, DbTableName.StoragePool.name())));
-    assertEquals(false,
-        Files.exists(
-            FileSystems.getDefault().getPath(backupDBPath, DbTableName.Volume2RuleRelate.name())));
-    assertEquals(false,
-        Files
-            .exists(FileSystems.getDefault().getPath(backupDBPath, DbTableName.AccessRule.name())));
+        Files.exists(FileSystems.getDefault().getPath(backupDBPath, "sequenceId_File")));
     assertEquals(false,
-        Files.exists(
-            FileSystems.getDefault().getPath(backupDBPath, DbTableName.CapacityRecord.name())));
+        Files.exists(FileSystems.getDefault().getPath(backupDBPath, DbTableName.Domain.name())));
 
     // re-load database info again
     reporter.loadDbInfo();
 
     assertEquals(sequenceId.longValue(),
         ((BackupDbReporterImpl) reporter).getSequenceId().longValue());
-    assertEquals(0, ((BackupDbReporterImpl) reporter).getDomainList().size());
-    assertEquals(0, ((BackupDbReporterImpl) reporter).getStoragePoolList().size());
-    assertEquals(0, ((BackupDbReporterImpl) reporter).getVolume2RuleList().size());
-    assertEquals(0, ((BackupDbReporterImpl) reporter).getAccessRuleList().size());
+    assertEquals(domainCount, ((BackupDbReporterImpl) reporter).getDomainList().size());
+    assertEquals(storagePoolCount, ((BackupDbReporterImpl) reporter).getStoragePoolList().size());
+    assertEquals(volume2RuleCount, ((BackupDbReporterImpl) reporter).getVolume2RuleList().size());
+    assertEquals(accessRuleCount, ((BackupDbReporterImpl) reporter).getAccessRuleList().size());
+  }
 
-    assertEquals(0, ((BackupDbReporterImpl) reporter).getIscsi2RuleList().size());
-    assertEquals(0, ((BackupDbReporterImpl) reporter).getIscsiAccessRuleList().size());
+  @Test
+  public void testRecoverAfterCrash() throws Exception {
+    BackupDbReporterImpl reporter = new BackupDbReporterImpl(backupDBPath, 0);
+    Path journalPath = FileSystems.getDefault()
+        .getPath(backupDBPath, BackupDbJournal.JOURNAL_FILE_NAME);
+    ReportDbResponseThrift response1 = TestUtils
+        .buildReportDbResponse(10L, 3, 3, 3, 3, 1, 1, 1, 1, 1);
+    reporter.processRsp(response1);
+    long sizeAfterResponse1 = Files.size(journalPath);
+    ReportDbResponseThrift response2 = TestUtils
+        .buildReportDbResponse(11L, 2, 2, 2, 2, 1, 1, 1, 1, 1);
+    reporter.processRsp(response2);
 
-    assertEquals(0, ((BackupDbReporterImpl) reporter).getCapacityRecordList().size());
+    // the process dies in the middle of journaling the second response
+    try (FileChannel channel = FileChannel.open(journalPath, StandardOpenOption.WRITE)) {
+      channel.truncate((sizeAfterResponse1 + Files.size(journalPath)) / 2);
+    }
+
+    EndPoint endPoint = new EndPoint("10.0.1.1", 1234);
+    Group group = new Group(1);
+    Long instanceId = RequestIdBuilder.get();
+    BackupDbReporterImpl recovered = new BackupDbReporterImpl(backupDBPath, 0);
+    assertEquals(10L, recovered.getSequenceId().longValue());
+    TestUtils.compareReportRequestAndReportResponse(
+        recovered.buildReportDbRequest(endPoint, group, instanceId, true), response1);
+
+    // the journal goes on after the torn record is cut off
+    recovered.processRsp(response2);
+    recovered.close();
+    recovered = new BackupDbReporterImpl(backupDBPath, 0);
+    assertEquals(11L, recovered.getSequenceId().longValue());
+    TestUtils.compareReportRequestAndReportResponse(
+        recovered.buildReportDbRequest(endPoint, group, instanceId, true), response2);
+    recovered.close();
+  }
+
+  @Test
+  public void testMigrateLegacyFiles() throws Exception {
+    Path legacySequenceIdPath = FileSystems.getDefault().getPath(backupDBPath, "sequenceId_File");
+    Files.createDirectories(legacySequenceIdPath.getParent());
+    Files.write(legacySequenceIdPath, "7\n".getBytes(StandardCharsets.UTF_8));
+
+    BackupDbReporterImpl reporter = new BackupDbReporterImpl(backupDBPath, 0);
+    assertEquals(7L, reporter.getSequenceId().longValue());
+    assertFalse(Files.exists(legacySequenceIdPath));
+    reporter.close();
+
+    reporter = new BackupDbReporterImpl(backupDBPath, 0);
+    assertEquals(7L, reporter.getSequenceId().longValue());
+    reporter.close();
+  }
+
+  @Test
+  public void testBuildDeltaReportDbRequest() throws Exception {
+    BackupDbReporterImpl reporter = new BackupDbReporterImpl(backupDBPath, 0);
+    EndPoint endPoint = new EndPoint("10.0.1.1", 1234);
+    Group group = new Group(1);
+    Long instanceId = RequestIdBuilder.get();
+    ReportDbResponseThrift response1 = TestUtils
+        .buildReportDbResponse(10L, 3, 3, 3, 3, 1, 1, 1, 1, 1);
+    reporter.processRsp(response1);
+    DbTableVersions acknowledged = reporter.getTableVersions();
+
+    // nothing is acknowledged, the full snapshot
+    TestUtils.compareReportRequestAndReportResponse(
+        reporter.buildReportDbRequest(endPoint, group, instanceId, (DbTableVersions) null),
+        response1);
+
+    // everything is acknowledged, only the sequence id
+    ReportDbRequestThrift request = reporter
+        .buildReportDbRequest(endPoint, group, instanceId, acknowledged);
+    assertEquals(10L, request.getSequenceId());
+    assertFalse(request.isSetDomainThriftList());
+    assertFalse(request.isSetStoragePoolThriftList());
+    assertFalse(request.isSetCapacityRecordThriftList());
+    assertFalse(request.isSetRoleThriftList());
+
+    // a response only carrying the roles is applied, and only the roles are carried then
+    ReportDbResponseThrift response2 = TestUtils
+        .buildReportDbResponse(11L, 0, 0, 0, 0, 0, 2, 0, 0, 0);
+    reporter.processRsp(response2);
+    assertEquals(11L, reporter.getSequenceId().longValue());
+    assertEquals(EnumSet.of(DbTableName.ROLE),
+        reporter.getTableVersions().changedSince(acknowledged));
+    request = reporter.buildReportDbRequest(endPoint, group, instanceId, acknowledged);
+    assertEquals(11L, request.getSequenceId());
+    assertEquals(response2.getRoleThriftList(), request.getRoleThriftList());
+    assertFalse(request.isSetDomainThriftList());
+    assertFalse(request.isSetApiThriftList());
+
+    // the versions only depend on the rows, so they are the same after a restart
+    DbTableVersions versions = reporter.getTableVersions();
+    reporter.close();
+    reporter = new BackupDbReporterImpl(backupDBPath, 0);
+    assertEquals(versions, reporter.getTableVersions());
+    reporter.close();
+  }
+
+  @Test
+  public void testTableEmptied() throws Exception {
+    BackupDbReporterImpl reporter = new BackupDbReporterImpl(backupDBPath, 0);
+    EndPoint endPoint = new EndPoint("10.0.1.1", 1234);
+    Group group = new Group(1);
+    Long instanceId = RequestIdBuilder.get();
+    reporter.processRsp(TestUtils.buildReportDbResponse(10L, 3, 3, 3, 3, 1, 2, 1, 1, 1));
+    DbTableVersions acknowledged = reporter.getTableVersions();
+
+    // an empty list from a sender not telling its versions is left alone, as it always was
+    ReportDbResponseThrift response = TestUtils
+        .buildReportDbResponse(11L, 0, 0, 0, 0, 0, 0, 0, 0, 0);
+    response.setRoleThriftList(new ArrayList<>());
+    reporter.processRsp(response);
+    assertEquals(acknowledged, reporter.getTableVersions());
+
+    // the info center has dropped all the roles
+    Map<DbTableName, Long> senderVersions = new EnumMap<>(DbTableName.class);
+    for (DbTableName table : acknowledged.nonEmptyTables()) {
+      senderVersions.put(table, acknowledged.get(table));
+    }
+    senderVersions.remove(DbTableName.ROLE);
+    reporter.processRsp(response, new DbTableVersions(senderVersions));
+    assertEquals(DbTableVersions.EMPTY_TABLE_VERSION,
+        reporter.getTableVersions().get(DbTableName.ROLE));
+    assertEquals(acknowledged.get(DbTableName.Domain),
+        reporter.getTableVersions().get(DbTableName.Domain));
+
+    // the delta carries the emptied table as an empty list
+    ReportDbRequestThrift request = reporter
+        .buildReportDbRequest(endPoint, group, instanceId, acknowledged);
+    assertTrue(request.isSetRoleThriftList());
+    assertTrue(request.getRoleThriftList().isEmpty());
+    assertFalse(request.isSetDomainThriftList());
+
+    // while a full snapshot leaves it out
+    request = reporter.buildReportDbRequest(endPoint, group, instanceId, (DbTableVersions) null);
+    assertFalse(request.isSetRoleThriftList());
+    assertEquals(3, request.getDomainThriftList().size());
+
+    // and the table stays empty after a restart
+    reporter.close();
+    reporter = new BackupDbReporterImpl(backupDBPath, 0);
+    assertEquals(DbTableVersions.EMPTY_TABLE_VERSION,
+        reporter.getTableVersions().get(DbTableName.ROLE));
+    reporter.close();
   }
 
   @Test
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package py.utils;
+
+import java.util.concurrent.CountDownLatch;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import py.test.TestBase;
+
+/**
+ * uuid throughput with many threads generating at the same time, the shared counter of
+ * {@link BroadcastLogUuidGenerator} against the per thread blocks of
+ * {@link PartitionedBroadcastLogUuidGenerator}.
+ */
+public class BroadcastLogUuidGeneratorPerformanceTester extends TestBase {
+  private static final Logger logger = LoggerFactory
+      .getLogger(BroadcastLogUuidGeneratorPerformanceTester.class);
+  private static final int COUNT_PER_THREAD = 5000000;
+  private static final int[] THREAD_COUNTS = {1, 4, 16};
+
+  private static volatile long sink;
+
+  private void run(String name, BroadcastLogUuidGenerator generator, int threadCount)
+      throws Exception {
+    CountDownLatch startLatch = new CountDownLatch(1);
+    Thread[] threads = new Thread[threadCount];
+    for (int t = 0; t < threadCount; t++) {
+      threads[t] = new Thread(() -> {
+        try {
+          startLatch.await();
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+        long last = 0;
+        for (int i = 0; i < COUNT_PER_THREAD; i++) {
+          last = generator.generateUuid();
+        }
+        sink = last;
+      });
+      threads[t].start();
+    }
+
+    long start = System.nanoTime();
+    startLatch.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    long costNs = System.nanoTime() - start;
+    logger.debug("{} with {} threads: {} uuids/s", name, threadCount,
+        (long) threadCount * COUNT_PER_THREAD * 1000000000L / costNs);
+  }
+
+  @Test
+  public void test() throws Exception {
+    for (int round = 0; round < 3; round++) {
+      logger.debug("-------round {}---------", round);
+      for (int threadCount : THREAD_COUNTS) {
+        run("shared counter", new BroadcastLogUuidGenerator() {
+          @Override
+          public long randomWatchDog() {
+            return 1;
+          }
+        }, threadCount);
+        run("partitioned", new PartitionedBroadcastLogUuidGenerator() {
+          @Override
+          public long randomWatchDog() {
+            return 1;
+          }
+        }, threadCount);
+      }
+    }
+  }
+}
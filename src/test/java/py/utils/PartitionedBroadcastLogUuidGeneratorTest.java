@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package py.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Test;
+import py.test.TestBase;
+
+public class PartitionedBroadcastLogUuidGeneratorTest extends TestBase {
+  private static final int THREAD_COUNT = 8;
+
+  @Test
+  public void sameSequenceAsSharedCounterInOneThread() {
+    // starting close to the maximum of the lower part to wrap around
+    long highVal = 0x1234;
+    long lowerVal = 0xffffL - 100;
+    BroadcastLogUuidGenerator shared = new BroadcastLogUuidGenerator(48, 16, highVal, lowerVal) {
+      @Override
+      public long randomWatchDog() {
+        return 0;
+      }
+    };
+    PartitionedBroadcastLogUuidGenerator partitioned = new PartitionedBroadcastLogUuidGenerator(
+        48, 16, highVal, lowerVal, 64) {
+      @Override
+      public long randomWatchDog() {
+        return 0;
+      }
+    };
+
+    long lastUuid = partitioned.generateUuid();
+    assertEquals(shared.generateUuid(), lastUuid);
+    for (int i = 0; i < 1000; i++) {
+      long uuid = partitioned.generateUuid();
+      assertEquals(shared.generateUuid(), uuid);
+      assertEquals(highVal, partitioned.parseHighPartial(uuid));
+      assertEquals((lowerVal + i + 2) & 0xffffL, partitioned.parseLowerPartial(uuid));
+      assertTrue(partitioned.compare(uuid, lastUuid) > 0);
+      lastUuid = uuid;
+    }
+  }
+
+  @Test
+  public void uniqueAcrossThreads() throws Exception {
+    // 8 threads almost use up the 2^20 values of the lower part
+    final int countPerThread = 120000;
+    final PartitionedBroadcastLogUuidGenerator generator = new PartitionedBroadcastLogUuidGenerator(
+        44, 20, 100) {
+      @Override
+      public long randomWatchDog() {
+        return 7;
+      }
+    };
+
+    final long[][] uuids = new long[THREAD_COUNT][countPerThread];
+    final CountDownLatch startLatch = new CountDownLatch(1);
+    Thread[] threads = new Thread[THREAD_COUNT];
+    for (int t = 0; t < THREAD_COUNT; t++) {
+      final long[] threadUuids = uuids[t];
+      threads[t] = new Thread(() -> {
+        try {
+          startLatch.await();
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+        for (int i = 0; i < countPerThread; i++) {
+          threadUuids[i] = generator.generateUuid();
+        }
+      });
+      threads[t].start();
+    }
+    startLatch.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    long[] all = new long[THREAD_COUNT * countPerThread];
+    for (int t = 0; t < THREAD_COUNT; t++) {
+      // the lower part does not wrap around here, so the uuids of a thread just increase
+      for (int i = 1; i < countPerThread; i++) {
+        assertTrue(generator.parseLowerPartial(uuids[t][i])
+            > generator.parseLowerPartial(uuids[t][i - 1]));
+      }
+      System.arraycopy(uuids[t], 0, all, t * countPerThread, countPerThread);
+    }
+    Arrays.sort(all);
+    for (int i = 0; i < all.length; i++) {
+      assertEquals(7, generator.parseHighPartial(all[i]));
+      if (i > 0) {
+        assertTrue("duplicated uuid " + all[i], all[i] != all[i - 1]);
+      }
+    }
+  }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package py.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import py.netty.datanode.PyReadResponse;
+import py.proto.Broadcastlog.PbBroadcastLog;
+import py.proto.Broadcastlog.PbBroadcastLogStatus;
+import py.proto.Broadcastlog.PbIoUnitResult;
+import py.proto.Broadcastlog.PbReadResponse;
+import py.proto.Broadcastlog.PbReadResponseUnit;
+import py.test.TestBase;
+
+public class ReadMergeEngineTest extends TestBase {
+  private static final int PAGE_SIZE = 8 * 1024;
+
+  private final List<ByteBuf> buffers = new ArrayList<>();
+
+  private static PbBroadcastLog log(long logId, long offset, int length) {
+    return PbBroadcastLog.newBuilder().setLogUuid(logId * 31).setLogId(logId).setOffset(offset)
+        .setLength(length).setChecksum(0).setLogStatus(PbBroadcastLogStatus.COMMITTED).build();
+  }
+
+  private static PbReadResponseUnit.Builder unit(long offset, int length, PbIoUnitResult result) {
+    return PbReadResponseUnit.newBuilder().setOffset(offset).setLength(length).setChecksum(0)
+        .setResult(result);
+  }
+
+  /**
+   * a response whose ok units are filled with the given byte.
+   */
+  private PyReadResponse response(long pclId, byte fill, PbReadResponseUnit... units) {
+    PbReadResponse.Builder builder = PbReadResponse.newBuilder().setRequestId(1L)
+        .setPclId(pclId);
+    int dataLength = 0;
+    for (PbReadResponseUnit unit : units) {
+      builder.addResponseUnits(unit);
+      if (unit.getResult() == PbIoUnitResult.OK) {
+        dataLength += unit.getLength();
+      }
+    }
+    ByteBuf data = Unpooled.buffer(dataLength);
+    for (int i = 0; i < dataLength; i++) {
+      data.writeByte(fill);
+    }
+    buffers.add(data);
+    return new PyReadResponse(builder.build(), data);
+  }
+
+  private void assertAllReleased() {
+    for (ByteBuf buffer : buffers) {
+      assertEquals(0, buffer.refCnt());
+    }
+  }
+
+  @Test
+  public void newerLogWinsAndBaseKeepsTheRest() {
+    PyReadResponse other = response(5, (byte) 2, unit(PAGE_SIZE, PAGE_SIZE, PbIoUnitResult.OK)
+        .addLogsToMerge(log(15, PAGE_SIZE + 50, 100))
+        .addLogsToMerge(log(11, PAGE_SIZE + 120, 180)).build());
+    PyReadResponse base = response(6, (byte) 1, unit(PAGE_SIZE, PAGE_SIZE, PbIoUnitResult.OK)
+        .addLogsToMerge(log(12, PAGE_SIZE, 100)).build());
+
+    PyReadResponse merged = ReadMergeEngine.merge(new PyReadResponse[]{other, base}, PAGE_SIZE);
+    assertNotNull(merged);
+    assertEquals(PbIoUnitResult.MERGE_OK, merged.getMetadata().getResponseUnits(0).getResult());
+    assertEquals(6, merged.getMetadata().getPclId());
+
+    ByteBuf data = merged.getResponseUnitData(0);
+    assertEquals(PAGE_SIZE, data.readableBytes());
+    for (int i = 0; i < PAGE_SIZE; i++) {
+      int expected = i >= 50 && i < 300 ? 2 : 1;
+      assertEquals("offset " + i, expected, data.getByte(data.readerIndex() + i));
+    }
+    data.release();
+
+    // the data is composed of slices, the base data is not written
+    ByteBuf baseData = base.getResponseUnitDataWithoutRetain(0);
+    for (int i = 0; i < PAGE_SIZE; i++) {
+      assertEquals(1, baseData.getByte(baseData.readerIndex() + i));
+    }
+
+    merged.release();
+    assertAllReleased();
+  }
+
+  @Test
+  public void unitIsReadFromTheOnlyOkResponse() {
+    PyReadResponse first = response(6, (byte) 1,
+        unit(0, 512, PbIoUnitResult.OK).build(),
+        unit(PAGE_SIZE, 512, PbIoUnitResult.FREE).build(),
+        unit(2 * PAGE_SIZE, 512, PbIoUnitResult.FREE).build(),
+        unit(3 * PAGE_SIZE, 512, PbIoUnitResult.OK).build());
+    PyReadResponse second = response(5, (byte) 2,
+        unit(0, 512, PbIoUnitResult.FREE).build(),
+        unit(PAGE_SIZE, 512, PbIoUnitResult.OK).build(),
+        unit(2 * PAGE_SIZE, 512, PbIoUnitResult.FREE).build(),
+        unit(3 * PAGE_SIZE, 512, PbIoUnitResult.MERGE_FAIL).build());
+
+    PyReadResponse merged = ReadMergeEngine.merge(new PyReadResponse[]{first, second}, PAGE_SIZE);
+    PbReadResponse metadata = merged.getMetadata();
+    assertEquals(PbIoUnitResult.OK, metadata.getResponseUnits(0).getResult());
+    assertEquals(PbIoUnitResult.OK, metadata.getResponseUnits(1).getResult());
+    assertEquals(PbIoUnitResult.FREE, metadata.getResponseUnits(2).getResult());
+    assertEquals(PbIoUnitResult.MERGE_FAIL, metadata.getResponseUnits(3).getResult());
+
+    ByteBuf data = merged.getResponseUnitData(0);
+    assertEquals(1, data.getByte(data.readerIndex()));
+    data.release();
+    data = merged.getResponseUnitData(1);
+    assertEquals(2, data.getByte(data.readerIndex()));
+    data.release();
+    assertNull(merged.getResponseUnitData(3));
+
+    merged.release();
+    assertAllReleased();
+  }
+
+  @Test
+  public void mergeMoreThanTwoResponsesLikePaintingByteByByte() {
+    Random random = new Random(7);
+    for (int round = 0; round < 200; round++) {
+      buffers.clear();
+      int responseCount = 2 + random.nextInt(3);
+      int unitOffsetInPage = random.nextInt(4) * 512;
+      int unitLength = PAGE_SIZE - unitOffsetInPage - random.nextInt(4) * 512;
+      long unitOffset = 3L * PAGE_SIZE + unitOffsetInPage;
+
+      // every log is held by one or more responses
+      int logCount = random.nextInt(40);
+      List<List<PbBroadcastLog>> logsOfResponses = new ArrayList<>();
+      for (int r = 0; r < responseCount; r++) {
+        logsOfResponses.add(new ArrayList<>());
+      }
+      long[] logIds = new long[logCount];
+      int[] logStarts = new int[logCount];
+      int[] logEnds = new int[logCount];
+      boolean[][] held = new boolean[logCount][responseCount];
+      for (int l = 0; l < logCount; l++) {
+        logIds[l] = 100 + l;
+        int start = random.nextInt(PAGE_SIZE);
+        int length = 1 + random.nextInt(2048);
+        logStarts[l] = start - unitOffsetInPage;
+        logEnds[l] = logStarts[l] + length;
+        PbBroadcastLog log = log(logIds[l], 3L * PAGE_SIZE + start, length);
+        for (int r = 0; r < responseCount; r++) {
+          if (random.nextInt(3) == 0) {
+            held[l][r] = true;
+          }
+        }
+        held[l][random.nextInt(responseCount)] = true;
+        for (int r = 0; r < responseCount; r++) {
+          if (held[l][r]) {
+            logsOfResponses.get(r).add(log);
+          }
+        }
+      }
+
+      PyReadResponse[] responses = new PyReadResponse[responseCount];
+      int base = random.nextInt(responseCount);
+      for (int r = 0; r < responseCount; r++) {
+        PbReadResponseUnit.Builder unit = unit(unitOffset, unitLength, PbIoUnitResult.OK);
+        // the logs are not sorted in a response
+        List<PbBroadcastLog> logs = logsOfResponses.get(r);
+        for (int l = logs.size() - 1; l >= 0; l--) {
+          unit.addLogsToMerge(logs.get(l));
+        }
+        responses[r] = response(r == base ? 10 : 5, (byte) (r + 1), unit.build());
+      }
+
+      PyReadResponse merged = ReadMergeEngine.merge(responses, PAGE_SIZE);
+      ByteBuf data = merged.getResponseUnitData(0);
+      assertEquals(unitLength, data.readableBytes());
+      for (int i = 0; i < unitLength; i++) {
+        // the newest log covering the byte, from the base if the base has it
+        int expected = base;
+        long newest = -1;
+        for (int l = 0; l < logCount; l++) {
+          if (logStarts[l] <= i && i < logEnds[l] && logIds[l] > newest) {
+            newest = logIds[l];
+            expected = base;
+            if (!held[l][base]) {
+              for (int r = 0; r < responseCount; r++) {
+                if (held[l][r]) {
+                  expected = r;
+                  break;
+                }
+              }
+            }
+          }
+        }
+        assertEquals("round " + round + " offset " + i, expected + 1,
+            data.getByte(data.readerIndex() + i));
+      }
+      data.release();
+      merged.release();
+      assertAllReleased();
+    }
+  }
+
+  @Test
+  public void responsesWithDifferentUnitsAreReleased() {
+    PyReadResponse first = response(6, (byte) 1, unit(0, 512, PbIoUnitResult.OK).build());
+    PyReadResponse second = response(5, (byte) 2, unit(0, 512, PbIoUnitResult.OK).build(),
+        unit(PAGE_SIZE, 512, PbIoUnitResult.OK).build());
+
+    assertNull(ReadMergeEngine.merge(new PyReadResponse[]{first, second}, PAGE_SIZE));
+    assertAllReleased();
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package py.utils;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.util.Random;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import py.netty.datanode.PyReadResponse;
+import py.proto.Broadcastlog.PbBroadcastLog;
+import py.proto.Broadcastlog.PbBroadcastLogStatus;
+import py.proto.Broadcastlog.PbIoUnitResult;
+import py.proto.Broadcastlog.PbReadResponse;
+import py.proto.Broadcastlog.PbReadResponseUnit;
+import py.test.TestBase;
+
+/**
+ * compare the per read cost of merging the responses of two secondaries with {@link
+ * ReadMergeHelper} against {@link ReadMergeEngine}, for a few patterns of the logs to merge.
+ */
+public class ReadMergePerformanceTester extends TestBase {
+  private static final Logger logger = LoggerFactory.getLogger(ReadMergePerformanceTester.class);
+  private static final int PAGE_SIZE = 8 * 1024;
+  private static final int UNIT_COUNT = 16;
+  private static final int COUNT = 20000;
+
+  private static PbBroadcastLog log(long logId, long offset, int length) {
+    return PbBroadcastLog.newBuilder().setLogUuid(logId * 31).setLogId(logId).setOffset(offset)
+        .setLength(length).setChecksum(0).setLogStatus(PbBroadcastLogStatus.COMMITTED).build();
+  }
+
+  private static PbReadResponseUnit.Builder unit(int index) {
+    return PbReadResponseUnit.newBuilder().setOffset((long) index * PAGE_SIZE)
+        .setLength(PAGE_SIZE).setChecksum(0).setResult(PbIoUnitResult.OK);
+  }
+
+  /**
+   * the metadata of the two responses, in each page the logs at the given page offsets are split
+   * between them.
+   */
+  private static PbReadResponse[] metadata(Random random, int logsPerPage, int logLength,
+      boolean otherHasTheNewest) {
+    PbReadResponse.Builder base = PbReadResponse.newBuilder().setRequestId(1L).setPclId(10);
+    PbReadResponse.Builder other = PbReadResponse.newBuilder().setRequestId(1L).setPclId(9);
+    long logId = 1000;
+    for (int i = 0; i < UNIT_COUNT; i++) {
+      PbReadResponseUnit.Builder baseUnit = unit(i);
+      PbReadResponseUnit.Builder otherUnit = unit(i);
+      for (int l = 0; l < logsPerPage; l++) {
+        int offsetInPage = random.nextInt((PAGE_SIZE - logLength) / 512 + 1) * 512;
+        PbBroadcastLog log = log(logId++, (long) i * PAGE_SIZE + offsetInPage, logLength);
+        boolean toOther = otherHasTheNewest ? l >= logsPerPage / 2 : random.nextBoolean();
+        if (toOther) {
+          otherUnit.addLogsToMerge(log);
+        } else {
+          baseUnit.addLogsToMerge(log);
+        }
+      }
+      base.addResponseUnits(baseUnit.build());
+      other.addResponseUnits(otherUnit.build());
+    }
+    return new PbReadResponse[]{base.build(), other.build()};
+  }
+
+  private static long run(PbReadResponse[] metadata, ByteBuf[] data, boolean engine) {
+    long checksum = 0;
+    long time = System.nanoTime();
+    for (int n = 0; n < COUNT; n++) {
+      PyReadResponse[] responses = {new PyReadResponse(metadata[0], data[0].retain()),
+          new PyReadResponse(metadata[1], data[1].retain())};
+      PyReadResponse merged = engine
+          ? ReadMergeEngine.merge(responses, PAGE_SIZE)
+          : ReadMergeHelper.merge(responses, PAGE_SIZE);
+      for (int i = 0; i < UNIT_COUNT; i++) {
+        ByteBuf unitData = merged.getResponseUnitData(i);
+        checksum += unitData.getByte(unitData.readerIndex() + (n + i) % PAGE_SIZE);
+        unitData.release();
+      }
+      merged.release();
+    }
+    time = System.nanoTime() - time;
+    logger.debug("checksum {}", checksum);
+    return time;
+  }
+
+  @Test
+  public void testMergePerformance() {
+    Random random = new Random(1);
+    ByteBuf[] data = new ByteBuf[2];
+    for (int r = 0; r < data.length; r++) {
+      data[r] = Unpooled.directBuffer(UNIT_COUNT * PAGE_SIZE);
+      for (int i = 0; i < UNIT_COUNT * PAGE_SIZE; i++) {
+        data[r].writeByte(r + 1);
+      }
+    }
+
+    String[] patterns = {"sparse", "overwritten", "lagging secondary"};
+    PbReadResponse[][] metadata = {
+        // a few small writes per page
+        metadata(random, 4, 512, false),
+        // a hot page rewritten many times, the logs overlapping each other
+        metadata(random, 64, 2048, false),
+        // the other secondary has the newer half of the logs
+        metadata(random, 16, 1024, true)};
+
+    for (int round = 0; round < 5; round++) {
+      logger.debug("-------round {}---------", round);
+      for (int p = 0; p < patterns.length; p++) {
+        long helperNanos = run(metadata[p], data, false);
+        long engineNanos = run(metadata[p], data, true);
+        logger.debug("{}: helper {} ns/read, engine {} ns/read", patterns[p],
+            helperNanos / COUNT, engineNanos / COUNT);
+      }
+    }
+
+    for (ByteBuf buffer : data) {
+      buffer.release();
+    }
+  }
+}
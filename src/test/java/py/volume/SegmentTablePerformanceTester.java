@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package py.volume;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import py.archive.segment.SegId;
+import py.archive.segment.SegmentMetadata;
+import py.test.TestBase;
+
+/**
+ * compare the memory footprint, the iteration and the lookup cost of the array backed segment
+ * table against the concurrent hash map it replaced, for a volume with one million segments.
+ *
+ * <p>All slots share one segment, so only the memory of the tables themselves is measured.
+ */
+public class SegmentTablePerformanceTester extends TestBase {
+  private static final Logger logger = LoggerFactory
+      .getLogger(SegmentTablePerformanceTester.class);
+  private static final int SEGMENT_COUNT = 1000000;
+  private static final int LOOKUP_COUNT = 10000000;
+  private static final SegmentMetadata SEGMENT = new SegmentMetadata(new SegId(1L, 0), 0);
+
+  private static long usedMemory() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  private static Map<Integer, SegmentMetadata> fill(Map<Integer, SegmentMetadata> table) {
+    for (int i = 0; i < SEGMENT_COUNT; i++) {
+      table.put(i, SEGMENT);
+    }
+    return table;
+  }
+
+  private static long footprint(boolean dense) {
+    long before = usedMemory();
+    Map<Integer, SegmentMetadata> table = fill(
+        dense ? new SegmentTable() : new ConcurrentHashMap<>());
+    long footprint = usedMemory() - before;
+    assertEquals(SEGMENT_COUNT, table.size());
+    return footprint;
+  }
+
+  private static long iterateHashMap(Map<Integer, SegmentMetadata> table) {
+    long time = System.nanoTime();
+    long sum = 0;
+    for (Map.Entry<Integer, SegmentMetadata> entry : table.entrySet()) {
+      sum += entry.getKey() + entry.getValue().getIndex();
+    }
+    time = System.nanoTime() - time;
+    logger.debug("checksum {}", sum);
+    return time;
+  }
+
+  private static long iterateSegmentTable(SegmentTable table) {
+    long time = System.nanoTime();
+    long[] sum = new long[1];
+    table.forEachSegment((segment, segIndex) -> sum[0] += segIndex + segment.getIndex());
+    time = System.nanoTime() - time;
+    logger.debug("checksum {}", sum[0]);
+    return time;
+  }
+
+  private static long lookupHashMap(Map<Integer, SegmentMetadata> table) {
+    long time = System.nanoTime();
+    long sum = 0;
+    for (int i = 0; i < LOOKUP_COUNT; i++) {
+      sum += table.get((int) (i * 7919L % SEGMENT_COUNT)).getIndex();
+    }
+    time = System.nanoTime() - time;
+    logger.debug("checksum {}", sum);
+    return time;
+  }
+
+  private static long lookupSegmentTable(SegmentTable table) {
+    long time = System.nanoTime();
+    long sum = 0;
+    for (int i = 0; i < LOOKUP_COUNT; i++) {
+      sum += table.get((int) (i * 7919L % SEGMENT_COUNT)).getIndex();
+    }
+    time = System.nanoTime() - time;
+    logger.debug("checksum {}", sum);
+    return time;
+  }
+
+  @Test
+  public void testFootprint() {
+    for (int round = 0; round < 3; round++) {
+      logger.debug("-------round {}---------", round);
+      long hashMapBytes = footprint(false);
+      long segmentTableBytes = footprint(true);
+      logger.debug("{} segments: hash map {} bytes/segment, segment table {} bytes/segment",
+          SEGMENT_COUNT, (double) hashMapBytes / SEGMENT_COUNT,
+          (double) segmentTableBytes / SEGMENT_COUNT);
+    }
+  }
+
+  @Test
+  public void testIterationAndLookup() {
+    Map<Integer, SegmentMetadata> hashMap = fill(new ConcurrentHashMap<>());
+    SegmentTable segmentTable = (SegmentTable) fill(new SegmentTable());
+
+    for (int round = 0; round < 5; round++) {
+      logger.debug("-------round {}---------", round);
+      logger.debug("iterate: hash map {} ns/segment, segment table {} ns/segment",
+          (double) iterateHashMap(hashMap) / SEGMENT_COUNT,
+          (double) iterateSegmentTable(segmentTable) / SEGMENT_COUNT);
+      logger.debug("lookup: hash map {} ns/lookup, segment table {} ns/lookup",
+          (double) lookupHashMap(hashMap) / LOOKUP_COUNT,
+          (double) lookupSegmentTable(segmentTable) / LOOKUP_COUNT);
+    }
+  }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package py.volume;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.junit.Test;
+import py.archive.segment.SegId;
+import py.archive.segment.SegmentMetadata;
+import py.membership.SegmentMembership;
+import py.test.TestBase;
+import py.test.TestUtils;
+
+public class SegmentTableTest extends TestBase {
+  private static SegmentMetadata segment(int segIndex) {
+    return new SegmentMetadata(new SegId(1L, segIndex), segIndex);
+  }
+
+  @Test
+  public void testPutGetRemove() {
+    SegmentTable table = new SegmentTable();
+    SegmentMetadata segment = segment(3);
+
+    assertNull(table.put(3, segment));
+    assertSame(segment, table.get(3));
+    assertSame(segment, table.get(Integer.valueOf(3)));
+    assertTrue(table.containsKey(3));
+    assertNull(table.get(4));
+    assertNull(table.get(-1));
+    assertNull(table.get("3"));
+    assertEquals(1, table.size());
+
+    SegmentMetadata other = segment(3);
+    assertSame(segment, table.put(3, other));
+    assertEquals(1, table.size());
+
+    assertSame(other, table.remove(3));
+    assertNull(table.remove(3));
+    assertTrue(table.isEmpty());
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testNullSegment() {
+    new SegmentTable().put(0, null);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNegativeIndex() {
+    new SegmentTable().put(-1, segment(0));
+  }
+
+  @Test
+  public void testSparseAndExtended() {
+    SegmentTable table = new SegmentTable();
+    Map<Integer, SegmentMetadata> expected = new TreeMap<>();
+    // an extend segment table starts far from index 0, with holes between the extensions
+    int[] indexes = {10 * SegmentTable.CHUNK_SIZE + 5, 10 * SegmentTable.CHUNK_SIZE + 6,
+        SegmentTable.CHUNK_SIZE - 1, 0, 40 * SegmentTable.CHUNK_SIZE};
+    for (int segIndex : indexes) {
+      SegmentMetadata segment = segment(segIndex);
+      table.put(segIndex, segment);
+      expected.put(segIndex, segment);
+    }
+
+    assertEquals(expected, table);
+    assertEquals(expected.hashCode(), table.hashCode());
+    assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(table.keySet()));
+    assertEquals(new ArrayList<>(expected.values()), new ArrayList<>(table.values()));
+
+    List<Integer> walked = new ArrayList<>();
+    table.forEachSegment((segment, segIndex) -> {
+      assertSame(expected.get(segIndex), segment);
+      walked.add(segIndex);
+    });
+    assertEquals(new ArrayList<>(expected.keySet()), walked);
+  }
+
+  @Test
+  public void testIteratorRemoveAndSetValue() {
+    SegmentTable table = new SegmentTable();
+    for (int i = 0; i < 3 * SegmentTable.CHUNK_SIZE; i++) {
+      table.put(i, segment(i));
+    }
+
+    Iterator<Map.Entry<Integer, SegmentMetadata>> iterator = table.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<Integer, SegmentMetadata> entry = iterator.next();
+      if (entry.getKey() % 2 == 0) {
+        iterator.remove();
+      } else {
+        entry.setValue(segment(entry.getKey()));
+      }
+      // changing the table while iterating is allowed
+      table.put(entry.getKey() + 1, segment(entry.getKey() + 1));
+    }
+    assertEquals(3 * SegmentTable.CHUNK_SIZE / 2 + 1, table.size());
+    assertFalse(table.containsKey(0));
+    assertEquals(1, table.get(1).getIndex());
+  }
+
+  @Test
+  public void testCopyAndClear() {
+    Map<Integer, SegmentMetadata> segments = new HashMap<>();
+    for (int i = 0; i < 100; i++) {
+      segments.put(i * 37, segment(i * 37));
+    }
+    SegmentTable table = new SegmentTable(segments);
+    assertEquals(segments, table);
+
+    table.clear();
+    assertTrue(table.isEmpty());
+    assertNull(table.get(37));
+    assertFalse(table.values().iterator().hasNext());
+  }
+
+  @Test
+  public void testVolumeSegmentsInOrder() {
+    VolumeMetadata volume = new VolumeMetadata(1L, 1L, 5000, 1, VolumeType.REGULAR, 1L, 1L);
+    SegmentMembership membership = TestUtils.generateMembership();
+    for (int i = 4999; i >= 0; i--) {
+      volume.addSegmentMetadata(segment(i), membership);
+    }
+
+    List<SegmentMetadata> segments = volume.getSegments();
+    assertEquals(5000, segments.size());
+    for (int i = 0; i < segments.size(); i++) {
+      assertEquals(i, segments.get(i).getIndex());
+      assertSame(segments.get(i), volume.getSegmentByIndex(i));
+    }
+
+    Map<Integer, SegmentMetadata> replaced = new HashMap<>();
+    replaced.put(7, segment(7));
+    volume.setSegmentTable(replaced);
+    assertTrue(volume.getSegmentTable() instanceof SegmentTable);
+    assertEquals(replaced, volume.getSegmentTable());
+  }
+}
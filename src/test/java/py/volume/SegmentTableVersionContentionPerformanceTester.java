@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package py.volume;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import py.archive.segment.SegId;
+import py.archive.segment.SegmentMetadata;
+import py.archive.segment.SegmentVersion;
+import py.membership.SegmentMembership;
+import py.test.TestBase;
+import py.test.TestUtils;
+
+/**
+ * compare readers getting a consistent view of the memberships under the volume lock against
+ * readers on the published segment table versions, while a writer keeps updating memberships of a
+ * volume with 100k segments.
+ */
+public class SegmentTableVersionContentionPerformanceTester extends TestBase {
+  private static final Logger logger = LoggerFactory
+      .getLogger(SegmentTableVersionContentionPerformanceTester.class);
+  private static final int SEGMENT_COUNT = 100000;
+  private static final int READER_COUNT = 8;
+  // how many segments a reader looks at in one consistent view
+  private static final int SEGMENTS_PER_READ = 16;
+  private static final long UPDATE_INTERVAL_NS = TimeUnit.MICROSECONDS.toNanos(20);
+  private static final long DURATION_MS = 2000;
+
+  private static VolumeMetadata buildVolume() {
+    VolumeMetadata volume = new VolumeMetadata(1L, 1L, SEGMENT_COUNT, 1, VolumeType.REGULAR, 1L,
+        1L);
+    SegmentMembership membership = TestUtils.generateMembership();
+    for (int i = 0; i < SEGMENT_COUNT; i++) {
+      volume.addSegmentMetadata(new SegmentMetadata(new SegId(1L, i), i), membership);
+    }
+    return volume;
+  }
+
+  private static void readLocked(VolumeMetadata volume, AtomicBoolean stop, AtomicLong reads) {
+    long count = 0;
+    long sum = 0;
+    while (!stop.get()) {
+      int from = ThreadLocalRandom.current().nextInt(SEGMENT_COUNT - SEGMENTS_PER_READ);
+      synchronized (volume) {
+        for (int i = from; i < from + SEGMENTS_PER_READ; i++) {
+          sum += volume.getMembership(i).getSegmentVersion().getEpoch();
+        }
+      }
+      count++;
+    }
+    reads.addAndGet(count);
+    logger.debug("checksum {}", sum);
+  }
+
+  private static void readVersioned(VolumeMetadata volume, AtomicBoolean stop,
+      AtomicLong reads) {
+    long count = 0;
+    long sum = 0;
+    while (!stop.get()) {
+      int from = ThreadLocalRandom.current().nextInt(SEGMENT_COUNT - SEGMENTS_PER_READ);
+      SegmentTableVersion version = volume.getSegmentTableVersion();
+      for (int i = from; i < from + SEGMENTS_PER_READ; i++) {
+        sum += version.getMembership(i).getSegmentVersion().getEpoch();
+      }
+      count++;
+    }
+    reads.addAndGet(count);
+    logger.debug("checksum {}", sum);
+  }
+
+  private static void write(VolumeMetadata volume, boolean locked, AtomicBoolean stop,
+      AtomicLong updates, AtomicLong updateNanos) {
+    List<SegmentMembership> memberships = new ArrayList<>();
+    for (int epoch = 1; epoch <= 8; epoch++) {
+      memberships.add(TestUtils.generateMembership(new SegmentVersion(epoch, 0)));
+    }
+    long count = 0;
+    long nanos = 0;
+    while (!stop.get()) {
+      int segIndex = (int) (count % SEGMENT_COUNT);
+      SegmentMembership membership = memberships.get((int) (count % memberships.size()));
+      long time = System.nanoTime();
+      if (locked) {
+        synchronized (volume) {
+          volume.updateMembership(segIndex, membership);
+        }
+      } else {
+        volume.updateMembership(segIndex, membership);
+      }
+      nanos += System.nanoTime() - time;
+      count++;
+      LockSupport.parkNanos(UPDATE_INTERVAL_NS);
+    }
+    updates.addAndGet(count);
+    updateNanos.addAndGet(nanos);
+  }
+
+  private static void run(String mode, VolumeMetadata volume, boolean locked)
+      throws InterruptedException {
+    AtomicBoolean stop = new AtomicBoolean(false);
+    AtomicLong reads = new AtomicLong();
+    AtomicLong updates = new AtomicLong();
+    AtomicLong updateNanos = new AtomicLong();
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < READER_COUNT; i++) {
+      threads.add(new Thread(() -> {
+        if (locked) {
+          readLocked(volume, stop, reads);
+        } else {
+          readVersioned(volume, stop, reads);
+        }
+      }, "reader-" + i));
+    }
+    threads.add(new Thread(() -> write(volume, locked, stop, updates, updateNanos), "writer"));
+
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    Thread.sleep(DURATION_MS);
+    stop.set(true);
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    logger.debug("{}: {} reads/s over {} readers, {} updates/s, {} ns/update", mode,
+        reads.get() * 1000 / DURATION_MS, READER_COUNT, updates.get() * 1000 / DURATION_MS,
+        updates.get() == 0 ? 0 : updateNanos.get() / updates.get());
+  }
+
+  @Test
+  public void testContention() throws InterruptedException {
+    VolumeMetadata volume = buildVolume();
+    assertEquals(SEGMENT_COUNT, volume.getSegmentTableVersion().getSegmentCount());
+
+    for (int round = 0; round < 3; round++) {
+      logger.debug("-------round {}---------", round);
+      run("locked", volume, true);
+      run("versioned", volume, false);
+    }
+    assertEquals(SEGMENT_COUNT, volume.getSegmentTableVersion().getSegmentCount());
+  }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2022-2022. PengYunNetWork
+ *
+ * This program is free software: you can use, redistribute, and/or modify it
+ * under the terms of the GNU Affero General Public License, version 3 or later ("AGPL"),
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with
+ *  this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package py.volume;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import py.archive.segment.SegId;
+import py.archive.segment.SegmentMetadata;
+import py.archive.segment.SegmentVersion;
+import py.membership.SegmentMembership;
+import py.test.TestBase;
+import py.test.TestUtils;
+
+public class SegmentTableVersionTest extends TestBase {
+  private static final int SEGMENT_COUNT = 3 * SegmentTableVersion.CHUNK_SIZE + 7;
+
+  private static SegmentMembership membership(int epoch) {
+    return TestUtils.generateMembership(new SegmentVersion(epoch, 0), 1L, 2L, 3L);
+  }
+
+  private static VolumeMetadata buildVolume(SegmentMembership membership) {
+    VolumeMetadata volume = TestUtils.generateVolumeMetadata();
+    volume.setSegmentSize(1);
+    volume.setVolumeSize(SEGMENT_COUNT);
+    for (int i = 0; i < SEGMENT_COUNT; i++) {
+      volume.addSegmentMetadata(new SegmentMetadata(new SegId(volume.getVolumeId(), i), i),
+          membership);
+    }
+    return volume;
+  }
+
+  @Test
+  public void testVersionNotChangedByLaterUpdates() {
+    SegmentMembership first = membership(1);
+    VolumeMetadata volume = buildVolume(first);
+    SegmentTableVersion before = volume.getSegmentTableVersion();
+    assertEquals(SEGMENT_COUNT, before.getSegmentCount());
+
+    int segIndex = SegmentTableVersion.CHUNK_SIZE + 3;
+    SegmentMembership second = membership(2);
+    volume.updateMembership(segIndex, second);
+    SegmentTableVersion after = volume.getSegmentTableVersion();
+
+    assertNotSame(before, after);
+    assertEquals(before.getVersion() + 1, after.getVersion());
+    assertSame(first, before.getMembership(segIndex));
+    assertSame(second, after.getMembership(segIndex));
+    assertEquals(Arrays.asList(first, second), after.getMembershipHistory(segIndex));
+    assertEquals(SEGMENT_COUNT, after.getSegmentCount());
+    assertSame(volume.getSegmentByIndex(segIndex), after.getSegment(segIndex));
+    assertSame(volume.getMembership(segIndex), after.getMembership(segIndex));
+  }
+
+  @Test
+  public void testMembershipHistoryIsLimited() {
+    VolumeMetadata volume = buildVolume(membership(1));
+    for (int epoch = 2; epoch <= 5; epoch++) {
+      volume.updateMembership(0, membership(epoch));
+    }
+
+    List<SegmentMembership> history = volume.getSegmentTableVersion().getMembershipHistory(0);
+    assertEquals(3, history.size());
+    assertEquals(3, history.get(0).getSegmentVersion().getEpoch());
+    assertEquals(5, history.get(2).getSegmentVersion().getEpoch());
+  }
+
+  @Test
+  public void testSegmentsInIndexOrder() {
+    VolumeMetadata volume = buildVolume(membership(1));
+
+    List<SegmentMetadata> segments = volume.getSegmentTableVersion().getSegments();
+    assertEquals(SEGMENT_COUNT, segments.size());
+    for (int i = 0; i < SEGMENT_COUNT; i++) {
+      assertEquals(i, segments.get(i).getIndex());
+    }
+    assertNull(volume.getSegmentTableVersion().getSegment(SEGMENT_COUNT));
+    assertNull(volume.getSegmentTableVersion().getSegment(-1));
+  }
+
+  @Test
+  public void testExtendSegments() {
+    VolumeMetadata volume = buildVolume(membership(1));
+    SegmentMembership extendMembership = membership(2);
+    volume.addExtendSegmentMetadata(
+        new SegmentMetadata(new SegId(volume.getVolumeId(), SEGMENT_COUNT), SEGMENT_COUNT),
+        extendMembership);
+
+    SegmentTableVersion version = volume.getSegmentTableVersion();
+    assertEquals(SEGMENT_COUNT, version.getSegmentCount());
+    assertNull(version.getSegment(SEGMENT_COUNT));
+    assertSame(extendMembership, version.getMembership(SEGMENT_COUNT));
+
+    volume.clearTheExtendSegmentTable(1);
+    version = volume.getSegmentTableVersion();
+    assertNull(version.getMembership(SEGMENT_COUNT));
+    assertEquals(SEGMENT_COUNT, version.getSegmentCount());
+
+    SegmentMetadata extendSegment = new SegmentMetadata(
+        new SegId(volume.getVolumeId(), SEGMENT_COUNT), SEGMENT_COUNT);
+    volume.addExtendSegmentMetadata(extendSegment, extendMembership);
+    volume.updateSegmentTableWhenExtendOk();
+    version = volume.getSegmentTableVersion();
+    assertEquals(SEGMENT_COUNT + 1, version.getSegmentCount());
+    assertSame(extendSegment, version.getSegment(SEGMENT_COUNT));
+  }
+
+  @Test
+  public void testSegmentTableChangedDirectly() {
+    SegmentMembership membership = membership(1);
+    VolumeMetadata volume = buildVolume(membership);
+    SegmentTableVersion before = volume.getSegmentTableVersion();
+
+    volume.getSegmentTable().remove(5);
+    volume.markAllSegmentsChanged();
+    SegmentTableVersion after = volume.getSegmentTableVersion();
+
+    assertEquals(SEGMENT_COUNT - 1, after.getSegmentCount());
+    assertNull(after.getSegment(5));
+    assertSame(membership, after.getMembership(5));
+    assertEquals(SEGMENT_COUNT, before.getSegmentCount());
+
+    volume.markAllSegmentsChanged();
+    assertSame(after, volume.getSegmentTableVersion());
+  }
+
+  @Test
+  public void testCopyStartsFromTheVersionOfItsSource() {
+    VolumeMetadata volume = buildVolume(membership(1));
+    VolumeMetadata copy = new VolumeMetadata().deepCopy(volume);
+    assertSame(volume.getSegmentTableVersion(), copy.getSegmentTableVersion());
+
+    SegmentMembership membership = membership(2);
+    copy.updateMembership(1, membership);
+    assertSame(membership, copy.getSegmentTableVersion().getMembership(1));
+    assertNotSame(membership, volume.getSegmentTableVersion().getMembership(1));
+  }
+
+  @Test
+  public void testSettingTheTableOfACopyLeavesItsSource() {
+    VolumeMetadata volume = buildVolume(membership(1));
+    VolumeMetadata copy = new VolumeMetadata().deepCopy(volume);
+    SegmentTableVersion before = volume.getSegmentTableVersion();
+
+    Map<Integer, SegmentMetadata> segmentTable = new HashMap<>(copy.getSegmentTable());
+    segmentTable.remove(5);
+    copy.setSegmentTable(segmentTable);
+    assertNull(copy.getSegmentTableVersion().getSegment(5));
+    assertSame(before, volume.getSegmentTableVersion());
+    assertNotNull(volume.getSegmentTableVersion().getSegment(5));
+
+    segmentTable = new HashMap<>(volume.getSegmentTable());
+    segmentTable.remove(6);
+    volume.setSegmentTable(segmentTable);
+    assertNotNull(copy.getSegmentTableVersion().getSegment(6));
+  }
+}
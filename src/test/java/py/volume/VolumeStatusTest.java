@@ -15,11 +15,14 @@
 package py.volume;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.util.Date;
+import java.util.HashMap;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import py.archive.segment.SegmentMetadata;
@@ -55,6 +58,7 @@ public class VolumeStatusTest extends TestBase {
    */
   @Before
   public void setUp() throws Exception {
+    VolumeMetadata.setSegmentStatusConsistencyCheck(true);
     volume = TestUtils.generateVolumeMetadata();
     //two segments
     volume.setVolumeSize(32);
@@ -75,6 +79,11 @@ public class VolumeStatusTest extends TestBase {
     secondaryUnit22 = seg2.getSegmentUnitMetadata(secondaryId2);
   }
 
+  @After
+  public void tearDown() {
+    VolumeMetadata.setSegmentStatusConsistencyCheck(false);
+  }
+
   /**
    * normal status transfer: From volume creating to dead.
    */
@@ -381,4 +390,54 @@ public class VolumeStatusTest extends TestBase {
 
     assertEquals(volumeTest.getVolumeStatus(), VolumeStatus.Dead);
   }
+
+  /**
+   * a segment unit timing out changes the volume status without any report.
+   */
+  @Test
+  public void testSegmentUnitTimeoutWithoutReport() throws InterruptedException {
+    volume.updateStatus();
+    assertTrue(volume.isVolumeAvailable());
+
+    long timeoutMs = InfoCenterConstants.getSegmentUnitReportTimeout() * 1000L;
+    primaryUnit1.setLastReported(System.currentTimeMillis() - timeoutMs + 500);
+    secondaryUnit11.setLastReported(System.currentTimeMillis() - timeoutMs + 500);
+    volume.updateStatus();
+    assertTrue(volume.isVolumeAvailable());
+    assertEquals(3, seg1.getSegmentUnitCount());
+
+    Thread.sleep(1000);
+    assertFalse(volume.isAllSegmentsAvailable());
+    assertEquals(1, seg1.getSegmentUnitCount());
+    volume.updateStatus();
+    assertEquals(VolumeStatus.Unavailable, volume.getVolumeStatus());
+
+    // the units report again
+    seg1.putSegmentUnitMetadata(primaryUnit1.getInstanceId(), primaryUnit1);
+    seg1.putSegmentUnitMetadata(secondaryUnit11.getInstanceId(), secondaryUnit11);
+    primaryUnit1.setLastReported(System.currentTimeMillis());
+    secondaryUnit11.setLastReported(System.currentTimeMillis());
+    volume.updateStatus();
+    assertTrue(volume.isVolumeAvailable());
+  }
+
+  /**
+   * segments only notify the volume they are in, a copy of it has to count on its own.
+   */
+  @Test
+  public void testCopyCountsOnItsOwn() {
+    VolumeMetadata copy = new VolumeMetadata().deepCopy(volume);
+    assertTrue(copy.isAllSegmentsAvailable());
+
+    primaryUnit1.setStatus(SegmentUnitStatus.Unknown);
+    secondaryUnit11.setStatus(SegmentUnitStatus.Broken);
+    assertFalse(copy.isAllSegmentsAvailable());
+    assertFalse(volume.isAllSegmentsAvailable());
+
+    // replacing the table of the source leaves the copy on the old one
+    volume.setSegmentTable(new HashMap<>());
+    assertFalse(copy.isAllSegmentsAvailable());
+    primaryUnit1.setStatus(SegmentUnitStatus.Primary);
+    assertTrue(copy.isAllSegmentsAvailable());
+  }
 }
@@ -20,12 +20,14 @@ import static org.junit.Assert.assertTrue;
 import java.time.LocalTime;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import org.apache.commons.lang.Validate;
 import org.junit.Test;
 import py.RequestResponseHelper;
 import py.exception.LimitTypeDismatchException;
 import py.exception.TimeSpanAlreadyExistException;
 import py.icshare.qos.IoLimitScheduler;
+import py.icshare.qos.TokenBucketIoLimitManager;
 import py.io.qos.IoLimitManager;
 import py.io.qos.IoLimitation;
 import py.io.qos.IoLimitationEntry;
@@ -93,6 +95,54 @@ public class IoLimitTest extends TestBase {
     }
   }
 
+  @Test
+  public void testBulkIoPermits() throws Exception {
+    TokenBucketIoLimitManager manager = new TokenBucketIoLimitManager();
+    IoLimitScheduler scheduler = new IoLimitScheduler(manager);
+    IoLimitationEntry entry = new IoLimitationEntry(1L, 100, 10, 1000, 100,
+        LocalTime.now(), LocalTime.now().plusSeconds(10));
+    manager.updateLimitationsAndOpen(entry);
+
+    // a bucket holds one second of weighted IOs
+    long writes = (long) entry.getUpperLimitedIops() * IoLimitScheduler.IO_WEIGHT
+        / IoLimitScheduler.WRITE_WEIGHT;
+    int taken = 0;
+    while (scheduler.tryGettingWriteIos(1, 0, TimeUnit.MILLISECONDS)) {
+      taken++;
+    }
+    assertTrue(taken >= writes && taken <= writes + 1);
+    assertTrue(scheduler.tryGettingWriteIos(1, 1, TimeUnit.SECONDS));
+
+    manager.close();
+    assertTrue(scheduler.tryGettingWriteIos(1000, 0, TimeUnit.MILLISECONDS));
+    assertTrue(scheduler.tryWriteThroughput(1L << 30, 0, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testPermitByPermitDeadline() {
+    SlowIoLimitManager manager = new SlowIoLimitManager();
+    IoLimitScheduler scheduler = new IoLimitScheduler(manager);
+
+    long startTime = System.currentTimeMillis();
+    assertFalse(scheduler.tryGettingIos(100, 100, TimeUnit.MILLISECONDS));
+    long spent = System.currentTimeMillis() - startTime;
+    assertTrue(manager.taken > 0 && manager.taken < 100);
+    // at most one permit is waited for after the deadline
+    assertTrue(spent < 100 + 2 * SlowIoLimitManager.PERMIT_MS);
+
+    manager.taken = 0;
+    assertFalse(scheduler.tryGettingIos(1, 0, TimeUnit.MILLISECONDS));
+    assertTrue(manager.taken == 0);
+    assertTrue(scheduler.tryGettingIos(2, 1, TimeUnit.SECONDS));
+    assertTrue(manager.taken == 2);
+
+    manager.open = false;
+    assertTrue(scheduler.tryGettingIos(100, 0, TimeUnit.MILLISECONDS));
+    scheduler.tryGettingIos(100);
+    // a closed manager gives no permits, waiting or not
+    assertTrue(manager.taken == 2);
+  }
+
   @Test
   public void testJudgeIoLimitationTimeInterleaving() {
     LocalTime startTime1 = LocalTime.now().plusSeconds(5);
@@ -147,6 +197,57 @@ public class IoLimitTest extends TestBase {
     return true;
   }
 
+  /**
+   * a limit manager which can only take permits one by one, each taking a while.
+   */
+  static class SlowIoLimitManager implements IoLimitManager {
+    static final long PERMIT_MS = 10;
+    private volatile boolean open = true;
+    private volatile int taken;
+
+    @Override
+    public void updateLimitationsAndOpen(IoLimitationEntry ioLimitationEntry) {
+      open = true;
+    }
+
+    @Override
+    public void close() {
+      open = false;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return open;
+    }
+
+    @Override
+    public IoLimitationEntry getIoLimitationEntry() {
+      return null;
+    }
+
+    @Override
+    public void tryGettingAnIo() {
+      try {
+        Thread.sleep(PERMIT_MS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      taken++;
+    }
+
+    @Override
+    public void tryThroughput(long size) {
+    }
+
+    @Override
+    public void slowDownExceptFor(long volumeId, int level) {
+    }
+
+    @Override
+    public void resetSlowLevel(long volumeId) {
+    }
+  }
+
   class DummyIoLimitManager implements IoLimitManager {
     private IoController thread;
 